@@ -8,7 +8,6 @@
 package microsoft.exchange.webservices.data;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.xml.stream.XMLStreamException;
@@ -50,9 +49,8 @@ class AbsoluteDateTransition extends TimeZoneTransition {
 
 		if (!result) {
 			if (reader.getLocalName().equals(XmlElementNames.DateTime)) {
-				SimpleDateFormat sdfin = new SimpleDateFormat(
-						"yyyy-MM-dd'T'HH:mm:ss");
-				this.dateTime = sdfin.parse(reader.readElementValue());
+				this.dateTime = EwsDateTimeFormat.parseLocalDateTime(reader
+						.readElementValue());
 
 				result = true;
 			}
@@ -0,0 +1,655 @@
+/**************************************************************************
+ * copyright file="AsyncExchangeService.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the AsyncExchangeService.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides asynchronous versions of the ExchangeService operations.
+ * Operations are queued and run on an executor, with at most
+ * getMaxConcurrentRequests() of them in flight at any time, so that a large
+ * fan-out is bounded by the connection pool of the service rather than by
+ * the number of threads of the caller.
+ */
+public final class AsyncExchangeService {
+
+	/** The service. */
+	private ExchangeService service;
+
+	/** The operations waiting for a free slot. */
+	private LinkedList<ServiceFuture<?>> pending =
+		new LinkedList<ServiceFuture<?>>();
+
+	/** The number of operations in flight. */
+	private int inFlight;
+
+	/** The maximum number of operations in flight. */
+	private int maxConcurrentRequests;
+
+	/** The executor, null until first used. */
+	private Executor executor;
+
+	/** Whether the executor was created by this instance. */
+	private boolean ownsExecutor;
+
+	/** Whether this instance has been shut down. */
+	private boolean shutdown;
+
+	/**
+	 * Initializes a new instance of the AsyncExchangeService class.
+	 *
+	 * @param service
+	 *            the service
+	 */
+	protected AsyncExchangeService(ExchangeService service) {
+		this.service = service;
+		this.maxConcurrentRequests = service.getMaxConnectionsPerRoute();
+	}
+
+	/**
+	 * Gets the service the operations are run against.
+	 *
+	 * @return the service
+	 */
+	public ExchangeService getService() {
+		return this.service;
+	}
+
+	/**
+	 * Gets the maximum number of operations in flight. Defaults to the
+	 * maximum number of connections per route of the service.
+	 *
+	 * @return the maximum number of operations in flight
+	 */
+	public synchronized int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests;
+	}
+
+	/**
+	 * Sets the maximum number of operations in flight.
+	 *
+	 * @param maxConcurrentRequests
+	 *            the maximum number of operations in flight
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		if (maxConcurrentRequests < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrentRequests must be greater than zero.");
+		}
+		synchronized (this) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			if (this.ownsExecutor) {
+				ThreadPoolExecutor pool = (ThreadPoolExecutor) this.executor;
+				if (maxConcurrentRequests > pool.getMaximumPoolSize()) {
+					pool.setMaximumPoolSize(maxConcurrentRequests);
+					pool.setCorePoolSize(maxConcurrentRequests);
+				} else {
+					pool.setCorePoolSize(maxConcurrentRequests);
+					pool.setMaximumPoolSize(maxConcurrentRequests);
+				}
+			}
+		}
+		this.dispatch();
+	}
+
+	/**
+	 * Sets the executor the operations are run on. The executor is not shut
+	 * down by this instance. By default a pool of daemon threads sized to
+	 * getMaxConcurrentRequests() is used.
+	 *
+	 * @param executor
+	 *            the executor
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		EwsUtilities.EwsAssert(executor != null,
+				"AsyncExchangeService.setExecutor", "executor is null");
+		if (this.ownsExecutor) {
+			((ExecutorService) this.executor).shutdown();
+		}
+		this.executor = executor;
+		this.ownsExecutor = false;
+	}
+
+	/**
+	 * Gets the number of operations waiting for a free slot.
+	 *
+	 * @return the number of pending operations
+	 */
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Gets the number of operations in flight.
+	 *
+	 * @return the number of operations in flight
+	 */
+	public synchronized int getInFlightCount() {
+		return this.inFlight;
+	}
+
+	/**
+	 * Stops accepting operations and releases the default executor once the
+	 * queued operations have run.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			this.shutdown = true;
+			if (this.ownsExecutor && this.pending.isEmpty()) {
+				((ExecutorService) this.executor).shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Submits an arbitrary operation. The operation impersonates the user
+	 * impersonated by the submitting thread.
+	 *
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param operation
+	 *            the operation
+	 * @param callback
+	 *            the callback invoked on completion, may be null
+	 * @return the pending result of the operation
+	 */
+	public <TResult> ServiceFuture<TResult> submit(
+			Callable<TResult> operation, IAsyncCallback<TResult> callback) {
+		EwsUtilities.EwsAssert(operation != null,
+				"AsyncExchangeService.submit", "operation is null");
+		ServiceFuture<TResult> future = new ServiceFuture<TResult>(
+				this.service.inCurrentScope(operation));
+		if (callback != null) {
+			future.addCallback(callback);
+		}
+		synchronized (this) {
+			if (this.shutdown) {
+				throw new RejectedExecutionException(
+						"The AsyncExchangeService has been shut down.");
+			}
+			this.pending.add(future);
+		}
+		this.dispatch();
+		return future;
+	}
+
+	/**
+	 * Submits an arbitrary operation.
+	 *
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param operation
+	 *            the operation
+	 * @return the pending result of the operation
+	 */
+	public <TResult> ServiceFuture<TResult> submit(Callable<TResult> operation) {
+		return this.submit(operation, null);
+	}
+
+	/**
+	 * Runs an operation against each of a list of mailboxes, impersonating
+	 * the mailbox, with at most maxConcurrency mailboxes in progress. The
+	 * results are returned as the mailboxes complete.
+	 *
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param mailboxes
+	 *            the mailboxes, iterated as the fan-out progresses
+	 * @param operation
+	 *            the operation
+	 * @param maxConcurrency
+	 *            the maximum number of mailboxes in progress
+	 * @return the results of the mailboxes
+	 * @see MailboxFanOut
+	 */
+	public <TResult> MailboxFanOut<TResult> forEachMailbox(
+			Iterable<ImpersonatedUserId> mailboxes,
+			IMailboxOperation<TResult> operation, int maxConcurrency) {
+		EwsUtilities.EwsAssert(mailboxes != null,
+				"AsyncExchangeService.forEachMailbox", "mailboxes is null");
+		EwsUtilities.EwsAssert(operation != null,
+				"AsyncExchangeService.forEachMailbox", "operation is null");
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrency must be greater than zero.");
+		}
+		return new MailboxFanOut<TResult>(this, mailboxes, operation,
+				maxConcurrency);
+	}
+
+	/**
+	 * Runs an operation against each of a list of mailboxes, impersonating
+	 * the mailbox, with at most getMaxConcurrentRequests() mailboxes in
+	 * progress. The results are returned as the mailboxes complete.
+	 *
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param mailboxes
+	 *            the mailboxes, iterated as the fan-out progresses
+	 * @param operation
+	 *            the operation
+	 * @return the results of the mailboxes
+	 * @see MailboxFanOut
+	 */
+	public <TResult> MailboxFanOut<TResult> forEachMailbox(
+			Iterable<ImpersonatedUserId> mailboxes,
+			IMailboxOperation<TResult> operation) {
+		return this.forEachMailbox(mailboxes, operation,
+				this.getMaxConcurrentRequests());
+	}
+
+	/**
+	 * Starts as many pending operations as there are free slots.
+	 */
+	private void dispatch() {
+		while (true) {
+			final ServiceFuture<?> next;
+			Executor target;
+			synchronized (this) {
+				if (this.inFlight >= this.maxConcurrentRequests ||
+						this.pending.isEmpty()) {
+					if (this.shutdown && this.ownsExecutor &&
+							this.pending.isEmpty() && this.inFlight == 0) {
+						((ExecutorService) this.executor).shutdown();
+					}
+					return;
+				}
+				next = this.pending.removeFirst();
+				if (next.isDone()) {
+					// Cancelled while queued.
+					continue;
+				}
+				this.inFlight++;
+				target = this.getExecutor();
+			}
+			try {
+				target.execute(new Runnable() {
+					public void run() {
+						try {
+							next.run();
+						} finally {
+							onOperationFinished();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				synchronized (this) {
+					this.inFlight--;
+				}
+				next.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Releases the slot of a finished operation and starts the next one.
+	 */
+	private void onOperationFinished() {
+		synchronized (this) {
+			this.inFlight--;
+		}
+		this.dispatch();
+	}
+
+	/**
+	 * Gets the executor, creating the default one on first use.
+	 *
+	 * @return the executor
+	 */
+	private Executor getExecutor() {
+		if (this.executor == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(
+					this.maxConcurrentRequests, this.maxConcurrentRequests, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new DaemonThreadFactory("EWS async"));
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.ownsExecutor = true;
+		}
+		return this.executor;
+	}
+
+	// Item operations
+
+	/**
+	 * Finds items.
+	 *
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param searchFilter
+	 *            the search filter, may be null
+	 * @param view
+	 *            the view
+	 * @return the pending search results
+	 * @see ExchangeService#findItems(FolderId, SearchFilter, ItemView)
+	 */
+	public ServiceFuture<FindItemsResults<Item>> findItems(
+			final FolderId parentFolderId, final SearchFilter searchFilter,
+			final ItemView view) {
+		return this.submit(new Callable<FindItemsResults<Item>>() {
+			public FindItemsResults<Item> call() throws Exception {
+				return service.findItems(parentFolderId, searchFilter, view);
+			}
+		});
+	}
+
+	/**
+	 * Finds items.
+	 *
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param view
+	 *            the view
+	 * @return the pending search results
+	 * @see ExchangeService#findItems(FolderId, ItemView)
+	 */
+	public ServiceFuture<FindItemsResults<Item>> findItems(
+			FolderId parentFolderId, ItemView view) {
+		return this.findItems(parentFolderId, null, view);
+	}
+
+	/**
+	 * Finds items.
+	 *
+	 * @param parentFolderName
+	 *            the parent folder name
+	 * @param searchFilter
+	 *            the search filter, may be null
+	 * @param view
+	 *            the view
+	 * @return the pending search results
+	 * @see ExchangeService#findItems(WellKnownFolderName, SearchFilter,
+	 *      ItemView)
+	 */
+	public ServiceFuture<FindItemsResults<Item>> findItems(
+			WellKnownFolderName parentFolderName, SearchFilter searchFilter,
+			ItemView view) {
+		return this.findItems(new FolderId(parentFolderName), searchFilter,
+				view);
+	}
+
+	/**
+	 * Binds to multiple items in a single call to EWS.
+	 *
+	 * @param itemIds
+	 *            the item ids
+	 * @param propertySet
+	 *            the property set
+	 * @return the pending responses
+	 * @see ExchangeService#bindToItems(Iterable, PropertySet)
+	 */
+	public ServiceFuture<ServiceResponseCollection<GetItemResponse>> bindToItems(
+			final Iterable<ItemId> itemIds, final PropertySet propertySet) {
+		return this.submit(
+				new Callable<ServiceResponseCollection<GetItemResponse>>() {
+					public ServiceResponseCollection<GetItemResponse> call()
+							throws Exception {
+						return service.bindToItems(itemIds, propertySet);
+					}
+				});
+	}
+
+	/**
+	 * Loads the properties of multiple items in a single call to EWS.
+	 *
+	 * @param items
+	 *            the items
+	 * @param propertySet
+	 *            the property set
+	 * @return the pending responses
+	 * @see ExchangeService#loadPropertiesForItems(Iterable, PropertySet)
+	 */
+	public ServiceFuture<ServiceResponseCollection<ServiceResponse>> loadPropertiesForItems(
+			final Iterable<Item> items, final PropertySet propertySet) {
+		return this.submit(
+				new Callable<ServiceResponseCollection<ServiceResponse>>() {
+					public ServiceResponseCollection<ServiceResponse> call()
+							throws Exception {
+						return service.loadPropertiesForItems(items,
+								propertySet);
+					}
+				});
+	}
+
+	/**
+	 * Creates multiple items in a single EWS call.
+	 *
+	 * @param items
+	 *            the items
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param messageDisposition
+	 *            the message disposition
+	 * @param sendInvitationsMode
+	 *            the send invitations mode
+	 * @return the pending responses
+	 * @see ExchangeService#createItems(Collection, FolderId,
+	 *      MessageDisposition, SendInvitationsMode)
+	 */
+	public ServiceFuture<ServiceResponseCollection<ServiceResponse>> createItems(
+			final Collection<Item> items, final FolderId parentFolderId,
+			final MessageDisposition messageDisposition,
+			final SendInvitationsMode sendInvitationsMode) {
+		return this.submit(
+				new Callable<ServiceResponseCollection<ServiceResponse>>() {
+					public ServiceResponseCollection<ServiceResponse> call()
+							throws Exception {
+						return service.createItems(items, parentFolderId,
+								messageDisposition, sendInvitationsMode);
+					}
+				});
+	}
+
+	/**
+	 * Updates multiple items in a single EWS call.
+	 *
+	 * @param items
+	 *            the items
+	 * @param savedItemsDestinationFolderId
+	 *            the saved items destination folder id
+	 * @param conflictResolution
+	 *            the conflict resolution
+	 * @param messageDisposition
+	 *            the message disposition
+	 * @param sendInvitationsOrCancellationsMode
+	 *            the send invitations or cancellations mode
+	 * @return the pending responses
+	 * @see ExchangeService#updateItems(Iterable, FolderId,
+	 *      ConflictResolutionMode, MessageDisposition,
+	 *      SendInvitationsOrCancellationsMode)
+	 */
+	public ServiceFuture<ServiceResponseCollection<UpdateItemResponse>> updateItems(
+			final Iterable<Item> items,
+			final FolderId savedItemsDestinationFolderId,
+			final ConflictResolutionMode conflictResolution,
+			final MessageDisposition messageDisposition,
+			final SendInvitationsOrCancellationsMode sendInvitationsOrCancellationsMode) {
+		return this.submit(
+				new Callable<ServiceResponseCollection<UpdateItemResponse>>() {
+					public ServiceResponseCollection<UpdateItemResponse> call()
+							throws Exception {
+						return service.updateItems(items,
+								savedItemsDestinationFolderId,
+								conflictResolution, messageDisposition,
+								sendInvitationsOrCancellationsMode);
+					}
+				});
+	}
+
+	/**
+	 * Deletes multiple items in a single call to EWS.
+	 *
+	 * @param itemIds
+	 *            the item ids
+	 * @param deleteMode
+	 *            the delete mode
+	 * @param sendCancellationsMode
+	 *            the send cancellations mode
+	 * @param affectedTaskOccurrences
+	 *            the affected task occurrences
+	 * @return the pending responses
+	 * @see ExchangeService#deleteItems(Iterable, DeleteMode,
+	 *      SendCancellationsMode, AffectedTaskOccurrence)
+	 */
+	public ServiceFuture<ServiceResponseCollection<ServiceResponse>> deleteItems(
+			final Iterable<ItemId> itemIds, final DeleteMode deleteMode,
+			final SendCancellationsMode sendCancellationsMode,
+			final AffectedTaskOccurrence affectedTaskOccurrences) {
+		return this.submit(
+				new Callable<ServiceResponseCollection<ServiceResponse>>() {
+					public ServiceResponseCollection<ServiceResponse> call()
+							throws Exception {
+						return service.deleteItems(itemIds, deleteMode,
+								sendCancellationsMode, affectedTaskOccurrences);
+					}
+				});
+	}
+
+	// Folder operations
+
+	/**
+	 * Finds folders.
+	 *
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param searchFilter
+	 *            the search filter, may be null
+	 * @param view
+	 *            the view
+	 * @return the pending search results
+	 * @see ExchangeService#findFolders(FolderId, SearchFilter, FolderView)
+	 */
+	public ServiceFuture<FindFoldersResults> findFolders(
+			final FolderId parentFolderId, final SearchFilter searchFilter,
+			final FolderView view) {
+		return this.submit(new Callable<FindFoldersResults>() {
+			public FindFoldersResults call() throws Exception {
+				return service.findFolders(parentFolderId, searchFilter, view);
+			}
+		});
+	}
+
+	/**
+	 * Finds folders.
+	 *
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param view
+	 *            the view
+	 * @return the pending search results
+	 * @see ExchangeService#findFolders(FolderId, FolderView)
+	 */
+	public ServiceFuture<FindFoldersResults> findFolders(
+			FolderId parentFolderId, FolderView view) {
+		return this.findFolders(parentFolderId, null, view);
+	}
+
+	// Synchronization operations
+
+	/**
+	 * Synchronizes the items of a specific folder.
+	 *
+	 * @param syncFolderId
+	 *            the sync folder id
+	 * @param propertySet
+	 *            the property set
+	 * @param ignoredItemIds
+	 *            the ignored item ids, may be null
+	 * @param maxChangesReturned
+	 *            the max changes returned
+	 * @param syncScope
+	 *            the sync scope
+	 * @param syncState
+	 *            the sync state, may be null
+	 * @return the pending changes
+	 * @see ExchangeService#syncFolderItems(FolderId, PropertySet, Iterable,
+	 *      int, SyncFolderItemsScope, String)
+	 */
+	public ServiceFuture<ChangeCollection<ItemChange>> syncFolderItems(
+			final FolderId syncFolderId, final PropertySet propertySet,
+			final Iterable<ItemId> ignoredItemIds,
+			final int maxChangesReturned, final SyncFolderItemsScope syncScope,
+			final String syncState) {
+		return this.submit(new Callable<ChangeCollection<ItemChange>>() {
+			public ChangeCollection<ItemChange> call() throws Exception {
+				return service.syncFolderItems(syncFolderId, propertySet,
+						ignoredItemIds, maxChangesReturned, syncScope,
+						syncState);
+			}
+		});
+	}
+
+	/**
+	 * Synchronizes the sub-folders of a specific folder.
+	 *
+	 * @param syncFolderId
+	 *            the sync folder id, null for the root folder
+	 * @param propertySet
+	 *            the property set
+	 * @param syncState
+	 *            the sync state, may be null
+	 * @return the pending changes
+	 * @see ExchangeService#syncFolderHierarchy(FolderId, PropertySet, String)
+	 */
+	public ServiceFuture<ChangeCollection<FolderChange>> syncFolderHierarchy(
+			final FolderId syncFolderId, final PropertySet propertySet,
+			final String syncState) {
+		return this.submit(new Callable<ChangeCollection<FolderChange>>() {
+			public ChangeCollection<FolderChange> call() throws Exception {
+				return service.syncFolderHierarchy(syncFolderId, propertySet,
+						syncState);
+			}
+		});
+	}
+
+	/**
+	 * Creates numbered daemon threads with a name prefix, for the executors
+	 * of the library.
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+
+		/** The thread name prefix. */
+		private String namePrefix;
+
+		/** The number of threads created. */
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		/**
+		 * Initializes a new instance of the DaemonThreadFactory class.
+		 *
+		 * @param namePrefix
+		 *            the thread name prefix
+		 */
+		DaemonThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+		}
+
+		/**
+		 * Creates a daemon thread.
+		 *
+		 * @param runnable
+		 *            the runnable
+		 * @return the thread
+		 */
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, this.namePrefix + " " +
+					this.threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -279,7 +279,7 @@ IAutodiscoverRedirectionUrl, IFunctionDelegate {
 		this.traceMessage(TraceFlags.AutodiscoverConfiguration, String.format(
 				"Trying to get Autodiscover redirection URL from %s.", url));
 
-		HttpWebRequest request = new HttpClientWebRequest(this.getSimpleHttpConnectionManager());
+		HttpWebRequest request = this.createHttpWebRequest();
 		try {
 			request.setUrl(URI.create(url).toURL());
 		} catch (MalformedURLException e) {
@@ -1465,7 +1465,7 @@ IAutodiscoverRedirectionUrl, IFunctionDelegate {
 
 			endpoints.setParam(EnumSet.of(AutodiscoverEndpoints.None));
 
-			HttpWebRequest request = new HttpClientWebRequest(this.getSimpleHttpConnectionManager());
+			HttpWebRequest request = this.createHttpWebRequest();
 			try {
 				request.setUrl(autoDiscoverUrl.toURL());
 			} catch (MalformedURLException e) {
@@ -0,0 +1,174 @@
+/**************************************************************************
+ * copyright file="Base64DecodingWriter.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the Base64DecodingWriter.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writer that decodes the base64 characters written to it and writes the
+ * decoded bytes to an output stream, a buffer at a time. Characters that are
+ * not part of the base64 alphabet, such as line breaks, are skipped. The
+ * output stream is not closed by this writer.
+ */
+class Base64DecodingWriter extends Writer {
+
+	/** The size of the decoded byte buffer. */
+	private static final int BufferSize = 4096;
+
+	/** The sextet value of each ASCII character, -1 if not base64. */
+	private static final int[] DecodeTable = new int[128];
+
+	static {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+				+ "abcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < DecodeTable.length; i++) {
+			DecodeTable[i] = -1;
+		}
+		for (int i = 0; i < alphabet.length(); i++) {
+			DecodeTable[alphabet.charAt(i)] = i;
+		}
+	}
+
+	/** The output stream. */
+	private OutputStream outputStream;
+
+	/** The decoded bytes not yet written. */
+	private byte[] buffer = new byte[BufferSize];
+
+	/** The number of bytes in the buffer. */
+	private int count;
+
+	/** The bits of the current group of 4 characters. */
+	private int bits;
+
+	/** The number of characters of the current group. */
+	private int sextets;
+
+	/** Whether padding was read. */
+	private boolean padded;
+
+	/**
+	 * Initializes a new instance of the Base64DecodingWriter class.
+	 * 
+	 * @param outputStream
+	 *            the stream the decoded bytes are written to
+	 */
+	Base64DecodingWriter(OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	/**
+	 * Decodes characters.
+	 * 
+	 * @param cbuf
+	 *            the characters
+	 * @param off
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		for (int i = off; i < end && !this.padded; i++) {
+			char c = cbuf[i];
+			if (c == '=') {
+				this.padded = true;
+			} else if (c < DecodeTable.length && DecodeTable[c] >= 0) {
+				this.bits = (this.bits << 6) | DecodeTable[c];
+				if (++this.sextets == 4) {
+					this.ensureCapacity(3);
+					this.buffer[this.count++] = (byte)(this.bits >> 16);
+					this.buffer[this.count++] = (byte)(this.bits >> 8);
+					this.buffer[this.count++] = (byte)this.bits;
+					this.bits = 0;
+					this.sextets = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes characters.
+	 * 
+	 * @param str
+	 *            the characters
+	 * @param off
+	 *            the offset of the first character
+	 * @param len
+	 *            the number of characters
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		char[] chars = new char[Math.min(len, BufferSize)];
+		for (int i = off; i < off + len; i += chars.length) {
+			int length = Math.min(chars.length, off + len - i);
+			str.getChars(i, i + length, chars, 0);
+			this.write(chars, 0, length);
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes to the output stream if there is no room
+	 * left for the given number of bytes.
+	 * 
+	 * @param length
+	 *            the number of bytes about to be buffered
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void ensureCapacity(int length) throws IOException {
+		if (this.count + length > this.buffer.length) {
+			this.outputStream.write(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+	}
+
+	/**
+	 * Writes the bytes decoded so far to the output stream. A trailing
+	 * incomplete group of characters is kept until more characters are
+	 * written or the writer is closed.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (this.count > 0) {
+			this.outputStream.write(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+		this.outputStream.flush();
+	}
+
+	/**
+	 * Decodes the trailing, padded, group of characters and writes all the
+	 * decoded bytes to the output stream, which is left open.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.ensureCapacity(2);
+		if (this.sextets == 2) {
+			this.buffer[this.count++] = (byte)(this.bits >> 4);
+		} else if (this.sextets == 3) {
+			this.buffer[this.count++] = (byte)(this.bits >> 10);
+			this.buffer[this.count++] = (byte)(this.bits >> 2);
+		}
+		this.bits = 0;
+		this.sextets = 0;
+		this.flush();
+	}
+}
@@ -151,6 +151,47 @@ import java.util.Vector;
 		return retValString;
 	};
 
+	/**
+	 * Encodes a chunk of bytes into the given character buffer, without line
+	 * breaks. Only the last chunk of a stream may have a length that is not
+	 * a multiple of 3, since it is padded.
+	 * 
+	 * @param input
+	 *            the bytes to encode
+	 * @param offset
+	 *            the offset of the first byte
+	 * @param length
+	 *            the number of bytes to encode
+	 * @param output
+	 *            the character buffer, at least (length + 2) / 3 * 4 long
+	 * @return the number of characters written
+	 */
+	static int encode(byte[] input, int offset, int length, char[] output) {
+		int outputIndex = 0;
+		int end = offset + length;
+		int i = offset;
+		for (; i + 2 < end; i += 3) {
+			int bits = ((input[i] & 0xff) << 16) | ((input[i + 1] & 0xff) << 8)
+					| (input[i + 2] & 0xff);
+			output[outputIndex++] = encode((byte)((bits >> 18) & 0x3f));
+			output[outputIndex++] = encode((byte)((bits >> 12) & 0x3f));
+			output[outputIndex++] = encode((byte)((bits >> 6) & 0x3f));
+			output[outputIndex++] = encode((byte)(bits & 0x3f));
+		}
+		if (i < end) {
+			int bits = (input[i] & 0xff) << 16;
+			if (i + 1 < end) {
+				bits |= (input[i + 1] & 0xff) << 8;
+			}
+			output[outputIndex++] = encode((byte)((bits >> 18) & 0x3f));
+			output[outputIndex++] = encode((byte)((bits >> 12) & 0x3f));
+			output[outputIndex++] = i + 1 < end ? 
+					encode((byte)((bits >> 6) & 0x3f)) : '=';
+			output[outputIndex++] = '=';
+		}
+		return outputIndex;
+	}
+
 	/**
 	 * Decode.
 	 * 
@@ -6,8 +6,6 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.xml.stream.XMLStreamException;
@@ -75,9 +73,8 @@ final class EndDateRecurrenceRange extends RecurrenceRange {
 	 */
 	protected void writeElementsToXml(EwsServiceXmlWriter writer)
 			throws XMLStreamException, ServiceXmlSerializationException {
-		Date d = this.endDate;
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		String formattedString = df.format(d);
+		String formattedString = EwsDateTimeFormat.formatLocalDate(
+				this.endDate);
 
 		super.writeElementsToXml(writer);
 
@@ -0,0 +1,311 @@
+/**************************************************************************
+ * copyright file="EwsDateTimeFormat.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the EwsDateTimeFormat class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+/**
+ * Parses and formats the xs:dateTime and xs:date values exchanged with the
+ * server.
+ *
+ * Values are read by hand instead of through SimpleDateFormat, without
+ * trying several patterns. The fields are converted with a calendar kept
+ * per thread, so that parsing a value allocates only the resulting Date.
+ *
+ * The conversions are those of the patterns this class replaces: values
+ * with a "Z" suffix and values without suffix are in the default time zone
+ * of the JVM, values with a +hh:mm or -hh:mm suffix are at that offset,
+ * and dates are formatted in the default time zone with a "Z" suffix.
+ * Fractions of seconds are kept to the millisecond. The default time zone
+ * is read when a thread first uses the class.
+ */
+final class EwsDateTimeFormat {
+
+	/** The calendar of each thread, in the default time zone. */
+	private static final ThreadLocal<Calendar> calendar =
+		new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return new GregorianCalendar();
+		}
+	};
+
+	/**
+	 * Prevents instances of the class.
+	 */
+	private EwsDateTimeFormat() {
+	}
+
+	/**
+	 * Parses a yyyy-MM-ddTHH:mm:ss or yyyy-MM-dd value, followed by a "Z"
+	 * or "z" suffix, a +hh:mm or -hh:mm offset, or no suffix.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the date, or null if the value is null or empty
+	 * @throws IllegalArgumentException
+	 *             if the value is not in one of these formats
+	 */
+	static Date parseDateTime(String value) {
+		if (value == null || value.length() == 0) {
+			return null;
+		}
+		Date date = parse(value, true, false);
+		if (date == null) {
+			throw new IllegalArgumentException(String.format(
+					"Date String %s not in valid UTC/local format", value));
+		}
+		return date;
+	}
+
+	/**
+	 * Parses a yyyy-MM-ddTHH:mm:ss value in the default time zone. Anything
+	 * after the seconds other than a fraction is ignored.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the date
+	 * @throws ParseException
+	 *             if the value does not start with a date and time
+	 */
+	static Date parseLocalDateTime(String value) throws ParseException {
+		Date date = value == null ? null : parse(value, false, true);
+		if (date == null) {
+			throw new ParseException("Unparseable date: \"" + value + "\"", 0);
+		}
+		return date;
+	}
+
+	/**
+	 * Parses a yyyy-MM-ddZ value as the start of the day in the default time
+	 * zone.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the date
+	 * @throws ParseException
+	 *             if the value does not start with a date followed by "Z"
+	 */
+	static Date parseDate(String value) throws ParseException {
+		if (value == null || value.length() < 11 || value.charAt(10) != 'Z') {
+			throw new ParseException("Unparseable date: \"" + value + "\"", 0);
+		}
+		Date date = parse(value.substring(0, 10), false, false);
+		if (date == null) {
+			throw new ParseException("Unparseable date: \"" + value + "\"", 0);
+		}
+		return date;
+	}
+
+	/**
+	 * Parses a value.
+	 *
+	 * @param value
+	 *            the value
+	 * @param allowSuffix
+	 *            whether a "Z" suffix or an offset may follow the value
+	 * @param ignoreRest
+	 *            whether anything may follow the time, which requires a
+	 *            time
+	 * @return the date, or null if the value is not valid
+	 */
+	private static Date parse(String value, boolean allowSuffix,
+			boolean ignoreRest) {
+		int length = value.length();
+		int year = digits(value, 0, 4);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		if (year < 0 || month < 0 || day < 0 || value.charAt(4) != '-' ||
+				value.charAt(7) != '-') {
+			return null;
+		}
+
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int millisecond = 0;
+		int position = 10;
+		if (length > 10 && value.charAt(10) == 'T') {
+			hour = digits(value, 11, 2);
+			minute = digits(value, 14, 2);
+			second = digits(value, 17, 2);
+			if (hour < 0 || minute < 0 || second < 0 ||
+					value.charAt(13) != ':' || value.charAt(16) != ':') {
+				return null;
+			}
+			position = 19;
+			if (position < length && value.charAt(position) == '.') {
+				int scale = 100;
+				position++;
+				while (position < length && isDigit(value.charAt(position))) {
+					millisecond += (value.charAt(position) - '0') * scale;
+					scale /= 10;
+					position++;
+				}
+			}
+		} else if (ignoreRest) {
+			return null;
+		}
+
+		Calendar cal = calendar.get();
+		cal.clear();
+		cal.set(year, month - 1, day, hour, minute, second);
+		cal.set(Calendar.MILLISECOND, millisecond);
+		if (position < length && !ignoreRest) {
+			char suffix = value.charAt(position);
+			if (!allowSuffix) {
+				return null;
+			} else if ((suffix == 'Z' || suffix == 'z') &&
+					position + 1 == length) {
+				// The value is read in the default time zone.
+			} else if ((suffix == '+' || suffix == '-') &&
+					position + 6 == length &&
+					value.charAt(position + 3) == ':') {
+				int offsetHours = digits(value, position + 1, 2);
+				int offsetMinutes = digits(value, position + 4, 2);
+				if (offsetHours < 0 || offsetMinutes < 0) {
+					return null;
+				}
+				int offset = (offsetHours * 60 + offsetMinutes) * 60000;
+				cal.set(Calendar.ZONE_OFFSET, suffix == '-' ? -offset : offset);
+				cal.set(Calendar.DST_OFFSET, 0);
+			} else {
+				return null;
+			}
+		}
+		return new Date(cal.getTimeInMillis());
+	}
+
+	/**
+	 * Reads a number of decimal digits.
+	 *
+	 * @param value
+	 *            the value
+	 * @param start
+	 *            the index of the first digit
+	 * @param count
+	 *            the number of digits
+	 * @return the number, or -1 if there are not as many digits
+	 */
+	private static int digits(String value, int start, int count) {
+		if (start + count > value.length()) {
+			return -1;
+		}
+		int result = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = value.charAt(i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether a character is an ASCII digit.
+	 *
+	 * @param c
+	 *            the character
+	 * @return true if the character is a digit
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Formats a date as yyyy-MM-ddTHH:mm:ssZ.
+	 *
+	 * @param date
+	 *            the date
+	 * @return the formatted date
+	 */
+	static String formatDateTime(Date date) {
+		Calendar cal = calendar.get();
+		cal.setTime(date);
+		StringBuilder sb = new StringBuilder(20);
+		appendDate(sb, cal);
+		sb.append('T');
+		appendDigits(sb, cal.get(Calendar.HOUR_OF_DAY), 2);
+		sb.append(':');
+		appendDigits(sb, cal.get(Calendar.MINUTE), 2);
+		sb.append(':');
+		appendDigits(sb, cal.get(Calendar.SECOND), 2);
+		return sb.append('Z').toString();
+	}
+
+	/**
+	 * Formats a date as yyyy-MM-ddZ.
+	 *
+	 * @param date
+	 *            the date
+	 * @return the formatted date
+	 */
+	static String formatDate(Date date) {
+		Calendar cal = calendar.get();
+		cal.setTime(date);
+		StringBuilder sb = new StringBuilder(11);
+		appendDate(sb, cal);
+		return sb.append('Z').toString();
+	}
+
+	/**
+	 * Formats a date as yyyy-MM-dd.
+	 *
+	 * @param date
+	 *            the date
+	 * @return the formatted date
+	 */
+	static String formatLocalDate(Date date) {
+		Calendar cal = calendar.get();
+		cal.setTime(date);
+		StringBuilder sb = new StringBuilder(10);
+		appendDate(sb, cal);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the date of a calendar as yyyy-MM-dd.
+	 *
+	 * @param sb
+	 *            the builder
+	 * @param cal
+	 *            the calendar
+	 */
+	private static void appendDate(StringBuilder sb, Calendar cal) {
+		appendDigits(sb, cal.get(Calendar.YEAR), 4);
+		sb.append('-');
+		appendDigits(sb, cal.get(Calendar.MONTH) + 1, 2);
+		sb.append('-');
+		appendDigits(sb, cal.get(Calendar.DAY_OF_MONTH), 2);
+	}
+
+	/**
+	 * Appends a number padded with zeros.
+	 *
+	 * @param sb
+	 *            the builder
+	 * @param value
+	 *            the number
+	 * @param width
+	 *            the minimum number of digits
+	 */
+	private static void appendDigits(StringBuilder sb, int value, int width) {
+		for (int limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit) {
+				for (int i = width; i > 1; i--) {
+					sb.append('0');
+				}
+				break;
+			}
+		}
+		sb.append(value);
+	}
+}
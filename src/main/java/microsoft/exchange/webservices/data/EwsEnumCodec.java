@@ -0,0 +1,112 @@
+/**************************************************************************
+ * copyright file="EwsEnumCodec.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the EwsEnumCodec class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts the values of an enum to and from the names used in the
+ * protocol.
+ *
+ * A value is written with the schema name of its EwsEnum annotation, or
+ * its string representation when it has none. Both the schema names and
+ * the string representations are read. The lookup tables of an enum are
+ * built once, the first time the enum is converted, and shared by all
+ * threads.
+ *
+ * @param <E>
+ *            the enum type
+ */
+final class EwsEnumCodec<E extends Enum<E>> {
+
+	/** The codecs, by enum type. */
+	private static final ConcurrentHashMap<Class<?>, EwsEnumCodec<?>> codecs =
+		new ConcurrentHashMap<Class<?>, EwsEnumCodec<?>>();
+
+	/** The values, by protocol name. */
+	private final Map<String, E> values;
+
+	/** The protocol names, by ordinal. */
+	private final String[] names;
+
+	/**
+	 * Initializes a new instance of the EwsEnumCodec class.
+	 *
+	 * @param cls
+	 *            the enum type
+	 */
+	private EwsEnumCodec(Class<E> cls) {
+		E[] constants = cls.getEnumConstants();
+		this.values = new HashMap<String, E>(constants.length * 2);
+		this.names = new String[constants.length];
+		for (E constant : constants) {
+			String name = constant.toString();
+			if (!this.values.containsKey(name)) {
+				this.values.put(name, constant);
+			}
+			this.names[constant.ordinal()] = name;
+		}
+		for (Field f : cls.getDeclaredFields()) {
+			if (f.isEnumConstant() && f.isAnnotationPresent(EwsEnum.class)) {
+				String schemaName = f.getAnnotation(EwsEnum.class).schemaName();
+				if (!schemaName.isEmpty()) {
+					E constant = Enum.valueOf(cls, f.getName());
+					this.values.put(schemaName, constant);
+					this.names[constant.ordinal()] = schemaName;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the codec of an enum type.
+	 *
+	 * @param <E>
+	 *            the enum type
+	 * @param cls
+	 *            the enum type
+	 * @return the codec
+	 */
+	@SuppressWarnings("unchecked")
+	static <E extends Enum<E>> EwsEnumCodec<E> forClass(Class<E> cls) {
+		EwsEnumCodec<E> codec = (EwsEnumCodec<E>)codecs.get(cls);
+		if (codec == null) {
+			codec = new EwsEnumCodec<E>(cls);
+			EwsEnumCodec<E> existing = (EwsEnumCodec<E>)codecs.putIfAbsent(
+					cls, codec);
+			if (existing != null) {
+				codec = existing;
+			}
+		}
+		return codec;
+	}
+
+	/**
+	 * Reads a value from its schema name or string representation.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the value, or null if the name is unknown
+	 */
+	E parse(String name) {
+		return this.values.get(name);
+	}
+
+	/**
+	 * Gets the name of a value in the protocol.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the schema name of the value, or its string representation
+	 */
+	String serialize(Enum<?> value) {
+		return this.names[value.ordinal()];
+	}
+}
@@ -73,16 +73,27 @@ class EwsSSLProtocolSocketFactory implements SecureProtocolSocketFactory {
     private SSLContext sslcontext = null;
     
     /** The X509 TrustManager. */
-    static TrustManager trustManager = null;
+    private TrustManager trustManager = null;
 
     /**
      * Constructor for EasySSLProtocolSocketFactory.
      */
     public EwsSSLProtocolSocketFactory() {
+        this(null);
+    }
+
+    /**
+     * Constructor for EasySSLProtocolSocketFactory.
+     * 
+     * @param trustManager
+     *            the trust manager consulted after the default one, may be null
+     */
+    public EwsSSLProtocolSocketFactory(TrustManager trustManager) {
         super();
+        this.trustManager = trustManager;
     }
 
-    private static SSLContext createEasySSLContext() {
+    private static SSLContext createEasySSLContext(TrustManager trustManager) {
         try {
             SSLContext context = SSLContext.getInstance("SSL");
             context.init(
@@ -96,9 +107,9 @@ class EwsSSLProtocolSocketFactory implements SecureProtocolSocketFactory {
         }
     }
 
-    private SSLContext getSSLContext() {
+    private synchronized SSLContext getSSLContext() {
         if (this.sslcontext == null) {
-            this.sslcontext = createEasySSLContext();
+            this.sslcontext = createEasySSLContext(this.trustManager);
         }
         return this.sslcontext;
     }
@@ -195,7 +206,8 @@ class EwsSSLProtocolSocketFactory implements SecureProtocolSocketFactory {
     }
 
     public boolean equals(Object obj) {
-        return ((obj != null) && obj.getClass().equals(EwsSSLProtocolSocketFactory.class));
+        return ((obj != null) && obj.getClass().equals(EwsSSLProtocolSocketFactory.class) &&
+        		((EwsSSLProtocolSocketFactory) obj).trustManager == this.trustManager);
     }
 
     public int hashCode() {
@@ -10,8 +10,6 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 
 /***
@@ -57,33 +55,34 @@ import javax.xml.stream.XMLStreamException;
 	 /**
 	  * Creates the XML reader.
 	  * @param stream The stream.
+	  * @param readerType The StAX API used to parse the stream.
 	  * @return An XML reader to use.
 	 * @throws XMLStreamException 
 	  */	 
-	 private static XMLEventReader createXmlReader(InputStream stream) 
-	 throws XMLStreamException {
+	 private static EwsXmlNodeReader createXmlReader(InputStream stream,
+			 XmlReaderType readerType) throws XMLStreamException {
 		 
 		 // E14:240522 The ProhibitDtd property is used to indicate whether XmlReader should process DTDs or not. By default, 
          // it will do so. EWS doesn't use DTD references so we want to turn this off. Also, the XmlResolver property is
          // set to an instance of XmlUrlResolver by default. We don't want XmlTextReader to try to resolve this DTD reference 
          // so we disable the XmlResolver as well.
-			XMLInputFactory inputFactory = XMLInputFactory.newInstance();
 			InputStreamReader isr = new InputStreamReader (stream);  
 	      	  BufferedReader in = new BufferedReader (isr);  
-			return inputFactory.createXMLEventReader(in);    
+			return EwsXmlNodeReader.create(in, readerType);    
 		}
 	 
 	 
 	 /**
 	  * Initializes the XML reader.
 	  * @param stream The stream.
+	  * @param readerType The StAX API used to parse the stream.
 	  * An XML reader to use.
 	 * @throws Exception 
 	  */
 	 @Override
-	 protected  XMLEventReader initializeXmlReader(InputStream stream) 
-	 throws Exception {
-         return createXmlReader(stream);
+	 protected  EwsXmlNodeReader initializeXmlReader(InputStream stream,
+			 XmlReaderType readerType) throws Exception {
+         return createXmlReader(stream, readerType);
      }
 
 }
@@ -8,9 +8,7 @@
 package microsoft.exchange.webservices.data;
 
 import java.io.InputStream;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -35,7 +33,7 @@ class EwsServiceXmlReader extends EwsXmlReader {
 	 */
 	protected EwsServiceXmlReader(InputStream stream, ExchangeService service)
 			throws Exception {
-		super(stream);
+		super(stream, service.getXmlReaderType());
 		this.service = service;
 	}
 
@@ -96,20 +94,7 @@ class EwsServiceXmlReader extends EwsXmlReader {
 			throws Exception {
 		// Convert the element's value to a DateTime with no adjustment.
 		String date = this.readElementValue();
-		Date tempDate = null;
-
-		try {
-			DateFormat formatter = 
-				new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-			//formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-			tempDate = formatter.parse(date);
-		} catch (Exception e) {
-			//e.printStackTrace();
-			DateFormat formatter = new SimpleDateFormat(
-					"yyyy-MM-dd'T'HH:mm:ss.SSS");
-			//formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
-			tempDate = formatter.parse(date);
-		}
+		Date tempDate = EwsDateTimeFormat.parseLocalDateTime(date);
 
 		/*
 		 * TimeZone tz = sdfin.getTimeZone(); Calendar calen =
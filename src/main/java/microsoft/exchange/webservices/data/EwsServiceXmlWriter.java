@@ -6,13 +6,11 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Date;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
@@ -44,9 +42,15 @@ class EwsServiceXmlWriter implements IDisposable {
 	/** The is time zone header emitted. */
 	private boolean isTimeZoneHeaderEmitted;
 
+	/** Whether content that cannot be read again was written. */
+	private boolean hasOneShotContent;
+
 	/** The Buffer size. */
 	private static final int BufferSize = 4096;
 
+	/** The number of bytes encoded per base64 chunk, a multiple of 3. */
+	private static final int Base64ChunkSize = 3 * BufferSize;
+
 	/**
 	 * * Initializes a new instance.
 	 * 
@@ -60,8 +64,8 @@ class EwsServiceXmlWriter implements IDisposable {
 	protected EwsServiceXmlWriter(ExchangeServiceBase service, 
 			OutputStream stream) throws XMLStreamException {
 		this.service = service;
-		XMLOutputFactory xmlof = XMLOutputFactory.newInstance();
-		xmlWriter = xmlof.createXMLStreamWriter(stream, "utf-8");
+		xmlWriter = EwsXmlFactories.getOutputFactory().createXMLStreamWriter(
+				stream, "utf-8");
 
 	}
 
@@ -504,8 +508,13 @@ class EwsServiceXmlWriter implements IDisposable {
 	public void writeBase64ElementValue(byte[] buffer)
 	throws XMLStreamException {
 
-		String strValue = Base64.encode(buffer);
-		this.xmlWriter.writeCharacters(strValue);//Base64.encode(buffer));
+		char[] chars = new char[Base64ChunkSize / 3 * 4];
+		for (int offset = 0; offset < buffer.length; offset += Base64ChunkSize) {
+			int length = Math.min(Base64ChunkSize, buffer.length - offset);
+			int count = Base64EncoderStream.encode(buffer, offset, length,
+					chars);
+			this.xmlWriter.writeCharacters(chars, 0, count);
+		}
 	}
 
 	/**
@@ -521,22 +530,46 @@ class EwsServiceXmlWriter implements IDisposable {
 	public void writeBase64ElementValue(InputStream stream) throws IOException,
 	XMLStreamException {
 
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		byte[] buf = new byte[BufferSize];
-		try {
-			for (int readNum; (readNum = stream.read(buf)) != -1;) {
-				bos.write(buf, 0, readNum);
+		// The stream is encoded one chunk at a time, carrying the bytes that
+		// do not make a whole 3 byte group over to the next chunk, so that
+		// only the last chunk is padded.
+		byte[] buf = new byte[Base64ChunkSize];
+		char[] chars = new char[Base64ChunkSize / 3 * 4];
+		int pending = 0;
+		for (int readNum; (readNum = stream.read(buf, pending, buf.length
+				- pending)) != -1;) {
+			pending += readNum;
+			int whole = pending - (pending % 3);
+			if (whole > 0) {
+				int count = Base64EncoderStream.encode(buf, 0, whole, chars);
+				this.xmlWriter.writeCharacters(chars, 0, count);
+				System.arraycopy(buf, whole, buf, 0, pending - whole);
+				pending -= whole;
 			}
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		} finally {
-			bos.close();
 		}
-		byte[] bytes = bos.toByteArray();	      
-		String strValue = Base64.encode(bytes);
-		this.xmlWriter.writeCharacters(strValue);
+		if (pending > 0) {
+			int count = Base64EncoderStream.encode(buf, 0, pending, chars);
+			this.xmlWriter.writeCharacters(chars, 0, count);
+		}
+	}
+
+	/**
+	 * Records that content which cannot be read a second time, such as a
+	 * caller's stream, was written, so the document cannot be written again.
+	 */
+	void markOneShotContent() {
+		this.hasOneShotContent = true;
+	}
 
+	/**
+	 * Gets whether content which cannot be read a second time was written.
+	 * 
+	 * @return true if the document cannot be written again
+	 */
+	boolean hasOneShotContent() {
+		return this.hasOneShotContent;
 	}
+
 	/***
 	 * Gets the internal XML writer.
 	 * 
@@ -24,9 +24,7 @@ import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 
 /**
  * EWS utilities.
@@ -150,53 +148,6 @@ class EwsUtilities {
 						return enumDicts;
 					}
 				});
-	/**
-	 * Dictionary of enum type to schema-name-to-enum-value maps.
-	 */
-	private static LazyMember<Map<Class<?>, Map<String, String>>> 
-	schemaToEnumDictionaries = 
-		new LazyMember<Map<Class<?>, Map<String, String>>>(
-				new ILazyMember<Map<Class<?>, Map<String, String>>>() {
-					@Override
-					public Map<Class<?>, Map<String, String>> createInstance() {
-						Map<Class<?>, Map<String, String>> enumDicts =
-							new HashMap<Class<?>, Map<String, String>>();
-						enumDicts.put(EventType.class,
-								buildSchemaToEnumDict(EventType.class));
-						enumDicts.put(MailboxType.class,
-								buildSchemaToEnumDict(MailboxType.class));
-						enumDicts.put(FileAsMapping.class,
-								buildSchemaToEnumDict(FileAsMapping.class));
-						enumDicts.put(RuleProperty.class, 
-								buildSchemaToEnumDict(RuleProperty.class));
-						return enumDicts;
-
-				}
-			});
-
-	/**
-	 * Dictionary of enum type to enum-value-to-schema-name maps.
-	 */
-	protected static LazyMember<Map<Class<?>, Map<String, String>>>
-	enumToSchemaDictionaries = 
-		new LazyMember<Map<Class<?>, Map<String, String>>>(
-				new ILazyMember<Map<Class<?>, Map<String, String>>>() {
-					@Override
-					public Map<Class<?>, Map<String, String>> createInstance() {
-						Map<Class<?>, Map<String, String>> enumDicts =
-							new HashMap<Class<?>, Map<String, String>>();
-						enumDicts.put(EventType.class,
-								buildEnumToSchemaDict(EventType.class));
-						enumDicts.put(MailboxType.class,
-								buildEnumToSchemaDict(MailboxType.class));
-						enumDicts.put(FileAsMapping.class,
-								buildEnumToSchemaDict(FileAsMapping.class));
-						enumDicts.put(RuleProperty.class, 
-								buildEnumToSchemaDict(RuleProperty.class));
-						return enumDicts;
-					}
-				});
-
 	/**
 	 * Dictionary to map from special CLR type names to their "short" names.
 	 */
@@ -428,34 +379,21 @@ class EwsUtilities {
 		return null;
 	}
 
-	/**
-	 * Write trace start element.
-	 * 
-	 * @param writer
-	 *            The writer to write the start element to.
-	 * @param traceTag
-	 *            The trace tag.
-	 * @param includeVersion
-	 *            If true, include build version attribute.
-	 */
-    private static void writeTraceStartElement(
-    	XMLStreamWriter writer,
-        String traceTag,
-        boolean includeVersion) throws XMLStreamException {
-        writer.writeStartElement("Trace");
-        writer.writeAttribute("Tag", traceTag);
-        writer.writeAttribute("Tid", Thread.currentThread().getId()+"");
-        Date d = new Date();
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss'Z'");
-		df.setTimeZone(TimeZone.getTimeZone("UTC"));
-		String formattedString = df.format(d);
-        writer.writeAttribute("Time", formattedString);
-
-        if (includeVersion) {
-            writer.writeAttribute("Version", EwsUtilities.getBuildVersion());
-        }
-    }
-	
+	/** The format of the trace timestamps, one instance per thread. */
+	private static final ThreadLocal<DateFormat> traceDateFormat =
+		new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss'Z'");
+			df.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return df;
+		}
+	};
+
+	/** The line separator of the trace messages. */
+	private static final String traceLineSeparator =
+		System.getProperty("line.separator");
+
 	/**
 	 * *.
 	 * 
@@ -471,26 +409,35 @@ class EwsUtilities {
 	 */
 	protected static String formatLogMessage(String entryKind, String logEntry)
 	throws XMLStreamException, IOException {
-		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-		XMLOutputFactory factory = XMLOutputFactory.newInstance();
-		XMLStreamWriter writer = factory.createXMLStreamWriter(outStream);
-		EwsUtilities.writeTraceStartElement(writer, entryKind,false);
-		writer.writeCharacters(System.getProperty("line.separator"));
-		writer.writeCharacters(logEntry);
-		writer.writeCharacters(System.getProperty("line.separator"));
-		writer.writeEndElement();
-		writer.writeCharacters(System.getProperty("line.separator"));
-		writer.flush();
-		writer.close();
-		outStream.flush();
-		String formattedLogMessage = outStream.toString();
-		formattedLogMessage = formattedLogMessage.replaceAll("&apos;", "'");
-		formattedLogMessage = formattedLogMessage.replaceAll("&quot;", "\"");
-		formattedLogMessage = formattedLogMessage.replaceAll("&gt;", ">");
-		formattedLogMessage = formattedLogMessage.replaceAll("&lt;", "<");
-		formattedLogMessage = formattedLogMessage.replaceAll("&amp;", "&");
-		outStream.close();
-		return formattedLogMessage;
+		return formatLogMessage(entryKind, logEntry, Thread.currentThread()
+				.getId(), System.currentTimeMillis());
+	}
+
+	/**
+	 * Formats a trace message written by a thread at a given time. The
+	 * entry is written as is inside a Trace element.
+	 * 
+	 * @param entryKind
+	 *            the entry kind
+	 * @param logEntry
+	 *            the log entry
+	 * @param threadId
+	 *            the id of the thread that wrote the entry
+	 * @param time
+	 *            the time the entry was written, in milliseconds
+	 * @return the string
+	 */
+	protected static String formatLogMessage(String entryKind,
+			String logEntry, long threadId, long time) {
+		StringBuilder sb = new StringBuilder(logEntry.length() + 96);
+		sb.append("<Trace Tag=\"").append(entryKind);
+		sb.append("\" Tid=\"").append(threadId);
+		sb.append("\" Time=\"").append(
+				traceDateFormat.get().format(new Date(time)));
+		sb.append("\">").append(traceLineSeparator);
+		sb.append(logEntry).append(traceLineSeparator);
+		sb.append("</Trace>").append(traceLineSeparator);
+		return sb.toString();
 	}
 
 	/**
@@ -611,12 +558,12 @@ class EwsUtilities {
 
 		String[] enumValues = value.split(regexp.toString());
 
+		EwsEnumCodec<?> codec = getEnumCodec(c);
 		for (String enumValue : enumValues) {
 			// list.add((T)Enum.parse(c, enumValue, false));
-			for (Object o : c.getEnumConstants()) {
-				if (o.toString().equals(enumValue)) {
-					list.add((T) o);
-				}
+			Object o = codec.parse(enumValue);
+			if (o != null) {
+				list.add((T) o);
 			}
 		}
 	}
@@ -630,19 +577,20 @@ class EwsUtilities {
 	 * @return String representation of enum to be used in the protocol
 	 */
 	protected static String serializeEnum(Object value) {
-		Map<String, String> enumToStringDict;
-		String strValue = value.toString();
-		if (enumToSchemaDictionaries.getMember().
-				containsKey(value.getClass())) {
-			enumToStringDict = enumToSchemaDictionaries.getMember().get(
-					value.getClass());
-			Enum<?> e = (Enum<?>) value;
-			if (enumToStringDict.containsKey(e.name())) {
-				strValue = enumToStringDict.get(e.name());
-			}
-		}
-		
-		return strValue;
+		Enum<?> e = (Enum<?>) value;
+		return getEnumCodec(e.getDeclaringClass()).serialize(e);
+	}
+
+	/**
+	 * Gets the codec converting the values of an enum type.
+	 * 
+	 * @param cls
+	 *            the enum type
+	 * @return the codec
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static EwsEnumCodec<?> getEnumCodec(Class<?> cls) {
+		return EwsEnumCodec.forClass((Class) cls);
 	}
 
 	/**
@@ -667,92 +615,29 @@ class EwsUtilities {
 			ParseException {
 		
 		if (cls.isEnum()) {
-			Map<String, String> stringToEnumDict;
-			if (schemaToEnumDictionaries.getMember().containsKey(cls)) {
-				stringToEnumDict = schemaToEnumDictionaries.getMember()
-						.get(cls);
-				if (stringToEnumDict.containsKey(value)) {
-					String strEnumName = stringToEnumDict.get(value);
-					for (Object o : cls.getEnumConstants()) {
-						if (o.toString().equals(strEnumName)) {
-							return (T) o;
-						}
-					}
-					return null;
-				} else {
-					for (Object o : cls.getEnumConstants()) {
-						if (o.toString().equals(value)) {
-							return (T) o;
-						}
-					}
-					return null;
-				}
-			} else {
-				for (Object o : cls.getEnumConstants()) {
-					if (o.toString().equals(value)) {
-						return (T) o;
-					}
-				}
-				return null;
-			}
-		} else if (cls.isInstance(Integer.valueOf(0)))
-		// else if( cls.isInstance(new Integer(0)))
-		{
+			return (T) getEnumCodec(cls).parse(value);
+		} else if (cls.isAssignableFrom(Integer.class)) {
 			Object o = null;
 			o = Integer.parseInt(value);
 			return (T) o;
-		} else if (cls.isInstance(new Date())) {
-			Object o = null;
-			DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-			return (T) df.parse(value);
-		} else if (cls.isInstance(Boolean.valueOf(false)))
-		// else if( cls.isInstance(new Boolean(false)))
-		{
+		} else if (cls.isAssignableFrom(Date.class)) {
+			return (T) EwsDateTimeFormat.parseDateTime(value);
+		} else if (cls.isAssignableFrom(Boolean.class)) {
 			Object o = null;
 			o = Boolean.parseBoolean(value);
 			return (T) o;
-		}
-		else if (cls.isInstance(new String())) {
+		} else if (cls.isAssignableFrom(String.class)) {
 			return (T) value;
+		} else if (cls.isAssignableFrom(Double.class)) {
+			Object o = null;
+			o = Double.parseDouble(value);
+			return (T) o;
 		}
-		else if (cls.isInstance(Double.valueOf(0.0)))
-			{
-				Object o = null;
-				o = Double.parseDouble(value);
-				return (T) o;
-			} 
 		return null;
 	}	
 	
 	
 	
-	/**
-	 * Builds the schema to enum mapping dictionary.
-	 * 
-	 * @param <E>
-	 *            Type of the enum.
-	 * @param c
-	 *            Class
-	 * @return The mapping from enum to schema name
-	 */
-	private static <E extends Enum<E>> Map<String, String> 
-	buildSchemaToEnumDict(Class<E> c) {
-		Map<String, String> dict = new HashMap<String, String>();
-
-		Field[] fields = c.getDeclaredFields();
-		for (Field f : fields) {
-			if (f.isEnumConstant() && f.isAnnotationPresent(EwsEnum.class)) {
-				EwsEnum ewsEnum = f.getAnnotation(EwsEnum.class);
-				String fieldName = f.getName();
-				String schemaName = ewsEnum.schemaName();
-				if (!schemaName.isEmpty()) {
-					dict.put(schemaName, fieldName);
-				}
-			}
-		}
-		return dict;
-	}
-
 	/**
 	 * Validate param collection.
 	 * 
@@ -798,9 +683,7 @@ class EwsUtilities {
 	 * @return String representation of DateTime.
 	 */
 	static String dateTimeToXSDate(Date date) {
-		String format = "yyyy-MM-dd'Z'";
-		DateFormat utcFormatter = new SimpleDateFormat(format);
-		return utcFormatter.format(date);
+		return EwsDateTimeFormat.formatDate(date);
 	}
 
 	/**
@@ -811,9 +694,7 @@ class EwsUtilities {
 	 * @return String representation of DateTime.
 	 */
 	protected static String dateTimeToXSDateTime(Date date) {
-		String format = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-		DateFormat utcFormatter = new SimpleDateFormat(format);
-		return utcFormatter.format(date);
+		return EwsDateTimeFormat.formatDateTime(date);
 	}
 	
 	/**
@@ -1487,30 +1368,6 @@ class EwsUtilities {
 		return dict;
 	}
     
-    /**
-	 * Builds the enum to schema mapping dictionary.
-	 * 
-	 * @param c
-	 *            class type
-	 * @return The mapping from enum to schema name
-	 * 
-	 */
-	private static Map<String, String> buildEnumToSchemaDict(Class<?> c) {
-		Map<String, String> dict = new HashMap<String, String>();
-		Field[] fields = c.getFields();
-		for (Field f : fields) {
-			if (f.isEnumConstant() && f.isAnnotationPresent(EwsEnum.class)) {
-				EwsEnum ewsEnum = f.getAnnotation(EwsEnum.class);
-				String fieldName = f.getName();
-				String schemaName = ewsEnum.schemaName();
-				if (!schemaName.isEmpty()) {
-					dict.put(fieldName, schemaName);
-				}
-			}
-		}
-		return dict;
-	}
-
 	/**
 	 * * Gets the enumerated object count.
 	 * 
@@ -0,0 +1,172 @@
+/**************************************************************************
+ * copyright file="EwsXmlEventNodeReader.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the EwsXmlEventNodeReader.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Node reader backed by an XMLEventReader.
+ */
+class EwsXmlEventNodeReader extends EwsXmlNodeReader {
+
+	/** The xml reader. */
+	private XMLEventReader xmlReader;
+
+	/** The present event. */
+	private XMLEvent presentEvent;
+
+	/**
+	 * Initializes a new instance of the EwsXmlEventNodeReader class.
+	 * 
+	 * @param xmlReader
+	 *            the xml reader
+	 */
+	EwsXmlEventNodeReader(XMLEventReader xmlReader) {
+		this.xmlReader = xmlReader;
+	}
+
+	@Override
+	boolean hasNext() {
+		return this.xmlReader.hasNext();
+	}
+
+	@Override
+	void next() throws XMLStreamException {
+		this.presentEvent = this.xmlReader.nextEvent();
+	}
+
+	@Override
+	int peekEventType() throws XMLStreamException {
+		return this.xmlReader.peek().getEventType();
+	}
+
+	@Override
+	int getEventType() {
+		return this.presentEvent.getEventType();
+	}
+
+	@Override
+	boolean isWhiteSpace() {
+		Characters characters = this.presentEvent.asCharacters();
+		return characters.isIgnorableWhiteSpace() || characters.isWhiteSpace();
+	}
+
+	@Override
+	String getText() {
+		return this.presentEvent.asCharacters().getData();
+	}
+
+	@Override
+	String getLocalName() {
+		return this.getQName().getLocalPart();
+	}
+
+	@Override
+	String getPrefix() {
+		return this.getQName().getPrefix();
+	}
+
+	@Override
+	String getNamespaceUri() {
+		return this.getQName().getNamespaceURI();
+	}
+
+	@Override
+	String getName() {
+		return this.getQName().toString();
+	}
+
+	/**
+	 * Gets the name of the current start or end element.
+	 * 
+	 * @return the name
+	 */
+	private QName getQName() {
+		if (this.presentEvent.isStartElement()) {
+			return this.presentEvent.asStartElement().getName();
+		} else {
+			return this.presentEvent.asEndElement().getName();
+		}
+	}
+
+	@Override
+	String getAttributeValue(String namespaceUri, String localName) {
+		Attribute attr = this.presentEvent.asStartElement().getAttributeByName(
+				new QName(namespaceUri, localName));
+		return attr != null ? attr.getValue() : null;
+	}
+
+	@Override
+	boolean hasAttributes() {
+		return this.presentEvent.asStartElement().getAttributes().hasNext();
+	}
+
+	@Override
+	void readElementText(Writer writer) throws XMLStreamException,
+	IOException {
+		XMLEvent event = this.xmlReader.nextEvent();
+		while (!event.isEndElement()) {
+			if (event.isCharacters()) {
+				writer.write(event.asCharacters().getData());
+			}
+			event = this.xmlReader.nextEvent();
+		}
+	}
+
+	@Override
+	void appendCurrentNode(StringBuilder builder) throws XMLStreamException {
+		if (this.presentEvent.isStartElement()) {
+			// The toString and writeAsEncodedUnicode forms of StartElement
+			// events embed the namespace uri in the name, so they are not
+			// well formed xml.
+			StartElement startElement = this.presentEvent.asStartElement();
+			builder.append('<');
+			appendQualifiedName(builder, this.getPrefix(), this.getLocalName());
+			Iterator<?> namespaces = startElement.getNamespaces();
+			while (namespaces.hasNext()) {
+				Namespace namespace = (Namespace) namespaces.next();
+				builder.append(' ');
+				if (namespace.isDefaultNamespaceDeclaration()) {
+					builder.append("xmlns");
+				} else {
+					appendQualifiedName(builder, "xmlns", namespace.getPrefix());
+				}
+				builder.append("=\"");
+				appendEscaped(builder, emptyIfNull(namespace.getNamespaceURI()),
+						true);
+				builder.append('"');
+			}
+			Iterator<?> attributes = startElement.getAttributes();
+			while (attributes.hasNext()) {
+				Attribute attribute = (Attribute) attributes.next();
+				builder.append(' ');
+				appendQualifiedName(builder, emptyIfNull(attribute.getName()
+						.getPrefix()), attribute.getName().getLocalPart());
+				builder.append("=\"");
+				appendEscaped(builder, attribute.getValue(), true);
+				builder.append('"');
+			}
+			builder.append('>');
+		} else {
+			StringWriter writer = new StringWriter();
+			this.presentEvent.writeAsEncodedUnicode(writer);
+			builder.append(writer.getBuffer());
+		}
+	}
+}
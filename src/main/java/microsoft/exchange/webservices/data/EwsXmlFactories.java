@@ -0,0 +1,94 @@
+/**************************************************************************
+ * copyright file="EwsXmlFactories.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the EwsXmlFactories.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Holds the StAX factories shared by all readers and writers. Looking up a
+ * factory scans the class path, so each factory is created once, on first
+ * use, and configured before it is published. Configured factories are safe
+ * to use from several threads.
+ */
+final class EwsXmlFactories {
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private EwsXmlFactories() {
+	}
+
+	/**
+	 * Gets the factory used by the event readers.
+	 *
+	 * @return the factory
+	 */
+	static XMLInputFactory getEventInputFactory() {
+		return EventInputFactoryHolder.factory;
+	}
+
+	/**
+	 * Gets the factory used by the stream readers. EWS doesn't use DTDs, so
+	 * DTD and external entity processing is turned off.
+	 *
+	 * @return the factory
+	 */
+	static XMLInputFactory getStreamInputFactory() {
+		return StreamInputFactoryHolder.factory;
+	}
+
+	/**
+	 * Gets the factory used by the writers.
+	 *
+	 * @return the factory
+	 */
+	static XMLOutputFactory getOutputFactory() {
+		return OutputFactoryHolder.factory;
+	}
+
+	/**
+	 * Creates the event reader factory on first use.
+	 */
+	private static final class EventInputFactoryHolder {
+
+		/** The factory. */
+		static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	}
+
+	/**
+	 * Creates the stream reader factory on first use.
+	 */
+	private static final class StreamInputFactoryHolder {
+
+		/** The factory. */
+		static final XMLInputFactory factory = create();
+
+		/**
+		 * Creates and configures the factory.
+		 *
+		 * @return the factory
+		 */
+		private static XMLInputFactory create() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(
+					XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+					Boolean.FALSE);
+			return factory;
+		}
+	}
+
+	/**
+	 * Creates the writer factory on first use.
+	 */
+	private static final class OutputFactoryHolder {
+
+		/** The factory. */
+		static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+	}
+}
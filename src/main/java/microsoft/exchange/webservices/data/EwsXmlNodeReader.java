@@ -0,0 +1,280 @@
+/**************************************************************************
+ * copyright file="EwsXmlNodeReader.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the EwsXmlNodeReader.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Gives EwsXmlReader access to the nodes of an XML document, one node at a
+ * time. The current node stays accessible after the next node has been
+ * peeked at.
+ */
+abstract class EwsXmlNodeReader {
+
+	/**
+	 * Creates a node reader over a stream.
+	 * 
+	 * @param stream
+	 *            the stream
+	 * @param readerType
+	 *            the StAX API to use
+	 * @return the node reader
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	static EwsXmlNodeReader create(InputStream stream,
+			XmlReaderType readerType) throws XMLStreamException {
+		if (readerType == XmlReaderType.StreamReader) {
+			return new EwsXmlStreamNodeReader(EwsXmlFactories.getStreamInputFactory()
+					.createXMLStreamReader(stream));
+		} else {
+			return new EwsXmlEventNodeReader(EwsXmlFactories.getEventInputFactory()
+					.createXMLEventReader(stream));
+		}
+	}
+
+	/**
+	 * Creates a node reader over a character stream.
+	 * 
+	 * @param reader
+	 *            the character stream
+	 * @param readerType
+	 *            the StAX API to use
+	 * @return the node reader
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	static EwsXmlNodeReader create(Reader reader, XmlReaderType readerType)
+			throws XMLStreamException {
+		if (readerType == XmlReaderType.StreamReader) {
+			return new EwsXmlStreamNodeReader(EwsXmlFactories.getStreamInputFactory()
+					.createXMLStreamReader(reader));
+		} else {
+			return new EwsXmlEventNodeReader(EwsXmlFactories.getEventInputFactory()
+					.createXMLEventReader(reader));
+		}
+	}
+
+	/**
+	 * Checks whether there is a node after the current one.
+	 * 
+	 * @return true if there is a next node
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	abstract boolean hasNext() throws XMLStreamException;
+
+	/**
+	 * Moves to the next node.
+	 * 
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	abstract void next() throws XMLStreamException;
+
+	/**
+	 * Gets the type of the node after the current one, without moving.
+	 * 
+	 * @return the node type, as an XMLStreamConstants value
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	abstract int peekEventType() throws XMLStreamException;
+
+	/**
+	 * Gets the type of the current node.
+	 * 
+	 * @return the node type, as an XMLStreamConstants value
+	 */
+	abstract int getEventType();
+
+	/**
+	 * Checks whether the current character node only holds white space.
+	 * 
+	 * @return true if the current node is white space
+	 */
+	abstract boolean isWhiteSpace();
+
+	/**
+	 * Gets the text of the current character node.
+	 * 
+	 * @return the text
+	 */
+	abstract String getText();
+
+	/**
+	 * Gets the local name of the current element.
+	 * 
+	 * @return the local name
+	 */
+	abstract String getLocalName();
+
+	/**
+	 * Gets the prefix of the current element.
+	 * 
+	 * @return the prefix, empty if none
+	 */
+	abstract String getPrefix();
+
+	/**
+	 * Gets the namespace uri of the current element.
+	 * 
+	 * @return the namespace uri, empty if none
+	 */
+	abstract String getNamespaceUri();
+
+	/**
+	 * Gets the value of an attribute of the current start element.
+	 * 
+	 * @param namespaceUri
+	 *            the namespace uri of the attribute, empty if none
+	 * @param localName
+	 *            the local name of the attribute
+	 * @return the value, or null if the attribute is not present
+	 */
+	abstract String getAttributeValue(String namespaceUri, String localName);
+
+	/**
+	 * Checks whether the current start element has attributes.
+	 * 
+	 * @return true if the current element has attributes
+	 */
+	abstract boolean hasAttributes();
+
+	/**
+	 * Reads the text content of the current start element into a writer,
+	 * one text node at a time, consuming the matching end element. The
+	 * current node stays the start element.
+	 * 
+	 * @param writer
+	 *            the writer the text is written to
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	abstract void readElementText(Writer writer) throws XMLStreamException,
+	IOException;
+
+	/**
+	 * Appends the markup of the current node.
+	 * 
+	 * @param builder
+	 *            the builder
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 */
+	abstract void appendCurrentNode(StringBuilder builder)
+	throws XMLStreamException;
+
+	/**
+	 * Gets the qualified name of the current element, in QName string form.
+	 * 
+	 * @return the name
+	 */
+	String getName() {
+		String namespaceUri = this.getNamespaceUri();
+		if (namespaceUri == null || namespaceUri.length() == 0) {
+			return this.getLocalName();
+		}
+		return "{" + namespaceUri + "}" + this.getLocalName();
+	}
+
+	/**
+	 * Gets the markup of the current node, for error messages.
+	 * 
+	 * @return the markup
+	 */
+	String describeCurrentNode() {
+		StringBuilder builder = new StringBuilder();
+		try {
+			this.appendCurrentNode(builder);
+		} catch (XMLStreamException e) {
+			builder.append(this.getName());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Appends a possibly prefixed name.
+	 *
+	 * @param builder
+	 *            the builder
+	 * @param namePrefix
+	 *            the prefix
+	 * @param name
+	 *            the local name
+	 */
+	static void appendQualifiedName(StringBuilder builder, String namePrefix,
+			String name) {
+		if (!isNullOrEmpty(namePrefix)) {
+			builder.append(namePrefix).append(':');
+		}
+		builder.append(name);
+	}
+
+	/**
+	 * Appends text, escaping markup characters.
+	 *
+	 * @param builder
+	 *            the builder
+	 * @param value
+	 *            the text
+	 * @param attribute
+	 *            true to also escape quotes
+	 */
+	static void appendEscaped(StringBuilder builder, String value,
+			boolean attribute) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '<':
+				builder.append("&lt;");
+				break;
+			case '>':
+				builder.append("&gt;");
+				break;
+			case '&':
+				builder.append("&amp;");
+				break;
+			case '"':
+				builder.append(attribute ? "&quot;" : "\"");
+				break;
+			default:
+				builder.append(c);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the empty string for null.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the value, or the empty string
+	 */
+	static String emptyIfNull(String value) {
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Checks whether a string is null or empty.
+	 *
+	 * @param value
+	 *            the value
+	 * @return true if null or empty
+	 */
+	static boolean isNullOrEmpty(String value) {
+		return value == null || value.length() == 0;
+	}
+}
@@ -19,11 +19,6 @@ import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.Characters;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
 /***
  * Defines the EwsXmlReader class.
@@ -36,13 +31,7 @@ class EwsXmlReader {
 	private static final int ReadWriteBufferSize = 4096;
 
 	/** The xml reader. */
-	private XMLEventReader xmlReader = null;
-
-	/** The present event. */
-	private XMLEvent presentEvent;
-
-	/** The prev event. */
-	private XMLEvent prevEvent;
+	private EwsXmlNodeReader xmlReader = null;
 
 	/**
 	 * Initializes a new instance of the EwsXmlReader class.
@@ -52,7 +41,21 @@ class EwsXmlReader {
 	 * @throws Exception 	
 	 */
 	public EwsXmlReader(InputStream stream) throws Exception { 
-		this.xmlReader = initializeXmlReader(stream);
+		this(stream, XmlReaderType.EventReader);
+	}
+
+	/**
+	 * Initializes a new instance of the EwsXmlReader class.
+	 * 
+	 * @param stream
+	 *            the stream
+	 * @param readerType
+	 *            the StAX API used to parse the stream
+	 * @throws Exception 	
+	 */
+	public EwsXmlReader(InputStream stream, XmlReaderType readerType)
+	throws Exception { 
+		this.xmlReader = initializeXmlReader(stream, readerType);
 	}
 
 	/**
@@ -60,15 +63,14 @@ class EwsXmlReader {
 	 * 
 	 * @param stream
 	 *            the stream
+	 * @param readerType
+	 *            the StAX API used to parse the stream
 	 * @return An XML reader to use.
 	 * @throws Exception 	
 	 */
-	protected XMLEventReader initializeXmlReader(InputStream stream) 
-	throws XMLStreamException, Exception {
-
-		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-
-		return inputFactory.createXMLEventReader(stream);       
+	protected EwsXmlNodeReader initializeXmlReader(InputStream stream,
+			XmlReaderType readerType) throws XMLStreamException, Exception {
+		return EwsXmlNodeReader.create(stream, readerType);
 	}
 
 
@@ -168,15 +170,11 @@ class EwsXmlReader {
 				throw new ServiceXmlDeserializationException(
 						Strings.UnexpectedEndOfXmlDocument);
 			} else {
-				XMLEvent event = xmlReader.nextEvent();
-				if (event.getEventType() == XMLStreamConstants.CHARACTERS) {
-					Characters characters = (Characters) event;
-					if (characters.isIgnorableWhiteSpace()
-							|| characters.isWhiteSpace())
+				xmlReader.next();
+				if (xmlReader.getEventType() == XMLStreamConstants.CHARACTERS) {
+					if (xmlReader.isWhiteSpace())
 						continue;
 				}
-				this.prevEvent = this.presentEvent;
-				this.presentEvent = event;
 				break;
 			}
 		}
@@ -209,14 +207,9 @@ class EwsXmlReader {
 	 *             thrown if attribute value can not be read
 	 */
 	private String readAttributeValue(QName qName) throws Exception {
-		if (this.presentEvent.isStartElement()) {
-			StartElement startElement = this.presentEvent.asStartElement();
-			Attribute attr = startElement.getAttributeByName(qName);
-			if (null != attr) {
-				return attr.getValue();
-			} else {
-				return null;
-			}
+		if (this.isStartElement()) {
+			return this.xmlReader.getAttributeValue(qName.getNamespaceURI(),
+					qName.getLocalPart());
 		} else {
 			String errMsg = String.format("Could not fetch attribute %s", qName
 					.toString());
@@ -435,24 +428,23 @@ class EwsXmlReader {
 	public String readValue() throws XMLStreamException,
 	ServiceXmlDeserializationException {
 		String errMsg = String.format("Could not read value from %s.",
-				XMLNodeType.getString(this.presentEvent.getEventType()));
-		if (this.presentEvent.isStartElement()) {
+				XMLNodeType.getString(this.xmlReader.getEventType()));
+		if (this.isStartElement()) {
 			// Go to next event and check for Characters event
 			this.read();
-			if (this.presentEvent.isCharacters()) {
+			if (this.isCharacters()) {
 				StringBuffer elementValue = new StringBuffer();
 				do {
 					if (this.getNodeType().nodeType == XMLNodeType.CHARACTERS) {
-						Characters characters = (Characters) this.presentEvent;
-						if (!characters.isIgnorableWhiteSpace()
-								&& !characters.isWhiteSpace()) {
-							if (characters.getData().length() != 0) {
-								elementValue.append(characters.getData());
+						if (!this.xmlReader.isWhiteSpace()) {
+							String data = this.xmlReader.getText();
+							if (data.length() != 0) {
+								elementValue.append(data);
 							}
 						}
 					}
 					this.read();
-				} while (!this.presentEvent.isEndElement());
+				} while (!this.isEndElement());
 				// Characters chars = this.presentEvent.asCharacters();
 				// String elementValue = chars.getData();
 				// Advance to next event post Characters (ideally it will be End
@@ -464,25 +456,22 @@ class EwsXmlReader {
 				+ XMLNodeType.getString(XMLNodeType.CHARACTERS);
 				throw new ServiceXmlDeserializationException(errMsg);
 			}
-		} else if (this.presentEvent.getEventType() == XMLNodeType.CHARACTERS
-				&& this.presentEvent.isCharacters()) {
+		} else if (this.isCharacters()) {
 			/*
 			 * if(this.presentEvent.asCharacters().getData().equals("<")) {
 			 */
-			StringBuffer data = new StringBuffer(this.presentEvent
-					.asCharacters().getData());
+			StringBuffer data = new StringBuffer(this.xmlReader.getText());
 			do {
 				this.read();
 				if (this.getNodeType().nodeType == XMLNodeType.CHARACTERS) {
-					Characters characters = (Characters) this.presentEvent;
-					if (!characters.isIgnorableWhiteSpace()
-							&& !characters.isWhiteSpace()) {
-						if (characters.getData().length() != 0) {
-							data.append(characters.getData());
+					if (!this.xmlReader.isWhiteSpace()) {
+						String text = this.xmlReader.getText();
+						if (text.length() != 0) {
+							data.append(text);
 						}
 					}
 				}
-			} while (!this.presentEvent.isEndElement());
+			} while (!this.isEndElement());
 			return data.toString();// this.presentEvent. = new XMLEvent();
 			/*
 			 * } else { Characters chars = this.presentEvent.asCharacters();
@@ -514,7 +503,7 @@ class EwsXmlReader {
 		if (!this.isEmptyElement()) {
 			this.read();
 
-			if (this.presentEvent.isCharacters()) {
+			if (this.isCharacters()) {
 				value.setParam(this.readValue());
 				return true;
 			} else {
@@ -556,35 +545,33 @@ class EwsXmlReader {
 	IOException {
 		this.ensureCurrentNodeIsStartElement();
 
-		byte[] buffer = null;
-
 		ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
-
-		buffer = Base64EncoderStream.decode(this.xmlReader.getElementText()
-				.toString());
-		byteArrayStream.write(buffer);
-
+		this.readBase64ElementValue(byteArrayStream);
 		return byteArrayStream.toByteArray();
 
 	}
 
 	/**
-	 * Reads the base64 element value.
+	 * Reads the base64 element value. The text of the element is decoded as
+	 * it is read, so that only a buffer of the content is held in memory.
 	 * 
 	 * @param outputStream
 	 *            the output stream
-	 * @throws Exception
-	 *             the exception
+	 * @throws ServiceXmlDeserializationException
+	 *             the service xml deserialization exception
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
 	 */
 	public void readBase64ElementValue(OutputStream outputStream)
-	throws Exception {
+	throws ServiceXmlDeserializationException, XMLStreamException,
+	IOException {
 		this.ensureCurrentNodeIsStartElement();
 
-		byte[] buffer = null;
-		buffer = Base64EncoderStream.decode(this.xmlReader.getElementText()
-				.toString());
-		outputStream.write(buffer);
-		outputStream.flush();
+		Base64DecodingWriter decoder = new Base64DecodingWriter(outputStream);
+		this.xmlReader.readElementText(decoder);
+		decoder.close();
 	}
 
 	/**
@@ -680,7 +667,28 @@ class EwsXmlReader {
 	 * @return boolean
 	 */
 	public boolean isStartElement() {
-		return this.presentEvent.isStartElement();
+		return this.xmlReader.getEventType() == XMLStreamConstants.START_ELEMENT;
+	}
+
+	/**
+	 * Determines whether current element is a end element.
+	 * 
+	 * @return boolean
+	 */
+	private boolean isEndElement() {
+		return this.xmlReader.getEventType() == XMLStreamConstants.END_ELEMENT;
+	}
+
+	/**
+	 * Determines whether current node is character data.
+	 * 
+	 * @return boolean
+	 */
+	private boolean isCharacters() {
+		int eventType = this.xmlReader.getEventType();
+		return eventType == XMLStreamConstants.CHARACTERS
+		|| eventType == XMLStreamConstants.CDATA
+		|| eventType == XMLStreamConstants.SPACE;
 	}
 
 	/**
@@ -693,14 +701,9 @@ class EwsXmlReader {
 	 * @return boolean
 	 */
 	public boolean isStartElement(String namespacePrefix, String localName) {
-		boolean isStart = false;
-		if (this.presentEvent.isStartElement()) {
-			StartElement startElement = this.presentEvent.asStartElement();
-			QName qName = startElement.getName();
-			isStart = qName.getLocalPart().equals(localName)
-			&& qName.getPrefix().equals(namespacePrefix);
-		}
-		return isStart;
+		return this.isStartElement()
+		&& this.xmlReader.getLocalName().equals(localName)
+		&& this.xmlReader.getPrefix().equals(namespacePrefix);
 	}
 
 	/**
@@ -731,15 +734,9 @@ class EwsXmlReader {
 	 * @return boolean
 	 */
 	public boolean isEndElement(String namespacePrefix, String localName) {
-		boolean isEndElement = false;
-		if (this.presentEvent.isEndElement()) {
-			EndElement endElement = this.presentEvent.asEndElement();
-			QName qName = endElement.getName();
-			isEndElement = qName.getLocalPart().equals(localName)
-			&& qName.getPrefix().equals(namespacePrefix);
-
-		}
-		return isEndElement;
+		return this.isEndElement()
+		&& this.xmlReader.getLocalName().equals(localName)
+		&& this.xmlReader.getPrefix().equals(namespacePrefix);
 	}
 
 	/**
@@ -753,21 +750,12 @@ class EwsXmlReader {
 	 */
 	public boolean isEndElement(XmlNamespace xmlNamespace, String localName) {
 
-		boolean isEndElement = false;
-		/*
-		 * if(localName.equals("Body")) { return true; } else
-		 */if (this.presentEvent.isEndElement()) {
-			 EndElement endElement = this.presentEvent.asEndElement();
-			 QName qName = endElement.getName();
-			 isEndElement = qName.getLocalPart().equals(localName)
-			 && (qName.getPrefix().equals(
-					 EwsUtilities.getNamespacePrefix(xmlNamespace)) || 
-					 qName.getNamespaceURI().equals(
-							 EwsUtilities.getNamespaceUri(
-									 xmlNamespace)));
-
-		 }
-		 return isEndElement;
+		return this.isEndElement()
+		&& this.xmlReader.getLocalName().equals(localName)
+		&& (this.xmlReader.getPrefix().equals(
+				EwsUtilities.getNamespacePrefix(xmlNamespace)) || 
+				this.xmlReader.getNamespaceUri().equals(
+						EwsUtilities.getNamespaceUri(xmlNamespace)));
 	}
 
 	/**
@@ -860,12 +848,13 @@ class EwsXmlReader {
 	 */
 	public void ensureCurrentNodeIsStartElement()
 	throws ServiceXmlDeserializationException {
-		XMLNodeType presentNodeType = new XMLNodeType(this.presentEvent
-				.getEventType());
-		if (!this.presentEvent.isStartElement()) {
+		if (!this.isStartElement()) {
+			XMLNodeType presentNodeType = new XMLNodeType(this.xmlReader
+					.getEventType());
 			throw new ServiceXmlDeserializationException(String.format(
 					Strings.ExpectedStartElement,
-					this.presentEvent.toString(), presentNodeType.toString()));
+					this.xmlReader.describeCurrentNode(), presentNodeType
+					.toString()));
 		}
 	}
 
@@ -909,15 +898,8 @@ class EwsXmlReader {
 					Strings.CurrentPositionNotElementStart);
 		}
 
-		XMLEvent startEvent = this.presentEvent;
-		XMLEvent event;
 		StringBuilder str = new StringBuilder();
-		str.append(startEvent);
-		do {
-			event = this.xmlReader.nextEvent();
-			str.append(event);
-		} while (!checkEndElement(startEvent, event));
-
+		this.appendElement(str, true);
 		return str.toString();
 	}
 
@@ -937,41 +919,40 @@ class EwsXmlReader {
 					Strings.CurrentPositionNotElementStart);
 		}
 
-		XMLEvent startEvent = this.presentEvent;
 		StringBuilder str = new StringBuilder();
-		do {
-			XMLEvent event = this.xmlReader.nextEvent();
-			if (checkEndElement(startEvent, event))
-				break;
-			str.append(event);
-		} while (true);
-
+		this.appendElement(str, false);
 		return str.toString();
 	}
 
 	/**
-	 * Check end element.
+	 * Appends the markup of the current element, reading up to and including
+	 * its end element.
 	 * 
-	 * @param startEvent
-	 *            the start event
-	 * @param endEvent
-	 *            the end event
-	 * @return true, if successful
+	 * @param str
+	 *            the builder to append to
+	 * @param outer
+	 *            true to include the start and end tags of the element
+	 * @throws XMLStreamException
+	 *             the xML stream exception
 	 */
-	public static boolean checkEndElement(XMLEvent startEvent, 
-			XMLEvent endEvent) {
-
-		boolean isEndElement = false;
-		if (endEvent.isEndElement()) {
-			QName qEName = endEvent.asEndElement().getName();
-			QName qSName = startEvent.asStartElement().getName();
-			isEndElement = qEName.getLocalPart().equals(qSName.getLocalPart())
-			&& (qEName.getPrefix().equals(qSName.getPrefix()) || qEName
-					.getNamespaceURI().equals(qSName.
-							getNamespaceURI()));
-
+	private void appendElement(StringBuilder str, boolean outer)
+	throws XMLStreamException {
+		if (outer) {
+			this.xmlReader.appendCurrentNode(str);
 		}
-		return isEndElement;
+		int depth = 1;
+		do {
+			this.xmlReader.next();
+			int eventType = this.xmlReader.getEventType();
+			if (eventType == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (eventType == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			if (depth > 0 || outer) {
+				this.xmlReader.appendCurrentNode(str);
+			}
+		} while (depth > 0);
 	}
 
 	/**
@@ -997,18 +978,13 @@ class EwsXmlReader {
 		
 		XMLEventReader eventReader = null;
 		InputStream in = null;
-		XMLEvent startEvent = this.presentEvent;
-		XMLEvent event = startEvent;
 		StringBuilder str = new StringBuilder();
-		str.append(startEvent);
-		do {
-			event = this.xmlReader.nextEvent();
-			str.append(event);
-		} while (!checkEndElement(startEvent, event));
+		this.appendElement(str, true);
 
 		try {
 
-			XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+			XMLInputFactory inputFactory = EwsXmlFactories
+			.getEventInputFactory();
 
 			try {
 				in = new ByteArrayInputStream(str.toString().getBytes("UTF-8"));
@@ -1042,18 +1018,22 @@ class EwsXmlReader {
 		if (!this.isStartElement()) {
 			return false;
 		}
-		XMLEvent startEvent = this.presentEvent;
-		XMLEvent event = this.presentEvent;
-		do {			
-			if (event.isStartElement()) {
-				QName qEName = event.asStartElement().getName();
-				if (qEName.getLocalPart().equals(localName) && 
-						qEName.getNamespaceURI().equals(namespaceURI)) {
+		int depth = 0;
+		do {
+			int eventType = this.xmlReader.getEventType();
+			if (eventType == XMLStreamConstants.START_ELEMENT) {
+				if (this.xmlReader.getLocalName().equals(localName) && 
+						this.xmlReader.getNamespaceUri().equals(namespaceURI)) {
 					return true;
 				}
+				depth++;
+			} else if (eventType == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+			if (depth > 0) {
+				this.xmlReader.next();
 			}
-			event = this.xmlReader.nextEvent();
-		} while (!checkEndElement(startEvent, event));
+		} while (depth > 0);
 		
 		return false;		
 	}
@@ -1069,12 +1049,7 @@ class EwsXmlReader {
 	 */
 	public boolean hasAttributes() {
 
-		if (this.presentEvent.isStartElement()) {
-			StartElement startElement = this.presentEvent.asStartElement();
-			return startElement.getAttributes().hasNext();
-		} else {
-			return false;
-		}
+		return this.isStartElement() && this.xmlReader.hasAttributes();
 	}
 
 	/**
@@ -1085,9 +1060,8 @@ class EwsXmlReader {
 	 *             the xML stream exception
 	 */
 	public boolean isEmptyElement() throws XMLStreamException {
-		boolean isPresentStartElement = this.presentEvent.isStartElement();
-		boolean isNextEndElement = this.xmlReader.peek().isEndElement();
-		return isPresentStartElement && isNextEndElement;
+		return this.isStartElement()
+		&& this.xmlReader.peekEventType() == XMLStreamConstants.END_ELEMENT;
 	}
 
 	/**
@@ -1097,17 +1071,7 @@ class EwsXmlReader {
 	 */
 	public String getLocalName() {
 
-		String localName = null;
-
-		if (this.presentEvent.isStartElement()) {
-			localName = this.presentEvent.asStartElement().getName()
-			.getLocalPart();
-		} else {
-
-			localName = this.presentEvent.asEndElement().getName()
-			.getLocalPart();
-		}
-		return localName;
+		return this.xmlReader.getLocalName();
 	}
 
 	/**
@@ -1116,10 +1080,8 @@ class EwsXmlReader {
 	 * @return String
 	 */
 	protected String getNamespacePrefix() {
-		if (this.presentEvent.isStartElement())
-			return this.presentEvent.asStartElement().getName().getPrefix();
-		if (this.presentEvent.isEndElement())
-			return this.presentEvent.asEndElement().getName().getPrefix();
+		if (this.isStartElement() || this.isEndElement())
+			return this.xmlReader.getPrefix();
 		return null;
 	}
 
@@ -1130,16 +1092,7 @@ class EwsXmlReader {
 	 */
 	protected String getNamespaceUri() {
 
-		String nameSpaceUri = null;
-		if (this.presentEvent.isStartElement()) {
-			nameSpaceUri = this.presentEvent.asStartElement().getName()
-			.getNamespaceURI();
-		} else {
-
-			nameSpaceUri = this.presentEvent.asEndElement().getName()
-			.getNamespaceURI();
-		}
-		return nameSpaceUri;
+		return this.xmlReader.getNamespaceUri();
 	}
 
 	/**
@@ -1150,8 +1103,7 @@ class EwsXmlReader {
 	 *             the xML stream exception
 	 */
 	public XMLNodeType getNodeType() throws XMLStreamException {
-		XMLEvent event = this.presentEvent;
-		XMLNodeType nodeType = new XMLNodeType(event.getEventType());
+		XMLNodeType nodeType = new XMLNodeType(this.xmlReader.getEventType());
 		return nodeType;
 	}
 
@@ -1161,14 +1113,7 @@ class EwsXmlReader {
 	 * @return Object
 	 */
 	protected Object getName() {
-		String name = null;
-		if (this.presentEvent.isStartElement()) {
-			name = this.presentEvent.asStartElement().getName().toString();
-		} else {
-
-			name = this.presentEvent.asEndElement().getName().toString();
-		}
-		return name;
+		return this.xmlReader.getName();
 	}
 
 	/**
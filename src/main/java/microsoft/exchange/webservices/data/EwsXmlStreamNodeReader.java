@@ -0,0 +1,353 @@
+/**************************************************************************
+ * copyright file="EwsXmlStreamNodeReader.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the EwsXmlStreamNodeReader.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Node reader backed by an XMLStreamReader cursor. Nodes are read straight
+ * from the cursor; only when the cursor has to move past the current node
+ * (to peek at the next one, or to read element text) is the current node
+ * copied into reusable fields.
+ */
+class EwsXmlStreamNodeReader extends EwsXmlNodeReader {
+
+	/** The xml reader. */
+	private XMLStreamReader xmlReader;
+
+	/** Whether the current node is held in the snapshot fields. */
+	private boolean snapshot;
+
+	/** Whether the cursor is on a node that next() has not returned yet. */
+	private boolean pending;
+
+	/** The snapshot event type. */
+	private int eventType;
+
+	/** The snapshot local name. */
+	private String localName;
+
+	/** The snapshot prefix. */
+	private String prefix;
+
+	/** The snapshot namespace uri. */
+	private String namespaceUri;
+
+	/** The snapshot text. */
+	private String text;
+
+	/** The snapshot white space flag. */
+	private boolean whiteSpace;
+
+	/** The snapshot attribute count. */
+	private int attributeCount;
+
+	/** The snapshot attribute namespace uris. */
+	private String[] attributeNamespaces = new String[8];
+
+	/** The snapshot attribute prefixes. */
+	private String[] attributePrefixes = new String[8];
+
+	/** The snapshot attribute local names. */
+	private String[] attributeNames = new String[8];
+
+	/** The snapshot attribute values. */
+	private String[] attributeValues = new String[8];
+
+	/** The snapshot namespace declaration count. */
+	private int namespaceCount;
+
+	/** The snapshot namespace declaration prefixes. */
+	private String[] namespacePrefixes = new String[8];
+
+	/** The snapshot namespace declaration uris. */
+	private String[] namespaceUris = new String[8];
+
+	/**
+	 * Initializes a new instance of the EwsXmlStreamNodeReader class.
+	 *
+	 * @param xmlReader
+	 *            the xml reader, positioned on the start of the document
+	 */
+	EwsXmlStreamNodeReader(XMLStreamReader xmlReader) {
+		this.xmlReader = xmlReader;
+		// The cursor starts on START_DOCUMENT, which the first next() returns.
+		this.pending = true;
+		this.snapshot = true;
+	}
+
+	@Override
+	boolean hasNext() throws XMLStreamException {
+		return this.pending || this.xmlReader.hasNext();
+	}
+
+	@Override
+	void next() throws XMLStreamException {
+		if (this.pending) {
+			this.pending = false;
+		} else {
+			this.xmlReader.next();
+		}
+		this.snapshot = false;
+	}
+
+	@Override
+	int peekEventType() throws XMLStreamException {
+		if (!this.pending) {
+			if (!this.xmlReader.hasNext()) {
+				return XMLStreamConstants.END_DOCUMENT;
+			}
+			this.takeSnapshot();
+			this.xmlReader.next();
+			this.pending = true;
+		}
+		return this.xmlReader.getEventType();
+	}
+
+	/**
+	 * Copies the node under the cursor into the snapshot fields.
+	 */
+	private void takeSnapshot() {
+		if (this.snapshot) {
+			return;
+		}
+		XMLStreamReader reader = this.xmlReader;
+		this.eventType = reader.getEventType();
+		this.attributeCount = 0;
+		this.namespaceCount = 0;
+		switch (this.eventType) {
+		case XMLStreamConstants.START_ELEMENT:
+			int count = reader.getAttributeCount();
+			this.ensureAttributeCapacity(count);
+			for (int i = 0; i < count; i++) {
+				this.attributeNamespaces[i] = reader.getAttributeNamespace(i);
+				this.attributePrefixes[i] = reader.getAttributePrefix(i);
+				this.attributeNames[i] = reader.getAttributeLocalName(i);
+				this.attributeValues[i] = reader.getAttributeValue(i);
+			}
+			this.attributeCount = count;
+			count = reader.getNamespaceCount();
+			this.ensureNamespaceCapacity(count);
+			for (int i = 0; i < count; i++) {
+				this.namespacePrefixes[i] = reader.getNamespacePrefix(i);
+				this.namespaceUris[i] = reader.getNamespaceURI(i);
+			}
+			this.namespaceCount = count;
+			this.snapshotName(reader);
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			this.snapshotName(reader);
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.CDATA:
+		case XMLStreamConstants.SPACE:
+		case XMLStreamConstants.COMMENT:
+			this.text = reader.getText();
+			this.whiteSpace = reader.isWhiteSpace();
+			break;
+		default:
+			this.text = null;
+			break;
+		}
+		this.snapshot = true;
+	}
+
+	/**
+	 * Copies the name of the element under the cursor into the snapshot
+	 * fields.
+	 *
+	 * @param reader
+	 *            the reader
+	 */
+	private void snapshotName(XMLStreamReader reader) {
+		this.localName = reader.getLocalName();
+		this.prefix = reader.getPrefix();
+		this.namespaceUri = reader.getNamespaceURI();
+		this.text = null;
+	}
+
+	/**
+	 * Grows the attribute arrays.
+	 *
+	 * @param count
+	 *            the needed capacity
+	 */
+	private void ensureAttributeCapacity(int count) {
+		if (count > this.attributeNames.length) {
+			int size = Math.max(count, this.attributeNames.length * 2);
+			this.attributeNamespaces = new String[size];
+			this.attributePrefixes = new String[size];
+			this.attributeNames = new String[size];
+			this.attributeValues = new String[size];
+		}
+	}
+
+	/**
+	 * Grows the namespace declaration arrays.
+	 *
+	 * @param count
+	 *            the needed capacity
+	 */
+	private void ensureNamespaceCapacity(int count) {
+		if (count > this.namespacePrefixes.length) {
+			int size = Math.max(count, this.namespacePrefixes.length * 2);
+			this.namespacePrefixes = new String[size];
+			this.namespaceUris = new String[size];
+		}
+	}
+
+	@Override
+	int getEventType() {
+		return this.snapshot ? this.eventType : this.xmlReader.getEventType();
+	}
+
+	@Override
+	boolean isWhiteSpace() {
+		return this.snapshot ? this.whiteSpace : this.xmlReader.isWhiteSpace();
+	}
+
+	@Override
+	String getText() {
+		return this.snapshot ? this.text : this.xmlReader.getText();
+	}
+
+	@Override
+	String getLocalName() {
+		return this.snapshot ? this.localName : this.xmlReader.getLocalName();
+	}
+
+	@Override
+	String getPrefix() {
+		return emptyIfNull(this.snapshot ? this.prefix : this.xmlReader
+				.getPrefix());
+	}
+
+	@Override
+	String getNamespaceUri() {
+		return emptyIfNull(this.snapshot ? this.namespaceUri : this.xmlReader
+				.getNamespaceURI());
+	}
+
+	@Override
+	String getAttributeValue(String namespaceUri, String localName) {
+		int count = this.snapshot ? this.attributeCount : this.xmlReader
+				.getAttributeCount();
+		for (int i = 0; i < count; i++) {
+			String name = this.snapshot ? this.attributeNames[i]
+					: this.xmlReader.getAttributeLocalName(i);
+			if (name.equals(localName)) {
+				String ns = emptyIfNull(this.snapshot ?
+						this.attributeNamespaces[i] : this.xmlReader
+						.getAttributeNamespace(i));
+				if (ns.equals(emptyIfNull(namespaceUri))) {
+					return this.snapshot ? this.attributeValues[i]
+							: this.xmlReader.getAttributeValue(i);
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	boolean hasAttributes() {
+		return (this.snapshot ? this.attributeCount : this.xmlReader
+				.getAttributeCount()) > 0;
+	}
+
+	@Override
+	void readElementText(Writer writer) throws XMLStreamException,
+	IOException {
+		if (!this.pending) {
+			this.takeSnapshot();
+			this.xmlReader.next();
+		}
+		// Text is handed over straight from the parser buffer.
+		while (this.xmlReader.getEventType() != XMLStreamConstants.END_ELEMENT) {
+			if (this.hasElementText()) {
+				writer.write(this.xmlReader.getTextCharacters(), this.xmlReader
+						.getTextStart(), this.xmlReader.getTextLength());
+			}
+			this.xmlReader.next();
+		}
+		this.pending = false;
+	}
+
+	/**
+	 * Checks whether the node under the cursor is part of the text content
+	 * of an element.
+	 * 
+	 * @return true for character data
+	 */
+	private boolean hasElementText() {
+		return this.xmlReader.hasText()
+		&& this.xmlReader.getEventType() != XMLStreamConstants.COMMENT;
+	}
+
+	@Override
+	void appendCurrentNode(StringBuilder builder) {
+		switch (this.getEventType()) {
+		case XMLStreamConstants.START_ELEMENT:
+			builder.append('<');
+			appendQualifiedName(builder, this.getPrefix(), this
+					.getLocalName());
+			int count = this.snapshot ? this.namespaceCount : this.xmlReader
+					.getNamespaceCount();
+			for (int i = 0; i < count; i++) {
+				String nsPrefix = this.snapshot ? this.namespacePrefixes[i]
+						: this.xmlReader.getNamespacePrefix(i);
+				String nsUri = this.snapshot ? this.namespaceUris[i]
+						: this.xmlReader.getNamespaceURI(i);
+				builder.append(' ');
+				appendQualifiedName(builder,
+						isNullOrEmpty(nsPrefix) ? "" : "xmlns",
+						isNullOrEmpty(nsPrefix) ? "xmlns" : nsPrefix);
+				builder.append("=\"");
+				appendEscaped(builder, emptyIfNull(nsUri), true);
+				builder.append('"');
+			}
+			count = this.snapshot ? this.attributeCount : this.xmlReader
+					.getAttributeCount();
+			for (int i = 0; i < count; i++) {
+				builder.append(' ');
+				appendQualifiedName(builder, emptyIfNull(this.snapshot ?
+						this.attributePrefixes[i] : this.xmlReader
+						.getAttributePrefix(i)), this.snapshot ?
+						this.attributeNames[i] : this.xmlReader
+						.getAttributeLocalName(i));
+				builder.append("=\"");
+				appendEscaped(builder, this.snapshot ? this.attributeValues[i]
+						: this.xmlReader.getAttributeValue(i), true);
+				builder.append('"');
+			}
+			builder.append('>');
+			break;
+		case XMLStreamConstants.END_ELEMENT:
+			builder.append("</");
+			appendQualifiedName(builder, this.getPrefix(), this
+					.getLocalName());
+			builder.append('>');
+			break;
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+			appendEscaped(builder, this.getText(), false);
+			break;
+		case XMLStreamConstants.CDATA:
+			builder.append("<![CDATA[").append(this.getText()).append("]]>");
+			break;
+		case XMLStreamConstants.COMMENT:
+			builder.append("<!--").append(this.getText()).append("-->");
+			break;
+		default:
+			break;
+		}
+	}
+}
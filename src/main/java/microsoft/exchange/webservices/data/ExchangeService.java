@@ -16,7 +16,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -35,6 +37,10 @@ IAutodiscoverRedirectionUrl {
 
 	/** The impersonated user id. */
 	private ImpersonatedUserId impersonatedUserId;
+
+	/** The user impersonated by the operations of the current thread. */
+	private final ThreadLocal<ImpersonatedUserId> scopedImpersonatedUserId =
+		new ThreadLocal<ImpersonatedUserId>();
 	// private Iterator<ItemId> Iterator;
 	/** The file attachment content handler. */
 	private IFileAttachmentContentHandler fileAttachmentContentHandler;
@@ -42,6 +48,27 @@ IAutodiscoverRedirectionUrl {
 	/** The unified messaging. */
 	private UnifiedMessaging unifiedMessaging;
 
+	/** The asynchronous operations. */
+	private AsyncExchangeService asyncService;
+
+	/** The maximum number of items per batched request. */
+	private int maxItemsPerBatch = DefaultMaxItemsPerBatch;
+
+	/** The maximum estimated payload size of a batched request. */
+	private long maxBatchPayloadSize = DefaultMaxBatchPayloadSize;
+
+	/** The maximum number of batches executed concurrently. */
+	private int maxConcurrentBatches = 1;
+
+	/** The default maximum number of items per batched request. */
+	static final int DefaultMaxItemsPerBatch = 500;
+
+	/** The default maximum estimated payload size of a batched request. */
+	static final long DefaultMaxBatchPayloadSize = 4 * 1024 * 1024;
+
+	/** The estimated size of a property change in an UpdateItem request. */
+	private static final int EstimatedPropertyChangeSize = 512;
+
 	//private boolean exchange2007CompatibilityMode;
 	private boolean enableScpLookup = true;
 	
@@ -296,6 +323,66 @@ IAutodiscoverRedirectionUrl {
 		return this.findFolders(new FolderId(parentFolderName), view);
 	}
 
+	/**
+	 * Iterates over all the sub-folders of the specified folder that match
+	 * the search filter. Pages of the size of the view are requested as the
+	 * folders are consumed, starting at the offset of the view, and the next
+	 * page is prefetched in the background.
+	 * 
+	 * @param parentFolderId
+	 *            The Id of the folder in which to search for folders.
+	 * @param searchFilter
+	 *            The search filter, may be null.
+	 * @param view
+	 *            The view controlling the page size and the start offset; it
+	 *            is copied and not changed.
+	 * @return The folders, fetched lazily.
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PagedResultsIterable<Folder> findAllFolders(
+			final FolderId parentFolderId, final SearchFilter searchFilter,
+			FolderView view) throws Exception {
+		EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+		EwsUtilities.validateParam(view, "view");
+		EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+
+		final FolderView pagingView = new FolderView(view, view.getOffset());
+		return new PagedResultsIterable<Folder>(this, pagingView) {
+			@Override
+			Page<Folder> fetchPage(int offset) throws Exception {
+				FindFoldersResults results = findFolders(parentFolderId,
+						searchFilter, new FolderView(pagingView, offset));
+				return new Page<Folder>(results.getFolders(), results
+						.isMoreAvailable(), results.getNextPageOffset());
+			}
+		};
+	}
+
+	/**
+	 * Iterates over all the sub-folders of the specified folder that match
+	 * the search filter. Pages of the size of the view are requested as the
+	 * folders are consumed, starting at the offset of the view, and the next
+	 * page is prefetched in the background.
+	 * 
+	 * @param parentFolderName
+	 *            The name of the folder in which to search for folders.
+	 * @param searchFilter
+	 *            The search filter, may be null.
+	 * @param view
+	 *            The view controlling the page size and the start offset; it
+	 *            is copied and not changed.
+	 * @return The folders, fetched lazily.
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PagedResultsIterable<Folder> findAllFolders(
+			WellKnownFolderName parentFolderName, SearchFilter searchFilter,
+			FolderView view) throws Exception {
+		return this.findAllFolders(new FolderId(parentFolderName),
+				searchFilter, view);
+	}
+
 	/**
 	 * Load specified properties for a folder.
 	 * 
@@ -559,17 +646,43 @@ IAutodiscoverRedirectionUrl {
 			MessageDisposition messageDisposition,
 			SendInvitationsOrCancellationsMode sendInvitationsOrCancellationsMode,
 			ServiceErrorHandling errorHandling) throws Exception {
-		UpdateItemRequest request = new UpdateItemRequest(this, errorHandling);
-
-		request.getItems().addAll((Collection<? extends Item>)items);
-		request.setSavedItemsDestinationFolder(savedItemsDestinationFolderId);
-		request.setMessageDisposition(messageDisposition);
-		request.setConflictResolutionMode(conflictResolution);
-		request
-		.setSendInvitationsOrCancellationsMode(
-				sendInvitationsOrCancellationsMode);
+		final FolderId finalSavedItemsDestinationFolderId =
+			savedItemsDestinationFolderId;
+		final ConflictResolutionMode finalConflictResolution =
+			conflictResolution;
+		final MessageDisposition finalMessageDisposition = messageDisposition;
+		final SendInvitationsOrCancellationsMode 
+		finalSendInvitationsOrCancellationsMode =
+			sendInvitationsOrCancellationsMode;
+		final ServiceErrorHandling finalErrorHandling = errorHandling;
+
+		return new MultiResponseServiceRequestBatcher<Item, 
+		UpdateItemResponse>(this) {
+			@Override
+			protected int estimateSize(Item item) throws Exception {
+				return estimateIdSize(item.getId()) + 
+				item.getPropertyBag().getChangeCount() *
+				EstimatedPropertyChangeSize;
+			}
 
-		return request.execute();
+			@Override
+			protected ServiceResponseCollection<UpdateItemResponse> 
+			executeBatch(List<Item> batch) throws Exception {
+				UpdateItemRequest request = new UpdateItemRequest(
+						ExchangeService.this, finalErrorHandling);
+
+				request.getItems().addAll(batch);
+				request.setSavedItemsDestinationFolder(
+						finalSavedItemsDestinationFolderId);
+				request.setMessageDisposition(finalMessageDisposition);
+				request.setConflictResolutionMode(finalConflictResolution);
+				request
+				.setSendInvitationsOrCancellationsMode(
+						finalSendInvitationsOrCancellationsMode);
+
+				return request.execute();
+			}
+		}.execute(items);
 	}
 
 	/**
@@ -1090,6 +1203,66 @@ IAutodiscoverRedirectionUrl {
 				(SearchFilter)null, view);
 	}
 
+	/**
+	 * Iterates over all the items of the specified folder that match the
+	 * search filter. Pages of the size of the view are requested as the
+	 * items are consumed, starting at the offset of the view, and the next
+	 * page is prefetched in the background.
+	 * 
+	 * @param parentFolderId
+	 *            the parent folder id
+	 * @param searchFilter
+	 *            the search filter, may be null
+	 * @param view
+	 *            the view controlling the page size and the start offset; it
+	 *            is copied and not changed
+	 * @return The items, fetched lazily.
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PagedResultsIterable<Item> findAllItems(
+			final FolderId parentFolderId, final SearchFilter searchFilter,
+			ItemView view) throws Exception {
+		EwsUtilities.validateParam(parentFolderId, "parentFolderId");
+		EwsUtilities.validateParam(view, "view");
+		EwsUtilities.validateParamAllowNull(searchFilter, "searchFilter");
+
+		final ItemView pagingView = new ItemView(view, view.getOffset());
+		return new PagedResultsIterable<Item>(this, pagingView) {
+			@Override
+			Page<Item> fetchPage(int offset) throws Exception {
+				FindItemsResults<Item> results = findItems(parentFolderId,
+						searchFilter, new ItemView(pagingView, offset));
+				return new Page<Item>(results.getItems(), results
+						.isMoreAvailable(), results.getNextPageOffset());
+			}
+		};
+	}
+
+	/**
+	 * Iterates over all the items of the specified folder that match the
+	 * search filter. Pages of the size of the view are requested as the
+	 * items are consumed, starting at the offset of the view, and the next
+	 * page is prefetched in the background.
+	 * 
+	 * @param parentFolderName
+	 *            the parent folder name
+	 * @param searchFilter
+	 *            the search filter, may be null
+	 * @param view
+	 *            the view controlling the page size and the start offset; it
+	 *            is copied and not changed
+	 * @return The items, fetched lazily.
+	 * @throws Exception
+	 *             the exception
+	 */
+	public PagedResultsIterable<Item> findAllItems(
+			WellKnownFolderName parentFolderName, SearchFilter searchFilter,
+			ItemView view) throws Exception {
+		return this.findAllItems(new FolderId(parentFolderName),
+				searchFilter, view);
+	}
+
 	/**
 	 * Obtains a grouped list of items by searching the contents of a specific
 	 * folder. Calling this method results in a call to EWS.
@@ -1357,14 +1530,28 @@ IAutodiscoverRedirectionUrl {
 	ServiceResponseCollection<ServiceResponse> internalLoadPropertiesForItems(
 			Iterable<Item> items, PropertySet propertySet,
 			ServiceErrorHandling errorHandling) throws Exception {
-		GetItemRequestForLoad request = new GetItemRequestForLoad(this,
-				errorHandling);
-		// return null;
+		final PropertySet finalPropertySet = propertySet;
+		final ServiceErrorHandling finalErrorHandling = errorHandling;
 
-		request.getItemIds().addRangeItem(items);
-		request.setPropertySet(propertySet);
+		return new MultiResponseServiceRequestBatcher<Item, 
+		ServiceResponse>(this) {
+			@Override
+			protected int estimateSize(Item item) throws Exception {
+				return estimateIdSize(item.getId());
+			}
 
-		return request.execute();
+			@Override
+			protected ServiceResponseCollection<ServiceResponse> executeBatch(
+					List<Item> batch) throws Exception {
+				GetItemRequestForLoad request = new GetItemRequestForLoad(
+						ExchangeService.this, finalErrorHandling);
+
+				request.getItemIds().addRangeItem(batch);
+				request.setPropertySet(finalPropertySet);
+
+				return request.execute();
+			}
+		}.execute(items);
 	}
 
 	/**
@@ -1384,10 +1571,26 @@ IAutodiscoverRedirectionUrl {
 	private ServiceResponseCollection<GetItemResponse> internalBindToItems(
 			Iterable<ItemId> itemIds, PropertySet propertySet,
 			ServiceErrorHandling errorHandling) throws Exception {
-		GetItemRequest request = new GetItemRequest(this, errorHandling);
-		request.getItemIds().addRange(itemIds);
-		request.setPropertySet(propertySet);
-		return request.execute();
+		final PropertySet finalPropertySet = propertySet;
+		final ServiceErrorHandling finalErrorHandling = errorHandling;
+
+		return new MultiResponseServiceRequestBatcher<ItemId, 
+		GetItemResponse>(this) {
+			@Override
+			protected int estimateSize(ItemId itemId) {
+				return estimateIdSize(itemId);
+			}
+
+			@Override
+			protected ServiceResponseCollection<GetItemResponse> executeBatch(
+					List<ItemId> batch) throws Exception {
+				GetItemRequest request = new GetItemRequest(
+						ExchangeService.this, finalErrorHandling);
+				request.getItemIds().addRange(batch);
+				request.setPropertySet(finalPropertySet);
+				return request.execute();
+			}
+		}.execute(itemIds);
 	}
 
 	/**
@@ -1488,14 +1691,35 @@ IAutodiscoverRedirectionUrl {
 			SendCancellationsMode sendCancellationsMode,
 			AffectedTaskOccurrence affectedTaskOccurrences,
 			ServiceErrorHandling errorHandling) throws Exception {
-		DeleteItemRequest request = new DeleteItemRequest(this, errorHandling);
-
-		request.getItemIds().addRange(itemIds);
-		request.setDeleteMode(deleteMode);
-		request.setSendCancellationsMode(sendCancellationsMode);
-		request.setAffectedTaskOccurrences(affectedTaskOccurrences);
+		final DeleteMode finalDeleteMode = deleteMode;
+		final SendCancellationsMode finalSendCancellationsMode =
+			sendCancellationsMode;
+		final AffectedTaskOccurrence finalAffectedTaskOccurrences =
+			affectedTaskOccurrences;
+		final ServiceErrorHandling finalErrorHandling = errorHandling;
+
+		return new MultiResponseServiceRequestBatcher<ItemId, 
+		ServiceResponse>(this) {
+			@Override
+			protected int estimateSize(ItemId itemId) {
+				return estimateIdSize(itemId);
+			}
 
-		return request.execute();
+			@Override
+			protected ServiceResponseCollection<ServiceResponse> executeBatch(
+					List<ItemId> batch) throws Exception {
+				DeleteItemRequest request = new DeleteItemRequest(
+						ExchangeService.this, finalErrorHandling);
+
+				request.getItemIds().addRange(batch);
+				request.setDeleteMode(finalDeleteMode);
+				request.setSendCancellationsMode(finalSendCancellationsMode);
+				request.setAffectedTaskOccurrences(
+						finalAffectedTaskOccurrences);
+
+				return request.execute();
+			}
+		}.execute(itemIds);
 	}
 
 	/**
@@ -3473,9 +3697,14 @@ IAutodiscoverRedirectionUrl {
 		autodiscoverService.setEnableScpLookup(this.getEnableScpLookup());
 
 
-		GetUserSettingsResponse response = autodiscoverService.getUserSettings(
-				emailAddress, UserSettingName.InternalEwsUrl,
-				UserSettingName.ExternalEwsUrl);
+		GetUserSettingsResponse response;
+		try {
+			response = autodiscoverService.getUserSettings(
+					emailAddress, UserSettingName.InternalEwsUrl,
+					UserSettingName.ExternalEwsUrl);
+		} finally {
+			autodiscoverService.closeConnections();
+		}
 
 		switch (response.getErrorCode())
         {
@@ -3627,6 +3856,23 @@ IAutodiscoverRedirectionUrl {
 		return this.prepareHttpWebRequestForUrl(this.getUrl(), this
 				.getAcceptGzipEncoding(), true);
 	}
+
+	/**
+	 * Prepare http web request with the given HTTP headers.
+	 *
+	 * @param httpHeaders
+	 *            the HTTP headers to send
+	 * @return the http web request
+	 * @throws ServiceLocalException
+	 *             the service local exception
+	 * @throws URISyntaxException the uRI syntax exception
+	 */
+	protected HttpWebRequest prepareHttpWebRequest(
+			Map<String, String> httpHeaders)
+	throws ServiceLocalException, URISyntaxException {
+		return this.prepareHttpWebRequestForUrl(this.getUrl(), this
+				.getAcceptGzipEncoding(), true, httpHeaders);
+	}
 	
 	
 	/**
@@ -3691,6 +3937,112 @@ IAutodiscoverRedirectionUrl {
 		this.impersonatedUserId = impersonatedUserId;
 	}
 
+	/**
+	 * Runs an operation as another user. The requests the operation sends
+	 * from the current thread impersonate the user, while the requests of
+	 * other threads keep their own impersonation, so that one service and
+	 * its connection pool can serve many mailboxes concurrently. The
+	 * operations the operation submits to async(), and the iterables,
+	 * pipelines and subscriptions it creates, also impersonate the user on
+	 * the threads of the library.
+	 * 
+	 * <pre>
+	 * ChangeCollection&lt;ItemChange&gt; changes = service.executeAs(
+	 *         new ImpersonatedUserId(ConnectingIdType.SmtpAddress, mailbox),
+	 *         new Callable&lt;ChangeCollection&lt;ItemChange&gt;&gt;() {
+	 *             public ChangeCollection&lt;ItemChange&gt; call() throws Exception {
+	 *                 return service.syncFolderItems(folderId,
+	 *                         PropertySet.IdOnly, null, 512,
+	 *                         SyncFolderItemsScope.NormalItems, syncState);
+	 *             }
+	 *         });
+	 * </pre>
+	 * 
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param impersonatedUserId
+	 *            the user to impersonate
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws Exception
+	 *             the exception thrown by the operation
+	 */
+	public <TResult> TResult executeAs(ImpersonatedUserId impersonatedUserId,
+			Callable<TResult> operation) throws Exception {
+		EwsUtilities.validateParam(impersonatedUserId, "impersonatedUserId");
+		EwsUtilities.validateParam(operation, "operation");
+		return this.executeInScope(impersonatedUserId, operation);
+	}
+
+	/**
+	 * Runs an operation on the current thread with the impersonation
+	 * captured on another thread by getEffectiveImpersonatedUserId.
+	 * 
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param impersonatedUserId
+	 *            the user to impersonate, or null for the impersonated user
+	 *            id of the service
+	 * @param operation
+	 *            the operation
+	 * @return the result of the operation
+	 * @throws Exception
+	 *             the exception thrown by the operation
+	 */
+	<TResult> TResult executeInScope(ImpersonatedUserId impersonatedUserId,
+			Callable<TResult> operation) throws Exception {
+		ImpersonatedUserId previous = this.scopedImpersonatedUserId.get();
+		if (impersonatedUserId != null) {
+			this.scopedImpersonatedUserId.set(impersonatedUserId);
+		} else {
+			this.scopedImpersonatedUserId.remove();
+		}
+		try {
+			return operation.call();
+		} finally {
+			if (previous != null) {
+				this.scopedImpersonatedUserId.set(previous);
+			} else {
+				this.scopedImpersonatedUserId.remove();
+			}
+		}
+	}
+
+	/**
+	 * Wraps an operation to be run on another thread so that it keeps the
+	 * impersonation of the current thread.
+	 * 
+	 * @param <TResult>
+	 *            the result type of the operation
+	 * @param operation
+	 *            the operation
+	 * @return the operation, run with the current impersonation
+	 */
+	<TResult> Callable<TResult> inCurrentScope(
+			final Callable<TResult> operation) {
+		final ImpersonatedUserId impersonatedUserId =
+			this.getEffectiveImpersonatedUserId();
+		return new Callable<TResult>() {
+			public TResult call() throws Exception {
+				return ExchangeService.this.executeInScope(impersonatedUserId,
+						operation);
+			}
+		};
+	}
+
+	/**
+	 * Gets the user impersonated by the requests created on the current
+	 * thread: the user given to executeAs, or else the impersonated user id
+	 * of the service.
+	 * 
+	 * @return the impersonated user id, or null
+	 */
+	ImpersonatedUserId getEffectiveImpersonatedUserId() {
+		ImpersonatedUserId scoped = this.scopedImpersonatedUserId.get();
+		return scoped != null ? scoped : this.impersonatedUserId;
+	}
+
 	
 	
 	/**
@@ -3744,6 +4096,96 @@ IAutodiscoverRedirectionUrl {
 
 	
 	
+	/**
+	 * Provides access to the asynchronous versions of the operations of this
+	 * service.
+	 * 
+	 * @return the asynchronous operations
+	 */
+	public synchronized AsyncExchangeService async() {
+		if (this.asyncService == null) {
+			this.asyncService = new AsyncExchangeService(this);
+		}
+
+		return this.asyncService;
+	}
+
+	/**
+	 * Gets the maximum number of items sent in one GetItem, UpdateItem or
+	 * DeleteItem request. Larger calls are split into several requests.
+	 * 
+	 * @return the maximum number of items per request, 0 if unlimited
+	 */
+	public synchronized int getMaxItemsPerBatch() {
+		return this.maxItemsPerBatch;
+	}
+
+	/**
+	 * Sets the maximum number of items sent in one GetItem, UpdateItem or
+	 * DeleteItem request. Defaults to 500.
+	 * 
+	 * @param maxItemsPerBatch
+	 *            the maximum number of items per request, 0 if unlimited
+	 */
+	public synchronized void setMaxItemsPerBatch(int maxItemsPerBatch) {
+		if (maxItemsPerBatch < 0) {
+			throw new IllegalArgumentException(
+					"maxItemsPerBatch must not be negative.");
+		}
+		this.maxItemsPerBatch = maxItemsPerBatch;
+	}
+
+	/**
+	 * Gets the maximum estimated size, in bytes, of one GetItem, UpdateItem
+	 * or DeleteItem request.
+	 * 
+	 * @return the maximum estimated request size, 0 if unlimited
+	 */
+	public synchronized long getMaxBatchPayloadSize() {
+		return this.maxBatchPayloadSize;
+	}
+
+	/**
+	 * Sets the maximum estimated size, in bytes, of one GetItem, UpdateItem
+	 * or DeleteItem request. The size is estimated from the ids and the
+	 * number of changed properties of the items. Defaults to 4 MB.
+	 * 
+	 * @param maxBatchPayloadSize
+	 *            the maximum estimated request size, 0 if unlimited
+	 */
+	public synchronized void setMaxBatchPayloadSize(long maxBatchPayloadSize) {
+		if (maxBatchPayloadSize < 0) {
+			throw new IllegalArgumentException(
+					"maxBatchPayloadSize must not be negative.");
+		}
+		this.maxBatchPayloadSize = maxBatchPayloadSize;
+	}
+
+	/**
+	 * Gets the maximum number of batches of one call executed concurrently.
+	 * 
+	 * @return the maximum number of concurrent batches
+	 */
+	public synchronized int getMaxConcurrentBatches() {
+		return this.maxConcurrentBatches;
+	}
+
+	/**
+	 * Sets the maximum number of batches of one call executed concurrently.
+	 * Defaults to 1, batches are executed one after the other on the calling
+	 * thread. Additional batches run on the executor of async().
+	 * 
+	 * @param maxConcurrentBatches
+	 *            the maximum number of concurrent batches
+	 */
+	public synchronized void setMaxConcurrentBatches(int maxConcurrentBatches) {
+		if (maxConcurrentBatches < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrentBatches must be at least 1.");
+		}
+		this.maxConcurrentBatches = maxConcurrentBatches;
+	}
+
 	/**
 	 * * Provides access to the Unified Messaging functionalities.
 	 * 
@@ -14,9 +14,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -25,15 +23,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
-import org.apache.commons.httpclient.HttpConnectionManager;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
-
 /***
  * Represents an abstract binding to an Exchange Service.
  */
@@ -64,6 +59,15 @@ public abstract class ExchangeServiceBase {
 	/** The trace listener. */
 	private ITraceListener traceListener = new EwsTraceListener();
 
+	/** The maximum number of response bytes traced, 0 for no limit. */
+	private int traceResponseLimit;
+
+	/** The fraction of requests whose responses are traced. */
+	private double traceSamplingRate = 1.0;
+
+	/** The number of responses the sampling rate was applied to. */
+	private AtomicLong traceSampleCount = new AtomicLong();
+
 	/** The pre authenticate. */
 	private boolean preAuthenticate;
 
@@ -86,18 +90,72 @@ public abstract class ExchangeServiceBase {
 
 	private WebProxy webProxy;
 	
-	private HttpConnectionManager simpleHttpConnectionManager = new MultiThreadedHttpConnectionManager(); 
+	/** The maximum number of connections per route. */
+	private int maxConnectionsPerRoute = 
+		HttpClientTransport.DefaultMaxConnectionsPerRoute;
+
+	/** The maximum number of connections. */
+	private int maxTotalConnections = 
+		HttpClientTransport.DefaultMaxTotalConnections;
+
+	/** The idle connection timeout. */
+	private long idleConnectionTimeout = 
+		HttpClientTransport.DefaultIdleConnectionTimeout;
+
+	/** The HTTP transport, created on first use. */
+	private HttpClientTransport httpClientTransport;
+
+	/** The factory creating the HTTP requests. */
+	private IHttpWebRequestFactory httpWebRequestFactory =
+		new HttpClientWebRequestFactory();
+
+	/** The listener the measurements of each request are passed to. */
+	private IRequestMetricsListener requestMetricsListener;
+
+	/** The limiter of concurrent requests. */
+	private ThrottlingLimiter throttlingLimiter;
+
+	/** The retry policy of the operations without one of their own. */
+	private RetryPolicy defaultRetryPolicy = RetryPolicy.NoRetry;
+
+	/** The retry policies, by operation name. */
+	private Map<String, RetryPolicy> retryPolicies =
+		new ConcurrentHashMap<String, RetryPolicy>();
+
+	/** The budget bounding the retries. */
+	private RetryBudget retryBudget = new RetryBudget();
+
+	/** The StAX API used to parse responses. */
+	private XmlReaderType xmlReaderType = XmlReaderType.EventReader;
 
 	// protected static HttpStatusCode AccountIsLocked = (HttpStatusCode)456;
 
 	/**
-	 * Static members
+	 * Gets the HTTP transport shared by all the requests of this service,
+	 * creating it on first use.
+	 * 
+	 * @return the HTTP transport
 	 */
-
-	protected HttpConnectionManager getSimpleHttpConnectionManager() {
-		return simpleHttpConnectionManager;
+	protected synchronized HttpClientTransport getHttpClientTransport() {
+		if (this.httpClientTransport == null) {
+			this.httpClientTransport = new HttpClientTransport();
+			this.httpClientTransport.setMaxConnectionsPerRoute(
+					this.maxConnectionsPerRoute);
+			this.httpClientTransport.setMaxTotalConnections(
+					this.maxTotalConnections);
+			if (this.idleConnectionTimeout != 
+				HttpClientTransport.DefaultIdleConnectionTimeout) {
+				this.httpClientTransport.setIdleConnectionTimeout(
+						this.idleConnectionTimeout);
+			}
+		}
+		return this.httpClientTransport;
 	}
 
+	/**
+	 * Static members
+	 */
+
 	/** Default UserAgent. */
 	private static String defaultUserAgent = "ExchangeServicesClient/" + 
 	EwsUtilities.getBuildVersion();
@@ -115,12 +173,24 @@ public abstract class ExchangeServiceBase {
 		this.traceEnabled = service.isTraceEnabled();
 		this.traceListener = service.getTraceListener();
 		this.traceFlags = service.getTraceFlags();
+		this.traceResponseLimit = service.getTraceResponseLimit();
+		this.traceSamplingRate = service.getTraceSamplingRate();
 		this.timeout = service.getTimeout();
 		this.preAuthenticate = service.isPreAuthenticate();
 		this.userAgent = service.getUserAgent();
 		this.acceptGzipEncoding = service.getAcceptGzipEncoding();
 		this.timeZone = service.getTimeZone();
 		this.httpHeaders = service.getHttpHeaders();
+		this.maxConnectionsPerRoute = service.getMaxConnectionsPerRoute();
+		this.maxTotalConnections = service.getMaxTotalConnections();
+		this.idleConnectionTimeout = service.getIdleConnectionTimeout();
+		this.xmlReaderType = service.getXmlReaderType();
+		this.httpWebRequestFactory = service.getHttpWebRequestFactory();
+		this.requestMetricsListener = service.getRequestMetricsListener();
+		this.throttlingLimiter = service.getThrottlingLimiter();
+		this.defaultRetryPolicy = service.getDefaultRetryPolicy();
+		this.retryPolicies.putAll(service.retryPolicies);
+		this.retryBudget = service.getRetryBudget();
 	}
 
 	/**
@@ -212,6 +282,32 @@ public abstract class ExchangeServiceBase {
 	 */
 	protected HttpWebRequest prepareHttpWebRequestForUrl(URI url,
 			boolean acceptGzipEncoding, boolean allowAutoRedirect)
+	throws ServiceLocalException, URISyntaxException {
+		return this.prepareHttpWebRequestForUrl(url, acceptGzipEncoding,
+				allowAutoRedirect, this.getHttpHeaders());
+	}
+
+	/**
+	 * * Creates an HttpWebRequest instance and initialises it with the
+	 * appropriate parameters and the given HTTP headers.
+	 * 
+	 * @param url
+	 *            The URL that the HttpWebRequest should target.
+	 * @param acceptGzipEncoding
+	 *            If true, ask server for GZip compressed content.
+	 * @param allowAutoRedirect
+	 *            If true, redirection responses will be automatically followed.
+	 * @param httpHeaders
+	 *            The HTTP headers to send.
+	 * @return An initialised instance of HttpWebRequest.
+	 * @throws ServiceLocalException
+	 *             the service local exception
+	 * @throws URISyntaxException
+	 *             the uRI syntax exception
+	 */
+	protected HttpWebRequest prepareHttpWebRequestForUrl(URI url,
+			boolean acceptGzipEncoding, boolean allowAutoRedirect,
+			Map<String, String> httpHeaders)
 	throws ServiceLocalException, URISyntaxException {
 		// Verify that the protocol is something that we can handle
 		if (!url.getScheme().equalsIgnoreCase("HTTP")
@@ -221,7 +317,7 @@ public abstract class ExchangeServiceBase {
 			throw new ServiceLocalException(strErr);
 		}
 
-		HttpWebRequest request = new HttpClientWebRequest(this.simpleHttpConnectionManager);
+		HttpWebRequest request = this.createHttpWebRequest();
 		try {
 			request.setUrl(url.toURL());
 		} catch (MalformedURLException e) {
@@ -245,7 +341,7 @@ public abstract class ExchangeServiceBase {
 		}
 
 		//if (this.getHttpHeaders().size() > 0){
-			request.setHeaders(this.getHttpHeaders());
+			request.setHeaders(httpHeaders);
 		//}
 		
 		request.setUseDefaultCredentials(useDefaultCredentials);
@@ -367,13 +463,56 @@ public abstract class ExchangeServiceBase {
 	protected void traceMessage(TraceFlags traceType, String logEntry)
 	throws XMLStreamException, IOException {
 		if (this.isTraceEnabledFor(traceType)) {
+			this.writeTrace(traceType, logEntry);
+		}
+	}
+
+	/**
+	 * Writes a trace entry to the TraceListener. A TracePipeline receives
+	 * the entry unformatted; other listeners receive the formatted message.
+	 * 
+	 * @param traceType
+	 *            Kind of trace entry.
+	 * @param logEntry
+	 *            The entry to log.
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeTrace(TraceFlags traceType, String logEntry)
+	throws XMLStreamException, IOException {
+		ITraceListener listener = this.traceListener;
+		if (listener instanceof TracePipeline) {
+			TracePipeline pipeline = (TracePipeline)listener;
+			if (isPipelineSampled(pipeline, traceType)) {
+				pipeline.offer(traceType, logEntry);
+			}
+		} else {
 			String traceTypeStr = traceType.toString();
 			String logMessage = EwsUtilities.formatLogMessage(traceTypeStr,
 					logEntry);
-			this.traceListener.trace(traceTypeStr, logMessage);
+			listener.trace(traceTypeStr, logMessage);
 		}
 	}
 
+	/***
+	 * Decides whether a TracePipeline traces an entry. Responses were
+	 * sampled by isTraceSampled() when they were read, so their entries are
+	 * not sampled again.
+	 * 
+	 * @param pipeline
+	 *            The pipeline.
+	 * @param traceType
+	 *            Kind of trace entry.
+	 * @return true if the entry is traced
+	 */
+	private static boolean isPipelineSampled(TracePipeline pipeline,
+			TraceFlags traceType) {
+		return traceType == TraceFlags.EwsResponse ||
+			pipeline.isSampled(traceType);
+	}
+
 	/***
 	 * Logs the specified XML to the TraceListener if tracing is enabled.
 	 * 
@@ -385,10 +524,18 @@ public abstract class ExchangeServiceBase {
 	protected void traceXml(TraceFlags traceType,
 			ByteArrayOutputStream stream) {
 		if (this.isTraceEnabledFor(traceType)) {
+			ITraceListener listener = this.traceListener;
+			if (listener instanceof TracePipeline) {
+				TracePipeline pipeline = (TracePipeline)listener;
+				if (isPipelineSampled(pipeline, traceType)) {
+					pipeline.offer(traceType, stream.toByteArray());
+				}
+				return;
+			}
 			String traceTypeStr = traceType.toString();
 			String logMessage = EwsUtilities.formatLogMessageWithXmlContent(
 					traceTypeStr, stream);
-			this.traceListener.trace(traceTypeStr, logMessage);
+			listener.trace(traceTypeStr, logMessage);
 		}
 	}
 	
@@ -407,12 +554,9 @@ public abstract class ExchangeServiceBase {
 			HttpWebRequest request) 
 	throws URISyntaxException, EWSHttpException, XMLStreamException, IOException {
         if (this.isTraceEnabledFor(traceType)) {
-            String traceTypeStr = traceType.toString();
             String headersAsString = EwsUtilities.
             formatHttpRequestHeaders(request);
-            String logMessage = EwsUtilities.
-            formatLogMessage(traceTypeStr, headersAsString);
-            this.traceListener.trace(traceTypeStr, logMessage);
+            this.writeTrace(traceType, headersAsString);
         }
     }
 
@@ -434,11 +578,8 @@ public abstract class ExchangeServiceBase {
 			HttpWebRequest request) throws XMLStreamException, IOException,
 			EWSHttpException {
 		if (this.isTraceEnabledFor(traceType)) {
-			String traceTypeStr = traceType.toString();
 			String headersAsString = EwsUtilities.formatHttpResponseHeaders(request);
-			String logMessage = EwsUtilities.formatLogMessage(traceTypeStr,
-					headersAsString);
-			this.traceListener.trace(traceTypeStr, logMessage);
+			this.writeTrace(traceType, headersAsString);
 		}
 	}
 
@@ -450,86 +591,7 @@ public abstract class ExchangeServiceBase {
 	 * @return DateTime Returned date is always in UTC date.
 	 */
 	protected Date convertUniversalDateTimeStringToDate(String dateString) {
-		String localTimeRegex = "^(.*)([+-]{1}\\d\\d:\\d\\d)$";
-		Pattern localTimePattern = Pattern.compile(localTimeRegex);
-		String utcPattern = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-		String localPattern = "yyyy-MM-dd'T'HH:mm:ssz";
-		String localPattern1 = "yyyy-MM-dd'Z'";
-		String pattern = "yyyy-MM-ddz";
-		String localPattern2 = "yyyy-MM-dd'T'HH:mm:ss";
-		DateFormat utcFormatter = null;
-		Date dt = null;
-		String errMsg = String.format(
-				"Date String %s not in valid UTC/local format", dateString);
-		if (dateString == null || dateString.isEmpty()) {
-			return null;
-		} else {
-			if (dateString.endsWith("Z")) {
-				// String in UTC format yyyy-MM-ddTHH:mm:ssZ
-				utcFormatter = new SimpleDateFormat(utcPattern);
-				try {
-					dt = utcFormatter.parse(dateString);
-				} catch (ParseException e) {
-					utcFormatter = new SimpleDateFormat(pattern);
-					//	dateString = dateString.substring(0, 10)+"T12:00:00Z";
-					try {
-						dt = utcFormatter.parse(dateString);
-					} catch (ParseException e1) {
-						utcFormatter = new SimpleDateFormat(localPattern1);
-
-						try {
-							dt = utcFormatter.parse(dateString);
-						} catch (ParseException e2)	{
-							throw new IllegalArgumentException(errMsg, e);
-						}
-
-					}
-					// throw new IllegalArgumentException(errMsg,e);
-				}
-			} else if (dateString.endsWith("z")) {
-				// String in UTC format yyyy-MM-ddTHH:mm:ssZ
-				utcFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'z'");
-				try {
-					dt = utcFormatter.parse(dateString);
-				} catch (ParseException e) {
-					throw new IllegalArgumentException(e);
-				}
-			} else {
-				// dateString is not ending with Z.
-				// Check for yyyy-MM-ddTHH:mm:ss+/-HH:mm pattern
-				Matcher localTimeMatcher = localTimePattern.matcher(dateString);
-				if (localTimeMatcher.find()) {
-					System.out.println("Pattern matched");
-					String date = localTimeMatcher.group(1);
-					String zone = localTimeMatcher.group(2);
-					// Add the string GMT between DateTime and TimeZone
-					// since 'z' in yyyy-MM-dd'T'HH:mm:ssz matches
-					// either format GMT+/-HH:mm or +/-HHmm
-					dateString = String.format("%sGMT%s", date, zone);
-					try {
-						utcFormatter = new SimpleDateFormat(localPattern);
-						dt = utcFormatter.parse(dateString);
-					} catch (ParseException e) {
-						try {
-							utcFormatter = new SimpleDateFormat(pattern);
-							dt = utcFormatter.parse(dateString);
-						} catch (ParseException ex) {
-							throw new IllegalArgumentException(ex);
-						}
-					}
-				} else {
-					// Invalid format
-					utcFormatter = new SimpleDateFormat(localPattern2);
-					try {
-						dt = utcFormatter.parse(dateString);
-					} catch (ParseException e) {						
-						e.printStackTrace();
-						throw new IllegalArgumentException(errMsg);
-					}
-				}
-			}
-			return dt;
-		}
+		return EwsDateTimeFormat.parseDateTime(dateString);
 	}
 
 	/**
@@ -546,8 +608,7 @@ public abstract class ExchangeServiceBase {
         if (value == null || value.isEmpty()) {
             return null;
         } else {
-        	DateFormat df = new SimpleDateFormat("yyyy-MM-dd'Z'");
-			return df.parse(value);
+            return EwsDateTimeFormat.parseDate(value);
         }
     }
     
@@ -560,10 +621,7 @@ public abstract class ExchangeServiceBase {
 	 */
 	protected String convertDateTimeToUniversalDateTimeString(Date dt) {
 
-		DateFormat utcFormatter = null;
-		String utcPattern = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-		utcFormatter = new SimpleDateFormat(utcPattern);
-		return utcFormatter.format(dt);
+		return EwsDateTimeFormat.formatDateTime(dt);
 	}
 
 	/**
@@ -711,6 +769,79 @@ public abstract class ExchangeServiceBase {
 		this.traceFlags = traceFlags;
 	}
 
+	/***
+	 * Gets the maximum number of bytes of a response that are traced.
+	 * 
+	 * @return the limit in bytes, 0 for no limit
+	 */
+	public int getTraceResponseLimit() {
+		return this.traceResponseLimit;
+	}
+
+	/***
+	 * Sets the maximum number of bytes of a response that are traced. The
+	 * rest of the response is parsed but not kept for the trace. Defaults
+	 * to 0, no limit.
+	 * 
+	 * @param traceResponseLimit
+	 *            the limit in bytes, 0 for no limit
+	 */
+	public void setTraceResponseLimit(int traceResponseLimit) {
+		if (traceResponseLimit < 0) {
+			throw new IllegalArgumentException(
+					"traceResponseLimit must not be negative.");
+		}
+		this.traceResponseLimit = traceResponseLimit;
+	}
+
+	/***
+	 * Gets the fraction of requests whose responses are traced.
+	 * 
+	 * @return the sampling rate, between 0 and 1
+	 */
+	public double getTraceSamplingRate() {
+		return this.traceSamplingRate;
+	}
+
+	/***
+	 * Sets the fraction of requests whose responses are traced when
+	 * TraceFlags.EwsResponse is on. Defaults to 1, every response. When the
+	 * trace listener is a TracePipeline, its sampling rate for
+	 * TraceFlags.EwsResponse applies instead.
+	 * 
+	 * @param traceSamplingRate
+	 *            the sampling rate, between 0 and 1
+	 */
+	public void setTraceSamplingRate(double traceSamplingRate) {
+		if (!(traceSamplingRate >= 0 && traceSamplingRate <= 1)) {
+			throw new IllegalArgumentException(
+					"traceSamplingRate must be between 0 and 1.");
+		}
+		this.traceSamplingRate = traceSamplingRate;
+	}
+
+	/***
+	 * Decides whether the response of a request is traced, according to
+	 * the sampling rate. The sampled responses are spread evenly, so that a
+	 * rate of 0.25 traces every fourth response.
+	 * 
+	 * @return true if the response is traced
+	 */
+	protected boolean isTraceSampled() {
+		ITraceListener listener = this.traceListener;
+		if (listener instanceof TracePipeline) {
+			return ((TracePipeline)listener).isSampled(TraceFlags.EwsResponse);
+		}
+		double rate = this.traceSamplingRate;
+		if (rate >= 1) {
+			return true;
+		} else if (rate <= 0) {
+			return false;
+		}
+		long count = this.traceSampleCount.getAndIncrement();
+		return (long)((count + 1) * rate) != (long)(count * rate);
+	}
+
 	/***
 	 * Gets the trace listener.
 	 * 
@@ -721,7 +852,8 @@ public abstract class ExchangeServiceBase {
 	}
 
 	/***
-	 * Sets the trace listener.
+	 * Sets the trace listener. With a TracePipeline, trace entries are
+	 * formatted and written on a background thread.
 	 * 
 	 * @param traceListener
 	 *            the trace listener.
@@ -807,6 +939,286 @@ public abstract class ExchangeServiceBase {
 		this.timeout = timeout;
 	}
 
+	/***
+	 * Gets the maximum number of pooled connections kept open to a single
+	 * host.
+	 * 
+	 * @return the maximum number of connections per route
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return this.maxConnectionsPerRoute;
+	}
+
+	/***
+	 * Sets the maximum number of pooled connections kept open to a single
+	 * host. Defaults to 20.
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            the maximum number of connections per route
+	 */
+	public synchronized void setMaxConnectionsPerRoute(
+			int maxConnectionsPerRoute) {
+		if (maxConnectionsPerRoute < 1) {
+			throw new IllegalArgumentException(
+					"maxConnectionsPerRoute must be greater than zero.");
+		}
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		if (this.httpClientTransport != null) {
+			this.httpClientTransport.setMaxConnectionsPerRoute(
+					maxConnectionsPerRoute);
+		}
+	}
+
+	/***
+	 * Gets the maximum number of pooled connections of this service.
+	 * 
+	 * @return the maximum number of connections
+	 */
+	public int getMaxTotalConnections() {
+		return this.maxTotalConnections;
+	}
+
+	/***
+	 * Sets the maximum number of pooled connections of this service.
+	 * Defaults to 100.
+	 * 
+	 * @param maxTotalConnections
+	 *            the maximum number of connections
+	 */
+	public synchronized void setMaxTotalConnections(int maxTotalConnections) {
+		if (maxTotalConnections < 1) {
+			throw new IllegalArgumentException(
+					"maxTotalConnections must be greater than zero.");
+		}
+		this.maxTotalConnections = maxTotalConnections;
+		if (this.httpClientTransport != null) {
+			this.httpClientTransport.setMaxTotalConnections(
+					maxTotalConnections);
+		}
+	}
+
+	/***
+	 * Gets the time, in milliseconds, after which idle pooled connections
+	 * are closed.
+	 * 
+	 * @return the idle connection timeout in milliseconds
+	 */
+	public long getIdleConnectionTimeout() {
+		return this.idleConnectionTimeout;
+	}
+
+	/***
+	 * Sets the time, in milliseconds, after which idle pooled connections
+	 * are closed. Defaults to 60000, 0 keeps idle connections open.
+	 * 
+	 * @param idleConnectionTimeout
+	 *            the idle connection timeout in milliseconds
+	 */
+	public synchronized void setIdleConnectionTimeout(
+			long idleConnectionTimeout) {
+		if (idleConnectionTimeout < 0) {
+			throw new IllegalArgumentException(
+					"idleConnectionTimeout must not be negative.");
+		}
+		this.idleConnectionTimeout = idleConnectionTimeout;
+		if (this.httpClientTransport != null) {
+			this.httpClientTransport.setIdleConnectionTimeout(
+					idleConnectionTimeout);
+		}
+	}
+
+	/***
+	 * Gets the StAX API used to parse the responses of this service.
+	 * 
+	 * @return the xml reader type
+	 */
+	public XmlReaderType getXmlReaderType() {
+		return this.xmlReaderType;
+	}
+
+	/***
+	 * Sets the StAX API used to parse the responses of this service.
+	 * Defaults to EventReader; StreamReader reads nodes straight from the
+	 * parser cursor instead of allocating an event object per node.
+	 * 
+	 * @param xmlReaderType
+	 *            the xml reader type
+	 */
+	public void setXmlReaderType(XmlReaderType xmlReaderType) {
+		if (xmlReaderType == null) {
+			throw new IllegalArgumentException(
+					"xmlReaderType must not be null.");
+		}
+		this.xmlReaderType = xmlReaderType;
+	}
+
+	/***
+	 * Gets the factory creating the HTTP requests of this service.
+	 * 
+	 * @return the http web request factory
+	 */
+	public synchronized IHttpWebRequestFactory getHttpWebRequestFactory() {
+		return this.httpWebRequestFactory;
+	}
+
+	/***
+	 * Sets the factory creating the HTTP requests of this service, which
+	 * selects the HTTP stack. Defaults to HttpClientWebRequestFactory.
+	 * 
+	 * @param httpWebRequestFactory
+	 *            the http web request factory
+	 */
+	public synchronized void setHttpWebRequestFactory(
+			IHttpWebRequestFactory httpWebRequestFactory) {
+		if (httpWebRequestFactory == null) {
+			throw new IllegalArgumentException(
+					"httpWebRequestFactory must not be null.");
+		}
+		this.httpWebRequestFactory = httpWebRequestFactory;
+	}
+
+	/***
+	 * Gets the listener the measurements of each request are passed to.
+	 * 
+	 * @return the listener, or null if metrics are not enabled
+	 */
+	public IRequestMetricsListener getRequestMetricsListener() {
+		return this.requestMetricsListener;
+	}
+
+	/***
+	 * Sets the listener the measurements of each request are passed to,
+	 * for instance a RequestMetrics. The listener is called on the thread
+	 * that executed the request; null disables metrics.
+	 * 
+	 * @param requestMetricsListener
+	 *            the listener, or null
+	 */
+	public void setRequestMetricsListener(
+			IRequestMetricsListener requestMetricsListener) {
+		this.requestMetricsListener = requestMetricsListener;
+	}
+
+	/***
+	 * Gets the limiter of concurrent requests.
+	 * 
+	 * @return the limiter, or null if requests are not limited
+	 */
+	public ThrottlingLimiter getThrottlingLimiter() {
+		return this.throttlingLimiter;
+	}
+
+	/***
+	 * Sets the limiter of concurrent requests. Requests over the limit wait
+	 * for a request to complete, and all requests wait while the server
+	 * asks for a back-off. Services that run under the same account against
+	 * the same server should share a limiter; null, the default, disables
+	 * limiting.
+	 * 
+	 * @param throttlingLimiter
+	 *            the limiter, or null
+	 */
+	public void setThrottlingLimiter(ThrottlingLimiter throttlingLimiter) {
+		this.throttlingLimiter = throttlingLimiter;
+	}
+
+	/***
+	 * Gets the retry policy of the operations without one of their own.
+	 * 
+	 * @return the policy
+	 */
+	public RetryPolicy getDefaultRetryPolicy() {
+		return this.defaultRetryPolicy;
+	}
+
+	/***
+	 * Sets the retry policy of the operations without one of their own.
+	 * The default, RetryPolicy.NoRetry, disables retries. Only requests
+	 * that are safe to replay are retried.
+	 * 
+	 * @param defaultRetryPolicy
+	 *            the policy
+	 */
+	public void setDefaultRetryPolicy(RetryPolicy defaultRetryPolicy) {
+		if (defaultRetryPolicy == null) {
+			throw new IllegalArgumentException(
+					"defaultRetryPolicy must not be null.");
+		}
+		this.defaultRetryPolicy = defaultRetryPolicy;
+	}
+
+	/***
+	 * Gets the retry policy of an operation.
+	 * 
+	 * @param operationName
+	 *            the name of the operation, such as GetItem or
+	 *            SyncFolderItems
+	 * @return the policy of the operation, or the default policy
+	 */
+	public RetryPolicy getRetryPolicy(String operationName) {
+		RetryPolicy policy = this.retryPolicies.get(operationName);
+		return policy != null ? policy : this.defaultRetryPolicy;
+	}
+
+	/***
+	 * Sets the retry policy of an operation. The policy has no effect on
+	 * operations that are not safe to replay.
+	 * 
+	 * @param operationName
+	 *            the name of the operation, such as GetItem or
+	 *            SyncFolderItems
+	 * @param policy
+	 *            the policy, or null to use the default policy
+	 */
+	public void setRetryPolicy(String operationName, RetryPolicy policy) {
+		if (policy == null) {
+			this.retryPolicies.remove(operationName);
+		} else {
+			this.retryPolicies.put(operationName, policy);
+		}
+	}
+
+	/***
+	 * Gets the budget bounding the retries.
+	 * 
+	 * @return the budget, or null if retries are not bounded
+	 */
+	public RetryBudget getRetryBudget() {
+		return this.retryBudget;
+	}
+
+	/***
+	 * Sets the budget bounding the retries. Services that send requests to
+	 * the same server should share a budget; null removes the bound.
+	 * 
+	 * @param retryBudget
+	 *            the budget, or null
+	 */
+	public void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+
+	/***
+	 * Creates an unconfigured HTTP request through the factory of this
+	 * service.
+	 * 
+	 * @return the request
+	 */
+	protected HttpWebRequest createHttpWebRequest() {
+		return this.getHttpWebRequestFactory().createHttpWebRequest(this);
+	}
+
+	/***
+	 * Closes the pooled connections of this service. The service can still
+	 * be used afterwards, new connections are opened on demand.
+	 */
+	public synchronized void closeConnections() {
+		if (this.httpClientTransport != null) {
+			this.httpClientTransport.close();
+			this.httpClientTransport = null;
+		}
+	}
+
 	/***
 	 * Gets a value that indicates whether HTTP pre-authentication should be
 	 * performed.
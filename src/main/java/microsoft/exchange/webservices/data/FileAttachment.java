@@ -155,6 +155,7 @@ public final class FileAttachment extends Attachment {
 			}			
 			
 		} else if (this.contentStream != null) {
+			writer.markOneShotContent();
 			writer.writeBase64ElementValue(this.contentStream);
 		} else if (this.content != null) {
 			writer.writeBase64ElementValue(this.content);
@@ -200,9 +201,10 @@ public final class FileAttachment extends Attachment {
 		this.loadToStream = fos;
 		try {
 			this.load();
-		} finally {
 			this.loadToStream.flush();
+		} finally {
 			this.loadToStream = null;
+			fos.close();
 		}
 
 		this.fileName = fileName;
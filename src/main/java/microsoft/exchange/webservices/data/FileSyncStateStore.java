@@ -0,0 +1,209 @@
+/**************************************************************************
+ * copyright file="FileSyncStateStore.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the FileSyncStateStore class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores synchronization states in files, one file per key, in a directory.
+ *
+ * A file is named after the SHA-1 hash of its key and holds the key on its
+ * first line and the state on its second. States are written to a
+ * temporary file, forced to disk and renamed over the previous state, so
+ * that a crash leaves either the previous or the new state. Where renaming
+ * over a file fails, the previous state is deleted first; if the state
+ * file is missing, a complete temporary file left by a crash is loaded
+ * instead.
+ */
+public final class FileSyncStateStore implements ISyncStateStore {
+
+	/** The extension of the state files. */
+	private static final String Extension = ".syncstate";
+
+	/** The extension of the temporary state files. */
+	private static final String TemporaryExtension = Extension + ".tmp";
+
+	/** The directory holding the states. */
+	private File directory;
+
+	/**
+	 * Initializes a new instance of the FileSyncStateStore class.
+	 *
+	 * @param directory
+	 *            the directory holding the states, created if it does not
+	 *            exist
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public FileSyncStateStore(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Gets the directory holding the states.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Loads a synchronization state.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @return the state, or null if none was saved
+	 * @throws IOException
+	 *             if the state cannot be read
+	 */
+	public String load(String key) throws IOException {
+		File file = this.getFile(key, Extension);
+		if (file.exists()) {
+			return read(file, key);
+		}
+		// A crash between deleting the previous state and renaming the new
+		// one leaves only the temporary file.
+		return read(this.getFile(key, TemporaryExtension), key);
+	}
+
+	/**
+	 * Reads the state of a key from a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param key
+	 *            the key of the synchronization
+	 * @return the state, or null if the file does not exist, holds another
+	 *         key or is incomplete
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	private static String read(File file, String key) throws IOException {
+		Reader reader;
+		try {
+			reader = new InputStreamReader(new FileInputStream(file),
+					"UTF-8");
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		StringBuilder content = new StringBuilder();
+		try {
+			char[] buffer = new char[4096];
+			int count;
+			while ((count = reader.read(buffer)) != -1) {
+				content.append(buffer, 0, count);
+			}
+		} finally {
+			reader.close();
+		}
+		// The key line and the state line, each terminated by a newline.
+		int keyEnd = content.indexOf("\n");
+		if (keyEnd < 0 || !key.equals(content.substring(0, keyEnd)) ||
+				content.indexOf("\n", keyEnd + 1) != content.length() - 1) {
+			return null;
+		}
+		return content.substring(keyEnd + 1, content.length() - 1);
+	}
+
+	/**
+	 * Saves a synchronization state.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @param syncState
+	 *            the state
+	 * @throws IOException
+	 *             if the state cannot be written
+	 */
+	public void save(String key, String syncState) throws IOException {
+		File file = this.getFile(key, Extension);
+		File temporary = this.getFile(key, TemporaryExtension);
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			Writer writer = new OutputStreamWriter(stream, "UTF-8");
+			writer.write(key);
+			writer.write('\n');
+			writer.write(syncState);
+			writer.write('\n');
+			writer.flush();
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		if (!temporary.renameTo(file)) {
+			// Renaming over an existing file fails on some platforms.
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				throw new IOException("Cannot rename " + temporary + " to " +
+						file);
+			}
+		}
+	}
+
+	/**
+	 * Deletes a synchronization state, and the temporary file a crash may
+	 * have left, so that it is not loaded instead.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @throws IOException
+	 *             if the state cannot be deleted
+	 */
+	public void delete(String key) throws IOException {
+		File temporary = this.getFile(key, TemporaryExtension);
+		if (temporary.exists() && !temporary.delete()) {
+			throw new IOException("Cannot delete " + temporary);
+		}
+		File file = this.getFile(key, Extension);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot delete " + file);
+		}
+	}
+
+	/**
+	 * Gets the file of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param extension
+	 *            the extension of the file
+	 * @return the file
+	 */
+	private File getFile(String key, String extension) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-1").digest(
+					key.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder name = new StringBuilder(hash.length * 2 +
+				extension.length());
+		for (byte b : hash) {
+			name.append(Character.forDigit((b >> 4) & 0xf, 16));
+			name.append(Character.forDigit(b & 0xf, 16));
+		}
+		name.append(extension);
+		return new File(this.directory, name.toString());
+	}
+}
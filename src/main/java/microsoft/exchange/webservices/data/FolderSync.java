@@ -0,0 +1,361 @@
+/**************************************************************************
+ * copyright file="FolderSync.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the FolderSync class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The synchronization of the items of a folder, or of a folder hierarchy,
+ * run by a FolderSyncEngine.
+ */
+public final class FolderSync {
+
+	/** The engine running the synchronization. */
+	private FolderSyncEngine engine;
+
+	/** The mailbox the folder belongs to. */
+	private String mailbox;
+
+	/** The service used to synchronize the folder. */
+	private ExchangeService service;
+
+	/** The folder, or null for the hierarchy of the mailbox root. */
+	private FolderId folderId;
+
+	/** The properties of the changed items or folders. */
+	private PropertySet propertySet;
+
+	/** The scope of an item synchronization, or null for a hierarchy. */
+	private SyncFolderItemsScope syncScope;
+
+	/** The maximum number of changes per page. */
+	private int maxChangesReturned;
+
+	/** The key of the synchronization state. */
+	private String key;
+
+	/** The synchronization state, or null to start from the beginning. */
+	private String syncState;
+
+	/** Whether the synchronization state was loaded from the store. */
+	private boolean syncStateLoaded;
+
+	/** The pipeline requesting pages ahead, or null. */
+	private SyncFolderItemsPipeline pipeline;
+
+	// The fields below are guarded by the engine.
+
+	/** Whether the synchronization is queued or running. */
+	boolean scheduled;
+
+	/** Whether the synchronization is running. */
+	boolean running;
+
+	/** Whether a synchronization was requested while running. */
+	boolean requested;
+
+	/** Whether the synchronization was removed from the engine. */
+	boolean removed;
+
+	/** The pending delayed run, or null. */
+	ScheduledFuture<?> timer;
+
+	/** The number of consecutive failures. */
+	private int failures;
+
+	/** The last failure, or null. */
+	private Exception lastError;
+
+	/** The time the folder was last fully synchronized, or null. */
+	private Date lastSyncTime;
+
+	/**
+	 * Initializes a new instance of the FolderSync class.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param mailbox
+	 *            the mailbox the folder belongs to
+	 * @param service
+	 *            the service used to synchronize the folder
+	 * @param folderId
+	 *            the folder
+	 * @param propertySet
+	 *            the properties of the changed items or folders
+	 * @param syncScope
+	 *            the scope of an item synchronization, or null for a
+	 *            hierarchy
+	 * @param maxChangesReturned
+	 *            the maximum number of changes per page
+	 */
+	FolderSync(FolderSyncEngine engine, String mailbox,
+			ExchangeService service, FolderId folderId,
+			PropertySet propertySet, SyncFolderItemsScope syncScope,
+			int maxChangesReturned) {
+		this.engine = engine;
+		this.mailbox = mailbox;
+		this.service = service;
+		this.folderId = folderId;
+		this.propertySet = propertySet;
+		this.syncScope = syncScope;
+		this.maxChangesReturned = maxChangesReturned;
+		this.key = mailbox + "|" + (syncScope == null ? "hierarchy" :
+			"items") + "|" + (folderId == null ? "root" : folderId.toString());
+	}
+
+	/**
+	 * Gets the mailbox the folder belongs to.
+	 *
+	 * @return the mailbox
+	 */
+	public String getMailbox() {
+		return this.mailbox;
+	}
+
+	/**
+	 * Gets the service used to synchronize the folder.
+	 *
+	 * @return the service
+	 */
+	public ExchangeService getService() {
+		return this.service;
+	}
+
+	/**
+	 * Gets the folder.
+	 *
+	 * @return the folder, or null for the hierarchy of the mailbox root
+	 */
+	public FolderId getFolderId() {
+		return this.folderId;
+	}
+
+	/**
+	 * Gets the properties of the changed items or folders.
+	 *
+	 * @return the property set
+	 */
+	public PropertySet getPropertySet() {
+		return this.propertySet;
+	}
+
+	/**
+	 * Gets whether the folder hierarchy is synchronized rather than the
+	 * items of the folder.
+	 *
+	 * @return true for a hierarchy synchronization
+	 */
+	public boolean isHierarchy() {
+		return this.syncScope == null;
+	}
+
+	/**
+	 * Gets the key the synchronization state is stored under.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return this.key;
+	}
+
+	/**
+	 * Gets the last synchronization state saved.
+	 *
+	 * @return the state, or null
+	 */
+	public synchronized String getSyncState() {
+		return this.syncState;
+	}
+
+	/**
+	 * Gets the number of consecutive failures.
+	 *
+	 * @return the number of failures
+	 */
+	public synchronized int getFailures() {
+		return this.failures;
+	}
+
+	/**
+	 * Gets the last failure.
+	 *
+	 * @return the failure, or null if the last page succeeded
+	 */
+	public synchronized Exception getLastError() {
+		return this.lastError;
+	}
+
+	/**
+	 * Gets the time the folder was last fully synchronized.
+	 *
+	 * @return the time, or null if it never was
+	 */
+	public synchronized Date getLastSyncTime() {
+		return this.lastSyncTime;
+	}
+
+	/**
+	 * Asks for the folder to be synchronized as soon as possible, for
+	 * instance when a notification reports a change in it.
+	 */
+	public void syncNow() {
+		this.engine.syncNow(this);
+	}
+
+	/**
+	 * Stops synchronizing the folder. The synchronization state is kept in
+	 * the store.
+	 */
+	public void remove() {
+		this.engine.remove(this);
+	}
+
+	/**
+	 * Synchronizes one page of changes, delivers it and saves the new
+	 * synchronization state.
+	 *
+	 * @param store
+	 *            the store of the synchronization states
+	 * @param listener
+	 *            the listener to deliver the page to
+	 * @param pipelined
+	 *            whether to request the next page of items while this one
+	 *            is delivered
+	 * @return true if more changes are available
+	 * @throws Exception
+	 *             if the page cannot be synchronized or delivered
+	 */
+	boolean syncPage(ISyncStateStore store, IFolderSyncListener listener,
+			boolean pipelined) throws Exception {
+		String syncState;
+		synchronized (this) {
+			if (!this.syncStateLoaded) {
+				this.syncState = store.load(this.key);
+				this.syncStateLoaded = true;
+			}
+			syncState = this.syncState;
+		}
+
+		String newSyncState;
+		boolean moreChangesAvailable;
+		try {
+			if (this.syncScope == null) {
+				ChangeCollection<FolderChange> changes = this.service
+				.syncFolderHierarchy(this.folderId, this.propertySet,
+						syncState);
+				listener.foldersChanged(this, changes);
+				newSyncState = changes.getSyncState();
+				moreChangesAvailable = changes.getMoreChangesAvailable();
+			} else if (pipelined) {
+				ChangeCollection<ItemChange> changes = this.nextPipelinedPage(
+						syncState);
+				listener.itemsChanged(this, changes);
+				newSyncState = changes.getSyncState();
+				moreChangesAvailable = changes.getMoreChangesAvailable();
+				if (!moreChangesAvailable) {
+					this.closePipeline();
+				}
+			} else {
+				ChangeCollection<ItemChange> changes = this.service
+				.syncFolderItems(this.folderId, this.propertySet, null,
+						this.maxChangesReturned, this.syncScope, syncState);
+				listener.itemsChanged(this, changes);
+				newSyncState = changes.getSyncState();
+				moreChangesAvailable = changes.getMoreChangesAvailable();
+			}
+			store.save(this.key, newSyncState);
+		} catch (Exception e) {
+			// The pipeline may be ahead of the saved state.
+			this.closePipeline();
+			this.checkSyncStateRejected(store, e);
+			throw e;
+		}
+
+		synchronized (this) {
+			this.syncState = newSyncState;
+			this.failures = 0;
+			this.lastError = null;
+			if (!moreChangesAvailable) {
+				this.lastSyncTime = new Date();
+			}
+		}
+		return moreChangesAvailable;
+	}
+
+	/**
+	 * Gets the next page of items from the pipeline, starting one from the
+	 * saved state if there is none.
+	 *
+	 * @param syncState
+	 *            the saved state
+	 * @return the changes
+	 * @throws Exception
+	 *             if the page cannot be synchronized
+	 */
+	private ChangeCollection<ItemChange> nextPipelinedPage(String syncState)
+			throws Exception {
+		SyncFolderItemsPipeline pipeline;
+		synchronized (this) {
+			if (this.pipeline == null) {
+				this.pipeline = new SyncFolderItemsPipeline(this.service,
+						this.folderId, this.propertySet,
+						this.maxChangesReturned, this.syncScope, syncState);
+				this.pipeline.setMaxPagesAhead(1);
+				this.pipeline.setExecutor(this.engine.getLookAheadExecutor(
+						this.mailbox));
+			}
+			pipeline = this.pipeline;
+		}
+		return pipeline.next();
+	}
+
+	/**
+	 * Stops the pipeline, if any.
+	 */
+	synchronized void closePipeline() {
+		if (this.pipeline != null) {
+			this.pipeline.close();
+			this.pipeline = null;
+		}
+	}
+
+	/**
+	 * Discards the synchronization state if the server rejected it, so
+	 * that the folder is synchronized again from the start.
+	 *
+	 * @param store
+	 *            the store of the synchronization states
+	 * @param exception
+	 *            the failure
+	 * @throws Exception
+	 *             if the state cannot be deleted
+	 */
+	private void checkSyncStateRejected(ISyncStateStore store,
+			Exception exception) throws Exception {
+		if (exception instanceof ServiceResponseException &&
+				((ServiceResponseException)exception).getErrorCode() ==
+					ServiceError.ErrorInvalidSyncStateData) {
+			store.delete(this.key);
+			synchronized (this) {
+				this.syncState = null;
+			}
+		}
+	}
+
+	/**
+	 * Records a failure.
+	 *
+	 * @param exception
+	 *            the failure
+	 * @return the number of consecutive failures
+	 */
+	synchronized int failed(Exception exception) {
+		this.lastError = exception;
+		return ++this.failures;
+	}
+}
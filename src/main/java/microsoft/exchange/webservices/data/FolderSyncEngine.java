@@ -0,0 +1,671 @@
+/**************************************************************************
+ * copyright file="FolderSyncEngine.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the FolderSyncEngine class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronizes many folders continuously, checkpointing the
+ * synchronization state of each folder after every page of changes.
+ *
+ * Each folder is synchronized until no more changes are available, then
+ * again after the sync interval, or sooner when FolderSync.syncNow is
+ * called. Pages of changes are passed to an IFolderSyncListener and the
+ * new synchronization state is saved to an ISyncStateStore once the
+ * listener returns, so that after a restart synchronization resumes from
+ * the last page delivered.
+ *
+ * Pages are scheduled fairly between mailboxes: the worker threads take
+ * mailboxes in turn, one page at a time, and run at most
+ * maxConcurrentSyncsPerMailbox pages of a mailbox at once, so that a
+ * mailbox with many or large folders neither starves the others nor
+ * exceeds its concurrency budget on the server. After a failure the page
+ * is attempted again after a delay that grows exponentially and is picked
+ * at random below that bound.
+ *
+ * <pre>
+ * FolderSyncEngine engine = new FolderSyncEngine(new File(&quot;state&quot;), listener);
+ * engine.addItemSync(&quot;alice@contoso.com&quot;, service, new FolderId(
+ *         WellKnownFolderName.Inbox), PropertySet.IdOnly,
+ *         SyncFolderItemsScope.NormalItems);
+ * </pre>
+ */
+public final class FolderSyncEngine implements Closeable {
+
+	/** The default number of worker threads. */
+	public static final int DefaultWorkerThreads = 8;
+
+	/** The default number of concurrent pages per mailbox. */
+	public static final int DefaultMaxConcurrentSyncsPerMailbox = 2;
+
+	/** The default sync interval, in milliseconds. */
+	public static final long DefaultSyncInterval = 60 * 1000;
+
+	/** The default maximum number of changes per page. */
+	public static final int DefaultMaxChangesReturned = 512;
+
+	/** The minimum retry delay, in milliseconds. */
+	static final long MinRetryDelay = 1000;
+
+	/** The maximum retry delay, in milliseconds. */
+	static final long MaxRetryDelay = 5 * 60 * 1000;
+
+	/** The store of the synchronization states. */
+	private ISyncStateStore store;
+
+	/** The listener receiving the changes. */
+	private IFolderSyncListener listener;
+
+	/** The number of concurrent pages per mailbox. */
+	private int maxConcurrentSyncsPerMailbox =
+		DefaultMaxConcurrentSyncsPerMailbox;
+
+	/** The sync interval, in milliseconds. */
+	private long syncInterval = DefaultSyncInterval;
+
+	/** Whether pages of items are requested ahead. */
+	private boolean pipelined;
+
+	/** The synchronizations, by key. */
+	private Map<String, FolderSync> syncs = new HashMap<String, FolderSync>();
+
+	/** The queues of the mailboxes, by mailbox. */
+	private Map<String, MailboxQueue> mailboxes =
+		new HashMap<String, MailboxQueue>();
+
+	/** The mailboxes with a page ready to run, in turn order. */
+	private LinkedList<MailboxQueue> readyMailboxes =
+		new LinkedList<MailboxQueue>();
+
+	/** The worker threads. */
+	private List<Thread> workers = new ArrayList<Thread>();
+
+	/** The thread scheduling delayed synchronizations. */
+	private ScheduledThreadPoolExecutor timer;
+
+	/** The source of the retry jitter. */
+	private Random random = new Random();
+
+	/** Whether the engine is closed. */
+	private boolean closed;
+
+	/**
+	 * Initializes a new instance of the FolderSyncEngine class storing the
+	 * synchronization states in files.
+	 *
+	 * @param stateDirectory
+	 *            the directory of the synchronization states
+	 * @param listener
+	 *            the listener receiving the changes
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public FolderSyncEngine(File stateDirectory, IFolderSyncListener listener)
+			throws IOException {
+		this(new FileSyncStateStore(stateDirectory), listener,
+				DefaultWorkerThreads);
+	}
+
+	/**
+	 * Initializes a new instance of the FolderSyncEngine class.
+	 *
+	 * @param store
+	 *            the store of the synchronization states
+	 * @param listener
+	 *            the listener receiving the changes
+	 * @param workerThreads
+	 *            the number of pages synchronized concurrently
+	 */
+	public FolderSyncEngine(ISyncStateStore store,
+			IFolderSyncListener listener, int workerThreads) {
+		if (store == null || listener == null || workerThreads < 1) {
+			throw new IllegalArgumentException(
+					"A store, a listener and at least one thread are " +
+					"required.");
+		}
+		this.store = store;
+		this.listener = listener;
+		this.timer = new ScheduledThreadPoolExecutor(1,
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS folder sync timer"));
+		for (int i = 0; i < workerThreads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				public void run() {
+					FolderSyncEngine.this.work();
+				}
+			}, "EWS folder sync " + i);
+			worker.setDaemon(true);
+			this.workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Gets the number of concurrent pages per mailbox.
+	 *
+	 * @return the number of pages
+	 */
+	public synchronized int getMaxConcurrentSyncsPerMailbox() {
+		return this.maxConcurrentSyncsPerMailbox;
+	}
+
+	/**
+	 * Sets the number of pages of a mailbox synchronized concurrently.
+	 *
+	 * @param value
+	 *            the number of pages
+	 */
+	public synchronized void setMaxConcurrentSyncsPerMailbox(int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(
+					"At least one page per mailbox is required.");
+		}
+		this.maxConcurrentSyncsPerMailbox = value;
+		for (MailboxQueue queue : this.mailboxes.values()) {
+			this.makeReady(queue);
+		}
+	}
+
+	/**
+	 * Gets the sync interval.
+	 *
+	 * @return the interval, in milliseconds
+	 */
+	public synchronized long getSyncInterval() {
+		return this.syncInterval;
+	}
+
+	/**
+	 * Sets the time between the end of a synchronization and the next
+	 * synchronization of the same folder.
+	 *
+	 * @param value
+	 *            the interval, in milliseconds
+	 */
+	public synchronized void setSyncInterval(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException(
+					"The interval must not be negative.");
+		}
+		this.syncInterval = value;
+	}
+
+	/**
+	 * Gets whether the next page of items of a folder is requested while
+	 * a page is delivered.
+	 *
+	 * @return true if pages are requested ahead
+	 */
+	public synchronized boolean isPipelined() {
+		return this.pipelined;
+	}
+
+	/**
+	 * Sets whether the next page of items of a folder is requested while
+	 * a page is delivered and while the folder waits for its next turn,
+	 * using a SyncFolderItemsPipeline. This overlaps the network time of a
+	 * folder with the processing of its changes. A page is requested ahead
+	 * only in a free slot of its mailbox that no folder is waiting for, so
+	 * requests ahead count toward maxConcurrentSyncsPerMailbox.
+	 *
+	 * @param value
+	 *            true to request pages ahead
+	 */
+	public synchronized void setPipelined(boolean value) {
+		this.pipelined = value;
+	}
+
+	/**
+	 * Gets the number of synchronizations.
+	 *
+	 * @return the number of synchronizations
+	 */
+	public synchronized int getSyncCount() {
+		return this.syncs.size();
+	}
+
+	/**
+	 * Gets a synchronization.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @return the synchronization, or null
+	 */
+	public synchronized FolderSync getSync(String key) {
+		return this.syncs.get(key);
+	}
+
+	/**
+	 * Starts synchronizing the items of a folder.
+	 *
+	 * @param mailbox
+	 *            the mailbox the folder belongs to, which identifies the
+	 *            synchronization together with the folder
+	 * @param service
+	 *            the service used to synchronize the folder
+	 * @param folderId
+	 *            the folder
+	 * @param propertySet
+	 *            the properties of the changed items
+	 * @param syncScope
+	 *            the items to synchronize
+	 * @return the synchronization
+	 */
+	public FolderSync addItemSync(String mailbox, ExchangeService service,
+			FolderId folderId, PropertySet propertySet,
+			SyncFolderItemsScope syncScope) {
+		if (folderId == null || syncScope == null) {
+			throw new IllegalArgumentException(
+					"folderId and syncScope must not be null.");
+		}
+		return this.add(new FolderSync(this, mailbox, service, folderId,
+				propertySet, syncScope, DefaultMaxChangesReturned));
+	}
+
+	/**
+	 * Starts synchronizing a folder hierarchy.
+	 *
+	 * @param mailbox
+	 *            the mailbox the folders belong to, which identifies the
+	 *            synchronization together with the folder
+	 * @param service
+	 *            the service used to synchronize the folders
+	 * @param folderId
+	 *            the root of the hierarchy, or null for the mailbox root
+	 * @param propertySet
+	 *            the properties of the changed folders
+	 * @return the synchronization
+	 */
+	public FolderSync addHierarchySync(String mailbox,
+			ExchangeService service, FolderId folderId,
+			PropertySet propertySet) {
+		return this.add(new FolderSync(this, mailbox, service, folderId,
+				propertySet, null, 0));
+	}
+
+	/**
+	 * Adds a synchronization and schedules it.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 * @return the synchronization
+	 */
+	private synchronized FolderSync add(FolderSync sync) {
+		if (sync.getMailbox() == null || sync.getService() == null ||
+				sync.getPropertySet() == null) {
+			throw new IllegalArgumentException(
+					"mailbox, service and propertySet must not be null.");
+		}
+		if (this.closed) {
+			throw new IllegalStateException("The engine is closed.");
+		}
+		if (this.syncs.containsKey(sync.getKey())) {
+			throw new IllegalArgumentException(
+					"The folder is already synchronized: " + sync.getKey());
+		}
+		this.syncs.put(sync.getKey(), sync);
+		this.enqueue(sync);
+		return sync;
+	}
+
+	/**
+	 * Asks for a folder to be synchronized as soon as possible.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 */
+	synchronized void syncNow(FolderSync sync) {
+		if (sync.removed || this.closed) {
+			return;
+		}
+		if (sync.running) {
+			sync.requested = true;
+		} else {
+			this.enqueue(sync);
+		}
+	}
+
+	/**
+	 * Stops synchronizing a folder.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 */
+	void remove(FolderSync sync) {
+		synchronized (this) {
+			if (sync.removed) {
+				return;
+			}
+			sync.removed = true;
+			this.syncs.remove(sync.getKey());
+			if (sync.timer != null) {
+				sync.timer.cancel(false);
+				sync.timer = null;
+			}
+			MailboxQueue queue = this.mailboxes.get(sync.getMailbox());
+			if (queue != null && queue.ready.remove(sync)) {
+				sync.scheduled = false;
+				if (queue.ready.isEmpty() && queue.inTurn) {
+					// Nothing left to take a turn with, even if pages of the
+					// mailbox are still running.
+					queue.inTurn = false;
+					this.readyMailboxes.remove(queue);
+				}
+				this.releaseQueue(queue);
+			}
+		}
+		// Outside the lock of the engine, which a pipeline takes while
+		// locked to request a page ahead.
+		sync.closePipeline();
+	}
+
+	/**
+	 * Stops the engine. Pages being synchronized are completed.
+	 */
+	public void close() {
+		List<FolderSync> toClose;
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.notifyAll();
+			toClose = new ArrayList<FolderSync>(this.syncs.values());
+		}
+		for (FolderSync sync : toClose) {
+			sync.closePipeline();
+		}
+		this.timer.shutdownNow();
+	}
+
+	/**
+	 * Gets the executor requesting pages of a mailbox ahead.
+	 *
+	 * @param mailbox
+	 *            the mailbox
+	 * @return the executor
+	 */
+	Executor getLookAheadExecutor(final String mailbox) {
+		return new Executor() {
+			public void execute(Runnable command) {
+				FolderSyncEngine.this.lookAhead(mailbox, command);
+			}
+		};
+	}
+
+	/**
+	 * Requests a page ahead in a slot of its mailbox. The page is rejected
+	 * if the mailbox has no free slot or has a folder waiting for one.
+	 *
+	 * @param mailbox
+	 *            the mailbox
+	 * @param command
+	 *            the request of the page
+	 */
+	private void lookAhead(String mailbox, final Runnable command) {
+		final MailboxQueue queue;
+		synchronized (this) {
+			if (this.closed) {
+				throw new RejectedExecutionException("The engine is closed.");
+			}
+			MailboxQueue existing = this.mailboxes.get(mailbox);
+			if (existing == null) {
+				existing = new MailboxQueue(mailbox);
+				this.mailboxes.put(mailbox, existing);
+			}
+			if (!existing.ready.isEmpty() ||
+					existing.running >= this.maxConcurrentSyncsPerMailbox) {
+				this.releaseQueue(existing);
+				throw new RejectedExecutionException(
+						"No slot of the mailbox is free.");
+			}
+			existing.running++;
+			queue = existing;
+		}
+		try {
+			SyncFolderItemsPipeline.getDefaultExecutor().execute(
+					new Runnable() {
+				public void run() {
+					try {
+						command.run();
+					} finally {
+						FolderSyncEngine.this.releaseSlot(queue);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.releaseSlot(queue);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a slot of a mailbox taken by a page requested ahead.
+	 *
+	 * @param queue
+	 *            the queue of the mailbox
+	 */
+	private synchronized void releaseSlot(MailboxQueue queue) {
+		queue.running--;
+		this.makeReady(queue);
+		this.releaseQueue(queue);
+	}
+
+	/**
+	 * Queues a synchronization for a worker, unless it is already queued.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 */
+	private void enqueue(FolderSync sync) {
+		if (sync.timer != null) {
+			sync.timer.cancel(false);
+			sync.timer = null;
+		}
+		if (sync.scheduled) {
+			return;
+		}
+		sync.scheduled = true;
+		MailboxQueue queue = this.mailboxes.get(sync.getMailbox());
+		if (queue == null) {
+			queue = new MailboxQueue(sync.getMailbox());
+			this.mailboxes.put(sync.getMailbox(), queue);
+		}
+		queue.ready.add(sync);
+		this.makeReady(queue);
+	}
+
+	/**
+	 * Schedules a synchronization after a delay.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 * @param delay
+	 *            the delay, in milliseconds
+	 */
+	private void schedule(final FolderSync sync, long delay) {
+		if (this.closed) {
+			return;
+		}
+		sync.timer = this.timer.schedule(new Runnable() {
+			public void run() {
+				synchronized (FolderSyncEngine.this) {
+					sync.timer = null;
+					if (!sync.removed && !FolderSyncEngine.this.closed) {
+						FolderSyncEngine.this.enqueue(sync);
+					}
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Puts a mailbox in the turn order if it has a page ready and is under
+	 * its concurrency limit.
+	 *
+	 * @param queue
+	 *            the queue of the mailbox
+	 */
+	private void makeReady(MailboxQueue queue) {
+		if (!queue.inTurn && !queue.ready.isEmpty() &&
+				queue.running < this.maxConcurrentSyncsPerMailbox) {
+			queue.inTurn = true;
+			this.readyMailboxes.addLast(queue);
+			this.notify();
+		}
+	}
+
+	/**
+	 * Forgets the queue of a mailbox that has nothing left to run; it is
+	 * created again when a page of the mailbox is queued.
+	 *
+	 * @param queue
+	 *            the queue of the mailbox
+	 */
+	private void releaseQueue(MailboxQueue queue) {
+		if (queue.ready.isEmpty() && queue.running == 0) {
+			if (queue.inTurn) {
+				queue.inTurn = false;
+				this.readyMailboxes.remove(queue);
+			}
+			this.mailboxes.remove(queue.mailbox);
+		}
+	}
+
+	/**
+	 * Runs pages in turn until the engine is closed.
+	 */
+	private void work() {
+		while (true) {
+			FolderSync sync;
+			MailboxQueue queue;
+			synchronized (this) {
+				while (!this.closed && this.readyMailboxes.isEmpty()) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (this.closed) {
+					return;
+				}
+				queue = this.readyMailboxes.removeFirst();
+				queue.inTurn = false;
+				if (queue.ready.isEmpty()) {
+					// Emptied since it was put in the turn order.
+					this.releaseQueue(queue);
+					continue;
+				}
+				sync = queue.ready.removeFirst();
+				sync.scheduled = false;
+				sync.running = true;
+				queue.running++;
+				// The mailbox takes its next turn after the others.
+				this.makeReady(queue);
+			}
+
+			boolean moreChangesAvailable = false;
+			Exception failure = null;
+			boolean pipelined;
+			synchronized (this) {
+				pipelined = this.pipelined;
+			}
+			try {
+				moreChangesAvailable = sync.syncPage(this.store,
+						this.listener, pipelined);
+			} catch (Exception e) {
+				failure = e;
+			}
+
+			long delay = 0;
+			if (failure != null) {
+				int failures = sync.failed(failure);
+				try {
+					this.listener.syncFailed(sync, failure);
+				} catch (RuntimeException e) {
+					// A failing listener must not stop the worker.
+				}
+				delay = this.retryDelay(failures);
+			}
+
+			synchronized (this) {
+				sync.running = false;
+				queue.running--;
+				if (!sync.removed) {
+					if (failure == null && (moreChangesAvailable ||
+							sync.requested)) {
+						this.enqueue(sync);
+					} else if (failure == null) {
+						this.schedule(sync, this.syncInterval);
+					} else {
+						this.schedule(sync, delay);
+					}
+					sync.requested = false;
+				}
+				this.makeReady(queue);
+				this.releaseQueue(queue);
+			}
+		}
+	}
+
+	/**
+	 * Gets the delay before the next attempt after a failure.
+	 *
+	 * @param failures
+	 *            the number of consecutive failures
+	 * @return the delay, in milliseconds
+	 */
+	private synchronized long retryDelay(int failures) {
+		long bound = MinRetryDelay << Math.min(failures - 1, 20);
+		if (bound > MaxRetryDelay) {
+			bound = MaxRetryDelay;
+		}
+		return MinRetryDelay / 2 +
+				(long)(this.random.nextDouble() * (bound - MinRetryDelay / 2));
+	}
+
+	/**
+	 * The pages of a mailbox waiting for a worker.
+	 */
+	private static final class MailboxQueue {
+
+		/** The mailbox. */
+		private String mailbox;
+
+		/** The synchronizations ready to run, in order. */
+		private LinkedList<FolderSync> ready = new LinkedList<FolderSync>();
+
+		/** The number of pages running. */
+		private int running;
+
+		/** Whether the mailbox is in the turn order. */
+		private boolean inTurn;
+
+		/**
+		 * Initializes a new instance of the MailboxQueue class.
+		 *
+		 * @param mailbox
+		 *            the mailbox
+		 */
+		MailboxQueue(String mailbox) {
+			this.mailbox = mailbox;
+		}
+	}
+}
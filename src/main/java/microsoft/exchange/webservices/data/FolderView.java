@@ -92,6 +92,21 @@ public final class FolderView extends PagedView {
 		super(pageSize, offset, offsetBasePoint);
 	}
 
+	/**
+	 * Initializes a new instance of the FolderView class with the settings of
+	 * another view, positioned at the specified offset.
+	 * 
+	 * @param view
+	 *            The view to copy.
+	 * @param offset
+	 *            The offset of the view from the base point.
+	 */
+	FolderView(FolderView view, int offset) {
+		super(view.getPageSize(), offset, view.getOffsetBasePoint());
+		this.setPropertySet(view.getPropertySet());
+		this.traversal = view.traversal;
+	}
+
 	/**
 	 * Gets the search traversal mode. Defaults to FolderTraversal.Shallow.
 	 * 
@@ -168,7 +168,7 @@ public final class GetEventsResults {
 	 * 
 	 * @return the subscription id
 	 */
-	protected String getSubscriptionId() {
+	public String getSubscriptionId() {
 		return subscriptionId;
 	}
 
@@ -186,7 +186,7 @@ public final class GetEventsResults {
 	 * 
 	 * @return the new watermark
 	 */
-	protected String getNewWatermark() {
+	public String getNewWatermark() {
 		return newWatermark;
 	}
 
@@ -9,9 +9,7 @@ import java.net.UnknownServiceException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -145,6 +143,12 @@ abstract class HangingServiceRequestBase extends ServiceRequestBase {
 	 */
 	protected int heartbeatFrequencyMilliseconds;
 
+	/**
+	 * Engine whose reader threads read the response.
+	 */
+	private StreamingConnectionEngine engine = 
+		StreamingConnectionEngine.getDefault();
+
 	protected interface IHangingRequestDisconnectHandler {
 
 		/**
@@ -212,6 +216,16 @@ abstract class HangingServiceRequestBase extends ServiceRequestBase {
 		this.heartbeatFrequencyMilliseconds = heartbeatFrequency;
 	}
 
+	/***
+	 * Sets the engine whose reader threads read the response.
+	 * 
+	 * @param engine
+	 *            The engine.
+	 */
+	protected void setEngine(StreamingConnectionEngine engine) {
+		this.engine = engine;
+	}
+
 	/***
 	 * Exectures the request.
 	 */
@@ -340,7 +354,7 @@ abstract class HangingServiceRequestBase extends ServiceRequestBase {
 	 * Perform any bookkeeping needed when we connect
 	 */
 	private void internalOnConnect() throws XMLStreamException, 
-	IOException, EWSHttpException {
+	IOException, EWSHttpException, ServiceLocalException {
 		if (!this.isConnected()) {
 			this.isConnected = true;
 
@@ -350,25 +364,21 @@ abstract class HangingServiceRequestBase extends ServiceRequestBase {
 						TraceFlags.EwsResponseHttpHeaders,
 						this.response);
 			}
-			int poolSize = 1;
-			 
-		    int maxPoolSize = 1;
-		 
-		    long keepAliveTime = 10;
-		 
-		    final ArrayBlockingQueue<Runnable> queue = 
-		    	new ArrayBlockingQueue<Runnable>(
-		            1);
-			ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize,
-					maxPoolSize,
-	                keepAliveTime, TimeUnit.SECONDS, queue);
-			threadPool.execute(new Runnable()
-	        {
-	            public void run() {
-	            	parseResponses(null);
-	            }
-	        });
-			threadPool.shutdown();
+			try {
+				this.engine.read(new Runnable()
+		        {
+		            public void run() {
+		            	parseResponses(null);
+		            }
+		        });
+			} catch (RejectedExecutionException e) {
+				this.isConnected = false;
+				this.request.close();
+				this.response.close();
+				throw new ServiceLocalException(
+						"No reader thread of the streaming connection engine " +
+						"is free; add subscriptions to fewer connections.", e);
+			}
 		}
 	}
 
@@ -16,11 +16,10 @@ import javax.xml.stream.XMLStreamException;
  * A stream that traces everything it returns from its Read() call.
  * That trace may be retrieved at the end of the stream.
  */
-class HangingTraceStream extends InputStream{
+class HangingTraceStream extends TraceInputStream{
 
-	private InputStream underlyingStream;
 	private ExchangeService service;
-	private ByteArrayOutputStream responseCopy;
+	private boolean traceResponse;
 
 	/**
 	 * Initializes a new instance of the HangingTraceStream class.
@@ -31,12 +30,12 @@ class HangingTraceStream extends InputStream{
 	 *           the service.
 	 */
 	protected HangingTraceStream(InputStream stream, ExchangeService service) {
-		this.underlyingStream = stream;
+		super(stream, service.getTraceResponseLimit());
 		this.service = service;
 
-		if (this.service.isTraceEnabledFor(TraceFlags.EwsResponse)) {
-			this.responseCopy = new ByteArrayOutputStream();
-		}
+		this.traceResponse = 
+			this.service.isTraceEnabledFor(TraceFlags.EwsResponse) &&
+			this.service.isTraceSampled();
 	}
 
 	/**
@@ -94,12 +93,12 @@ class HangingTraceStream extends InputStream{
 	 */
 	@Override
 	public int read(byte[] buffer, int offset, int count) throws IOException {
-		count = 4096;
-		int retVal = this.underlyingStream.read(buffer, offset, count);
+		int retVal = this.in.read(buffer, offset, count);
 
 		if (HangingServiceRequestBase.LogAllWireBytes)
 		{
-			String readString = new String(buffer, offset, count, "UTF-8");
+			String readString = new String(buffer, offset,
+					Math.max(retVal, 0), "UTF-8");
 			String logMessage = String.format(
 					"HangingTraceStream ID [%d] " +
 					"returned %d bytes. Bytes returned: [%s]",
@@ -116,8 +115,8 @@ class HangingTraceStream extends InputStream{
 			}
 		}
 
-		if (this.responseCopy != null) {
-			this.responseCopy.write(buffer, offset, retVal);
+		if (this.traceResponse && retVal > 0) {
+			this.record(buffer, offset, retVal);
 		}
 
 		return retVal;
@@ -129,12 +128,14 @@ class HangingTraceStream extends InputStream{
 	 * @return A copy of the response.
 	 */
 	protected ByteArrayOutputStream GetResponseCopy() {
-		return this.responseCopy;
+		return this.traceResponse ? this.getCopy() : null;
 	}
 
 	@Override
 	public int read() throws IOException {
-		return 0;
+		byte[] buffer = new byte[1];
+		int retVal = this.read(buffer, 0, 1);
+		return retVal <= 0 ? -1 : buffer[0] & 0xff;
 	}
 }
 
@@ -0,0 +1,388 @@
+/**************************************************************************
+ * copyright file="HttpClientTransport.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the HttpClientTransport.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.TrustManager;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NTCredentials;
+import org.apache.commons.httpclient.auth.AuthPolicy;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+
+/**
+ * HttpClientTransport is the long-lived HTTP transport of a service. It owns
+ * the connection pool, the HttpClient and the SSL protocol, which are
+ * configured once and then shared by all the HttpClientWebRequest instances
+ * created by the service, from any thread. The timeouts and the
+ * authentication state belong to each request.
+ *
+ * The idle connections of all the transports are evicted by one shared
+ * thread. A transport that is never closed stops being evicted once it is
+ * garbage collected.
+ */
+class HttpClientTransport {
+
+	/** The default maximum number of connections per route. */
+	static final int DefaultMaxConnectionsPerRoute = 20;
+
+	/** The default maximum number of connections. */
+	static final int DefaultMaxTotalConnections = 100;
+
+	/** The default idle connection timeout, in milliseconds. */
+	static final long DefaultIdleConnectionTimeout = 60000;
+
+	/** Whether the process wide protocol and scheme registration happened. */
+	private static boolean registered = false;
+
+	/** The thread evicting the idle connections of all the transports. */
+	private static ScheduledThreadPoolExecutor evictor;
+
+	/** The connection manager. */
+	private MultiThreadedHttpConnectionManager connectionManager;
+
+	/** The Http Client. */
+	private HttpClient client;
+
+	/** The periodic eviction of the idle connections, or null. */
+	private ScheduledFuture<?> idleConnectionEviction;
+
+	/** The idle connection timeout. */
+	private long idleConnectionTimeout = DefaultIdleConnectionTimeout;
+
+	/** The https protocol. */
+	private Protocol httpsProtocol;
+
+	/** The trust manager the https protocol was built with. */
+	private TrustManager httpsTrustManager;
+
+	/**
+	 * Initializes a new instance of the HttpClientTransport class.
+	 */
+	protected HttpClientTransport() {
+		registerGlobalSchemes();
+
+		this.connectionManager = new RequestTimeoutConnectionManager();
+		HttpConnectionManagerParams params = this.connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(DefaultMaxConnectionsPerRoute);
+		params.setMaxTotalConnections(DefaultMaxTotalConnections);
+		params.setStaleCheckingEnabled(true);
+
+		this.client = new HttpClient(this.connectionManager);
+		List<String> authPrefs = new ArrayList<String>();
+		authPrefs.add(AuthPolicy.NTLM);
+		authPrefs.add(AuthPolicy.BASIC);
+		authPrefs.add(AuthPolicy.DIGEST);
+		this.client.getParams().setParameter(AuthPolicy.AUTH_SCHEME_PRIORITY,
+				authPrefs);
+
+		this.httpsProtocol = new Protocol(EWSConstants.HTTPS_SCHEME,
+				new EwsSSLProtocolSocketFactory(), 443);
+		this.startIdleConnectionEviction();
+	}
+
+	/**
+	 * Gets the thread evicting the idle connections of all the transports,
+	 * creating it on first use.
+	 *
+	 * @return the evictor
+	 */
+	private static synchronized ScheduledThreadPoolExecutor getEvictor() {
+		if (evictor == null) {
+			evictor = new ScheduledThreadPoolExecutor(1,
+					new AsyncExchangeService.DaemonThreadFactory(
+							"EWS idle connection evictor"));
+		}
+		return evictor;
+	}
+
+	/**
+	 * Registers the NTLM scheme and the https protocol once per process.
+	 * The https protocol is only registered for redirections, requests
+	 * use the protocol of their own host configuration.
+	 */
+	private static synchronized void registerGlobalSchemes() {
+		if (!registered) {
+			AuthPolicy.registerAuthScheme(AuthPolicy.NTLM,
+					EwsJCIFSNTLMScheme.class);
+			Protocol.registerProtocol(EWSConstants.HTTPS_SCHEME, new Protocol(
+					EWSConstants.HTTPS_SCHEME, new EwsSSLProtocolSocketFactory(),
+					443));
+			registered = true;
+		}
+	}
+
+	/**
+	 * Gets the Http Client.
+	 *
+	 * @return the Http Client
+	 */
+	protected HttpClient getHttpClient() {
+		return this.client;
+	}
+
+	/**
+	 * Gets the connection manager.
+	 *
+	 * @return the connection manager
+	 */
+	protected MultiThreadedHttpConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+
+	/**
+	 * Creates the host configuration for a request, using the https
+	 * protocol of this transport and the proxy if any.
+	 *
+	 * @param url
+	 *            the url
+	 * @param proxy
+	 *            the proxy, may be null
+	 * @param trustManager
+	 *            the trust manager, may be null
+	 * @return the host configuration
+	 */
+	protected HostConfiguration createHostConfiguration(URL url,
+			WebProxy proxy, TrustManager trustManager) {
+		HostConfiguration hostConfiguration = new HostConfiguration();
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		if (url.getProtocol().equalsIgnoreCase(EWSConstants.HTTPS_SCHEME)) {
+			hostConfiguration.setHost(url.getHost(), port,
+					this.getHttpsProtocol(trustManager));
+		} else {
+			hostConfiguration.setHost(url.getHost(), port, url.getProtocol());
+		}
+		if (proxy != null) {
+			hostConfiguration.setProxy(proxy.getHost(), proxy.getPort());
+		}
+		return hostConfiguration;
+	}
+
+	/**
+	 * Gets the https protocol, rebuilding it only when the trust manager
+	 * changes.
+	 *
+	 * @param trustManager
+	 *            the trust manager, may be null
+	 * @return the https protocol
+	 */
+	private synchronized Protocol getHttpsProtocol(TrustManager trustManager) {
+		if (trustManager != this.httpsTrustManager) {
+			this.httpsProtocol = new Protocol(EWSConstants.HTTPS_SCHEME,
+					new EwsSSLProtocolSocketFactory(trustManager), 443);
+			this.httpsTrustManager = trustManager;
+		}
+		return this.httpsProtocol;
+	}
+
+	/**
+	 * Creates the authentication state of a request for the given
+	 * credentials. Each request has its own state, so that the cookies a
+	 * response sets for one mailbox are not sent for another; NTLM
+	 * authenticated connections are still reused, since NTLM authenticates
+	 * the connection rather than the state.
+	 *
+	 * @param userName
+	 *            the user name, may be null
+	 * @param password
+	 *            the password
+	 * @param domain
+	 *            the domain
+	 * @param proxy
+	 *            the proxy, may be null
+	 * @return the authentication state
+	 */
+	protected HttpState createState(String userName, String password,
+			String domain, WebProxy proxy) {
+		HttpState state = new HttpState();
+		if (userName != null) {
+			state.setCredentials(AuthScope.ANY, new NTCredentials(userName,
+					password, "", domain));
+		}
+		if (proxy != null && HttpProxyCredentials.isProxySet()) {
+			AuthScope authScope = new AuthScope(proxy.getHost(), proxy
+					.getPort());
+			state.setProxyCredentials(authScope, new NTCredentials(
+					HttpProxyCredentials.getUserName(),
+					HttpProxyCredentials.getPassword(), "",
+					HttpProxyCredentials.getDomain()));
+		}
+		return state;
+	}
+
+	/**
+	 * Sets the maximum number of connections per route.
+	 *
+	 * @param maxConnections
+	 *            the maximum number of connections per route
+	 */
+	protected void setMaxConnectionsPerRoute(int maxConnections) {
+		this.connectionManager.getParams().setDefaultMaxConnectionsPerHost(
+				maxConnections);
+	}
+
+	/**
+	 * Sets the maximum number of connections.
+	 *
+	 * @param maxConnections
+	 *            the maximum number of connections
+	 */
+	protected void setMaxTotalConnections(int maxConnections) {
+		this.connectionManager.getParams().setMaxTotalConnections(
+				maxConnections);
+	}
+
+	/**
+	 * Sets the time after which idle connections are evicted.
+	 *
+	 * @param timeout
+	 *            the idle timeout in milliseconds, 0 disables eviction
+	 */
+	protected synchronized void setIdleConnectionTimeout(long timeout) {
+		this.idleConnectionTimeout = timeout;
+		this.stopIdleConnectionEviction();
+		this.startIdleConnectionEviction();
+	}
+
+	/**
+	 * Schedules the eviction of the idle connections on the shared evictor,
+	 * if enabled.
+	 */
+	private void startIdleConnectionEviction() {
+		if (this.idleConnectionTimeout > 0) {
+			long interval = Math.max(1000, this.idleConnectionTimeout / 2);
+			IdleConnectionEviction eviction = new IdleConnectionEviction(
+					this.connectionManager, this.idleConnectionTimeout);
+			this.idleConnectionEviction = getEvictor().scheduleWithFixedDelay(
+					eviction, interval, interval, TimeUnit.MILLISECONDS);
+			eviction.setFuture(this.idleConnectionEviction);
+		}
+	}
+
+	/**
+	 * Cancels the eviction of the idle connections, if scheduled.
+	 */
+	private void stopIdleConnectionEviction() {
+		if (this.idleConnectionEviction != null) {
+			this.idleConnectionEviction.cancel(false);
+			this.idleConnectionEviction = null;
+		}
+	}
+
+	/**
+	 * Closes all the connections and stops evicting them.
+	 */
+	protected synchronized void close() {
+		this.stopIdleConnectionEviction();
+		this.connectionManager.shutdown();
+	}
+
+	/**
+	 * Closes the idle connections of one pool. The pool is only weakly
+	 * referenced, so that the eviction does not keep the pool of a
+	 * transport that was never closed alive; the eviction cancels itself
+	 * once the pool is collected.
+	 */
+	private static final class IdleConnectionEviction implements Runnable {
+
+		/** The pool. */
+		private WeakReference<MultiThreadedHttpConnectionManager> pool;
+
+		/** The idle timeout, in milliseconds. */
+		private long timeout;
+
+		/** The scheduled eviction. */
+		private volatile ScheduledFuture<?> future;
+
+		/**
+		 * Initializes a new instance of the IdleConnectionEviction class.
+		 *
+		 * @param pool
+		 *            the pool
+		 * @param timeout
+		 *            the idle timeout, in milliseconds
+		 */
+		IdleConnectionEviction(MultiThreadedHttpConnectionManager pool,
+				long timeout) {
+			this.pool = new WeakReference<MultiThreadedHttpConnectionManager>(
+					pool);
+			this.timeout = timeout;
+		}
+
+		/**
+		 * Sets the scheduled eviction, cancelled once the pool is collected.
+		 *
+		 * @param future
+		 *            the scheduled eviction
+		 */
+		void setFuture(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+
+		/**
+		 * Closes the connections idle for longer than the timeout.
+		 */
+		public void run() {
+			MultiThreadedHttpConnectionManager manager = this.pool.get();
+			if (manager != null) {
+				manager.closeIdleConnections(this.timeout);
+			} else if (this.future != null) {
+				this.future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * The connection pool of the transport. A connection handed to a
+	 * request takes the connection timeout of the host configuration of
+	 * that request, so that requests with different timeouts do not change
+	 * the timeout of the pool for each other.
+	 */
+	private static final class RequestTimeoutConnectionManager extends
+			MultiThreadedHttpConnectionManager {
+
+		/**
+		 * Gets a connection for a request, with the connection timeout of
+		 * its host configuration, or the timeout of the pool if it has none.
+		 *
+		 * @param hostConfiguration
+		 *            the host configuration of the request
+		 * @param timeout
+		 *            the time to wait for a connection, in milliseconds
+		 * @return the connection
+		 * @throws ConnectionPoolTimeoutException
+		 *             if no connection became available in time
+		 */
+		@Override
+		public HttpConnection getConnectionWithTimeout(
+				HostConfiguration hostConfiguration, long timeout)
+				throws ConnectionPoolTimeoutException {
+			HttpConnection connection = super.getConnectionWithTimeout(
+					hostConfiguration, timeout);
+			connection.getParams().setParameter(
+					HttpConnectionParams.CONNECTION_TIMEOUT,
+					hostConfiguration.getParams().getParameter(
+							HttpConnectionParams.CONNECTION_TIMEOUT));
+			return connection;
+		}
+	}
+}
@@ -13,25 +13,22 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.net.ssl.TrustManager;
 
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethodBase;
-import org.apache.commons.httpclient.NTCredentials;
-import org.apache.commons.httpclient.auth.AuthPolicy;
-import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.HttpState;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
 
 
 /**
@@ -46,16 +43,26 @@ class HttpClientWebRequest extends HttpWebRequest {
 	/** The Http Method. */
 	private HttpMethodBase httpMethod = null;
 	
+	/** The host configuration of the Http Method. */
+	private HostConfiguration hostConfiguration = null;
+	
+	/** The authentication state of the Http Method. */
+	private HttpState state = null;
+	
 	/** The TrustManager. */
 	private TrustManager trustManger = null;
 	
-	private HttpConnectionManager simpleHttpConnMng = null;
+	/** The shared transport of the service. */
+	private HttpClientTransport transport = null;
 	
 	/**
 	 * Instantiates a new http native web request.
+	 * 
+	 * @param transport
+	 *            the shared transport of the service
 	 */
-	public HttpClientWebRequest(HttpConnectionManager simpleHttpConnMng) {
-		this.simpleHttpConnMng = simpleHttpConnMng;
+	public HttpClientWebRequest(HttpClientTransport transport) {
+		this.transport = transport;
 	}
 
 	/**
@@ -78,36 +85,9 @@ class HttpClientWebRequest extends HttpWebRequest {
 	 */
 	@Override
 	public void prepareConnection() throws EWSHttpException {
-		if(trustManger != null) {
-			EwsSSLProtocolSocketFactory.trustManager = trustManger;
-		}
-				
-		Protocol.registerProtocol("https", 
-				new Protocol("https", new EwsSSLProtocolSocketFactory(), 443));
-		AuthPolicy.registerAuthScheme(AuthPolicy.NTLM, EwsJCIFSNTLMScheme.class);
-		client = new HttpClient(this.simpleHttpConnMng); 
-		List authPrefs = new ArrayList();
-		authPrefs.add(AuthPolicy.NTLM);
-		authPrefs.add(AuthPolicy.BASIC);
-		authPrefs.add(AuthPolicy.DIGEST);
-		client.getParams().setParameter(AuthPolicy.AUTH_SCHEME_PRIORITY, authPrefs);
-		
-		if(getProxy() != null) {
-			client.getHostConfiguration().setProxy(getProxy().getHost(),getProxy().getPort());
-			if (HttpProxyCredentials.isProxySet()) {
-				AuthScope authScope = new AuthScope(getProxy().getHost(), getProxy().getPort()); 
-				client.getState().setProxyCredentials(authScope, new NTCredentials(HttpProxyCredentials.getUserName(),
-	            		HttpProxyCredentials.getPassword(),
-	                    "",HttpProxyCredentials.getDomain())); 
-	                //new AuthScope(AuthScope.ANY_HOST, 80, AuthScope.ANY_REALM)
-			}
-		}
-		if(getUserName() != null) {
-		client.getState().setCredentials(AuthScope.ANY, new NTCredentials(getUserName(),getPassword(),"",getDomain()));
-		}
-		client.getHttpConnectionManager().getParams().setSoTimeout(getTimeout());
-		client.getHttpConnectionManager().getParams().setConnectionTimeout(getTimeout());
-		httpMethod = new PostMethod(getUrl().toString()); 
+		this.prepareClient(getTimeout());
+		httpMethod = new PostMethod(getPathAndQuery()); 
+		httpMethod.getParams().setSoTimeout(getTimeout());
 		httpMethod.setRequestHeader("Content-type", getContentType());
 		httpMethod.setDoAuthentication(true);
 		httpMethod.setRequestHeader("User-Agent", getUserAgent());		
@@ -137,27 +117,12 @@ class HttpClientWebRequest extends HttpWebRequest {
 	 */
 	public void prepareAsyncConnection() throws EWSHttpException {
 		try {
-			if(trustManger != null) {
-				EwsSSLProtocolSocketFactory.trustManager = trustManger;
-			}
-			
-			Protocol.registerProtocol("https", 
-					new Protocol("https", new EwsSSLProtocolSocketFactory(), 443));
-			AuthPolicy.registerAuthScheme(AuthPolicy.NTLM, EwsJCIFSNTLMScheme.class);
-			client = new HttpClient(this.simpleHttpConnMng); 
-			List authPrefs = new ArrayList();
-			authPrefs.add(AuthPolicy.NTLM);
-			authPrefs.add(AuthPolicy.BASIC);
-			authPrefs.add(AuthPolicy.DIGEST);
-			client.getParams().setParameter(AuthPolicy.AUTH_SCHEME_PRIORITY, authPrefs);
-
-			client.getState().setCredentials(AuthScope.ANY, new NTCredentials(getUserName(),getPassword(),"",getDomain()));
-			client.getHttpConnectionManager().getParams().setSoTimeout(getTimeout());
-			client.getHttpConnectionManager().getParams().setConnectionTimeout(20000);
-			httpMethod = new GetMethod(getUrl().toString()); 
+			this.prepareClient(20000);
+			httpMethod = new GetMethod(getPathAndQuery()); 
+			httpMethod.getParams().setSoTimeout(getTimeout());
 			httpMethod.setFollowRedirects(isAllowAutoRedirect());
 			
-			int status = client.executeMethod(httpMethod); 
+			int status = client.executeMethod(hostConfiguration, httpMethod, state); 
 		} catch (IOException e) {
 			client = null;
 			httpMethod = null;
@@ -166,6 +131,33 @@ class HttpClientWebRequest extends HttpWebRequest {
 		}
 	}
 
+	/**
+	 * Picks up the shared client of the transport, and creates the host
+	 * configuration and authentication state of this request.
+	 * 
+	 * @param connectionTimeout
+	 *            the connection timeout of this request, in milliseconds
+	 */
+	private void prepareClient(int connectionTimeout) {
+		client = this.transport.getHttpClient();
+		hostConfiguration = this.transport.createHostConfiguration(getUrl(),
+				getProxy(), trustManger);
+		hostConfiguration.getParams().setIntParameter(
+				HttpConnectionParams.CONNECTION_TIMEOUT, connectionTimeout);
+		state = this.transport.createState(getUserName(), getPassword(),
+				getDomain(), getProxy());
+	}
+
+	/**
+	 * Gets the path and query of the url, relative to the host configuration.
+	 * 
+	 * @return the path and query
+	 */
+	private String getPathAndQuery() {
+		String file = getUrl().getFile();
+		return file.length() == 0 ? "/" : file;
+	}
+
 	/**
 	 * Gets the input stream.
 	 * 
@@ -223,6 +215,27 @@ class HttpClientWebRequest extends HttpWebRequest {
 		return os;
 	}
 
+	/**
+	 * Sets the body of the request, which is written onto the connection
+	 * when the request is executed, and written again if the request has to
+	 * be sent again for authentication. The server is asked to accept the
+	 * request before the body is sent, so that an authentication challenge
+	 * does not cost a full upload.
+	 * 
+	 * @param body
+	 *            the body
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public void setRequestBody(IRequestBody body) throws EWSHttpException {
+		throwIfConnIsNull();
+		httpMethod.getParams().setBooleanParameter(
+				HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		((EntityEnclosingMethod) httpMethod).setRequestEntity(
+				new StreamingRequestEntity(body, getContentType()));
+	}
+
 	/**
 	 * Gets the response headers.
 	 * 
@@ -297,7 +310,7 @@ class HttpClientWebRequest extends HttpWebRequest {
 	@Override
 	public int executeRequest() throws EWSHttpException, HttpException, IOException {
 		throwIfConnIsNull();
-		return client.executeMethod(httpMethod);
+		return client.executeMethod(hostConfiguration, httpMethod, state);
 	}
 
 	/**
@@ -0,0 +1,27 @@
+/**************************************************************************
+ * copyright file="HttpClientWebRequestFactory.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the HttpClientWebRequestFactory.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Creates requests carried by Apache HttpClient 3.1, over the pooled
+ * transport of the service. Supports NTLM, Basic and Digest authentication.
+ * This is the default factory.
+ */
+public final class HttpClientWebRequestFactory implements
+		IHttpWebRequestFactory {
+
+	/**
+	 * Creates a new request on the transport of the service.
+	 *
+	 * @param service
+	 *            the service issuing the request
+	 * @return the request
+	 */
+	public HttpWebRequest createHttpWebRequest(ExchangeServiceBase service) {
+		return new HttpClientWebRequest(service.getHttpClientTransport());
+	}
+}
@@ -19,9 +19,10 @@ import javax.net.ssl.TrustManager;
 import org.apache.commons.httpclient.HttpException;
 
 /**
- * The Class HttpWebRequest.
+ * The Class HttpWebRequest. Requests are created by the
+ * IHttpWebRequestFactory of the service.
  */
- abstract class HttpWebRequest {
+public abstract class HttpWebRequest {
 
 	/** The url. */
 	private URL url;
@@ -445,6 +446,29 @@ import org.apache.commons.httpclient.HttpException;
 	 */
 	public abstract OutputStream getOutputStream() throws EWSHttpException;
 
+	/**
+	 * Sets the body of the request. By default the body is written to the
+	 * output stream right away; implementations may instead write it onto
+	 * the connection when the request is executed.
+	 * 
+	 * @param body
+	 *            the body
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void setRequestBody(IRequestBody body) throws EWSHttpException,
+			IOException {
+		OutputStream stream = this.getOutputStream();
+		try {
+			body.writeTo(stream);
+			stream.flush();
+		} finally {
+			stream.close();
+		}
+	}
+
 	/**
 	 * Close.
 	 */
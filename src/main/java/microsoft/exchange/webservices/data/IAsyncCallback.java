@@ -0,0 +1,33 @@
+/**************************************************************************
+ * copyright file="IAsyncCallback.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the IAsyncCallback.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Callback invoked when an asynchronous operation completes.
+ * 
+ * @param <TResult>
+ *            the result type of the operation
+ */
+public interface IAsyncCallback<TResult> {
+
+	/**
+	 * Called when the operation completed successfully.
+	 * 
+	 * @param result
+	 *            the result of the operation
+	 */
+	void onCompleted(TResult result);
+
+	/**
+	 * Called when the operation failed or was cancelled.
+	 * 
+	 * @param exception
+	 *            the exception raised by the operation, or a
+	 *            CancellationException if it was cancelled
+	 */
+	void onFailed(Exception exception);
+}
@@ -0,0 +1,58 @@
+/**************************************************************************
+ * copyright file="IFolderSyncListener.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IFolderSyncListener interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Receives the changes found by a FolderSyncEngine.
+ *
+ * The changes of a folder are delivered one page at a time, in order, and
+ * never concurrently; different folders are delivered concurrently. A page
+ * is checkpointed after it was delivered, so a page whose delivery throws,
+ * or that was being delivered when the process stopped, is delivered
+ * again.
+ */
+public interface IFolderSyncListener {
+
+	/**
+	 * Called with a page of item changes.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 * @param changes
+	 *            the changes
+	 * @throws Exception
+	 *             to have the page delivered again later
+	 */
+	void itemsChanged(FolderSync sync, ChangeCollection<ItemChange> changes)
+			throws Exception;
+
+	/**
+	 * Called with a page of folder changes.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 * @param changes
+	 *            the changes
+	 * @throws Exception
+	 *             to have the page delivered again later
+	 */
+	void foldersChanged(FolderSync sync,
+			ChangeCollection<FolderChange> changes) throws Exception;
+
+	/**
+	 * Called when a page cannot be synchronized. The page is attempted
+	 * again after a delay. When the server rejects the synchronization
+	 * state (ErrorInvalidSyncStateData), the state is discarded and the
+	 * folder is synchronized again from the start.
+	 *
+	 * @param sync
+	 *            the synchronization
+	 * @param exception
+	 *            the failure
+	 */
+	void syncFailed(FolderSync sync, Exception exception);
+}
@@ -0,0 +1,27 @@
+/**************************************************************************
+ * copyright file="IHttpWebRequestFactory.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IHttpWebRequestFactory.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Creates the HTTP requests of a service. The factory decides which HTTP
+ * stack carries the requests; the service configures the returned request
+ * (url, headers, credentials, timeouts) before preparing the connection.
+ *
+ * Factories are shared by all the requests of a service and must be safe
+ * to use from several threads.
+ */
+public interface IHttpWebRequestFactory {
+
+	/**
+	 * Creates a new, unconfigured request.
+	 *
+	 * @param service
+	 *            the service issuing the request
+	 * @return the request
+	 */
+	HttpWebRequest createHttpWebRequest(ExchangeServiceBase service);
+}
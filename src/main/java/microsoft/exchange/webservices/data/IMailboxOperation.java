@@ -0,0 +1,31 @@
+/**************************************************************************
+ * copyright file="IMailboxOperation.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IMailboxOperation interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * An operation run against each mailbox of a fan-out.
+ *
+ * @param <TResult>
+ *            the result type of the operation
+ */
+public interface IMailboxOperation<TResult> {
+
+	/**
+	 * Runs the operation for a mailbox. The requests sent by the service
+	 * from this method impersonate the mailbox.
+	 *
+	 * @param service
+	 *            the service
+	 * @param mailbox
+	 *            the impersonated mailbox
+	 * @return the result for the mailbox
+	 * @throws Exception
+	 *             if the operation fails for the mailbox
+	 */
+	TResult execute(ExchangeService service, ImpersonatedUserId mailbox)
+			throws Exception;
+}
@@ -0,0 +1,48 @@
+/**************************************************************************
+ * copyright file="IPullSubscriptionListener.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IPullSubscriptionListener interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Receives the events polled by a PullSubscriptionScheduler.
+ *
+ * The events of a subscription are delivered in order and never
+ * concurrently; different subscriptions are delivered concurrently. A
+ * subscription is not polled again until its events have been delivered,
+ * and events whose delivery throws are polled and delivered again. Failures
+ * are reported on the same threads as the events, and a subscription is not
+ * polled again until its failure has been reported.
+ */
+public interface IPullSubscriptionListener {
+
+	/**
+	 * Called with the events of a poll that returned events.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 * @param results
+	 *            the events
+	 * @throws Exception
+	 *             to have the events delivered again
+	 */
+	void eventsReceived(PullSubscription subscription,
+			GetEventsResults results) throws Exception;
+
+	/**
+	 * Called when a subscription cannot be polled or its events cannot be
+	 * delivered. A subscription the server no longer knows is removed from
+	 * the scheduler; any other failure is attempted again after a delay.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 * @param exception
+	 *            the failure
+	 * @param removed
+	 *            whether the subscription was removed
+	 */
+	void subscriptionFailed(PullSubscription subscription,
+			Exception exception, boolean removed);
+}
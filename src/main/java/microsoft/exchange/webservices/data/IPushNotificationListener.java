@@ -0,0 +1,33 @@
+/**************************************************************************
+ * copyright file="IPushNotificationListener.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IPushNotificationListener interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.List;
+
+/**
+ * Receives the notifications posted to a PushNotificationReceiver.
+ *
+ * Notifications are delivered in batches, one batch at a time. The
+ * notifications of a batch are acknowledged to the server once the batch
+ * has been delivered; if the delivery throws, the server is told the
+ * notifications failed and posts them again later.
+ */
+public interface IPushNotificationListener {
+
+	/**
+	 * Called with a batch of notifications that carry events. Status
+	 * notifications, which only keep the subscription alive, are
+	 * acknowledged without being delivered.
+	 *
+	 * @param notifications
+	 *            the notifications, in order of arrival
+	 * @throws Exception
+	 *             to have the server post the notifications again
+	 */
+	void notificationsReceived(List<GetEventsResults> notifications)
+			throws Exception;
+}
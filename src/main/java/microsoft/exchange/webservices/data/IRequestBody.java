@@ -0,0 +1,42 @@
+/**************************************************************************
+ * copyright file="IRequestBody.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IRequestBody interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of an HTTP request, written to the connection while the request
+ * is sent. A repeatable body can be written more than once, for instance
+ * when the request is sent again to answer an NTLM challenge.
+ */
+public interface IRequestBody {
+
+	/**
+	 * Gets the length of the body.
+	 *
+	 * @return the length in bytes, or -1 if it is not known in advance
+	 */
+	long getContentLength();
+
+	/**
+	 * Gets whether the body can be written again.
+	 *
+	 * @return false if writing the body again would not write the same bytes
+	 */
+	boolean isRepeatable();
+
+	/**
+	 * Writes the body. The stream is not closed.
+	 *
+	 * @param stream
+	 *            the stream to write to
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void writeTo(OutputStream stream) throws IOException;
+}
@@ -0,0 +1,25 @@
+/**************************************************************************
+ * copyright file="IRequestMetricsListener.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the IRequestMetricsListener.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Receives the measurements of the requests made by a service.
+ *
+ * The listener is called on the thread that made the request, once the
+ * response is read or the request has failed, and must return quickly.
+ * Exceptions thrown by the listener are ignored.
+ */
+public interface IRequestMetricsListener {
+
+	/**
+	 * Handles the measurements of a completed request.
+	 *
+	 * @param sample
+	 *            the measurements
+	 */
+	void requestCompleted(RequestMetricsSample sample);
+}
@@ -0,0 +1,50 @@
+/**************************************************************************
+ * copyright file="ISyncStateStore.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the ISyncStateStore interface.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Stores the synchronization states of a FolderSyncEngine, so that
+ * synchronization resumes where it stopped after a restart. The states of
+ * different keys may be saved concurrently; the states of one key are
+ * saved one at a time.
+ */
+public interface ISyncStateStore {
+
+	/**
+	 * Loads a synchronization state.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @return the state, or null if none was saved
+	 * @throws Exception
+	 *             if the state cannot be read
+	 */
+	String load(String key) throws Exception;
+
+	/**
+	 * Saves a synchronization state. The state must be durable when the
+	 * method returns.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @param syncState
+	 *            the state
+	 * @throws Exception
+	 *             if the state cannot be written
+	 */
+	void save(String key, String syncState) throws Exception;
+
+	/**
+	 * Deletes a synchronization state.
+	 *
+	 * @param key
+	 *            the key of the synchronization
+	 * @throws Exception
+	 *             if the state cannot be deleted
+	 */
+	void delete(String key) throws Exception;
+}
@@ -6,6 +6,8 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
+import java.util.Map;
+
 import javax.xml.stream.XMLStreamException;
 
 /**
@@ -145,6 +147,29 @@ public final class ItemView extends PagedView {
 		super(pageSize, offset, offsetBasePoint);
 	}
 
+	/**
+	 * Initializes a new instance of the ItemView class with the settings of
+	 * another view, positioned at the specified offset.
+	 * 
+	 * @param view
+	 *            the view to copy
+	 * @param offset
+	 *            the offset
+	 * @throws ServiceLocalException
+	 *             the service local exception
+	 */
+	ItemView(ItemView view, int offset) throws ServiceLocalException {
+		super(view.getPageSize(), offset, view.getOffsetBasePoint());
+		this.setPropertySet(view.getPropertySet());
+		this.traversal = view.traversal;
+		for (Map<PropertyDefinitionBase, SortDirection> pair : view.orderBy) {
+			for (Map.Entry<PropertyDefinitionBase, SortDirection> entry : pair
+					.entrySet()) {
+				this.orderBy.add(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
 	/**
 	 * Gets  the search traversal mode. Defaults to
 	 * ItemTraversal.Shallow.
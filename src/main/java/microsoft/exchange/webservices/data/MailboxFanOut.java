@@ -0,0 +1,308 @@
+/**************************************************************************
+ * copyright file="MailboxFanOut.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the MailboxFanOut class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an operation against a list of mailboxes through one service, and
+ * returns the result of each mailbox as soon as it is available.
+ *
+ * Each mailbox is impersonated by the requests its operation sends, so
+ * every mailbox shares the connection pool, throttling limiter and retry
+ * budget of the service. At most maxConcurrency mailboxes are in progress
+ * at a time; the next mailbox is taken from the list when one completes,
+ * so the list may be long or produced lazily. Results are returned in the
+ * order the mailboxes complete.
+ *
+ * The mailboxes run on threads of the fan-out rather than in the slots of
+ * ExchangeService.async(), so that an operation which itself uses async(),
+ * such as iterating findAllItems or binding to many items, never waits for
+ * a slot held by its own fan-out.
+ *
+ * <pre>
+ * MailboxFanOut&lt;ChangeCollection&lt;ItemChange&gt;&gt; fanOut =
+ *     service.async().forEachMailbox(mailboxes,
+ *         new IMailboxOperation&lt;ChangeCollection&lt;ItemChange&gt;&gt;() {
+ *             public ChangeCollection&lt;ItemChange&gt; execute(
+ *                     ExchangeService service, ImpersonatedUserId mailbox)
+ *                     throws Exception {
+ *                 return service.syncFolderItems(new FolderId(
+ *                         WellKnownFolderName.Inbox), PropertySet.IdOnly,
+ *                         null, 512, SyncFolderItemsScope.NormalItems,
+ *                         states.get(mailbox.getId()));
+ *             }
+ *         }, 16);
+ * try {
+ *     while (fanOut.hasNext()) {
+ *         MailboxResult&lt;ChangeCollection&lt;ItemChange&gt;&gt; result =
+ *             fanOut.next();
+ *         ...
+ *     }
+ * } finally {
+ *     fanOut.close();
+ * }
+ * </pre>
+ *
+ * @param <TResult>
+ *            the result type of the operation
+ */
+public final class MailboxFanOut<TResult> implements
+		Iterator<MailboxResult<TResult>>, Closeable {
+
+	/** The asynchronous operations of the service. */
+	private AsyncExchangeService asyncService;
+
+	/** The threads the mailboxes are run on. */
+	private ThreadPoolExecutor executor;
+
+	/** The mailboxes not started yet. */
+	private Iterator<ImpersonatedUserId> mailboxes;
+
+	/** The operation. */
+	private IMailboxOperation<TResult> operation;
+
+	/** The maximum number of mailboxes in progress. */
+	private int maxConcurrency;
+
+	/** The mailboxes in progress. */
+	private LinkedList<MailboxTask> running = new LinkedList<MailboxTask>();
+
+	/** The results not returned yet, in order of completion. */
+	private LinkedList<MailboxResult<TResult>> completed =
+		new LinkedList<MailboxResult<TResult>>();
+
+	/** Whether mailboxes are being started. */
+	private boolean starting;
+
+	/** Whether the fan-out was closed. */
+	private boolean closed;
+
+	/**
+	 * Initializes a new instance of the MailboxFanOut class and starts the
+	 * first mailboxes.
+	 *
+	 * @param asyncService
+	 *            the asynchronous operations of the service
+	 * @param mailboxes
+	 *            the mailboxes
+	 * @param operation
+	 *            the operation
+	 * @param maxConcurrency
+	 *            the maximum number of mailboxes in progress
+	 */
+	MailboxFanOut(AsyncExchangeService asyncService,
+			Iterable<ImpersonatedUserId> mailboxes,
+			IMailboxOperation<TResult> operation, int maxConcurrency) {
+		this.asyncService = asyncService;
+		this.mailboxes = mailboxes.iterator();
+		this.operation = operation;
+		this.maxConcurrency = maxConcurrency;
+		this.executor = new ThreadPoolExecutor(maxConcurrency,
+				maxConcurrency, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS mailbox fan-out"));
+		this.executor.allowCoreThreadTimeOut(true);
+		synchronized (this) {
+			this.startMailboxes();
+		}
+	}
+
+	/**
+	 * Checks whether results remain.
+	 *
+	 * @return true if a mailbox has not been returned yet
+	 */
+	public synchronized boolean hasNext() {
+		return !this.closed && (!this.completed.isEmpty() ||
+				!this.running.isEmpty() || this.mailboxes.hasNext());
+	}
+
+	/**
+	 * Gets the next result to complete, waiting for it if needed.
+	 *
+	 * @return the result of a mailbox
+	 */
+	public synchronized MailboxResult<TResult> next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		while (this.completed.isEmpty()) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			if (this.closed) {
+				throw new NoSuchElementException();
+			}
+		}
+		return this.completed.removeFirst();
+	}
+
+	/**
+	 * Not supported.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Gets the number of mailboxes in progress.
+	 *
+	 * @return the number of mailboxes
+	 */
+	public synchronized int getRunningCount() {
+		return this.running.size();
+	}
+
+	/**
+	 * Stops the fan-out. The mailboxes not started are skipped, and the
+	 * results of the mailboxes in progress are discarded.
+	 */
+	public void close() {
+		LinkedList<MailboxTask> toCancel;
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			toCancel = new LinkedList<MailboxTask>(this.running);
+			this.running.clear();
+			this.completed.clear();
+			this.notifyAll();
+		}
+		for (MailboxTask task : toCancel) {
+			if (task.future != null) {
+				task.future.cancel(false);
+			}
+		}
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Starts mailboxes until maxConcurrency are in progress.
+	 */
+	private void startMailboxes() {
+		if (this.starting) {
+			// A mailbox completed while being started.
+			return;
+		}
+		this.starting = true;
+		try {
+			while (!this.closed &&
+					this.running.size() < this.maxConcurrency &&
+					this.mailboxes.hasNext()) {
+				MailboxTask task = new MailboxTask(this.mailboxes.next());
+				this.running.add(task);
+				task.future = new ServiceFuture<TResult>(task);
+				task.future.addCallback(task);
+				try {
+					this.executor.execute(task.future);
+				} catch (RuntimeException e) {
+					this.running.remove(task);
+					throw e;
+				}
+			}
+			if (this.running.isEmpty()) {
+				// Every mailbox has completed.
+				this.executor.shutdown();
+			}
+		} finally {
+			this.starting = false;
+		}
+	}
+
+	/**
+	 * Records the result of a mailbox and starts the next one.
+	 *
+	 * @param task
+	 *            the task of the mailbox
+	 * @param result
+	 *            the result
+	 */
+	private synchronized void completeMailbox(MailboxTask task,
+			MailboxResult<TResult> result) {
+		if (!this.running.remove(task)) {
+			// Discarded by close.
+			return;
+		}
+		this.completed.add(result);
+		this.startMailboxes();
+		this.notifyAll();
+	}
+
+	/**
+	 * Runs the operation for a mailbox and records its result.
+	 */
+	private final class MailboxTask implements Callable<TResult>,
+			IAsyncCallback<TResult> {
+
+		/** The mailbox. */
+		private final ImpersonatedUserId mailbox;
+
+		/** The pending operation, null until submitted. */
+		private ServiceFuture<TResult> future;
+
+		/**
+		 * Initializes a new instance of the MailboxTask class.
+		 *
+		 * @param mailbox
+		 *            the mailbox
+		 */
+		MailboxTask(ImpersonatedUserId mailbox) {
+			this.mailbox = mailbox;
+		}
+
+		/**
+		 * Runs the operation impersonating the mailbox.
+		 *
+		 * @return the result
+		 * @throws Exception
+		 *             if the operation fails
+		 */
+		public TResult call() throws Exception {
+			final ExchangeService service = asyncService.getService();
+			return service.executeAs(this.mailbox, new Callable<TResult>() {
+				public TResult call() throws Exception {
+					return operation.execute(service, mailbox);
+				}
+			});
+		}
+
+		/**
+		 * Records the result of the mailbox.
+		 *
+		 * @param result
+		 *            the result
+		 */
+		public void onCompleted(TResult result) {
+			completeMailbox(this, new MailboxResult<TResult>(this.mailbox,
+					result, null));
+		}
+
+		/**
+		 * Records the failure of the mailbox.
+		 *
+		 * @param exception
+		 *            the exception
+		 */
+		public void onFailed(Exception exception) {
+			completeMailbox(this, new MailboxResult<TResult>(this.mailbox,
+					null, exception));
+		}
+	}
+}
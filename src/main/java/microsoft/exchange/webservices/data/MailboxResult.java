@@ -0,0 +1,78 @@
+/**************************************************************************
+ * copyright file="MailboxResult.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the MailboxResult class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Represents the outcome of a fan-out operation for one mailbox.
+ *
+ * @param <TResult>
+ *            the result type of the operation
+ */
+public final class MailboxResult<TResult> {
+
+	/** The mailbox. */
+	private ImpersonatedUserId mailbox;
+
+	/** The result, if the operation succeeded. */
+	private TResult result;
+
+	/** The exception, if the operation failed. */
+	private Exception exception;
+
+	/**
+	 * Initializes a new instance of the MailboxResult class.
+	 *
+	 * @param mailbox
+	 *            the mailbox
+	 * @param result
+	 *            the result, if the operation succeeded
+	 * @param exception
+	 *            the exception, if the operation failed
+	 */
+	MailboxResult(ImpersonatedUserId mailbox, TResult result,
+			Exception exception) {
+		this.mailbox = mailbox;
+		this.result = result;
+		this.exception = exception;
+	}
+
+	/**
+	 * Gets the mailbox.
+	 *
+	 * @return the mailbox
+	 */
+	public ImpersonatedUserId getMailbox() {
+		return this.mailbox;
+	}
+
+	/**
+	 * Gets whether the operation succeeded for the mailbox.
+	 *
+	 * @return true if the operation succeeded
+	 */
+	public boolean getSucceeded() {
+		return this.exception == null;
+	}
+
+	/**
+	 * Gets the result of the operation.
+	 *
+	 * @return the result, or null if the operation failed
+	 */
+	public TResult getResult() {
+		return this.result;
+	}
+
+	/**
+	 * Gets the exception the operation failed with.
+	 *
+	 * @return the exception, or null if the operation succeeded
+	 */
+	public Exception getException() {
+		return this.exception;
+	}
+}
@@ -0,0 +1,208 @@
+/**************************************************************************
+ * copyright file="ManagedStreamingSubscription.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the ManagedStreamingSubscription class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Represents a streaming subscription kept alive by a
+ * StreamingSubscriptionManager. When the server expires the subscription,
+ * the manager subscribes again to the same folders and event types, so the
+ * underlying StreamingSubscription, and its Id, change over time.
+ */
+public final class ManagedStreamingSubscription {
+
+	/**
+	 * The manager keeping the subscription alive.
+	 */
+	private StreamingSubscriptionManager manager;
+
+	/**
+	 * The service used to subscribe.
+	 */
+	private ExchangeService service;
+
+	/**
+	 * The user impersonated when subscribing, or null.
+	 */
+	private ImpersonatedUserId impersonatedUserId;
+
+	/**
+	 * The folders subscribed to, or null for all folders.
+	 */
+	private List<FolderId> folderIds;
+
+	/**
+	 * The event types subscribed to.
+	 */
+	private EventType[] eventTypes;
+
+	/**
+	 * The current subscription, or null while subscribing again.
+	 */
+	private StreamingSubscription subscription;
+
+	/**
+	 * The connection shard the subscription is on.
+	 */
+	private StreamingSubscriptionManager.Shard shard;
+
+	/**
+	 * The timestamp of the most recent event received.
+	 */
+	private Date lastEventTime;
+
+	/**
+	 * The number of consecutive failed attempts to subscribe again.
+	 */
+	private int failures;
+
+	/**
+	 * Initializes a new instance of the ManagedStreamingSubscription class.
+	 * @param manager The manager keeping the subscription alive.
+	 * @param service The service used to subscribe.
+	 * @param folderIds The folders subscribed to, or null for all folders.
+	 * @param eventTypes The event types subscribed to.
+	 */
+	ManagedStreamingSubscription(StreamingSubscriptionManager manager,
+			ExchangeService service, Iterable<FolderId> folderIds,
+			EventType[] eventTypes) {
+		this.manager = manager;
+		this.service = service;
+		this.impersonatedUserId = service.getEffectiveImpersonatedUserId();
+		if (folderIds != null) {
+			this.folderIds = new ArrayList<FolderId>();
+			for (FolderId folderId : folderIds) {
+				this.folderIds.add(folderId);
+			}
+		}
+		this.eventTypes = eventTypes.clone();
+	}
+
+	/**
+	 * Creates a new subscription to the folders and event types, as the
+	 * user impersonated when the subscription was first made.
+	 * Calling this method results in a call to EWS.
+	 * @return the new subscription
+	 * @throws Exception
+	 */
+	StreamingSubscription subscribe() throws Exception {
+		return this.service.executeInScope(this.impersonatedUserId,
+				new Callable<StreamingSubscription>() {
+			public StreamingSubscription call() throws Exception {
+				if (folderIds == null) {
+					return service.subscribeToStreamingNotificationsOnAllFolders(
+							eventTypes);
+				} else {
+					return service.subscribeToStreamingNotifications(
+							folderIds, eventTypes);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Gets the user impersonated by the subscription.
+	 * @return the impersonated user id, or null
+	 */
+	ImpersonatedUserId getImpersonatedUserId() {
+		return this.impersonatedUserId;
+	}
+
+	/**
+	 * Gets the service used to subscribe.
+	 * @return the service
+	 */
+	public ExchangeService getService() {
+		return this.service;
+	}
+
+	/**
+	 * Gets the current subscription. Null while the manager is subscribing
+	 * again after the server expired the previous one.
+	 * @return the subscription
+	 */
+	public synchronized StreamingSubscription getSubscription() {
+		return this.subscription;
+	}
+
+	/**
+	 * Sets the current subscription.
+	 * @param subscription The subscription.
+	 */
+	synchronized void setSubscription(StreamingSubscription subscription) {
+		this.subscription = subscription;
+	}
+
+	/**
+	 * Gets the timestamp of the most recent event received. Events that
+	 * occurred while the subscription was being replaced are not delivered;
+	 * this timestamp tells from when to synchronize the folders again.
+	 * @return the timestamp, or null if no event was received
+	 */
+	public synchronized Date getLastEventTime() {
+		return this.lastEventTime;
+	}
+
+	/**
+	 * Records the events received.
+	 * @param events The events.
+	 */
+	synchronized void onEvents(Iterable<NotificationEvent> events) {
+		for (NotificationEvent event : events) {
+			Date timestamp = event.getTimestamp();
+			if (timestamp != null && (this.lastEventTime == null ||
+					timestamp.after(this.lastEventTime))) {
+				this.lastEventTime = timestamp;
+			}
+		}
+	}
+
+	/**
+	 * Gets the connection shard the subscription is on.
+	 * @return the shard
+	 */
+	StreamingSubscriptionManager.Shard getShard() {
+		return this.shard;
+	}
+
+	/**
+	 * Sets the connection shard the subscription is on.
+	 * @param shard The shard.
+	 */
+	void setShard(StreamingSubscriptionManager.Shard shard) {
+		this.shard = shard;
+	}
+
+	/**
+	 * Gets the number of consecutive failed attempts to subscribe again.
+	 * @return the number of failures
+	 */
+	int getFailures() {
+		return this.failures;
+	}
+
+	/**
+	 * Sets the number of consecutive failed attempts to subscribe again.
+	 * @param failures The number of failures.
+	 */
+	void setFailures(int failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * Stops keeping the subscription alive and unsubscribes from the
+	 * server. Calling this method results in a call to EWS.
+	 * @throws Exception
+	 */
+	public void unsubscribe() throws Exception {
+		this.manager.unsubscribe(this);
+	}
+}
@@ -6,9 +6,7 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -208,47 +206,7 @@ class MapiTypeConverter {
 					mapitype = new MapiTypeConverterMapEntry(Date.class);
 					mapitype.setParse(new IFunction<String, Object>() {
 						public Object func(String s) {
-							String utcPattern = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-							Date dt = null;
-							String errMsg = String
-									.format(
-											"Date String %s not in " +
-											"valid UTC/local format",
-											s);
-							DateFormat utcFormatter = new SimpleDateFormat(
-									utcPattern);
-							if (s.endsWith("Z")) {
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									s = s.substring(0, 10) + "T12:00:00Z";
-									try {
-										dt = utcFormatter.parse(s);
-									} catch (ParseException e1) {
-										e.printStackTrace();
-										throw new IllegalArgumentException(
-												errMsg, e);
-									}
-								}
-							} else if (s.endsWith("z")) {
-								// String in UTC format yyyy-MM-ddTHH:mm:ssZ
-								utcFormatter = new SimpleDateFormat(
-										"yyyy-MM-dd'T'HH:mm:ss'z'");
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									throw new IllegalArgumentException(e);
-								}
-							} else {
-								utcFormatter = new SimpleDateFormat(
-										"yyyy-MM-dd'T'HH:mm:ss");
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									throw new IllegalArgumentException(e);
-								}
-							}
-							return dt;
+							return parseSystemTime(s);
 						}
 					});
 					mapitype
@@ -264,47 +222,7 @@ class MapiTypeConverter {
 					mapitype = new MapiTypeConverterMapEntry(Date.class);
 					mapitype.setParse(new IFunction<String, Object>() {
 						public Object func(String s) {
-							String utcPattern = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-							Date dt = null;
-							String errMsg = String
-									.format(
-											"Date String %s not in " +
-											"valid UTC/local format",
-											s);
-							DateFormat utcFormatter = new SimpleDateFormat(
-									utcPattern);
-							if (s.endsWith("Z")) {
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									s = s.substring(0, 10) + "T12:00:00Z";
-									try {
-										dt = utcFormatter.parse(s);
-									} catch (ParseException e1) {
-										e.printStackTrace();
-										throw new IllegalArgumentException(
-												errMsg, e);
-									}
-								}
-							} else if (s.endsWith("z")) {
-								// String in UTC format yyyy-MM-ddTHH:mm:ssZ
-								utcFormatter = new SimpleDateFormat(
-										"yyyy-MM-dd'T'HH:mm:ss'z'");
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									throw new IllegalArgumentException(e);
-								}
-							} else {
-								utcFormatter = new SimpleDateFormat(
-										"yyyy-MM-dd'T'HH:mm:ss");
-								try {
-									dt = utcFormatter.parse(s);
-								} catch (ParseException e) {
-									throw new IllegalArgumentException(e);
-								}
-							}
-							return dt;
+							return parseSystemTime(s);
 						}
 					});
 					mapitype
@@ -428,6 +346,29 @@ class MapiTypeConverter {
 		}
     }
 	
+	/**
+	 * Parses a SystemTime value. A date with a "Z" suffix is read as noon of
+	 * that day; a value without suffix is read in the default time zone,
+	 * ignoring any offset.
+	 * 
+	 * @param s
+	 *            The string value.
+	 * @return the date
+	 */
+	private static Date parseSystemTime(String s) {
+		if (s.endsWith("Z") && s.length() == 11) {
+			s = s.substring(0, 10) + "T12:00:00Z";
+		}
+		if (s.endsWith("Z") || s.endsWith("z")) {
+			return EwsDateTimeFormat.parseDateTime(s);
+		}
+		try {
+			return EwsDateTimeFormat.parseLocalDateTime(s);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 	/**
 	 * Determines whether MapiPropertyType is an array type.
 	 * 
@@ -7,7 +7,6 @@
 package microsoft.exchange.webservices.data;
 
 import java.lang.reflect.Array;
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -121,11 +120,8 @@ class MapiTypeConverterMapEntry {
 					Object o = null;
 					o = Integer.parseInt(value + "");
 					return o;
-				} else if (this.getType().isInstance(new Date())) {
-					Object o = null;
-					DateFormat df = new SimpleDateFormat(
-							"yyyy-MM-dd'T'HH:mm:ss'Z'");
-					return df.parse(value + "");
+				} else if (Date.class.isAssignableFrom(this.getType())) {
+					return EwsDateTimeFormat.parseDateTime(value + "");
 				} else if (this.getType().isInstance(Boolean.valueOf(false))) {
 					Object o = null;
 					o = Boolean.parseBoolean(value + "");
@@ -0,0 +1,259 @@
+/**************************************************************************
+ * copyright file="MultiResponseServiceRequestBatcher.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the MultiResponseServiceRequestBatcher.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/***
+ * Splits the inputs of a multi-response request into batches, by item count
+ * and estimated payload size, executes one MultiResponseServiceRequest per
+ * batch and stitches the responses back together in input order.
+ *
+ * Batches run on the calling thread. When the service allows more than one
+ * concurrent batch, additional workers are submitted to the async facade of
+ * the service; they take batches from the same queue as the calling thread,
+ * so a worker that does not get a thread never blocks the call. When the
+ * async facade has been shut down, the calling thread runs all the batches.
+ * The workers impersonate the user impersonated by the thread that created
+ * the batcher.
+ *
+ * @param <TInput>
+ *            The type of the inputs, such as ItemId or Item.
+ * @param <TResponse>
+ *            The type of the response.
+ */
+abstract class MultiResponseServiceRequestBatcher<TInput,
+		TResponse extends ServiceResponse> {
+
+	/** The estimated size of the envelope of a request. */
+	static final int EstimatedRequestOverhead = 1024;
+
+	/** The estimated size of the xml around an id. */
+	static final int EstimatedIdOverhead = 48;
+
+	/** The service. */
+	private ExchangeService service;
+
+	/** The user impersonated by the requests, or null. */
+	private ImpersonatedUserId impersonatedUserId;
+
+	/** The batches. */
+	private List<List<TInput>> batches;
+
+	/** The responses of each batch. */
+	private List<ServiceResponseCollection<TResponse>> results;
+
+	/** The index of the next batch to execute. */
+	private int nextBatch;
+
+	/** The number of batches being executed. */
+	private int running;
+
+	/** The first failure, by batch index. */
+	private Throwable failure;
+
+	/** The batch index of the first failure. */
+	private int failedBatch = Integer.MAX_VALUE;
+
+	/**
+	 * Initializes a new instance of the MultiResponseServiceRequestBatcher
+	 * class.
+	 *
+	 * @param service
+	 *            the service
+	 */
+	protected MultiResponseServiceRequestBatcher(ExchangeService service) {
+		this.service = service;
+		this.impersonatedUserId = service.getEffectiveImpersonatedUserId();
+	}
+
+	/**
+	 * Estimates the number of bytes an input adds to a request.
+	 *
+	 * @param input
+	 *            the input
+	 * @return the estimated size in bytes
+	 * @throws Exception
+	 *             the exception
+	 */
+	protected abstract int estimateSize(TInput input) throws Exception;
+
+	/**
+	 * Executes the request for one batch.
+	 *
+	 * @param batch
+	 *            the inputs of the batch
+	 * @return the responses, one per input
+	 * @throws Exception
+	 *             the exception
+	 */
+	protected abstract ServiceResponseCollection<TResponse> executeBatch(
+			List<TInput> batch) throws Exception;
+
+	/**
+	 * Estimates the number of bytes an id adds to a request.
+	 *
+	 * @param id
+	 *            the id, may be null
+	 * @return the estimated size in bytes
+	 */
+	static int estimateIdSize(ServiceId id) {
+		int size = EstimatedIdOverhead;
+		if (id != null) {
+			if (id.getUniqueId() != null) {
+				size += id.getUniqueId().length();
+			}
+			if (id.getChangeKey() != null) {
+				size += id.getChangeKey().length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Executes the requests for all the inputs.
+	 *
+	 * @param inputs
+	 *            the inputs
+	 * @return the responses, one per input, in input order
+	 * @throws Exception
+	 *             the exception
+	 */
+	ServiceResponseCollection<TResponse> execute(Iterable<TInput> inputs)
+			throws Exception {
+		this.batches = this.split(inputs);
+		if (this.batches.size() == 1) {
+			return this.executeBatch(this.batches.get(0));
+		}
+
+		this.results = new ArrayList<ServiceResponseCollection<TResponse>>();
+		for (int i = 0; i < this.batches.size(); i++) {
+			this.results.add(null);
+		}
+		int workers = Math.min(this.service.getMaxConcurrentBatches(),
+				this.batches.size()) - 1;
+		try {
+			for (int i = 0; i < workers; i++) {
+				this.service.async().submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						return service.executeInScope(impersonatedUserId,
+								new Callable<Void>() {
+							public Void call() {
+								MultiResponseServiceRequestBatcher.this
+								.executeBatches();
+								return null;
+							}
+						});
+					}
+				});
+			}
+		} catch (RejectedExecutionException e) {
+			// The async facade is shut down, the calling thread runs the
+			// batches left.
+		}
+		this.executeBatches();
+		this.awaitBatches();
+
+		if (this.failure instanceof Error) {
+			throw (Error)this.failure;
+		}
+		if (this.failure != null) {
+			throw (Exception)this.failure;
+		}
+		ServiceResponseCollection<TResponse> responses =
+			new ServiceResponseCollection<TResponse>();
+		for (ServiceResponseCollection<TResponse> batchResponses : this.results) {
+			for (TResponse response : batchResponses) {
+				responses.add(response);
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Splits the inputs into batches.
+	 *
+	 * @param inputs
+	 *            the inputs
+	 * @return the batches, never empty
+	 * @throws Exception
+	 *             the exception
+	 */
+	private List<List<TInput>> split(Iterable<TInput> inputs) throws Exception {
+		int maxCount = this.service.getMaxItemsPerBatch();
+		long maxSize = this.service.getMaxBatchPayloadSize();
+		List<List<TInput>> result = new ArrayList<List<TInput>>();
+		List<TInput> batch = new ArrayList<TInput>();
+		long batchSize = EstimatedRequestOverhead;
+		for (TInput input : inputs) {
+			int size = maxSize > 0 ? this.estimateSize(input) : 0;
+			if (!batch.isEmpty() &&
+					((maxCount > 0 && batch.size() >= maxCount) ||
+					(maxSize > 0 && batchSize + size > maxSize))) {
+				result.add(batch);
+				batch = new ArrayList<TInput>();
+				batchSize = EstimatedRequestOverhead;
+			}
+			batch.add(input);
+			batchSize += size;
+		}
+		result.add(batch);
+		return result;
+	}
+
+	/**
+	 * Executes batches until there are none left or one failed.
+	 */
+	private void executeBatches() {
+		while (true) {
+			int index;
+			synchronized (this) {
+				if (this.nextBatch >= this.batches.size() ||
+						this.failure != null) {
+					return;
+				}
+				index = this.nextBatch++;
+				this.running++;
+			}
+			ServiceResponseCollection<TResponse> batchResponses = null;
+			Throwable error = null;
+			try {
+				batchResponses = this.executeBatch(this.batches.get(index));
+			} catch (Throwable e) {
+				error = e;
+			} finally {
+				synchronized (this) {
+					this.running--;
+					if (error != null) {
+						if (index < this.failedBatch) {
+							this.failure = error;
+							this.failedBatch = index;
+						}
+					} else {
+						this.results.set(index, batchResponses);
+					}
+					this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the batches taken by workers to complete.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private synchronized void awaitBatches() throws InterruptedException {
+		while (this.running > 0) {
+			this.wait();
+		}
+	}
+}
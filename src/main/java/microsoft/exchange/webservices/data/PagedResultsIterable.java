@@ -0,0 +1,366 @@
+/**************************************************************************
+ * copyright file="PagedResultsIterable.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the PagedResultsIterable.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/***
+ * Iterates over all the results of a FindItem or FindFolder search, one page
+ * at a time. Only the page being consumed and the prefetched pages are held
+ * in memory. While a page is consumed, the next pages are fetched on the
+ * executor of ExchangeService.async(). A page whose background fetch has not
+ * started when it is needed is fetched on the calling thread instead, so the
+ * consumer never waits behind other operations queued on the executor.
+ *
+ * Each call to iterator() starts a new search at the offset the view had
+ * when the iterable was created. Each page is requested through a copy of
+ * the view positioned at the next page offset returned by the server, so
+ * the view of the caller is never changed.
+ *
+ * The searches impersonate the user impersonated by the thread that
+ * created the iterable, whichever thread fetches the pages.
+ *
+ * Errors returned by the server are thrown by hasNext() and next() wrapped
+ * in a RuntimeException.
+ *
+ * @param <TResult>
+ *            The type of the results.
+ */
+public abstract class PagedResultsIterable<TResult> implements
+		Iterable<TResult> {
+
+	/** The service. */
+	private ExchangeService service;
+
+	/** The offset of the first page. */
+	private int offset;
+
+	/** The user impersonated by the searches, or null. */
+	private ImpersonatedUserId impersonatedUserId;
+
+	/** The number of pages fetched ahead of the page being consumed. */
+	private int prefetchDepth = 1;
+
+	/**
+	 * Initializes a new instance of the PagedResultsIterable class.
+	 *
+	 * @param service
+	 *            the service
+	 * @param view
+	 *            the view, which controls the page size and the start offset
+	 */
+	PagedResultsIterable(ExchangeService service, PagedView view) {
+		this.service = service;
+		this.offset = view.getOffset();
+		this.impersonatedUserId = service.getEffectiveImpersonatedUserId();
+	}
+
+	/**
+	 * Fetches one page of results through a copy of the view.
+	 *
+	 * @param offset
+	 *            the offset of the page
+	 * @return the page
+	 * @throws Exception
+	 *             the exception
+	 */
+	abstract Page<TResult> fetchPage(int offset) throws Exception;
+
+	/**
+	 * Gets the number of pages fetched ahead of the page being consumed.
+	 *
+	 * @return the prefetch depth
+	 */
+	public int getPrefetchDepth() {
+		return this.prefetchDepth;
+	}
+
+	/**
+	 * Sets the number of pages fetched ahead of the page being consumed.
+	 * Defaults to 1; 0 fetches each page on the calling thread when it is
+	 * needed.
+	 *
+	 * @param prefetchDepth
+	 *            the prefetch depth
+	 * @return this instance
+	 */
+	public PagedResultsIterable<TResult> setPrefetchDepth(int prefetchDepth) {
+		if (prefetchDepth < 0) {
+			throw new IllegalArgumentException(
+					"prefetchDepth must not be negative.");
+		}
+		this.prefetchDepth = prefetchDepth;
+		return this;
+	}
+
+	/**
+	 * Starts a new search and iterates over its results.
+	 *
+	 * @return the iterator
+	 */
+	public Iterator<TResult> iterator() {
+		return new PagingIterator(this.offset, this.prefetchDepth);
+	}
+
+	/**
+	 * One page of results.
+	 *
+	 * @param <TResult>
+	 *            The type of the results.
+	 */
+	static final class Page<TResult> {
+
+		/** The results. */
+		private List<TResult> results;
+
+		/** Whether more results are available. */
+		private boolean moreAvailable;
+
+		/** The offset of the next page. */
+		private Integer nextPageOffset;
+
+		/**
+		 * Initializes a new instance of the Page class.
+		 *
+		 * @param results
+		 *            the results
+		 * @param moreAvailable
+		 *            whether more results are available
+		 * @param nextPageOffset
+		 *            the offset of the next page
+		 */
+		Page(List<TResult> results, boolean moreAvailable,
+				Integer nextPageOffset) {
+			this.results = results;
+			this.moreAvailable = moreAvailable && nextPageOffset != null;
+			this.nextPageOffset = nextPageOffset;
+		}
+	}
+
+	/**
+	 * Iterator over the pages of one search.
+	 */
+	private final class PagingIterator implements Iterator<TResult> {
+
+		/** The prefetch depth. */
+		private int depth;
+
+		/** The offset of the next page to fetch. */
+		private int nextOffset;
+
+		/** The fetched pages not consumed yet. */
+		private LinkedList<Page<TResult>> ready =
+			new LinkedList<Page<TResult>>();
+
+		/** Whether a page is being fetched, or queued to be fetched. */
+		private boolean fetching;
+
+		/** The background fetch, until it starts running. */
+		private ServiceFuture<Void> queuedFetch;
+
+		/** The number of background fetches submitted. */
+		private int fetchCount;
+
+		/** Whether the last page was fetched. */
+		private boolean done;
+
+		/** The failure of the last fetch. */
+		private Exception failure;
+
+		/** The results of the page being consumed. */
+		private Iterator<TResult> current = Collections.<TResult> emptyList()
+				.iterator();
+
+		/**
+		 * Initializes a new instance of the PagingIterator class.
+		 *
+		 * @param offset
+		 *            the offset of the first page
+		 * @param depth
+		 *            the prefetch depth
+		 */
+		PagingIterator(int offset, int depth) {
+			this.nextOffset = offset;
+			this.depth = depth;
+			synchronized (this) {
+				this.prefetch();
+			}
+		}
+
+		/**
+		 * Starts fetching the next page in the background if fewer than depth
+		 * pages are ready. Must be called with the lock held.
+		 */
+		private void prefetch() {
+			if (!this.fetching && !this.done && this.failure == null &&
+					this.ready.size() < this.depth) {
+				final int number = ++this.fetchCount;
+				try {
+					this.queuedFetch = service.async().submit(
+							new Callable<Void>() {
+								public Void call() {
+									PagingIterator.this.runQueuedFetch(number);
+									return null;
+								}
+							});
+					this.fetching = true;
+				} catch (RejectedExecutionException e) {
+					// The executor is shut down, the page is fetched when
+					// it is needed.
+				}
+			}
+		}
+
+		/**
+		 * Runs a background fetch, unless the page was fetched by the
+		 * consumer in the meantime.
+		 *
+		 * @param number
+		 *            the number of the background fetch
+		 */
+		private void runQueuedFetch(int number) {
+			int offset;
+			synchronized (this) {
+				if (number != this.fetchCount || this.queuedFetch == null) {
+					return;
+				}
+				this.queuedFetch = null;
+				offset = this.nextOffset;
+			}
+			this.fetch(offset);
+		}
+
+		/**
+		 * Fetches a page and records the outcome.
+		 *
+		 * @param offset
+		 *            the offset of the page
+		 */
+		private void fetch(final int offset) {
+			Page<TResult> page = null;
+			Exception error = null;
+			try {
+				page = service.executeInScope(impersonatedUserId,
+						new Callable<Page<TResult>>() {
+							public Page<TResult> call() throws Exception {
+								return fetchPage(offset);
+							}
+						});
+			} catch (Exception e) {
+				error = e;
+			} finally {
+				synchronized (this) {
+					this.fetching = false;
+					if (page != null) {
+						this.ready.add(page);
+						if (page.moreAvailable) {
+							this.nextOffset = page.nextPageOffset;
+						} else {
+							this.done = true;
+						}
+						this.prefetch();
+					} else {
+						this.failure = error != null ? error :
+							new ServiceLocalException("The page fetch failed.");
+					}
+					this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Takes the next fetched page, fetching it on the calling thread if
+		 * it is not being fetched in the background yet.
+		 *
+		 * @return the page, or null if there are no more pages
+		 */
+		private Page<TResult> takePage() {
+			boolean fetchHere = false;
+			int offset = 0;
+			synchronized (this) {
+				if (this.ready.isEmpty() && this.queuedFetch != null) {
+					// The background fetch is still queued behind other
+					// operations, or behind this consumer itself.
+					this.queuedFetch.cancel(false);
+					this.queuedFetch = null;
+					this.fetching = false;
+				}
+				try {
+					while (this.ready.isEmpty() && this.fetching) {
+						this.wait();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+				if (this.ready.isEmpty()) {
+					if (this.failure != null) {
+						throw new RuntimeException(this.failure.getMessage(),
+								this.failure);
+					}
+					if (this.done) {
+						return null;
+					}
+					this.fetching = true;
+					fetchHere = true;
+					offset = this.nextOffset;
+				}
+			}
+			if (fetchHere) {
+				this.fetch(offset);
+				return this.takePage();
+			}
+			synchronized (this) {
+				Page<TResult> page = this.ready.removeFirst();
+				this.prefetch();
+				return page;
+			}
+		}
+
+		/**
+		 * Checks whether there are more results, fetching the next page if
+		 * needed.
+		 *
+		 * @return true if there are more results
+		 */
+		public boolean hasNext() {
+			while (!this.current.hasNext()) {
+				Page<TResult> page = this.takePage();
+				if (page == null) {
+					return false;
+				}
+				this.current = page.results.iterator();
+			}
+			return true;
+		}
+
+		/**
+		 * Gets the next result.
+		 *
+		 * @return the result
+		 */
+		public TResult next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.current.next();
+		}
+
+		/**
+		 * Not supported.
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**************************************************************************
+ * copyright file="PooledByteArrayOutputStream.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the PooledByteArrayOutputStream.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * In-memory buffer reused by the requests serialized on the same thread, so
+ * that its backing array grows once instead of on every request. Buffers
+ * that grew past MaxRetainedCapacity are dropped on release rather than kept
+ * by the thread.
+ */
+final class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+	/** The initial capacity. */
+	static final int InitialCapacity = 8192;
+
+	/** The largest capacity kept between uses. */
+	static final int MaxRetainedCapacity = 1024 * 1024;
+
+	/** The buffer of each thread. */
+	private static final ThreadLocal<PooledByteArrayOutputStream> pool =
+		new ThreadLocal<PooledByteArrayOutputStream>();
+
+	/** Whether the buffer is in use. */
+	private boolean inUse;
+
+	/**
+	 * Initializes a new instance of the PooledByteArrayOutputStream class.
+	 */
+	private PooledByteArrayOutputStream() {
+		super(InitialCapacity);
+	}
+
+	/**
+	 * Takes the buffer of the current thread, or a new one if it is in use.
+	 *
+	 * @return an empty buffer
+	 */
+	static PooledByteArrayOutputStream acquire() {
+		PooledByteArrayOutputStream stream = pool.get();
+		if (stream == null || stream.inUse) {
+			stream = new PooledByteArrayOutputStream();
+			if (pool.get() == null) {
+				pool.set(stream);
+			}
+		}
+		stream.reset();
+		stream.inUse = true;
+		return stream;
+	}
+
+	/**
+	 * Gives the buffer back. The buffer must not be used afterwards.
+	 */
+	void release() {
+		this.inUse = false;
+		this.reset();
+		if (this.buf.length > MaxRetainedCapacity && pool.get() == this) {
+			pool.remove();
+		}
+	}
+}
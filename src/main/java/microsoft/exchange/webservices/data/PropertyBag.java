@@ -96,6 +96,16 @@ class PropertyBag implements IComplexPropertyChanged,
 		return changes > 0 || this.isDirty;
 	}
 
+	/***
+	 * Gets the number of pending property changes.
+	 * 
+	 * @return The number of added, modified and deleted properties.
+	 */
+	protected int getChangeCount() {
+		return this.modifiedProperties.size() +
+				 this.deletedProperties.size() + this.addedProperties.size();
+	}
+
 	/***
 	 * Adds the specified property to the specified change list if it is not
 	 * already present.
@@ -0,0 +1,718 @@
+/**************************************************************************
+ * copyright file="PullSubscriptionScheduler.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the PullSubscriptionScheduler class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls many pull subscriptions, each at an interval adapted to its event
+ * rate, and delivers their events to a listener.
+ *
+ * The interval of a subscription is the time in which it is expected to
+ * receive TargetEventsPerPoll events, given the smoothed rate of its past
+ * polls, bounded by the minimum and maximum poll intervals: busy mailboxes
+ * are polled often and idle ones seldom. While the server reports that
+ * more events are available, the subscription is polled again as soon as
+ * its events have been delivered. Polls run on a fixed number of threads
+ * and deliveries, including the reports of failures, on a separate, fixed
+ * number of threads, so a slow listener does not delay the polls of the
+ * other subscriptions.
+ *
+ * The server expires a pull subscription that is not polled within its
+ * timeout, so the maximum poll interval must be shorter than the timeout
+ * the subscriptions were created with.
+ *
+ * <pre>
+ * PullSubscriptionScheduler scheduler = new PullSubscriptionScheduler(listener);
+ * for (PullSubscription subscription : subscriptions) {
+ *     scheduler.add(subscription);
+ * }
+ * </pre>
+ */
+public final class PullSubscriptionScheduler implements Closeable {
+
+	/** The default number of concurrent polls. */
+	public static final int DefaultPollThreads = 8;
+
+	/** The default number of concurrent deliveries. */
+	public static final int DefaultDeliveryThreads = 4;
+
+	/** The default minimum poll interval, in milliseconds. */
+	public static final long DefaultMinPollInterval = 1000;
+
+	/** The default maximum poll interval, in milliseconds. */
+	public static final long DefaultMaxPollInterval = 60 * 1000;
+
+	/** The default number of events a poll is expected to return. */
+	public static final double DefaultTargetEventsPerPoll = 1;
+
+	/** The weight of a poll in the event rate of its subscription. */
+	private static final double RateSmoothing = 0.5;
+
+	/** The weight of a delivery in the smoothed event lag. */
+	private static final double LagSmoothing = 0.1;
+
+	/** The relative jitter of the poll intervals. */
+	private static final double IntervalJitter = 0.1;
+
+	/** The period the poll and event rates are measured over, in ms. */
+	private static final long RatePeriod = 10 * 1000;
+
+	/** The listener receiving the events. */
+	private IPullSubscriptionListener listener;
+
+	/** The minimum poll interval, in milliseconds. */
+	private long minPollInterval = DefaultMinPollInterval;
+
+	/** The maximum poll interval, in milliseconds. */
+	private long maxPollInterval = DefaultMaxPollInterval;
+
+	/** The number of events a poll is expected to return. */
+	private double targetEventsPerPoll = DefaultTargetEventsPerPoll;
+
+	/** The scheduled subscriptions. */
+	private Map<PullSubscription, PolledSubscription> subscriptions =
+		new IdentityHashMap<PullSubscription, PolledSubscription>();
+
+	/** The threads polling the subscriptions. */
+	private ScheduledThreadPoolExecutor pollers;
+
+	/** The threads delivering the events. */
+	private ExecutorService deliverers;
+
+	/** The source of the interval jitter. */
+	private Random random = new Random();
+
+	/** Whether the scheduler is closed. */
+	private boolean closed;
+
+	/** The number of polls. */
+	private AtomicLong pollCount = new AtomicLong();
+
+	/** The number of polls that returned no event. */
+	private AtomicLong emptyPollCount = new AtomicLong();
+
+	/** The number of polls or deliveries that failed. */
+	private AtomicLong failureCount = new AtomicLong();
+
+	/** The number of events delivered. */
+	private AtomicLong eventCount = new AtomicLong();
+
+	/** The number of polls at the start of the rate period. */
+	private long ratePollCount;
+
+	/** The number of events at the start of the rate period. */
+	private long rateEventCount;
+
+	/** The polls per second over the last rate period. */
+	private double pollRate;
+
+	/** The events per second over the last rate period. */
+	private double eventRate;
+
+	/** The smoothed event lag, in milliseconds, or -1 before the first. */
+	private double eventLag = -1;
+
+	/** The largest event lag, in milliseconds. */
+	private long maxEventLag;
+
+	/**
+	 * Initializes a new instance of the PullSubscriptionScheduler class.
+	 *
+	 * @param listener
+	 *            the listener receiving the events
+	 */
+	public PullSubscriptionScheduler(IPullSubscriptionListener listener) {
+		this(listener, DefaultPollThreads, DefaultDeliveryThreads);
+	}
+
+	/**
+	 * Initializes a new instance of the PullSubscriptionScheduler class.
+	 *
+	 * @param listener
+	 *            the listener receiving the events
+	 * @param pollThreads
+	 *            the number of concurrent polls
+	 * @param deliveryThreads
+	 *            the number of concurrent deliveries
+	 */
+	public PullSubscriptionScheduler(IPullSubscriptionListener listener,
+			int pollThreads, int deliveryThreads) {
+		if (listener == null || pollThreads < 1 || deliveryThreads < 1) {
+			throw new IllegalArgumentException(
+					"A listener and at least one thread of each kind are " +
+					"required.");
+		}
+		this.listener = listener;
+		this.pollers = new ScheduledThreadPoolExecutor(pollThreads,
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS pull poller"));
+		this.pollers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.deliverers = new ThreadPoolExecutor(deliveryThreads,
+				deliveryThreads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS pull delivery"));
+		this.pollers.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				PullSubscriptionScheduler.this.sampleRates();
+			}
+		}, RatePeriod, RatePeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the minimum poll interval.
+	 *
+	 * @return the interval, in milliseconds
+	 */
+	public synchronized long getMinPollInterval() {
+		return this.minPollInterval;
+	}
+
+	/**
+	 * Gets the maximum poll interval.
+	 *
+	 * @return the interval, in milliseconds
+	 */
+	public synchronized long getMaxPollInterval() {
+		return this.maxPollInterval;
+	}
+
+	/**
+	 * Sets the bounds of the poll intervals. The default bounds are 1
+	 * second and 1 minute; the maximum must be shorter than the timeout of
+	 * the subscriptions.
+	 *
+	 * @param minimum
+	 *            the minimum interval, in milliseconds
+	 * @param maximum
+	 *            the maximum interval, in milliseconds
+	 */
+	public synchronized void setPollInterval(long minimum, long maximum) {
+		if (minimum < 1 || maximum < minimum) {
+			throw new IllegalArgumentException(
+					"The intervals must satisfy 1 <= minimum <= maximum.");
+		}
+		this.minPollInterval = minimum;
+		this.maxPollInterval = maximum;
+	}
+
+	/**
+	 * Gets the number of events a poll is expected to return.
+	 *
+	 * @return the number of events
+	 */
+	public synchronized double getTargetEventsPerPoll() {
+		return this.targetEventsPerPoll;
+	}
+
+	/**
+	 * Sets the number of events a poll is expected to return. A higher
+	 * target sends fewer requests and delivers events later. The default is
+	 * 1.
+	 *
+	 * @param value
+	 *            the number of events
+	 */
+	public synchronized void setTargetEventsPerPoll(double value) {
+		if (!(value > 0)) {
+			throw new IllegalArgumentException(
+					"The target must be greater than 0.");
+		}
+		this.targetEventsPerPoll = value;
+	}
+
+	/**
+	 * Starts polling a subscription. The first poll is made within the
+	 * minimum poll interval. The polls impersonate the user impersonated by
+	 * the calling thread.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 */
+	public synchronized void add(PullSubscription subscription) {
+		if (subscription == null) {
+			throw new IllegalArgumentException(
+					"subscription must not be null.");
+		}
+		if (this.closed) {
+			throw new IllegalStateException("The scheduler is closed.");
+		}
+		if (this.subscriptions.containsKey(subscription)) {
+			throw new IllegalArgumentException(
+					"The subscription is already scheduled: " +
+					subscription.getId());
+		}
+		PolledSubscription polled = new PolledSubscription(subscription);
+		polled.impersonatedUserId = subscription.getService()
+		.getEffectiveImpersonatedUserId();
+		polled.interval = this.maxPollInterval;
+		polled.lastPollTime = System.currentTimeMillis();
+		this.subscriptions.put(subscription, polled);
+		this.schedule(polled,
+				(long)(this.random.nextDouble() * this.minPollInterval));
+	}
+
+	/**
+	 * Stops polling a subscription. A poll in progress is completed, but its
+	 * events are not delivered. The subscription is not unsubscribed.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 * @return true if the subscription was scheduled
+	 */
+	public synchronized boolean remove(PullSubscription subscription) {
+		PolledSubscription polled = this.subscriptions.remove(subscription);
+		if (polled == null) {
+			return false;
+		}
+		polled.removed = true;
+		if (polled.timer != null) {
+			polled.timer.cancel(false);
+			polled.timer = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Asks for a subscription to be polled as soon as possible, for
+	 * instance when a notification hinted at new events. A subscription
+	 * being polled is polled again once its events have been delivered.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 */
+	public synchronized void pollNow(PullSubscription subscription) {
+		PolledSubscription polled = this.subscriptions.get(subscription);
+		if (polled == null) {
+			return;
+		}
+		if (polled.timer == null) {
+			polled.requested = true;
+		} else if (polled.timer.cancel(false)) {
+			this.schedule(polled, 0);
+		}
+	}
+
+	/**
+	 * Gets the number of scheduled subscriptions.
+	 *
+	 * @return the number of subscriptions
+	 */
+	public synchronized int getSubscriptionCount() {
+		return this.subscriptions.size();
+	}
+
+	/**
+	 * Gets the current poll interval of a subscription.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 * @return the interval, in milliseconds, or -1 if the subscription is not
+	 *         scheduled
+	 */
+	public synchronized long getPollInterval(PullSubscription subscription) {
+		PolledSubscription polled = this.subscriptions.get(subscription);
+		return polled != null ? polled.interval : -1;
+	}
+
+	/**
+	 * Gets the number of polls made.
+	 *
+	 * @return the number of polls
+	 */
+	public long getPollCount() {
+		return this.pollCount.get();
+	}
+
+	/**
+	 * Gets the number of polls that returned no event.
+	 *
+	 * @return the number of polls
+	 */
+	public long getEmptyPollCount() {
+		return this.emptyPollCount.get();
+	}
+
+	/**
+	 * Gets the number of polls or deliveries that failed.
+	 *
+	 * @return the number of failures
+	 */
+	public long getFailureCount() {
+		return this.failureCount.get();
+	}
+
+	/**
+	 * Gets the number of events delivered.
+	 *
+	 * @return the number of events
+	 */
+	public long getEventCount() {
+		return this.eventCount.get();
+	}
+
+	/**
+	 * Gets the number of polls per second, measured over the last 10
+	 * seconds.
+	 *
+	 * @return the poll rate
+	 */
+	public synchronized double getPollRate() {
+		return this.pollRate;
+	}
+
+	/**
+	 * Gets the number of events delivered per second, measured over the
+	 * last 10 seconds.
+	 *
+	 * @return the event rate
+	 */
+	public synchronized double getEventRate() {
+		return this.eventRate;
+	}
+
+	/**
+	 * Gets the smoothed event lag: the time from the oldest event of a
+	 * delivery, by the clock of the server, to its delivery.
+	 *
+	 * @return the lag, in milliseconds, or -1 if no event was delivered
+	 */
+	public synchronized long getEventLagMillis() {
+		return (long)this.eventLag;
+	}
+
+	/**
+	 * Gets the largest event lag.
+	 *
+	 * @return the lag, in milliseconds
+	 */
+	public synchronized long getMaxEventLagMillis() {
+		return this.maxEventLag;
+	}
+
+	/**
+	 * Stops the scheduler. Polls and deliveries in progress are completed,
+	 * but the events of the polls are not delivered and no further poll is
+	 * made.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			for (PolledSubscription polled : this.subscriptions.values()) {
+				polled.removed = true;
+			}
+			this.subscriptions.clear();
+		}
+		this.pollers.shutdown();
+		this.deliverers.shutdown();
+	}
+
+	/**
+	 * Schedules the next poll of a subscription.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param delay
+	 *            the delay, in milliseconds
+	 */
+	private void schedule(final PolledSubscription polled, long delay) {
+		if (polled.removed || this.closed) {
+			return;
+		}
+		polled.timer = this.pollers.schedule(new Runnable() {
+			public void run() {
+				PullSubscriptionScheduler.this.poll(polled);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Polls a subscription and hands its events to a delivery thread.
+	 *
+	 * @param polled
+	 *            the subscription
+	 */
+	private void poll(final PolledSubscription polled) {
+		synchronized (this) {
+			if (polled.removed) {
+				return;
+			}
+			polled.timer = null;
+			polled.requested = false;
+		}
+
+		final GetEventsResults results;
+		try {
+			results = polled.subscription.getService().executeInScope(
+					polled.impersonatedUserId,
+					new Callable<GetEventsResults>() {
+				public GetEventsResults call() throws Exception {
+					return polled.subscription.getEvents();
+				}
+			});
+		} catch (Exception e) {
+			this.failed(polled, e);
+			return;
+		}
+		this.pollCount.incrementAndGet();
+
+		long now = System.currentTimeMillis();
+		int events = results.getAllEvents().size();
+		synchronized (this) {
+			this.updateInterval(polled, events, now);
+		}
+		if (events == 0) {
+			this.emptyPollCount.incrementAndGet();
+			this.polled(polled, results.isMoreEventsAvailable());
+			return;
+		}
+
+		try {
+			this.deliverers.execute(new Runnable() {
+				public void run() {
+					PullSubscriptionScheduler.this.deliver(polled, results);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Closed.
+		}
+	}
+
+	/**
+	 * Delivers the events of a poll, then schedules the next poll.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param results
+	 *            the events
+	 */
+	private void deliver(PolledSubscription polled, GetEventsResults results) {
+		synchronized (this) {
+			if (polled.removed) {
+				return;
+			}
+		}
+		try {
+			this.listener.eventsReceived(polled.subscription, results);
+		} catch (Exception e) {
+			// Poll the same events again.
+			polled.subscription.setWaterMark(results.getPreviousWatermark());
+			this.failed(polled, e);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long oldest = now;
+		for (NotificationEvent event : results.getAllEvents()) {
+			Date timestamp = event.getTimestamp();
+			if (timestamp != null && timestamp.getTime() < oldest) {
+				oldest = timestamp.getTime();
+			}
+		}
+		this.eventCount.addAndGet(results.getAllEvents().size());
+		synchronized (this) {
+			long lag = now - oldest;
+			this.eventLag = this.eventLag < 0 ? lag : this.eventLag +
+					(lag - this.eventLag) * LagSmoothing;
+			this.maxEventLag = Math.max(this.maxEventLag, lag);
+		}
+		this.polled(polled, results.isMoreEventsAvailable());
+	}
+
+	/**
+	 * Schedules the next poll of a subscription whose poll succeeded.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param moreEventsAvailable
+	 *            whether the server has more events
+	 */
+	private synchronized void polled(PolledSubscription polled,
+			boolean moreEventsAvailable) {
+		polled.failures = 0;
+		if (moreEventsAvailable || polled.requested) {
+			this.schedule(polled, 0);
+		} else {
+			// The jitter never delays a poll past the maximum interval, which
+			// must stay under the subscription timeout.
+			double jitter = 1 + IntervalJitter *
+					(2 * this.random.nextDouble() - 1);
+			this.schedule(polled, Math.min(this.maxPollInterval,
+					(long)(polled.interval * jitter)));
+		}
+	}
+
+	/**
+	 * Updates the event rate and poll interval of a subscription.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param events
+	 *            the number of events the poll returned
+	 * @param now
+	 *            the time of the poll
+	 */
+	private void updateInterval(PolledSubscription polled, int events,
+			long now) {
+		long elapsed = Math.max(1, now - polled.lastPollTime);
+		polled.lastPollTime = now;
+		polled.rate += ((double)events / elapsed - polled.rate) *
+				RateSmoothing;
+		double interval = polled.rate > 0 ? this.targetEventsPerPoll /
+				polled.rate : this.maxPollInterval;
+		polled.interval = (long)Math.max(this.minPollInterval, Math.min(
+				this.maxPollInterval, interval));
+	}
+
+	/**
+	 * Removes the subscription of a failed poll or delivery if the server
+	 * no longer knows it, and hands the failure to a delivery thread.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param exception
+	 *            the failure
+	 */
+	private void failed(final PolledSubscription polled,
+			final Exception exception) {
+		this.failureCount.incrementAndGet();
+		boolean removed = false;
+		if (exception instanceof ServiceResponseException) {
+			switch (((ServiceResponseException)exception).getErrorCode()) {
+			case ErrorSubscriptionNotFound:
+			case ErrorExpiredSubscription:
+			case ErrorInvalidSubscription:
+			case ErrorSubscriptionUnsubscribed:
+			case ErrorInvalidWatermark:
+				removed = true;
+				break;
+			default:
+				break;
+			}
+		}
+
+		if (removed) {
+			synchronized (this) {
+				this.remove(polled.subscription);
+			}
+		}
+
+		final boolean wasRemoved = removed;
+		try {
+			this.deliverers.execute(new Runnable() {
+				public void run() {
+					PullSubscriptionScheduler.this.reportFailure(polled,
+							exception, wasRemoved);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Closed.
+		}
+	}
+
+	/**
+	 * Reports a failure to the listener, then schedules the next attempt
+	 * unless the subscription was removed.
+	 *
+	 * @param polled
+	 *            the subscription
+	 * @param exception
+	 *            the failure
+	 * @param removed
+	 *            whether the subscription was removed
+	 */
+	private void reportFailure(PolledSubscription polled,
+			Exception exception, boolean removed) {
+		try {
+			this.listener.subscriptionFailed(polled.subscription, exception,
+					removed);
+		} catch (RuntimeException e) {
+			// A failing listener must not stop the delivery thread.
+		}
+		if (!removed) {
+			synchronized (this) {
+				polled.failures++;
+				long delay = Math.min(this.maxPollInterval,
+						this.minPollInterval << Math.min(polled.failures, 20));
+				this.schedule(polled,
+						(long)(delay * (0.5 + this.random.nextDouble() / 2)));
+			}
+		}
+	}
+
+	/**
+	 * Measures the poll and event rates of the last period.
+	 */
+	private synchronized void sampleRates() {
+		long polls = this.pollCount.get();
+		long events = this.eventCount.get();
+		this.pollRate = (polls - this.ratePollCount) * 1000.0 / RatePeriod;
+		this.eventRate = (events - this.rateEventCount) * 1000.0 / RatePeriod;
+		this.ratePollCount = polls;
+		this.rateEventCount = events;
+	}
+
+	/**
+	 * A subscription and its polling state, guarded by the scheduler.
+	 */
+	private static final class PolledSubscription {
+
+		/** The subscription. */
+		private final PullSubscription subscription;
+
+		/** The user impersonated by the polls, or null. */
+		private ImpersonatedUserId impersonatedUserId;
+
+		/** The smoothed event rate, in events per millisecond. */
+		private double rate;
+
+		/** The poll interval, in milliseconds. */
+		private long interval;
+
+		/** The time of the last poll, in milliseconds. */
+		private long lastPollTime;
+
+		/** The number of consecutive failures. */
+		private int failures;
+
+		/** The pending poll, or null while polling or delivering. */
+		private ScheduledFuture<?> timer;
+
+		/** Whether a poll was asked for while polling or delivering. */
+		private boolean requested;
+
+		/** Whether the subscription was removed. */
+		private boolean removed;
+
+		/**
+		 * Initializes a new instance of the PolledSubscription class.
+		 *
+		 * @param subscription
+		 *            the subscription
+		 */
+		PolledSubscription(PullSubscription subscription) {
+			this.subscription = subscription;
+		}
+	}
+}
@@ -0,0 +1,1231 @@
+/**************************************************************************
+ * copyright file="PushNotificationReceiver.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the PushNotificationReceiver class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives the notifications Exchange posts to the URL of push
+ * subscriptions, and delivers them to a listener.
+ *
+ * The receiver is a small HTTP/1.1 endpoint: one thread accepts the
+ * connections and reads and writes them without blocking, a pool of
+ * threads parses the SendNotification requests with the GetEvents parsing
+ * of the library, and one thread delivers the notifications to the
+ * listener in batches. Each request is answered with a
+ * SendNotificationResult once its notifications have been delivered: OK,
+ * or Unsubscribe if it has a notification of a subscription passed to
+ * unsubscribe, so that the server ends it. The notifications of the other
+ * subscriptions of such a request are delivered first. Requests must carry
+ * a Content-Length; TLS is left to a front end.
+ *
+ * <pre>
+ * PushNotificationReceiver receiver = new PushNotificationReceiver(
+ *         new InetSocketAddress(8080), service, listener);
+ * PushSubscription subscription = service.subscribeToPushNotifications(
+ *         folderIds, receiver.getUrl(), 1, null, EventType.NewMail);
+ * </pre>
+ */
+public final class PushNotificationReceiver implements Closeable {
+
+	/** The default maximum number of notifications per batch. */
+	public static final int DefaultMaxBatchSize = 100;
+
+	/** The default time a batch waits for more notifications, in ms. */
+	public static final long DefaultBatchDelay = 10;
+
+	/** The default maximum size of a request body, in bytes. */
+	public static final int DefaultMaxRequestSize = 4 * 1024 * 1024;
+
+	/** The time after which an idle connection is closed, in ms. */
+	static final long IdleTimeout = 2 * 60 * 1000;
+
+	/**
+	 * The time the notifications of an ended subscription are answered
+	 * with Unsubscribe, in ms: longer than the largest status frequency of
+	 * a push subscription, 1440 minutes, so that the status notification of
+	 * an idle subscription is still answered.
+	 */
+	static final long UnsubscribeRetention = 25 * 60 * 60 * 1000L;
+
+	/** The maximum size of the request line and headers, in bytes. */
+	static final int MaxHeaderSize = 16 * 1024;
+
+	/** The status acknowledging a notification. */
+	static final String StatusOK = "OK";
+
+	/** The status ending a subscription. */
+	static final String StatusUnsubscribe = "Unsubscribe";
+
+	/** The end of the headers of a request. */
+	private static final byte[] HeaderEnd = { '\r', '\n', '\r', '\n' };
+
+	/** The interim response to Expect: 100-continue. */
+	private static final byte[] Continue = getAsciiBytes(
+			"HTTP/1.1 100 Continue\r\n\r\n");
+
+	/** The service the notifications are parsed with. */
+	private ExchangeService service;
+
+	/** The listener receiving the notifications. */
+	private IPushNotificationListener listener;
+
+	/** The maximum number of notifications per batch. */
+	private int maxBatchSize = DefaultMaxBatchSize;
+
+	/** The time a batch waits for more notifications, in ms. */
+	private long batchDelay = DefaultBatchDelay;
+
+	/** The maximum size of a request body, in bytes. */
+	private int maxRequestSize = DefaultMaxRequestSize;
+
+	/** The listening channel. */
+	private ServerSocketChannel serverChannel;
+
+	/** The selector of the connections. */
+	private Selector selector;
+
+	/** The threads parsing the requests. */
+	private ExecutorService parsers;
+
+	/** The requests waiting to be delivered, guarded by this. */
+	private LinkedList<NotificationRequest> pending =
+		new LinkedList<NotificationRequest>();
+
+	/** The connections with a response to write, guarded by itself. */
+	private final LinkedList<Connection> responses =
+		new LinkedList<Connection>();
+
+	/**
+	 * The subscriptions to end and the times they are forgotten at, in
+	 * order of those times, guarded by itself.
+	 */
+	private final LinkedHashMap<String, Long> unsubscribed =
+		new LinkedHashMap<String, Long>();
+
+	/** The number of open connections. */
+	private volatile int connectionCount;
+
+	/** Whether the receiver is closed. */
+	private volatile boolean closed;
+
+	/** The number of requests received. */
+	private AtomicLong requestCount = new AtomicLong();
+
+	/** The number of notifications delivered. */
+	private AtomicLong notificationCount = new AtomicLong();
+
+	/** The number of events delivered. */
+	private AtomicLong eventCount = new AtomicLong();
+
+	/** The number of batches delivered. */
+	private AtomicLong batchCount = new AtomicLong();
+
+	/** The number of requests rejected or whose delivery failed. */
+	private AtomicLong failureCount = new AtomicLong();
+
+	/**
+	 * Initializes a new instance of the PushNotificationReceiver class and
+	 * starts listening.
+	 *
+	 * @param address
+	 *            the address to listen on; port 0 picks a free port
+	 * @param service
+	 *            the service the notifications are parsed with
+	 * @param listener
+	 *            the listener receiving the notifications
+	 * @throws IOException
+	 *             if the address cannot be listened on
+	 */
+	public PushNotificationReceiver(InetSocketAddress address,
+			ExchangeService service, IPushNotificationListener listener)
+			throws IOException {
+		this(address, service, listener, Math.max(2, Runtime.getRuntime()
+				.availableProcessors()));
+	}
+
+	/**
+	 * Initializes a new instance of the PushNotificationReceiver class and
+	 * starts listening.
+	 *
+	 * @param address
+	 *            the address to listen on; port 0 picks a free port
+	 * @param service
+	 *            the service the notifications are parsed with
+	 * @param listener
+	 *            the listener receiving the notifications
+	 * @param parserThreads
+	 *            the number of requests parsed concurrently
+	 * @throws IOException
+	 *             if the address cannot be listened on
+	 */
+	public PushNotificationReceiver(InetSocketAddress address,
+			ExchangeService service, IPushNotificationListener listener,
+			int parserThreads) throws IOException {
+		if (address == null || service == null || listener == null ||
+				parserThreads < 1) {
+			throw new IllegalArgumentException(
+					"An address, a service, a listener and at least one " +
+					"thread are required.");
+		}
+		this.service = service;
+		this.listener = listener;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			this.serverChannel.socket().setReuseAddress(true);
+			this.serverChannel.socket().bind(address);
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			this.serverChannel.close();
+			this.selector.close();
+			throw e;
+		}
+
+		this.parsers = new ThreadPoolExecutor(parserThreads, parserThreads,
+				0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS push parser"));
+		Thread selectorThread = new Thread(new Runnable() {
+			public void run() {
+				PushNotificationReceiver.this.select();
+			}
+		}, "EWS push receiver");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		Thread dispatcherThread = new Thread(new Runnable() {
+			public void run() {
+				PushNotificationReceiver.this.dispatch();
+			}
+		}, "EWS push dispatcher");
+		dispatcherThread.setDaemon(true);
+		dispatcherThread.start();
+	}
+
+	/**
+	 * Gets the port the receiver listens on.
+	 *
+	 * @return the port
+	 */
+	public int getLocalPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Gets the URL to subscribe with: the address the receiver listens on,
+	 * or the name of the local host if it listens on all addresses. A
+	 * receiver behind a proxy or a NAT must be subscribed with the URL the
+	 * server reaches it at instead.
+	 *
+	 * @return the URL
+	 * @throws URISyntaxException
+	 *             if the host name is not valid in a URL
+	 */
+	public URI getUrl() throws URISyntaxException {
+		InetAddress address = this.serverChannel.socket().getInetAddress();
+		String host;
+		if (address.isAnyLocalAddress()) {
+			try {
+				host = InetAddress.getLocalHost().getCanonicalHostName();
+			} catch (UnknownHostException e) {
+				host = "localhost";
+			}
+		} else {
+			host = address.getHostAddress();
+		}
+		return new URI("http", null, host, this.getLocalPort(), "/", null,
+				null);
+	}
+
+	/**
+	 * Gets the maximum number of notifications per batch.
+	 *
+	 * @return the number of notifications
+	 */
+	public synchronized int getMaxBatchSize() {
+		return this.maxBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of notifications per batch. The default is
+	 * 100.
+	 *
+	 * @param value
+	 *            the number of notifications
+	 */
+	public synchronized void setMaxBatchSize(int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(
+					"The batch size must be at least 1.");
+		}
+		this.maxBatchSize = value;
+	}
+
+	/**
+	 * Gets the time a batch waits for more notifications.
+	 *
+	 * @return the time, in milliseconds
+	 */
+	public synchronized long getBatchDelay() {
+		return this.batchDelay;
+	}
+
+	/**
+	 * Sets the time a batch waits for more notifications before it is
+	 * delivered, unless it is full. The default is 10 milliseconds; 0
+	 * delivers the notifications that have arrived without waiting.
+	 *
+	 * @param value
+	 *            the time, in milliseconds
+	 */
+	public synchronized void setBatchDelay(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException(
+					"The batch delay must not be negative.");
+		}
+		this.batchDelay = value;
+	}
+
+	/**
+	 * Gets the maximum size of a request body.
+	 *
+	 * @return the size, in bytes
+	 */
+	public int getMaxRequestSize() {
+		return this.maxRequestSize;
+	}
+
+	/**
+	 * Sets the maximum size of a request body; larger requests are
+	 * rejected. The default is 4 MB.
+	 *
+	 * @param value
+	 *            the size, in bytes
+	 */
+	public void setMaxRequestSize(int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(
+					"The request size must be at least 1.");
+		}
+		this.maxRequestSize = value;
+	}
+
+	/**
+	 * Ends a subscription: its notifications are answered with Unsubscribe
+	 * instead of being delivered, for a day after this call.
+	 *
+	 * @param subscriptionId
+	 *            the id of the subscription
+	 */
+	public void unsubscribe(String subscriptionId) {
+		EwsUtilities.EwsAssert(subscriptionId != null,
+				"PushNotificationReceiver.unsubscribe",
+				"subscriptionId is null");
+		long now = System.currentTimeMillis();
+		synchronized (this.unsubscribed) {
+			this.expireUnsubscribed(now);
+			// Moved to the end, in order of expiry.
+			this.unsubscribed.remove(subscriptionId);
+			this.unsubscribed.put(subscriptionId, now + UnsubscribeRetention);
+		}
+	}
+
+	/**
+	 * Forgets the ended subscriptions whose retention has passed. Must be
+	 * called with the lock of the subscriptions held.
+	 *
+	 * @param now
+	 *            the current time
+	 */
+	private void expireUnsubscribed(long now) {
+		Iterator<Map.Entry<String, Long>> entries = this.unsubscribed
+				.entrySet().iterator();
+		while (entries.hasNext() && entries.next().getValue() <= now) {
+			entries.remove();
+		}
+	}
+
+	/**
+	 * Gets the number of open connections.
+	 *
+	 * @return the number of connections
+	 */
+	public int getConnectionCount() {
+		return this.connectionCount;
+	}
+
+	/**
+	 * Gets the number of requests received.
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequestCount() {
+		return this.requestCount.get();
+	}
+
+	/**
+	 * Gets the number of notifications delivered.
+	 *
+	 * @return the number of notifications
+	 */
+	public long getNotificationCount() {
+		return this.notificationCount.get();
+	}
+
+	/**
+	 * Gets the number of events delivered.
+	 *
+	 * @return the number of events
+	 */
+	public long getEventCount() {
+		return this.eventCount.get();
+	}
+
+	/**
+	 * Gets the number of batches delivered.
+	 *
+	 * @return the number of batches
+	 */
+	public long getBatchCount() {
+		return this.batchCount.get();
+	}
+
+	/**
+	 * Gets the number of requests rejected or whose delivery failed.
+	 *
+	 * @return the number of requests
+	 */
+	public long getFailureCount() {
+		return this.failureCount.get();
+	}
+
+	/**
+	 * Stops the receiver. Notifications not yet delivered are not
+	 * acknowledged, and are posted again by the server.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.pending.clear();
+			this.notifyAll();
+		}
+		this.selector.wakeup();
+		this.parsers.shutdown();
+	}
+
+	/**
+	 * Accepts, reads and writes the connections until the receiver is
+	 * closed.
+	 */
+	private void select() {
+		try {
+			long lastIdleCheck = System.currentTimeMillis();
+			while (!this.closed) {
+				this.selector.select(1000);
+				this.writeResponses();
+				Iterator<SelectionKey> keys = this.selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						if (key.isAcceptable()) {
+							this.accept();
+						} else if (key.isReadable()) {
+							this.read(key);
+						} else if (key.isWritable()) {
+							this.write(key);
+						}
+					} catch (IOException e) {
+						this.closeConnection(key);
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck >= 1000) {
+					lastIdleCheck = now;
+					this.closeIdleConnections(now);
+				}
+			}
+		} catch (IOException e) {
+			// The selector failed; stop.
+		} finally {
+			for (SelectionKey key : this.selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// Closing anyway.
+				}
+			}
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				// Closing anyway.
+			}
+		}
+	}
+
+	/**
+	 * Accepts a connection.
+	 *
+	 * @throws IOException
+	 *             if the connection cannot be set up
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		channel.register(this.selector, SelectionKey.OP_READ,
+				new Connection(channel));
+		this.connectionCount++;
+	}
+
+	/**
+	 * Reads from a connection, and parses the request once it is complete.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection)key.attachment();
+		if (!connection.input.hasRemaining()) {
+			connection.grow(MaxHeaderSize + this.maxRequestSize);
+		}
+		if (connection.channel.read(connection.input) < 0) {
+			this.closeConnection(key);
+			return;
+		}
+		connection.lastActivity = System.currentTimeMillis();
+		this.processInput(key, connection);
+	}
+
+	/**
+	 * Handles the bytes read from a connection: answers a request that
+	 * cannot be accepted, or hands a complete request to a parser.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 * @param connection
+	 *            the connection
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private void processInput(SelectionKey key, Connection connection)
+			throws IOException {
+		if (connection.headerLength < 0) {
+			int end = indexOf(connection.input, HeaderEnd);
+			if (end < 0) {
+				if (connection.input.position() > MaxHeaderSize) {
+					this.reject(key, connection, 431,
+							"Request Header Fields Too Large");
+				}
+				return;
+			}
+			connection.headerLength = end + HeaderEnd.length;
+			if (!this.readHeaders(key, connection, end)) {
+				return;
+			}
+		}
+
+		int requestLength = connection.headerLength +
+				connection.contentLength;
+		if (connection.input.position() < requestLength) {
+			if (connection.input.capacity() < requestLength) {
+				connection.grow(requestLength);
+			}
+			return;
+		}
+
+		byte[] body = new byte[connection.contentLength];
+		ByteBuffer input = connection.input;
+		input.flip();
+		input.position(connection.headerLength);
+		input.get(body);
+		input.compact();
+		connection.headerLength = -1;
+
+		// Stop reading until the response is written.
+		key.interestOps(0);
+		this.requestCount.incrementAndGet();
+		this.parse(connection, body);
+	}
+
+	/**
+	 * Reads the request line and headers of a request.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 * @param connection
+	 *            the connection
+	 * @param end
+	 *            the position of the end of the headers
+	 * @return true if the request can be accepted
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private boolean readHeaders(SelectionKey key, Connection connection,
+			int end) throws IOException {
+		String[] lines = new String(connection.input.array(), 0, end,
+				"ISO-8859-1").split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+			this.reject(key, connection, 400, "Bad Request");
+			return false;
+		}
+
+		boolean http10 = requestLine[2].equals("HTTP/1.0");
+		String connectionHeader = null;
+		String contentLength = null;
+		boolean chunked = false;
+		boolean expectContinue = false;
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			String name = lines[i].substring(0, colon).trim().toLowerCase(
+					Locale.ENGLISH);
+			String value = lines[i].substring(colon + 1).trim();
+			if (name.equals("content-length")) {
+				contentLength = value;
+			} else if (name.equals("connection")) {
+				connectionHeader = value.toLowerCase(Locale.ENGLISH);
+			} else if (name.equals("transfer-encoding")) {
+				chunked = !value.equalsIgnoreCase("identity");
+			} else if (name.equals("expect")) {
+				expectContinue = value.equalsIgnoreCase("100-continue");
+			}
+		}
+		connection.keepAlive = http10 ? "keep-alive".equals(
+				connectionHeader) : !"close".equals(connectionHeader);
+
+		if (!requestLine[0].equals("POST")) {
+			this.reject(key, connection, 405, "Method Not Allowed");
+			return false;
+		}
+		if (chunked || contentLength == null) {
+			this.reject(key, connection, 411, "Length Required");
+			return false;
+		}
+		try {
+			connection.contentLength = Integer.parseInt(contentLength);
+		} catch (NumberFormatException e) {
+			connection.contentLength = -1;
+		}
+		if (connection.contentLength < 0) {
+			this.reject(key, connection, 400, "Bad Request");
+			return false;
+		}
+		if (connection.contentLength > this.maxRequestSize) {
+			this.reject(key, connection, 413, "Request Entity Too Large");
+			return false;
+		}
+		if (expectContinue && connection.input.position() <
+				connection.headerLength + connection.contentLength) {
+			ByteBuffer interim = ByteBuffer.wrap(Continue);
+			while (interim.hasRemaining()) {
+				if (connection.channel.write(interim) == 0) {
+					// The client sends the body after a timeout anyway.
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Answers a request that cannot be accepted and closes the connection.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 * @param connection
+	 *            the connection
+	 * @param statusCode
+	 *            the HTTP status code
+	 * @param reason
+	 *            the HTTP reason phrase
+	 */
+	private void reject(SelectionKey key, Connection connection,
+			int statusCode, String reason) {
+		this.requestCount.incrementAndGet();
+		this.failureCount.incrementAndGet();
+		connection.keepAlive = false;
+		connection.output = ByteBuffer.wrap(buildResponse(statusCode, reason,
+				null, false));
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes the pending response of a connection, then reads the next
+	 * request or closes the connection.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection)key.attachment();
+		connection.channel.write(connection.output);
+		connection.lastActivity = System.currentTimeMillis();
+		if (connection.output.hasRemaining()) {
+			return;
+		}
+		connection.output = null;
+		if (!connection.keepAlive) {
+			this.closeConnection(key);
+			return;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		if (connection.input.position() > 0) {
+			// A request sent before the response was read.
+			this.processInput(key, connection);
+		}
+	}
+
+	/**
+	 * Starts writing the responses completed by the other threads.
+	 */
+	private void writeResponses() {
+		while (true) {
+			Connection connection;
+			synchronized (this.responses) {
+				if (this.responses.isEmpty()) {
+					return;
+				}
+				connection = this.responses.removeFirst();
+			}
+			SelectionKey key = connection.channel.keyFor(this.selector);
+			if (key != null && key.isValid()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Closes the connections that have been idle for too long.
+	 *
+	 * @param now
+	 *            the current time
+	 */
+	private void closeIdleConnections(long now) {
+		for (SelectionKey key : this.selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof Connection) {
+				Connection connection = (Connection)attachment;
+				if (key.isValid() && key.interestOps() == SelectionKey.OP_READ &&
+						now - connection.lastActivity > IdleTimeout) {
+					this.closeConnection(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 */
+	private void closeConnection(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Closing anyway.
+		}
+		this.connectionCount--;
+	}
+
+	/**
+	 * Parses a request on a parser thread, and queues its notifications for
+	 * delivery.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @param body
+	 *            the body of the request
+	 */
+	private void parse(final Connection connection, final byte[] body) {
+		try {
+			this.parsers.execute(new Runnable() {
+				public void run() {
+					PushNotificationReceiver.this.parseRequest(connection, body);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Closed.
+		}
+	}
+
+	/**
+	 * Parses a request and queues its notifications for delivery, or
+	 * answers it directly if there is nothing to deliver.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @param body
+	 *            the body of the request
+	 */
+	private void parseRequest(Connection connection, byte[] body) {
+		List<GetEventsResults> notifications;
+		try {
+			notifications = this.readNotifications(body);
+		} catch (Exception e) {
+			this.failureCount.incrementAndGet();
+			this.respond(connection, 400, "Bad Request", null);
+			return;
+		}
+
+		boolean unsubscribe = false;
+		List<GetEventsResults> delivered = new ArrayList<GetEventsResults>(
+				notifications.size());
+		synchronized (this.unsubscribed) {
+			this.expireUnsubscribed(System.currentTimeMillis());
+			for (GetEventsResults notification : notifications) {
+				if (this.unsubscribed.containsKey(
+						notification.getSubscriptionId())) {
+					unsubscribe = true;
+				} else if (!notification.getAllEvents().isEmpty()) {
+					delivered.add(notification);
+				}
+			}
+		}
+		String subscriptionStatus = unsubscribe ? StatusUnsubscribe :
+			StatusOK;
+		if (delivered.isEmpty()) {
+			this.respond(connection, 200, "OK", subscriptionStatus);
+			return;
+		}
+
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.pending.add(new NotificationRequest(connection, delivered,
+					subscriptionStatus));
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Reads the notifications of a SendNotification request.
+	 *
+	 * @param body
+	 *            the body of the request
+	 * @return the notifications
+	 * @throws Exception
+	 *             if the request is not a valid SendNotification request
+	 */
+	List<GetEventsResults> readNotifications(byte[] body) throws Exception {
+		EwsServiceXmlReader reader = new EwsServiceXmlReader(
+				new ByteArrayInputStream(body), this.service);
+		reader.read(new XMLNodeType(XMLNodeType.START_DOCUMENT));
+		reader.readStartElement(XmlNamespace.Soap,
+				XmlElementNames.SOAPEnvelopeElementName);
+		do {
+			// Skip the SOAP header, if any.
+			reader.read();
+			if (reader.isStartElement(XmlNamespace.Soap,
+					XmlElementNames.SOAPHeaderElementName)) {
+				reader.skipCurrentElement();
+			}
+		} while (!reader.isStartElement(XmlNamespace.Soap,
+				XmlElementNames.SOAPBodyElementName));
+		reader.readStartElement(XmlNamespace.Messages,
+				XmlElementNames.SendNotification);
+		reader.readStartElement(XmlNamespace.Messages,
+				XmlElementNames.ResponseMessages);
+
+		List<GetEventsResults> notifications =
+			new ArrayList<GetEventsResults>();
+		if (!reader.isEmptyElement()) {
+			do {
+				reader.read();
+				if (reader.isStartElement(XmlNamespace.Messages,
+						XmlElementNames.SendNotificationResponseMessage)) {
+					// The message has the content of a GetEvents response.
+					GetEventsResponse response = new GetEventsResponse();
+					response.loadFromXml(reader,
+							XmlElementNames.SendNotificationResponseMessage);
+					if (response.getResult() != ServiceResult.Error) {
+						notifications.add(response.getResults());
+					}
+				}
+			} while (!reader.isEndElement(XmlNamespace.Messages,
+					XmlElementNames.ResponseMessages));
+		}
+		return notifications;
+	}
+
+	/**
+	 * Delivers the queued notifications in batches until the receiver is
+	 * closed.
+	 */
+	private void dispatch() {
+		while (true) {
+			List<NotificationRequest> batch;
+			try {
+				batch = this.takeBatch();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (batch == null) {
+				return;
+			}
+
+			List<GetEventsResults> notifications =
+				new ArrayList<GetEventsResults>();
+			for (NotificationRequest request : batch) {
+				notifications.addAll(request.notifications);
+			}
+			boolean delivered;
+			try {
+				this.listener.notificationsReceived(notifications);
+				delivered = true;
+			} catch (Exception e) {
+				delivered = false;
+			}
+
+			if (delivered) {
+				this.batchCount.incrementAndGet();
+				this.notificationCount.addAndGet(notifications.size());
+				for (GetEventsResults notification : notifications) {
+					this.eventCount.addAndGet(notification.getAllEvents()
+							.size());
+				}
+			} else {
+				this.failureCount.addAndGet(batch.size());
+			}
+			for (NotificationRequest request : batch) {
+				if (delivered) {
+					this.respond(request.connection, 200, "OK",
+							request.subscriptionStatus);
+				} else {
+					// The server posts the notification again later.
+					this.respond(request.connection, 500,
+							"Internal Server Error", null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next batch of requests: the requests queued when the
+	 * first one arrives, up to maxBatchSize, or those that arrive within
+	 * the batch delay.
+	 *
+	 * @return the requests, or null once the receiver is closed
+	 * @throws InterruptedException
+	 *             if the thread is interrupted
+	 */
+	private synchronized List<NotificationRequest> takeBatch()
+			throws InterruptedException {
+		while (this.pending.isEmpty() && !this.closed) {
+			this.wait();
+		}
+		if (this.batchDelay > 0) {
+			long deadline = System.currentTimeMillis() + this.batchDelay;
+			long remaining = this.batchDelay;
+			while (this.countPendingNotifications() < this.maxBatchSize &&
+					remaining > 0 && !this.closed) {
+				this.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+		if (this.closed) {
+			return null;
+		}
+
+		List<NotificationRequest> batch = new ArrayList<NotificationRequest>();
+		int size = 0;
+		while (!this.pending.isEmpty() && (batch.isEmpty() ||
+				size + this.pending.getFirst().notifications.size() <=
+					this.maxBatchSize)) {
+			NotificationRequest request = this.pending.removeFirst();
+			size += request.notifications.size();
+			batch.add(request);
+		}
+		return batch;
+	}
+
+	/**
+	 * Counts the notifications waiting to be delivered.
+	 *
+	 * @return the number of notifications
+	 */
+	private int countPendingNotifications() {
+		int count = 0;
+		for (NotificationRequest request : this.pending) {
+			count += request.notifications.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Hands the response to a request to the selector thread.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @param statusCode
+	 *            the HTTP status code
+	 * @param reason
+	 *            the HTTP reason phrase
+	 * @param subscriptionStatus
+	 *            the status of the subscription, or null for a response
+	 *            without a SendNotificationResult
+	 */
+	private void respond(Connection connection, int statusCode,
+			String reason, String subscriptionStatus) {
+		connection.output = ByteBuffer.wrap(buildResponse(statusCode, reason,
+				subscriptionStatus, connection.keepAlive));
+		synchronized (this.responses) {
+			this.responses.add(connection);
+		}
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Builds an HTTP response.
+	 *
+	 * @param statusCode
+	 *            the HTTP status code
+	 * @param reason
+	 *            the HTTP reason phrase
+	 * @param subscriptionStatus
+	 *            the status of the subscription, or null for an empty body
+	 * @param keepAlive
+	 *            whether the connection is kept open
+	 * @return the bytes of the response
+	 */
+	static byte[] buildResponse(int statusCode, String reason,
+			String subscriptionStatus, boolean keepAlive) {
+		byte[] body = subscriptionStatus == null ? new byte[0] :
+			getUtf8Bytes(buildSendNotificationResult(subscriptionStatus));
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(statusCode).append(' ')
+				.append(reason).append("\r\n");
+		if (body.length > 0) {
+			head.append("Content-Type: text/xml; charset=utf-8\r\n");
+		}
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		if (!keepAlive) {
+			head.append("Connection: close\r\n");
+		}
+		head.append("\r\n");
+
+		byte[] headBytes = getAsciiBytes(head.toString());
+		byte[] response = new byte[headBytes.length + body.length];
+		System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+		System.arraycopy(body, 0, response, headBytes.length, body.length);
+		return response;
+	}
+
+	/**
+	 * Builds the SOAP envelope of a SendNotificationResult.
+	 *
+	 * @param subscriptionStatus
+	 *            the status of the subscription, OK or Unsubscribe
+	 * @return the envelope
+	 */
+	static String buildSendNotificationResult(String subscriptionStatus) {
+		return "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+				"<soap:Envelope xmlns:soap=\"" +
+				EwsUtilities.EwsSoapNamespace + "\">" +
+				"<soap:Body>" +
+				"<" + XmlElementNames.SendNotificationResult + " xmlns=\"" +
+				EwsUtilities.EwsMessagesNamespace + "\">" +
+				"<" + XmlElementNames.SubscriptionStatus + ">" +
+				subscriptionStatus +
+				"</" + XmlElementNames.SubscriptionStatus + ">" +
+				"</" + XmlElementNames.SendNotificationResult + ">" +
+				"</soap:Body>" +
+				"</soap:Envelope>";
+	}
+
+	/**
+	 * Finds a sequence of bytes in the bytes read into a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer, in write mode
+	 * @param sequence
+	 *            the sequence
+	 * @return the position of the sequence, or -1
+	 */
+	private static int indexOf(ByteBuffer buffer, byte[] sequence) {
+		byte[] bytes = buffer.array();
+		int limit = buffer.position() - sequence.length;
+		for (int i = 0; i <= limit; i++) {
+			int j = 0;
+			while (j < sequence.length && bytes[i + j] == sequence[j]) {
+				j++;
+			}
+			if (j == sequence.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Encodes a string in ASCII.
+	 *
+	 * @param value
+	 *            the string
+	 * @return the bytes
+	 */
+	private static byte[] getAsciiBytes(String value) {
+		try {
+			return value.getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encodes a string in UTF-8.
+	 *
+	 * @param value
+	 *            the string
+	 * @return the bytes
+	 */
+	private static byte[] getUtf8Bytes(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The state of a connection, used by the selector thread. The output
+	 * is set by the thread completing a request before it is handed back.
+	 */
+	private static final class Connection {
+
+		/** The channel. */
+		private final SocketChannel channel;
+
+		/** The bytes read and not yet handled, in write mode. */
+		private ByteBuffer input = ByteBuffer.allocate(8192);
+
+		/** The length of the headers of the request, or -1 if not read. */
+		private int headerLength = -1;
+
+		/** The length of the body of the request. */
+		private int contentLength;
+
+		/** Whether the connection is kept open after the response. */
+		private volatile boolean keepAlive = true;
+
+		/** The response being written, or null. */
+		private volatile ByteBuffer output;
+
+		/** The time of the last read or write, in milliseconds. */
+		private long lastActivity = System.currentTimeMillis();
+
+		/**
+		 * Initializes a new instance of the Connection class.
+		 *
+		 * @param channel
+		 *            the channel
+		 */
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Enlarges the input buffer, keeping the bytes read.
+		 *
+		 * @param maxCapacity
+		 *            the largest capacity needed
+		 * @throws IOException
+		 *             if the buffer is already at the largest capacity
+		 */
+		void grow(int maxCapacity) throws IOException {
+			if (this.input.capacity() >= maxCapacity) {
+				throw new IOException("The request is too large.");
+			}
+			ByteBuffer larger = ByteBuffer.allocate((int)Math.min(
+					maxCapacity, 2L * this.input.capacity()));
+			this.input.flip();
+			larger.put(this.input);
+			this.input = larger;
+		}
+	}
+
+	/**
+	 * A parsed request waiting to be delivered.
+	 */
+	private static final class NotificationRequest {
+
+		/** The connection to answer on. */
+		private final Connection connection;
+
+		/** The notifications of the request. */
+		private final List<GetEventsResults> notifications;
+
+		/** The status to answer with once delivered. */
+		private final String subscriptionStatus;
+
+		/**
+		 * Initializes a new instance of the NotificationRequest class.
+		 *
+		 * @param connection
+		 *            the connection
+		 * @param notifications
+		 *            the notifications to deliver
+		 * @param subscriptionStatus
+		 *            the status to answer with once delivered
+		 */
+		NotificationRequest(Connection connection,
+				List<GetEventsResults> notifications,
+				String subscriptionStatus) {
+			this.connection = connection;
+			this.notifications = notifications;
+			this.subscriptionStatus = subscriptionStatus;
+		}
+	}
+}
@@ -6,9 +6,7 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.xml.stream.XMLStreamException;
@@ -84,9 +82,8 @@ abstract class RecurrenceRange extends ComplexProperty {
 	 */
 	protected void writeElementsToXml(EwsServiceXmlWriter writer)
 			throws XMLStreamException, ServiceXmlSerializationException {
-		Date d = this.startDate;
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		String formattedString = df.format(d);
+		String formattedString = EwsDateTimeFormat.formatLocalDate(
+				this.startDate);
 
 		writer.writeElementValue(XmlNamespace.Types, XmlElementNames.StartDate,
 				formattedString);
@@ -0,0 +1,352 @@
+/**************************************************************************
+ * copyright file="RequestMetrics.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RequestMetrics class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Aggregates the measurements of the requests of one or more services, per
+ * operation, and exposes them through JMX.
+ *
+ * <pre>
+ * RequestMetrics metrics = new RequestMetrics();
+ * service.setRequestMetricsListener(metrics);
+ * metrics.registerMBean(&quot;mailbox-sync&quot;);
+ * </pre>
+ *
+ * Measurements are recorded without locking.
+ */
+public final class RequestMetrics implements IRequestMetricsListener,
+		RequestMetricsMXBean {
+
+	/** The upper bounds of the latency buckets, in milliseconds. */
+	private static final long[] latencyBucketBounds = { 1, 2, 5, 10, 20, 50,
+		100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+	/** The JMX domain of the metrics. */
+	public static final String MBeanDomain =
+		"microsoft.exchange.webservices";
+
+	/** The measurements, by operation name. */
+	private ConcurrentMap<String, OperationStats> operations =
+		new ConcurrentHashMap<String, OperationStats>();
+
+	/** The name the metrics are registered with, if any. */
+	private ObjectName objectName;
+
+	/**
+	 * Records the measurements of a request.
+	 *
+	 * @param sample
+	 *            the measurements
+	 */
+	public void requestCompleted(RequestMetricsSample sample) {
+		OperationStats stats = this.operations.get(sample.getOperation());
+		if (stats == null) {
+			stats = new OperationStats();
+			OperationStats existing = this.operations.putIfAbsent(
+					sample.getOperation(), stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		stats.record(sample);
+	}
+
+	/**
+	 * Gets the measurements of each operation.
+	 *
+	 * @return the measurements, by operation name
+	 */
+	public Map<String, RequestOperationMetrics> getOperations() {
+		Map<String, RequestOperationMetrics> result =
+			new TreeMap<String, RequestOperationMetrics>();
+		for (Map.Entry<String, OperationStats> entry : this.operations
+				.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Gets the number of requests made.
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequestCount() {
+		long count = 0;
+		for (OperationStats stats : this.operations.values()) {
+			count += stats.requestCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of requests that failed.
+	 *
+	 * @return the number of requests
+	 */
+	public long getFailureCount() {
+		long count = 0;
+		for (OperationStats stats : this.operations.values()) {
+			count += stats.failureCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of requests that were throttled.
+	 *
+	 * @return the number of requests
+	 */
+	public long getThrottledCount() {
+		long count = 0;
+		for (OperationStats stats : this.operations.values()) {
+			count += stats.throttledCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the upper bounds of the latency histogram buckets; the last
+	 * bucket has no upper bound.
+	 *
+	 * @return the bounds, in milliseconds
+	 */
+	public long[] getLatencyBucketBounds() {
+		return latencyBucketBounds.clone();
+	}
+
+	/**
+	 * Clears the measurements.
+	 */
+	public void reset() {
+		this.operations.clear();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, under the name
+	 * microsoft.exchange.webservices:type=RequestMetrics,name=&lt;name&gt;.
+	 *
+	 * @param name
+	 *            the name of the metrics
+	 * @throws Exception
+	 *             if the metrics cannot be registered
+	 */
+	public synchronized void registerMBean(String name) throws Exception {
+		if (this.objectName != null) {
+			throw new IllegalStateException(
+					"The metrics are already registered.");
+		}
+		ObjectName objectName = new ObjectName(MBeanDomain +
+				":type=RequestMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		this.objectName = objectName;
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server.
+	 *
+	 * @throws Exception
+	 *             if the metrics cannot be unregistered
+	 */
+	public synchronized void unregisterMBean() throws Exception {
+		if (this.objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(this.objectName)) {
+				server.unregisterMBean(this.objectName);
+			}
+			this.objectName = null;
+		}
+	}
+
+	/**
+	 * Finds the latency bucket of a duration.
+	 *
+	 * @param nanos
+	 *            the duration, in nanoseconds
+	 * @return the index of the bucket
+	 */
+	private static int bucket(long nanos) {
+		long millis = nanos / 1000000;
+		int i = 0;
+		while (i < latencyBucketBounds.length &&
+				millis >= latencyBucketBounds[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * The measurements of one operation.
+	 */
+	private static final class OperationStats {
+
+		/** The number of requests. */
+		private AtomicLong requestCount = new AtomicLong();
+
+		/** The number of requests that failed. */
+		private AtomicLong failureCount = new AtomicLong();
+
+		/** The number of requests that were throttled. */
+		private AtomicLong throttledCount = new AtomicLong();
+
+		/** The number of bytes sent. */
+		private AtomicLong requestBytes = new AtomicLong();
+
+		/** The number of bytes received. */
+		private AtomicLong responseBytes = new AtomicLong();
+
+		/** The total time of the requests, in nanoseconds. */
+		private AtomicLong totalNanos = new AtomicLong();
+
+		/** The longest request, in nanoseconds. */
+		private AtomicLong maxNanos = new AtomicLong();
+
+		/** The histogram of the total time. */
+		private AtomicLongArray totalLatency = new AtomicLongArray(
+				latencyBucketBounds.length + 1);
+
+		/** The histogram of the time spent writing requests. */
+		private AtomicLongArray serializeLatency = new AtomicLongArray(
+				latencyBucketBounds.length + 1);
+
+		/** The histogram of the time spent waiting for responses. */
+		private AtomicLongArray networkLatency = new AtomicLongArray(
+				latencyBucketBounds.length + 1);
+
+		/** The histogram of the time spent reading responses. */
+		private AtomicLongArray parseLatency = new AtomicLongArray(
+				latencyBucketBounds.length + 1);
+
+		/** The number of responses, by HTTP status code. */
+		private ConcurrentMap<Integer, AtomicLong> httpStatusCodes =
+			new ConcurrentHashMap<Integer, AtomicLong>();
+
+		/** The number of errors, by error code. */
+		private ConcurrentMap<String, AtomicLong> errorCodes =
+			new ConcurrentHashMap<String, AtomicLong>();
+
+		/**
+		 * Records the measurements of a request.
+		 *
+		 * @param sample
+		 *            the measurements
+		 */
+		void record(RequestMetricsSample sample) {
+			this.requestCount.incrementAndGet();
+			if (sample.getException() != null) {
+				this.failureCount.incrementAndGet();
+			}
+			if (sample.isThrottled()) {
+				this.throttledCount.incrementAndGet();
+			}
+			this.requestBytes.addAndGet(sample.getRequestBytes());
+			this.responseBytes.addAndGet(sample.getResponseBytes());
+			this.totalNanos.addAndGet(sample.getTotalNanos());
+			long max;
+			do {
+				max = this.maxNanos.get();
+			} while (sample.getTotalNanos() > max &&
+					!this.maxNanos.compareAndSet(max, sample.getTotalNanos()));
+			this.totalLatency.incrementAndGet(bucket(sample.getTotalNanos()));
+			this.serializeLatency.incrementAndGet(bucket(sample
+					.getSerializeNanos()));
+			this.networkLatency.incrementAndGet(bucket(sample
+					.getNetworkNanos()));
+			this.parseLatency.incrementAndGet(bucket(sample.getParseNanos()));
+			if (sample.getHttpStatusCode() != -1) {
+				increment(this.httpStatusCodes, sample.getHttpStatusCode());
+			}
+			for (ServiceError errorCode : sample.getErrorCodes()) {
+				increment(this.errorCodes, errorCode.name());
+			}
+		}
+
+		/**
+		 * Increments a counter of a map.
+		 *
+		 * @param <K>
+		 *            the key type
+		 * @param counters
+		 *            the counters
+		 * @param key
+		 *            the key
+		 */
+		private static <K> void increment(ConcurrentMap<K, AtomicLong> counters,
+				K key) {
+			AtomicLong counter = counters.get(key);
+			if (counter == null) {
+				counter = new AtomicLong();
+				AtomicLong existing = counters.putIfAbsent(key, counter);
+				if (existing != null) {
+					counter = existing;
+				}
+			}
+			counter.incrementAndGet();
+		}
+
+		/**
+		 * Copies the counters of a map.
+		 *
+		 * @param <K>
+		 *            the key type
+		 * @param counters
+		 *            the counters
+		 * @return the copy
+		 */
+		private static <K> Map<K, Long> copy(ConcurrentMap<K, AtomicLong>
+		counters) {
+			Map<K, Long> result = new TreeMap<K, Long>();
+			for (Map.Entry<K, AtomicLong> entry : counters.entrySet()) {
+				result.put(entry.getKey(), entry.getValue().get());
+			}
+			return result;
+		}
+
+		/**
+		 * Copies a histogram.
+		 *
+		 * @param histogram
+		 *            the histogram
+		 * @return the copy
+		 */
+		private static long[] copy(AtomicLongArray histogram) {
+			long[] result = new long[histogram.length()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = histogram.get(i);
+			}
+			return result;
+		}
+
+		/**
+		 * Takes a snapshot of the measurements.
+		 *
+		 * @return the snapshot
+		 */
+		RequestOperationMetrics snapshot() {
+			return new RequestOperationMetrics(this.requestCount.get(),
+					this.failureCount.get(), this.throttledCount.get(),
+					this.requestBytes.get(), this.responseBytes.get(),
+					this.totalNanos.get() / 1e6, this.maxNanos.get() / 1e6,
+					copy(this.totalLatency), copy(this.serializeLatency),
+					copy(this.networkLatency), copy(this.parseLatency),
+					copy(this.httpStatusCodes), copy(this.errorCodes));
+		}
+	}
+}
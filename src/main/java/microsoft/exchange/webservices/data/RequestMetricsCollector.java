@@ -0,0 +1,223 @@
+/**************************************************************************
+ * copyright file="RequestMetricsCollector.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RequestMetricsCollector class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Takes the measurements of a request while it executes. A collector is
+ * used by the thread executing the request only.
+ */
+final class RequestMetricsCollector {
+
+	/** The name of the operation. */
+	private String operation;
+
+	/** The time the request started. */
+	private long startTime = System.nanoTime();
+
+	/** The time the current phase started. */
+	private long phaseStartTime;
+
+	/** The time spent writing the request. */
+	private long serializeNanos;
+
+	/** The time spent waiting for the response. */
+	private long networkNanos;
+
+	/** The time spent reading the response. */
+	private long parseNanos;
+
+	/** The time spent writing the request while it was sent. */
+	private long streamedNanos;
+
+	/** Whether the request is being sent. */
+	private boolean sending;
+
+	/** The number of bytes sent. */
+	private long requestBytes;
+
+	/** The number of bytes received. */
+	private long responseBytes;
+
+	/** The HTTP status code. */
+	private int httpStatusCode = -1;
+
+	/** The error codes returned by the server. */
+	private List<ServiceError> errorCodes = new ArrayList<ServiceError>(1);
+
+	/**
+	 * Initializes a new instance of the RequestMetricsCollector class.
+	 *
+	 * @param operation
+	 *            the name of the operation
+	 */
+	RequestMetricsCollector(String operation) {
+		this.operation = operation;
+	}
+
+	/**
+	 * Marks the start of a phase.
+	 */
+	void beginPhase() {
+		this.phaseStartTime = System.nanoTime();
+	}
+
+	/**
+	 * Marks the end of writing the request.
+	 */
+	void endSerialize() {
+		this.serializeNanos += System.nanoTime() - this.phaseStartTime;
+	}
+
+	/**
+	 * Marks the start of sending the request and waiting for the response.
+	 */
+	void beginNetwork() {
+		this.phaseStartTime = System.nanoTime();
+		this.sending = true;
+	}
+
+	/**
+	 * Records time spent writing the request. Time spent while the request
+	 * is sent is counted as writing rather than waiting; time spent before
+	 * is already part of the writing phase.
+	 *
+	 * @param nanos
+	 *            the time spent
+	 */
+	void addStreamedSerialize(long nanos) {
+		if (this.sending) {
+			this.serializeNanos += nanos;
+			this.streamedNanos += nanos;
+		}
+	}
+
+	/**
+	 * Marks the end of waiting for the response.
+	 *
+	 * @param httpStatusCode
+	 *            the HTTP status code
+	 */
+	void endNetwork(int httpStatusCode) {
+		this.networkNanos += System.nanoTime() - this.phaseStartTime -
+				this.streamedNanos;
+		this.streamedNanos = 0;
+		this.sending = false;
+		this.httpStatusCode = httpStatusCode;
+	}
+
+	/**
+	 * Marks the end of reading the response, recording the error codes of
+	 * the responses of a batch.
+	 *
+	 * @param result
+	 *            the parsed response
+	 */
+	void endParse(Object result) {
+		this.parseNanos += System.nanoTime() - this.phaseStartTime;
+		if (result instanceof ServiceResponseCollection<?>) {
+			for (ServiceResponse response :
+				(ServiceResponseCollection<?>)result) {
+				if (response.getErrorCode() != null &&
+						response.getErrorCode() != ServiceError.NoError) {
+					this.errorCodes.add(response.getErrorCode());
+				}
+			}
+		} else if (result instanceof ServiceResponse) {
+			ServiceResponse response = (ServiceResponse)result;
+			if (response.getErrorCode() != null &&
+					response.getErrorCode() != ServiceError.NoError) {
+				this.errorCodes.add(response.getErrorCode());
+			}
+		}
+	}
+
+	/**
+	 * Wraps the stream the request is written to, to count the bytes sent.
+	 *
+	 * @param stream
+	 *            the stream
+	 * @return the counting stream
+	 */
+	OutputStream countRequest(OutputStream stream) {
+		return new FilterOutputStream(stream) {
+			@Override
+			public void write(int b) throws IOException {
+				this.out.write(b);
+				requestBytes++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				this.out.write(b, off, len);
+				requestBytes += len;
+			}
+		};
+	}
+
+	/**
+	 * Wraps the stream the response is read from, to count the bytes
+	 * received.
+	 *
+	 * @param stream
+	 *            the stream
+	 * @return the counting stream
+	 */
+	InputStream countResponse(InputStream stream) {
+		return new FilterInputStream(stream) {
+			@Override
+			public int read() throws IOException {
+				int b = this.in.read();
+				if (b != -1) {
+					responseBytes++;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = this.in.read(b, off, len);
+				if (read > 0) {
+					responseBytes += read;
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = this.in.skip(n);
+				responseBytes += skipped;
+				return skipped;
+			}
+		};
+	}
+
+	/**
+	 * Ends the measurements.
+	 *
+	 * @param exception
+	 *            the exception the request failed with, or null
+	 * @return the measurements
+	 */
+	RequestMetricsSample complete(Exception exception) {
+		if (exception instanceof ServiceResponseException) {
+			this.errorCodes.add(((ServiceResponseException)exception)
+					.getErrorCode());
+		}
+		return new RequestMetricsSample(this.operation, System.nanoTime() -
+				this.startTime, this.serializeNanos, this.networkNanos,
+				this.parseNanos, this.requestBytes, this.responseBytes,
+				this.httpStatusCode, this.errorCodes, exception);
+	}
+}
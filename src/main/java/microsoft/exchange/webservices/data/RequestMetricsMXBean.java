@@ -0,0 +1,56 @@
+/**************************************************************************
+ * copyright file="RequestMetricsMXBean.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RequestMetricsMXBean.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Map;
+
+/**
+ * The management interface of RequestMetrics.
+ */
+public interface RequestMetricsMXBean {
+
+	/**
+	 * Gets the measurements of each operation.
+	 *
+	 * @return the measurements, by operation name
+	 */
+	Map<String, RequestOperationMetrics> getOperations();
+
+	/**
+	 * Gets the number of requests made.
+	 *
+	 * @return the number of requests
+	 */
+	long getRequestCount();
+
+	/**
+	 * Gets the number of requests that failed.
+	 *
+	 * @return the number of requests
+	 */
+	long getFailureCount();
+
+	/**
+	 * Gets the number of requests that were throttled.
+	 *
+	 * @return the number of requests
+	 */
+	long getThrottledCount();
+
+	/**
+	 * Gets the upper bounds of the latency histogram buckets; the last
+	 * bucket has no upper bound.
+	 *
+	 * @return the bounds, in milliseconds
+	 */
+	long[] getLatencyBucketBounds();
+
+	/**
+	 * Clears the measurements.
+	 */
+	void reset();
+}
@@ -0,0 +1,193 @@
+/**************************************************************************
+ * copyright file="RequestMetricsSample.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RequestMetricsSample class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The measurements of one request.
+ *
+ * The time of a request is split into the time spent writing the request
+ * body, the time spent waiting for the response status, and the time spent
+ * reading and parsing the response. Byte counts are those sent and
+ * received on the connection, before decompression.
+ */
+public final class RequestMetricsSample {
+
+	/** The name of the operation. */
+	private String operation;
+
+	/** The total time, in nanoseconds. */
+	private long totalNanos;
+
+	/** The time spent writing the request, in nanoseconds. */
+	private long serializeNanos;
+
+	/** The time spent waiting for the response, in nanoseconds. */
+	private long networkNanos;
+
+	/** The time spent reading the response, in nanoseconds. */
+	private long parseNanos;
+
+	/** The number of bytes sent. */
+	private long requestBytes;
+
+	/** The number of bytes received. */
+	private long responseBytes;
+
+	/** The HTTP status code. */
+	private int httpStatusCode;
+
+	/** The error codes returned by the server. */
+	private List<ServiceError> errorCodes;
+
+	/** The exception the request failed with. */
+	private Exception exception;
+
+	/**
+	 * Initializes a new instance of the RequestMetricsSample class.
+	 *
+	 * @param operation
+	 *            the name of the operation
+	 * @param totalNanos
+	 *            the total time
+	 * @param serializeNanos
+	 *            the time spent writing the request
+	 * @param networkNanos
+	 *            the time spent waiting for the response
+	 * @param parseNanos
+	 *            the time spent reading the response
+	 * @param requestBytes
+	 *            the number of bytes sent
+	 * @param responseBytes
+	 *            the number of bytes received
+	 * @param httpStatusCode
+	 *            the HTTP status code, or -1
+	 * @param errorCodes
+	 *            the error codes returned by the server
+	 * @param exception
+	 *            the exception the request failed with, or null
+	 */
+	RequestMetricsSample(String operation, long totalNanos,
+			long serializeNanos, long networkNanos, long parseNanos,
+			long requestBytes, long responseBytes, int httpStatusCode,
+			List<ServiceError> errorCodes, Exception exception) {
+		this.operation = operation;
+		this.totalNanos = totalNanos;
+		this.serializeNanos = serializeNanos;
+		this.networkNanos = networkNanos;
+		this.parseNanos = parseNanos;
+		this.requestBytes = requestBytes;
+		this.responseBytes = responseBytes;
+		this.httpStatusCode = httpStatusCode;
+		this.errorCodes = Collections.unmodifiableList(errorCodes);
+		this.exception = exception;
+	}
+
+	/**
+	 * Gets the name of the operation, the name of the request element.
+	 *
+	 * @return the name of the operation
+	 */
+	public String getOperation() {
+		return this.operation;
+	}
+
+	/**
+	 * Gets the total time of the request.
+	 *
+	 * @return the time, in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return this.totalNanos;
+	}
+
+	/**
+	 * Gets the time spent writing the request.
+	 *
+	 * @return the time, in nanoseconds
+	 */
+	public long getSerializeNanos() {
+		return this.serializeNanos;
+	}
+
+	/**
+	 * Gets the time spent waiting for the response status.
+	 *
+	 * @return the time, in nanoseconds
+	 */
+	public long getNetworkNanos() {
+		return this.networkNanos;
+	}
+
+	/**
+	 * Gets the time spent reading and parsing the response.
+	 *
+	 * @return the time, in nanoseconds
+	 */
+	public long getParseNanos() {
+		return this.parseNanos;
+	}
+
+	/**
+	 * Gets the number of bytes sent.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getRequestBytes() {
+		return this.requestBytes;
+	}
+
+	/**
+	 * Gets the number of bytes received.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getResponseBytes() {
+		return this.responseBytes;
+	}
+
+	/**
+	 * Gets the HTTP status code of the response.
+	 *
+	 * @return the status code, or -1 if no response was received
+	 */
+	public int getHttpStatusCode() {
+		return this.httpStatusCode;
+	}
+
+	/**
+	 * Gets the error codes returned by the server, from a SOAP fault or from
+	 * the responses of a batch.
+	 *
+	 * @return the error codes, empty if there were none
+	 */
+	public List<ServiceError> getErrorCodes() {
+		return this.errorCodes;
+	}
+
+	/**
+	 * Gets the exception the request failed with.
+	 *
+	 * @return the exception, or null if the request succeeded
+	 */
+	public Exception getException() {
+		return this.exception;
+	}
+
+	/**
+	 * Checks whether the request was throttled: the server answered with
+	 * ErrorServerBusy or the HTTP status 503.
+	 *
+	 * @return true if the request was throttled
+	 */
+	public boolean isThrottled() {
+		return this.httpStatusCode == 503 ||
+		this.errorCodes.contains(ServiceError.ErrorServerBusy);
+	}
+}
@@ -0,0 +1,226 @@
+/**************************************************************************
+ * copyright file="RequestOperationMetrics.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RequestOperationMetrics class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.Map;
+
+/**
+ * A snapshot of the measurements of the requests of one operation.
+ *
+ * Latency histograms count the requests by duration; the upper bounds of
+ * the buckets are given by RequestMetrics.getLatencyBucketBounds.
+ */
+public final class RequestOperationMetrics {
+
+	/** The number of requests. */
+	private long requestCount;
+
+	/** The number of requests that failed. */
+	private long failureCount;
+
+	/** The number of requests that were throttled. */
+	private long throttledCount;
+
+	/** The number of bytes sent. */
+	private long requestBytes;
+
+	/** The number of bytes received. */
+	private long responseBytes;
+
+	/** The total time of the requests, in milliseconds. */
+	private double totalLatencyMillis;
+
+	/** The longest request, in milliseconds. */
+	private double maxLatencyMillis;
+
+	/** The histogram of the total time. */
+	private long[] totalLatency;
+
+	/** The histogram of the time spent writing requests. */
+	private long[] serializeLatency;
+
+	/** The histogram of the time spent waiting for responses. */
+	private long[] networkLatency;
+
+	/** The histogram of the time spent reading responses. */
+	private long[] parseLatency;
+
+	/** The number of responses, by HTTP status code. */
+	private Map<Integer, Long> httpStatusCodes;
+
+	/** The number of errors, by error code. */
+	private Map<String, Long> errorCodes;
+
+	/**
+	 * Initializes a new instance of the RequestOperationMetrics class.
+	 *
+	 * @param requestCount
+	 *            the number of requests
+	 * @param failureCount
+	 *            the number of requests that failed
+	 * @param throttledCount
+	 *            the number of requests that were throttled
+	 * @param requestBytes
+	 *            the number of bytes sent
+	 * @param responseBytes
+	 *            the number of bytes received
+	 * @param totalLatencyMillis
+	 *            the total time of the requests
+	 * @param maxLatencyMillis
+	 *            the longest request
+	 * @param totalLatency
+	 *            the histogram of the total time
+	 * @param serializeLatency
+	 *            the histogram of the time spent writing requests
+	 * @param networkLatency
+	 *            the histogram of the time spent waiting for responses
+	 * @param parseLatency
+	 *            the histogram of the time spent reading responses
+	 * @param httpStatusCodes
+	 *            the number of responses, by HTTP status code
+	 * @param errorCodes
+	 *            the number of errors, by error code
+	 */
+	RequestOperationMetrics(long requestCount, long failureCount,
+			long throttledCount, long requestBytes, long responseBytes,
+			double totalLatencyMillis, double maxLatencyMillis,
+			long[] totalLatency, long[] serializeLatency,
+			long[] networkLatency, long[] parseLatency,
+			Map<Integer, Long> httpStatusCodes, Map<String, Long> errorCodes) {
+		this.requestCount = requestCount;
+		this.failureCount = failureCount;
+		this.throttledCount = throttledCount;
+		this.requestBytes = requestBytes;
+		this.responseBytes = responseBytes;
+		this.totalLatencyMillis = totalLatencyMillis;
+		this.maxLatencyMillis = maxLatencyMillis;
+		this.totalLatency = totalLatency;
+		this.serializeLatency = serializeLatency;
+		this.networkLatency = networkLatency;
+		this.parseLatency = parseLatency;
+		this.httpStatusCodes = httpStatusCodes;
+		this.errorCodes = errorCodes;
+	}
+
+	/**
+	 * Gets the number of requests.
+	 *
+	 * @return the number of requests
+	 */
+	public long getRequestCount() {
+		return this.requestCount;
+	}
+
+	/**
+	 * Gets the number of requests that failed.
+	 *
+	 * @return the number of requests
+	 */
+	public long getFailureCount() {
+		return this.failureCount;
+	}
+
+	/**
+	 * Gets the number of requests that were throttled.
+	 *
+	 * @return the number of requests
+	 */
+	public long getThrottledCount() {
+		return this.throttledCount;
+	}
+
+	/**
+	 * Gets the number of bytes sent.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getRequestBytes() {
+		return this.requestBytes;
+	}
+
+	/**
+	 * Gets the number of bytes received.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getResponseBytes() {
+		return this.responseBytes;
+	}
+
+	/**
+	 * Gets the mean time of the requests.
+	 *
+	 * @return the time, in milliseconds
+	 */
+	public double getMeanLatencyMillis() {
+		return this.requestCount == 0 ? 0 : this.totalLatencyMillis /
+				this.requestCount;
+	}
+
+	/**
+	 * Gets the time of the longest request.
+	 *
+	 * @return the time, in milliseconds
+	 */
+	public double getMaxLatencyMillis() {
+		return this.maxLatencyMillis;
+	}
+
+	/**
+	 * Gets the histogram of the total time of the requests.
+	 *
+	 * @return the number of requests in each bucket
+	 */
+	public long[] getTotalLatency() {
+		return this.totalLatency.clone();
+	}
+
+	/**
+	 * Gets the histogram of the time spent writing requests.
+	 *
+	 * @return the number of requests in each bucket
+	 */
+	public long[] getSerializeLatency() {
+		return this.serializeLatency.clone();
+	}
+
+	/**
+	 * Gets the histogram of the time spent waiting for responses.
+	 *
+	 * @return the number of requests in each bucket
+	 */
+	public long[] getNetworkLatency() {
+		return this.networkLatency.clone();
+	}
+
+	/**
+	 * Gets the histogram of the time spent reading responses.
+	 *
+	 * @return the number of requests in each bucket
+	 */
+	public long[] getParseLatency() {
+		return this.parseLatency.clone();
+	}
+
+	/**
+	 * Gets the number of responses by HTTP status code.
+	 *
+	 * @return the counts, by status code
+	 */
+	public Map<Integer, Long> getHttpStatusCodes() {
+		return this.httpStatusCodes;
+	}
+
+	/**
+	 * Gets the number of errors returned by the server, by error code.
+	 *
+	 * @return the counts, by ServiceError name
+	 */
+	public Map<String, Long> getErrorCodes() {
+		return this.errorCodes;
+	}
+}
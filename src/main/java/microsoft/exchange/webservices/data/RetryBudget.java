@@ -0,0 +1,99 @@
+/**************************************************************************
+ * copyright file="RetryBudget.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RetryBudget class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/**
+ * Bounds the number of retries to a fraction of the requests, so that
+ * retries cannot multiply the load on a server that is failing.
+ *
+ * Every request that is not a retry deposits the retry ratio in the
+ * budget, up to the maximum balance, and every retry withdraws one. With
+ * the default ratio of 0.1 retries add at most 10% to the load once the
+ * initial balance is spent, however many attempts the retry policies
+ * allow.
+ */
+public final class RetryBudget {
+
+	/** The retries earned by each request. */
+	private double ratio;
+
+	/** The highest balance. */
+	private double maxBalance;
+
+	/** The retries available. */
+	private double balance;
+
+	/** The number of retries refused. */
+	private long exhaustedCount;
+
+	/**
+	 * Initializes a new instance of the RetryBudget class, allowing retries
+	 * for 10% of the requests with a balance of 10 retries.
+	 */
+	public RetryBudget() {
+		this(0.1, 10);
+	}
+
+	/**
+	 * Initializes a new instance of the RetryBudget class.
+	 *
+	 * @param ratio
+	 *            the retries earned by each request, between 0 and 1
+	 * @param maxBalance
+	 *            the highest number of retries that can be saved, which is
+	 *            also the initial balance
+	 */
+	public RetryBudget(double ratio, int maxBalance) {
+		if (!(ratio >= 0 && ratio <= 1) || maxBalance < 0) {
+			throw new IllegalArgumentException(
+					"The ratio must be between 0 and 1 and the balance " +
+					"must not be negative.");
+		}
+		this.ratio = ratio;
+		this.maxBalance = maxBalance;
+		this.balance = maxBalance;
+	}
+
+	/**
+	 * Records a request that is not a retry.
+	 */
+	synchronized void deposit() {
+		this.balance = Math.min(this.maxBalance, this.balance + this.ratio);
+	}
+
+	/**
+	 * Takes a retry from the budget.
+	 *
+	 * @return true if the retry may be made
+	 */
+	synchronized boolean tryWithdraw() {
+		if (this.balance >= 1) {
+			this.balance -= 1;
+			return true;
+		}
+		this.exhaustedCount++;
+		return false;
+	}
+
+	/**
+	 * Gets the number of retries available.
+	 *
+	 * @return the number of retries
+	 */
+	public synchronized int getBalance() {
+		return (int)this.balance;
+	}
+
+	/**
+	 * Gets the number of retries refused because the budget was spent.
+	 *
+	 * @return the number of retries
+	 */
+	public synchronized long getExhaustedCount() {
+		return this.exhaustedCount;
+	}
+}
@@ -0,0 +1,216 @@
+/**************************************************************************
+ * copyright file="RetryPolicy.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RetryPolicy class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Defines how an operation is retried after a transient failure.
+ *
+ * Only requests that are safe to replay (reads and synchronizations, such
+ * as GetItem, FindItem, SyncFolderItems or GetAttachment) are retried.
+ * A failure is transient if the connection failed, the server answered
+ * with HTTP 502, 503 or 504, or the server returned one of the transient
+ * error codes of the policy. The delay before retry n is drawn uniformly
+ * between 0 and min(maxDelay, initialDelay * 2^n) ("full jitter"), and is
+ * at least the back-off asked for by the server.
+ *
+ * <pre>
+ * service.setDefaultRetryPolicy(new RetryPolicy(3, 200, 5000));
+ * service.setRetryPolicy(&quot;SyncFolderItems&quot;, new RetryPolicy(5, 500, 30000));
+ * </pre>
+ */
+public final class RetryPolicy {
+
+	/** A policy that never retries. */
+	public static final RetryPolicy NoRetry = new RetryPolicy(1, 0, 0);
+
+	/** The source of the jitter. */
+	private static final Random random = new Random();
+
+	/** The operations that are safe to replay, by XML element name. */
+	private static final Set<String> idempotentOperations =
+		new HashSet<String>(Arrays.asList(XmlElementNames.ConvertId,
+				XmlElementNames.ExpandDL, XmlElementNames.FindConversation,
+				XmlElementNames.FindFolder, XmlElementNames.FindItem,
+				XmlElementNames.GetAttachment, XmlElementNames.GetDelegate,
+				XmlElementNames.GetFolder, XmlElementNames.GetInboxRules,
+				XmlElementNames.GetItem, XmlElementNames.GetPhoneCall,
+				XmlElementNames.GetRoomListsRequest,
+				XmlElementNames.GetRoomsRequest,
+				XmlElementNames.GetServerTimeZones,
+				XmlElementNames.GetUserAvailabilityRequest,
+				XmlElementNames.GetUserConfiguration,
+				XmlElementNames.GetUserOofSettingsRequest,
+				XmlElementNames.ResolveNames,
+				XmlElementNames.SyncFolderHierarchy,
+				XmlElementNames.SyncFolderItems));
+
+	/** The number of attempts, including the first one. */
+	private int maxAttempts;
+
+	/** The delay before the first retry, in milliseconds. */
+	private long initialDelayMillis;
+
+	/** The longest delay, in milliseconds. */
+	private long maxDelayMillis;
+
+	/** The error codes that are retried. */
+	private Set<ServiceError> transientErrors = EnumSet.of(
+			ServiceError.ErrorInternalServerTransientError,
+			ServiceError.ErrorTimeoutExpired, ServiceError.ErrorServerBusy,
+			ServiceError.ErrorConnectionFailed,
+			ServiceError.ErrorMailboxStoreUnavailable);
+
+	/**
+	 * Initializes a new instance of the RetryPolicy class.
+	 *
+	 * @param maxAttempts
+	 *            the number of attempts, including the first one
+	 * @param initialDelayMillis
+	 *            the delay before the first retry, in milliseconds
+	 * @param maxDelayMillis
+	 *            the longest delay, in milliseconds
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelayMillis,
+			long maxDelayMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException(
+					"maxAttempts must be at least 1.");
+		}
+		if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+			throw new IllegalArgumentException(
+					"The delays must satisfy 0 <= initialDelay <= maxDelay.");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Initializes a new instance of the RetryPolicy class.
+	 *
+	 * @param maxAttempts
+	 *            the number of attempts, including the first one
+	 * @param initialDelayMillis
+	 *            the delay before the first retry, in milliseconds
+	 * @param maxDelayMillis
+	 *            the longest delay, in milliseconds
+	 * @param transientErrors
+	 *            the error codes that are retried
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelayMillis,
+			long maxDelayMillis, Set<ServiceError> transientErrors) {
+		this(maxAttempts, initialDelayMillis, maxDelayMillis);
+		this.transientErrors = transientErrors.isEmpty() ? EnumSet
+				.noneOf(ServiceError.class) : EnumSet.copyOf(transientErrors);
+	}
+
+	/**
+	 * Gets the number of attempts, including the first one.
+	 *
+	 * @return the number of attempts
+	 */
+	public int getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	/**
+	 * Gets the delay before the first retry.
+	 *
+	 * @return the delay, in milliseconds
+	 */
+	public long getInitialDelayMillis() {
+		return this.initialDelayMillis;
+	}
+
+	/**
+	 * Gets the longest delay between attempts.
+	 *
+	 * @return the delay, in milliseconds
+	 */
+	public long getMaxDelayMillis() {
+		return this.maxDelayMillis;
+	}
+
+	/**
+	 * Gets the error codes that are retried.
+	 *
+	 * @return the error codes
+	 */
+	public Set<ServiceError> getTransientErrors() {
+		return EnumSet.copyOf(this.transientErrors);
+	}
+
+	/**
+	 * Checks whether an operation is safe to replay.
+	 *
+	 * @param operationName
+	 *            the XML element name of the request
+	 * @return true if the operation is a read or a synchronization
+	 */
+	static boolean isIdempotent(String operationName) {
+		return idempotentOperations.contains(operationName);
+	}
+
+	/**
+	 * Checks whether a failure is transient.
+	 *
+	 * @param exception
+	 *            the exception the request failed with
+	 * @param httpStatusCode
+	 *            the HTTP status code of the response, or -1
+	 * @return true if the request may succeed when retried
+	 */
+	boolean isTransient(Exception exception, int httpStatusCode) {
+		if (exception instanceof ServiceResponseException) {
+			return this.transientErrors.contains(
+					((ServiceResponseException)exception).getErrorCode());
+		}
+		if (httpStatusCode == 502 || httpStatusCode == 503 ||
+				httpStatusCode == 504) {
+			return true;
+		}
+		if (exception instanceof ServiceRequestException ||
+				exception instanceof IOException) {
+			// A connection failure, unless it wraps something else.
+			for (Throwable cause = exception; cause != null; cause = cause
+					.getCause()) {
+				if (cause instanceof IOException) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the delay before a retry.
+	 *
+	 * @param retry
+	 *            the number of the retry, from 0
+	 * @param serverBackOffMillis
+	 *            the back-off asked for by the server, or a value &lt;= 0
+	 * @return the delay, in milliseconds
+	 */
+	long getDelay(int retry, long serverBackOffMillis) {
+		long ceiling = this.initialDelayMillis << Math.min(retry, 30);
+		if (ceiling > this.maxDelayMillis || ceiling < 0) {
+			ceiling = this.maxDelayMillis;
+		}
+		long delay;
+		synchronized (random) {
+			delay = (long)(random.nextDouble() * (ceiling + 1));
+		}
+		return Math.max(delay, serverBackOffMillis);
+	}
+}
@@ -0,0 +1,193 @@
+/**************************************************************************
+ * copyright file="RollingFileTraceListener.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the RollingFileTraceListener class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Writes trace messages to a file in UTF-8. When the file reaches its
+ * maximum size, it is renamed with the suffix .1, older files are shifted
+ * to .2, .3 and so on up to the number of files kept, and a new file is
+ * started.
+ *
+ * Writes are buffered; the file is written when the buffer fills and when
+ * the listener is flushed. Used as the target of a TracePipeline, the
+ * listener is flushed each time the pipeline is drained.
+ */
+public class RollingFileTraceListener implements ITraceListener, Flushable,
+		Closeable {
+
+	/** The line separator. */
+	private static final byte[] lineSeparator = System.getProperty(
+			"line.separator").getBytes();
+
+	/** The file. */
+	private File file;
+
+	/** The maximum size of a file, in bytes. */
+	private long maxFileSize;
+
+	/** The number of rolled files kept. */
+	private int maxBackupFiles;
+
+	/** The output to the file. */
+	private OutputStream output;
+
+	/** The size of the file. */
+	private long fileSize;
+
+	/**
+	 * Initializes a new instance of the RollingFileTraceListener class.
+	 * Messages are appended to the file if it exists.
+	 *
+	 * @param fileName
+	 *            the name of the file
+	 * @param maxFileSize
+	 *            the maximum size of a file, in bytes
+	 * @param maxBackupFiles
+	 *            the number of rolled files kept
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public RollingFileTraceListener(String fileName, long maxFileSize,
+			int maxBackupFiles) throws IOException {
+		if (maxFileSize <= 0) {
+			throw new IllegalArgumentException(
+					"maxFileSize must be greater than 0.");
+		}
+		if (maxBackupFiles < 0) {
+			throw new IllegalArgumentException(
+					"maxBackupFiles must not be negative.");
+		}
+		this.file = new File(fileName);
+		this.maxFileSize = maxFileSize;
+		this.maxBackupFiles = maxBackupFiles;
+		this.open();
+	}
+
+	/**
+	 * Writes a trace message, rolling the file first if the message would
+	 * make it exceed its maximum size. A line separator is added if the
+	 * message does not end with one already.
+	 *
+	 * @param traceType
+	 *            the trace type
+	 * @param traceMessage
+	 *            the trace message
+	 */
+	public synchronized void trace(String traceType, String traceMessage) {
+		byte[] bytes;
+		try {
+			bytes = traceMessage.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		try {
+			if (this.output == null) {
+				this.open();
+			}
+			boolean terminated = bytes.length > 0 &&
+					bytes[bytes.length - 1] == '\n';
+			long size = bytes.length + (terminated ? 0 : lineSeparator.length);
+			if (this.fileSize > 0 && this.fileSize + size > this.maxFileSize) {
+				this.roll();
+			}
+			this.output.write(bytes);
+			if (!terminated) {
+				this.output.write(lineSeparator);
+			}
+			this.fileSize += size;
+		} catch (IOException e) {
+			this.closeQuietly();
+			throw new IllegalStateException("Unable to write the trace file "
+					+ this.file, e);
+		}
+	}
+
+	/**
+	 * Writes the buffered messages to the file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.output != null) {
+			this.output.flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered messages and closes the file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public synchronized void close() throws IOException {
+		if (this.output != null) {
+			try {
+				this.output.close();
+			} finally {
+				this.output = null;
+			}
+		}
+	}
+
+	/**
+	 * Opens the file for appending.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void open() throws IOException {
+		this.fileSize = this.file.length();
+		this.output = new BufferedOutputStream(new FileOutputStream(
+				this.file, true), 64 * 1024);
+	}
+
+	/**
+	 * Closes the file, shifts the rolled files and starts a new file.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void roll() throws IOException {
+		this.close();
+		if (this.maxBackupFiles == 0) {
+			this.file.delete();
+		} else {
+			new File(this.file.getPath() + "." + this.maxBackupFiles).delete();
+			for (int i = this.maxBackupFiles - 1; i > 0; i--) {
+				File rolled = new File(this.file.getPath() + "." + i);
+				if (rolled.exists()) {
+					rolled.renameTo(new File(this.file.getPath() + "." +
+							(i + 1)));
+				}
+			}
+			this.file.renameTo(new File(this.file.getPath() + ".1"));
+		}
+		this.open();
+	}
+
+	/**
+	 * Closes the file after a failed write, so that the next write reopens
+	 * it.
+	 */
+	private void closeQuietly() {
+		try {
+			this.close();
+		} catch (IOException e) {
+			this.output = null;
+		}
+	}
+}
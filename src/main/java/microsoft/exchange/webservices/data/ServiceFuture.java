@@ -0,0 +1,109 @@
+/**************************************************************************
+ * copyright file="ServiceFuture.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the ServiceFuture.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Represents the pending result of an operation submitted to an
+ * AsyncExchangeService. Callbacks can be registered at any time; callbacks
+ * registered after completion are invoked immediately on the calling thread.
+ * 
+ * @param <TResult>
+ *            the result type of the operation
+ */
+public final class ServiceFuture<TResult> extends FutureTask<TResult> {
+
+	/** The callbacks, null once they have been invoked. */
+	private List<IAsyncCallback<TResult>> callbacks = 
+		new ArrayList<IAsyncCallback<TResult>>();
+
+	/**
+	 * Initializes a new instance of the ServiceFuture class.
+	 * 
+	 * @param operation
+	 *            the operation
+	 */
+	protected ServiceFuture(Callable<TResult> operation) {
+		super(operation);
+	}
+
+	/**
+	 * Registers a callback invoked when the operation completes.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @return this future
+	 */
+	public ServiceFuture<TResult> addCallback(IAsyncCallback<TResult> callback) {
+		EwsUtilities.EwsAssert(callback != null, "ServiceFuture.addCallback",
+				"callback is null");
+		synchronized (this) {
+			if (this.callbacks != null) {
+				this.callbacks.add(callback);
+				return this;
+			}
+		}
+		this.invoke(callback);
+		return this;
+	}
+
+	/**
+	 * Completes the operation with an exception without running it.
+	 * 
+	 * @param exception
+	 *            the exception
+	 */
+	void fail(Throwable exception) {
+		this.setException(exception);
+	}
+
+	/**
+	 * Invokes the registered callbacks once the operation is done.
+	 */
+	@Override
+	protected void done() {
+		List<IAsyncCallback<TResult>> toInvoke;
+		synchronized (this) {
+			toInvoke = this.callbacks;
+			this.callbacks = null;
+		}
+		for (IAsyncCallback<TResult> callback : toInvoke) {
+			this.invoke(callback);
+		}
+	}
+
+	/**
+	 * Invokes a callback with the outcome of the operation.
+	 * 
+	 * @param callback
+	 *            the callback
+	 */
+	private void invoke(IAsyncCallback<TResult> callback) {
+		TResult result;
+		try {
+			result = this.get();
+		} catch (CancellationException e) {
+			callback.onFailed(e);
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			callback.onFailed(e);
+			return;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			callback.onFailed(cause instanceof Exception ? (Exception) cause : e);
+			return;
+		}
+		callback.onCompleted(result);
+	}
+}
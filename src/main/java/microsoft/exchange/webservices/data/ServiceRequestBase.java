@@ -6,11 +6,12 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 
@@ -28,9 +29,24 @@ abstract class ServiceRequestBase {
 	// private final String XMLSchemaInstanceNamespace =
 	// "http://www.w3.org/2001/XMLSchema-instance";
 
+	/** The header routing a request to the mailbox it impersonates. */
+	private static final String AnchorMailboxHeaderName = "X-AnchorMailbox";
+
 	/** The service. */
 	private ExchangeService service;
 
+	/** The user impersonated by the request, or null. */
+	private ImpersonatedUserId impersonatedUserId;
+
+	/** The measurements of the request, taken if metrics are enabled. */
+	private RequestMetricsCollector metrics;
+
+	/** The back-off asked for by an HTTP 503 or 429 response, or -1. */
+	private long httpBackOffMillis = -1;
+
+	/** The HTTP status code of the last response, or -1. */
+	private int httpStatusCode = -1;
+
 	// Methods for subclasses to override
 
 	/***
@@ -54,6 +70,17 @@ abstract class ServiceRequestBase {
 	 */
 	protected abstract ExchangeVersion getMinimumRequiredServerVersion();
 
+	/***
+	 * Gets whether this request can be sent again after a failure without
+	 * changing the outcome, such as a read or a synchronization. Only such
+	 * requests are retried.
+	 * 
+	 * @return true if the request is safe to replay
+	 */
+	protected boolean isIdempotent() {
+		return RetryPolicy.isIdempotent(this.getXmlElementName());
+	}
+
 	/**
 	 * * Writes XML elements.
 	 * 
@@ -161,6 +188,7 @@ abstract class ServiceRequestBase {
 	protected ServiceRequestBase(ExchangeService service)
 	throws ServiceVersionException {
 		this.service = service;
+		this.impersonatedUserId = service.getEffectiveImpersonatedUserId();
 		this.throwIfNotSupportedByRequestedServerVersion();
 	}
 
@@ -173,6 +201,66 @@ abstract class ServiceRequestBase {
 		return service;
 	}
 
+	/***
+	 * Gets the user impersonated by the request. It is the user impersonated
+	 * on the thread that created the request, so that requests for different
+	 * mailboxes can share a service.
+	 * 
+	 * @return the impersonated user id, or null
+	 */
+	ImpersonatedUserId getImpersonatedUserId() {
+		return this.impersonatedUserId;
+	}
+
+	/***
+	 * Sets the user impersonated by the request.
+	 * 
+	 * @param impersonatedUserId
+	 *            the impersonated user id, or null
+	 */
+	void setImpersonatedUserId(ImpersonatedUserId impersonatedUserId) {
+		this.impersonatedUserId = impersonatedUserId;
+	}
+
+	/***
+	 * Gets the measurements of the request.
+	 * 
+	 * @return the collector, or null if metrics are not enabled
+	 */
+	RequestMetricsCollector getMetrics() {
+		return this.metrics;
+	}
+
+	/***
+	 * Sets the measurements of the request.
+	 * 
+	 * @param metrics
+	 *            the collector, or null
+	 */
+	void setMetrics(RequestMetricsCollector metrics) {
+		this.metrics = metrics;
+	}
+
+	/***
+	 * Gets the back-off asked for by the server with HTTP 503 (Service
+	 * Unavailable) or 429 (Too Many Requests).
+	 * 
+	 * @return the back-off in milliseconds from the Retry-After header, 0 if
+	 *         there was none, or -1 if the request was not throttled
+	 */
+	long getHttpBackOffMillis() {
+		return this.httpBackOffMillis;
+	}
+
+	/***
+	 * Gets the HTTP status code of the last response.
+	 * 
+	 * @return the status code, or -1 if no response was received
+	 */
+	int getHttpStatusCode() {
+		return this.httpStatusCode;
+	}
+
 	/**
 	 * * Throw exception if request is not supported in requested server
 	 * version.
@@ -239,8 +327,8 @@ abstract class ServiceRequestBase {
 					XmlElementNames.MailboxCulture, this.service
 					.getPreferredCulture().getDisplayName());
 		}
-		if (this.service.getImpersonatedUserId() != null) {
-			this.service.getImpersonatedUserId().writeToXml(writer);
+		if (this.impersonatedUserId != null) {
+			this.impersonatedUserId.writeToXml(writer);
 		}
 
 		if (this.service.getCredentials() != null) {
@@ -278,6 +366,32 @@ abstract class ServiceRequestBase {
 		//}
 	}
 
+	/**
+	 * Gets the HTTP headers of the request. A request impersonating a user
+	 * by SMTP address is routed to the mailbox of the user with the
+	 * X-AnchorMailbox header, unless the service sets the header itself.
+	 * Without it the front end may proxy each request to a different back
+	 * end, and the requests of one mailbox are throttled together with those
+	 * of every other mailbox of the account.
+	 * 
+	 * @return the headers
+	 */
+	private Map<String, String> getHttpHeaders() {
+		Map<String, String> headers = this.service.getHttpHeaders();
+		if (this.impersonatedUserId == null ||
+				this.impersonatedUserId.getIdType() !=
+					ConnectingIdType.SmtpAddress ||
+				this.impersonatedUserId.getId() == null ||
+				headers.containsKey(AnchorMailboxHeaderName)) {
+			return headers;
+		}
+
+		// The headers of the service are shared with the other requests.
+		headers = new HashMap<String, String>(headers);
+		headers.put(AnchorMailboxHeaderName, this.impersonatedUserId.getId());
+		return headers;
+	}
+
 	/**
 	 * * Send request and get response.
 	 * 
@@ -287,43 +401,62 @@ abstract class ServiceRequestBase {
 	 */
 	protected HttpWebRequest emit(OutParam<HttpWebRequest> request) 
 	throws Exception {
-		request.setParam(this.getService().prepareHttpWebRequest());
+		this.httpStatusCode = -1;
+		this.httpBackOffMillis = -1;
+		request.setParam(this.getService().prepareHttpWebRequest(
+				this.getHttpHeaders()));
 		this.getService().traceHttpRequestHeaders(TraceFlags.
 				EwsRequestHttpHeaders, request.getParam());
 
+		if (this.metrics != null) {
+			this.metrics.beginPhase();
+		}
+
 		// If tracing is enabled, we generate the request in-memory so that we
-		// can pass it along to the ITraceListener. Then we copy the stream to
-		// the request stream.
-		if (this.service.isTraceEnabledFor(TraceFlags.EwsRequest)) {
-			ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
-			EwsServiceXmlWriter writer = new EwsServiceXmlWriter(this.service,
-					memoryStream);
-			this.writeToXml(writer);
-			this.service.traceXml(TraceFlags.EwsRequest, memoryStream);
-			OutputStream urlOutStream = request.getParam().getOutputStream();
-			//request.getParam().write(memoryStream);
-			//System.out.println("Actual XML : "+new String(memoryStream.toByteArray())+": end of XML");
-
-			memoryStream.writeTo(urlOutStream);
-			urlOutStream.flush();
-			urlOutStream.close();
-			writer.dispose();
-			memoryStream.close();
-		} else {
-			//ByteArrayOutputStream bos = new ByteArrayOutputStream();  
-			//ObjectOutputStream urlOutStream = new ObjectOutputStream(bos); 
-			OutputStream urlOutStream = request.getParam().getOutputStream();
-			EwsServiceXmlWriter writer = new EwsServiceXmlWriter(this.service,
-					urlOutStream);
-			this.writeToXml(writer);
-			//request.getParam().write(bos);
-			urlOutStream.flush();
-			urlOutStream.close();
-			writer.dispose();
+		// can pass it along to the ITraceListener, and send it with its
+		// length. Otherwise the request is written directly onto the
+		// connection while it is sent, without being buffered.
+		RequestBody body = new RequestBody();
+		try {
+			if (this.service.isTraceEnabledFor(TraceFlags.EwsRequest)) {
+				body.memoryStream = PooledByteArrayOutputStream.acquire();
+				EwsServiceXmlWriter writer = new EwsServiceXmlWriter(
+						this.service, body.memoryStream);
+				this.writeToXml(writer);
+				writer.dispose();
+				this.service.traceXml(TraceFlags.EwsRequest, body.memoryStream);
+			}
+			request.getParam().setRequestBody(body);
+
+			// Closing and flushing stream does not ensure xml data is posted.
+			// Hence try to get response code. This will force the xml data to
+			// be posted.
+			try {
+				if (this.metrics != null) {
+					this.metrics.endSerialize();
+					this.metrics.beginNetwork();
+					request.getParam().executeRequest();
+					this.metrics.endNetwork(request.getParam()
+							.getResponseCode());
+				} else {
+					request.getParam().executeRequest();
+				}
+			} catch (IOException e) {
+				body.throwIfFailed();
+				throw e;
+			}
+			body.throwIfFailed();
+		} finally {
+			if (body.memoryStream != null) {
+				body.memoryStream.release();
+			}
+		}
+		int responseCode = request.getParam().getResponseCode();
+		this.httpStatusCode = responseCode;
+		if (responseCode == 503 || responseCode == 429) {
+			this.httpBackOffMillis = ThrottlingLimiter.parseRetryAfter(request
+					.getParam().getResponseHeaderField("Retry-After"));
 		}
-		// Closing and flushing stream does not ensure xml data is posted. Hence
-		// try to get response code. This will force the xml data to be posted.
-		request.getParam().executeRequest();
 		if(request.getParam().getResponseCode() >= 400)
 		{
 			throw new Exception("The remote server returned an error: ("+request.getParam().getResponseCode()+")"+request.getParam().getResponseText());
@@ -331,6 +464,101 @@ abstract class ServiceRequestBase {
 		return request.getParam();
 	}
 
+	/**
+	 * The body of the request: the buffered request when it is traced, or
+	 * the request written by writeToXml as it is sent.
+	 */
+	private final class RequestBody implements IRequestBody {
+
+		/** The buffered request, or null. */
+		private PooledByteArrayOutputStream memoryStream;
+
+		/** The exception writeToXml failed with, or null. */
+		private Exception failure;
+
+		/** Whether the body was written. */
+		private boolean written;
+
+		/** Whether the body contains content that cannot be read again. */
+		private boolean oneShot;
+
+		/**
+		 * Gets the length of the body.
+		 * 
+		 * @return the length of the buffered request, or -1
+		 */
+		public long getContentLength() {
+			return this.memoryStream != null ? this.memoryStream.size() : -1;
+		}
+
+		/**
+		 * Gets whether the body can be written again.
+		 * 
+		 * @return false if the request was written from content that cannot
+		 *         be read again
+		 */
+		public boolean isRepeatable() {
+			return this.memoryStream != null || !this.oneShot;
+		}
+
+		/**
+		 * Writes the body.
+		 * 
+		 * @param stream
+		 *            the stream to write to
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		public void writeTo(OutputStream stream) throws IOException {
+			RequestMetricsCollector metrics = ServiceRequestBase.this.metrics;
+			if (metrics != null && !this.written) {
+				// The bytes of the request are counted once, not again when
+				// it is sent again for authentication.
+				stream = metrics.countRequest(stream);
+			}
+			this.written = true;
+			if (this.memoryStream != null) {
+				this.memoryStream.writeTo(stream);
+				return;
+			}
+
+			long startTime = System.nanoTime();
+			try {
+				EwsServiceXmlWriter writer = new EwsServiceXmlWriter(
+						ServiceRequestBase.this.service, stream);
+				try {
+					ServiceRequestBase.this.writeToXml(writer);
+				} finally {
+					this.oneShot |= writer.hasOneShotContent();
+				}
+				writer.dispose();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				// Reported by emit rather than as a connection failure.
+				this.failure = e;
+				throw new IOException(e.getMessage());
+			} finally {
+				if (metrics != null) {
+					metrics.addStreamedSerialize(System.nanoTime() -
+							startTime);
+				}
+			}
+		}
+
+		/**
+		 * Rethrows the exception writeToXml failed with.
+		 * 
+		 * @throws Exception
+		 *             the exception
+		 */
+		void throwIfFailed() throws Exception {
+			if (this.failure != null) {
+				throw this.failure;
+			}
+		}
+	}
+
 	/**
 	 * * Gets the response stream (may be wrapped with GZip/Deflate stream to
 	 * decompress content).
@@ -344,6 +572,27 @@ abstract class ServiceRequestBase {
 	 *             the eWS http exception
 	 */
 	protected static InputStream getResponseStream(HttpWebRequest request)
+	throws IOException, EWSHttpException {
+		return getResponseStream(request, null);
+	}
+
+	/**
+	 * * Gets the response stream (may be wrapped with GZip/Deflate stream to
+	 * decompress content), counting the bytes received before they are
+	 * decompressed.
+	 * 
+	 * @param request
+	 *            HttpWebRequest object from which response stream can be read.
+	 * @param metrics
+	 *            the measurements of the request, or null
+	 * @return ResponseStream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	static InputStream getResponseStream(HttpWebRequest request,
+			RequestMetricsCollector metrics)
 	throws IOException, EWSHttpException {
 		String contentEncoding = "";
 
@@ -351,18 +600,44 @@ abstract class ServiceRequestBase {
 			contentEncoding = request.getContentEncoding().toLowerCase();
 		}
 
-		InputStream responseStream;
+		InputStream responseStream = request.getInputStream();
+		if (metrics != null) {
+			responseStream = metrics.countResponse(responseStream);
+		}
 
 		if (contentEncoding.contains("gzip")) {
-			responseStream = new GZIPInputStream(request.getInputStream());
+			responseStream = new GZIPInputStream(responseStream);
 		} else if (contentEncoding.contains("deflate")) {
-			responseStream = new InflaterInputStream(request.getInputStream());
-		} else {
-			responseStream = request.getInputStream();
+			responseStream = new InflaterInputStream(responseStream);
 		}
 		return responseStream;
 	}
 
+	/**
+	 * * Traces the response read through a trace stream.
+	 * 
+	 * @param request
+	 *            The response.
+	 * @param traceStream
+	 *            The stream the response content was read through.
+	 * @throws XMLStreamException
+	 *             the xML stream exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	protected void traceResponse(HttpWebRequest request,
+			TraceInputStream traceStream) throws XMLStreamException,
+			IOException, EWSHttpException {
+		this.traceResponse(request, traceStream.getCopy());
+		if (traceStream.getTruncatedCount() > 0) {
+			this.service.traceMessage(TraceFlags.EwsResponse, String.format(
+					"Response trace truncated, %d more bytes were read.",
+					traceStream.getTruncatedCount()));
+		}
+	}
+
 	/**
 	 * * Traces the response.
 	 * 
@@ -520,32 +795,22 @@ abstract class ServiceRequestBase {
 		SoapFaultDetails soapFaultDetails = null;
 		if (null != req) {
 			if (500 == req.getResponseCode()) {
-				if (this.service.isTraceEnabledFor(TraceFlags.EwsResponse)) {
-					ByteArrayOutputStream memoryStream = 
-						new ByteArrayOutputStream();
-					InputStream serviceResponseStream = ServiceRequestBase
-					.getResponseErrorStream(req);
-					while (true) {
-						int data = serviceResponseStream.read();
-						if (-1 == data) {
-							break;
-						} else {
-							memoryStream.write(data);
-						}
+				if (this.service.isTraceEnabledFor(TraceFlags.EwsResponse) &&
+						this.service.isTraceSampled()) {
+					TraceInputStream traceStream = new TraceInputStream(
+							ServiceRequestBase.getResponseErrorStream(req),
+							this.service.getTraceResponseLimit());
+					try {
+						EwsServiceXmlReader reader = new EwsServiceXmlReader(
+								traceStream, this.service);
+						soapFaultDetails = this.readSoapFault(reader);
+					} finally {
+						traceStream.close();
+						this.traceResponse(req, traceStream);
 					}
-					memoryStream.flush();
-					serviceResponseStream.close();
-					this.traceResponse(req, memoryStream);
-					ByteArrayInputStream memoryStreamIn = 
-						new ByteArrayInputStream(
-								memoryStream.toByteArray());
-					EwsServiceXmlReader reader = new EwsServiceXmlReader(
-							memoryStreamIn, this.service);
-					soapFaultDetails = this.readSoapFault(reader);
-					memoryStream.close();
 				} else {
 					InputStream serviceResponseStream = ServiceRequestBase
-					.getResponseStream(req);
+					.getResponseStream(req, this.metrics);
 					EwsServiceXmlReader reader = new EwsServiceXmlReader(
 							serviceResponseStream, this.service);
 					soapFaultDetails = this.readSoapFault(reader);
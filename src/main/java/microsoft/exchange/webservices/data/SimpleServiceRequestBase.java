@@ -6,8 +6,6 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -30,7 +28,123 @@ abstract class SimpleServiceRequestBase extends ServiceRequestBase {
 	 * @throws ServiceLocalException 
 	 */
 	protected Object internalExecute() 
-	throws ServiceLocalException, Exception {		
+	throws ServiceLocalException, Exception {
+		if (!this.isIdempotent()) {
+			return this.executeLimited();
+		}
+		RetryPolicy policy = this.getService().getRetryPolicy(
+				this.getXmlElementName());
+		if (policy.getMaxAttempts() <= 1) {
+			return this.executeLimited();
+		}
+
+		RetryBudget budget = this.getService().getRetryBudget();
+		if (budget != null) {
+			budget.deposit();
+		}
+		for (int attempt = 1;; attempt++) {
+			try {
+				return this.executeLimited();
+			} catch (Exception e) {
+				if (attempt >= policy.getMaxAttempts() ||
+						!policy.isTransient(e, this.getHttpStatusCode()) ||
+						(budget != null && !budget.tryWithdraw())) {
+					throw e;
+				}
+				long serverBackOff = e instanceof ServiceResponseException ?
+						ThrottlingLimiter.getServerBackOff(
+								((ServiceResponseException)e).getResponse()) :
+						this.getHttpBackOffMillis();
+				long delay = policy.getDelay(attempt - 1, serverBackOff);
+				this.getService().traceMessage(TraceFlags.EwsRequest,
+						String.format("Retrying %s in %d ms after attempt %d " +
+								"failed: %s", this.getXmlElementName(), delay,
+								attempt, e.getMessage()));
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes this request within the throttling limiter of the service if
+	 * there is one.
+	 * @return serviceResponse
+	 * @throws Exception
+	 * @throws ServiceLocalException
+	 */
+	private Object executeLimited()
+	throws ServiceLocalException, Exception {
+		ThrottlingLimiter limiter = this.getService().getThrottlingLimiter();
+		if (limiter == null) {
+			return this.executeMeasured();
+		}
+
+		long startTime = limiter.acquire();
+		boolean completed = false;
+		long backOff = -1;
+		try {
+			Object result = this.executeMeasured();
+			completed = true;
+			backOff = ThrottlingLimiter.getServerBackOff(result);
+			return result;
+		} catch (ServiceResponseException e) {
+			completed = true;
+			backOff = ThrottlingLimiter.getServerBackOff(e.getResponse());
+			throw e;
+		} finally {
+			if (backOff < 0) {
+				backOff = this.getHttpBackOffMillis();
+			}
+			limiter.release(startTime, completed, backOff);
+		}
+	}
+
+	/**
+	 * Executes this request, passing its measurements to the metrics
+	 * listener of the service if there is one.
+	 * @return serviceResponse
+	 * @throws Exception
+	 * @throws ServiceLocalException
+	 */
+	private Object executeMeasured()
+	throws ServiceLocalException, Exception {
+		IRequestMetricsListener listener = this.getService()
+		.getRequestMetricsListener();
+		if (listener == null) {
+			return this.executeAndReadResponse();
+		}
+
+		this.setMetrics(new RequestMetricsCollector(this.getXmlElementName()));
+		Exception failure = null;
+		try {
+			return this.executeAndReadResponse();
+		} catch (Exception e) {
+			failure = e;
+			throw e;
+		} finally {
+			RequestMetricsSample sample = this.getMetrics().complete(failure);
+			this.setMetrics(null);
+			try {
+				listener.requestCompleted(sample);
+			} catch (RuntimeException e) {
+				// A failing listener must not fail the request.
+			}
+		}
+	}
+
+	/**
+	 * Emits this request and reads the response.
+	 * @return serviceResponse
+	 * @throws Exception
+	 * @throws ServiceLocalException
+	 */
+	private Object executeAndReadResponse()
+	throws ServiceLocalException, Exception {
 		OutParam<HttpWebRequest> outParam = 
 			new OutParam<HttpWebRequest>();
 		HttpWebRequest response = this.validateAndEmitRequest(outParam);
@@ -40,7 +154,7 @@ abstract class SimpleServiceRequestBase extends ServiceRequestBase {
         catch (IOException ex) {
             // Wrap exception.
             throw new ServiceRequestException(String.
-            		format(Strings.ServiceRequestFailed, ex.getMessage(), ex));
+            		format(Strings.ServiceRequestFailed, ex.getMessage()), ex);
         }
         catch (Exception e) {
             if (response != null) {
@@ -70,47 +184,43 @@ abstract class SimpleServiceRequestBase extends ServiceRequestBase {
 	 */
 	private Object readResponse(HttpWebRequest response) throws Exception {
 		Object serviceResponse;
+		RequestMetricsCollector metrics = this.getMetrics();
+		if (metrics != null) {
+			metrics.beginPhase();
+		}
 		
-		/** If tracing is enabled, we read the entire 
-		 * response into a MemoryStream so that we
-          * can pass it along to the ITraceListener. 
-          * Then we parse the response from the 
-          * MemoryStream.
+		/** If tracing is enabled, the response is parsed as it is read
+		 * and the bytes read are copied on the side, so that they
+          * can be passed along to the ITraceListener once the
+          * response is parsed.
           */
-		if (this.getService().isTraceEnabledFor(TraceFlags.EwsResponse)) {
-			ByteArrayOutputStream memoryStream = new ByteArrayOutputStream();
-			InputStream serviceResponseStream = ServiceRequestBase.
-			getResponseStream(response);
-			while (true) {
-				int data = serviceResponseStream.read();
-				if (-1 == data) {
-					break;
-				} else {
-					memoryStream.write(data);
-				}
-			}
-			
-
-                this.traceResponse(response, memoryStream);
-                ByteArrayInputStream memoryStreamIn = 
-					new ByteArrayInputStream(
-							memoryStream.toByteArray());
+		if (this.getService().isTraceEnabledFor(TraceFlags.EwsResponse) &&
+				this.getService().isTraceSampled()) {
+			TraceInputStream traceStream = new TraceInputStream(
+					ServiceRequestBase.getResponseStream(response, metrics),
+					this.getService().getTraceResponseLimit());
+			try {
                 EwsServiceXmlReader ewsXmlReader = 
-                	new EwsServiceXmlReader(memoryStreamIn, 
+                	new EwsServiceXmlReader(traceStream, 
 					this.getService());                
                 serviceResponse = this.readResponse(ewsXmlReader);
-                serviceResponseStream.close();
-                memoryStream.flush();		
+			} finally {
+				traceStream.close();
+				this.traceResponse(response, traceStream);
+			}
         }
         else {
         	InputStream responseStream = ServiceRequestBase.
-        	getResponseStream(response);
+        	getResponseStream(response, metrics);
                 EwsServiceXmlReader ewsXmlReader =
                 	new EwsServiceXmlReader(responseStream, this.getService());
                 serviceResponse = this.readResponse(ewsXmlReader);
             
         }
 
+        if (metrics != null) {
+            metrics.endParse(serviceResponse);
+        }
         return serviceResponse;
     }
 	
@@ -0,0 +1,433 @@
+/**************************************************************************
+ * copyright file="StreamingConnectionEngine.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the StreamingConnectionEngine class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the hanging GetStreamingEvents requests of streaming subscription
+ * connections and dispatches their notifications.
+ *
+ * Responses are read by a shared pool of reader threads, which are reused
+ * across connections and reconnections instead of one executor being created
+ * per connection. Readers only parse the responses; the notification and
+ * disconnect events are handed to a bounded dispatch executor, so slow
+ * event handlers do not hold up reading. Events of one connection are
+ * delivered in order, one at a time. When the number of undelivered events
+ * reaches the dispatch capacity, readers wait, which pushes back on the
+ * server through the connection. Events report the failures of their own
+ * handlers; an event that throws does not stop the delivery of the next
+ * events of its connection.
+ *
+ * The HTTP stack of the library performs blocking reads, and its TLS sockets
+ * cannot be polled for readiness, so each open connection keeps one reader
+ * thread busy: the engine cannot read many connections from fewer threads.
+ * The number of reader threads is bounded instead, and opening a connection
+ * fails when every reader is busy. To monitor many mailboxes with few
+ * threads, add many subscriptions to each connection; the server accepts
+ * up to 200 subscriptions per connection. Idle reader threads are released
+ * after a minute.
+ */
+public final class StreamingConnectionEngine {
+
+	/** The default maximum number of reader threads. */
+	public static final int DefaultMaxReaderThreads = 256;
+
+	/** The default number of dispatch threads. */
+	public static final int DefaultDispatchThreads = 4;
+
+	/** The default maximum number of undelivered events. */
+	public static final int DefaultDispatchCapacity = 10000;
+
+	/** The engine shared by connections that do not set one. */
+	private static StreamingConnectionEngine defaultEngine;
+
+	/** The reader threads. */
+	private ThreadPoolExecutor readers;
+
+	/** The dispatch threads. */
+	private ExecutorService dispatchers;
+
+	/** The permits for undelivered events. */
+	private Semaphore dispatchPermits;
+
+	/** The number of events read but not yet delivered. */
+	private AtomicInteger pendingDispatches = new AtomicInteger();
+
+	/** Whether the current thread is delivering events of this engine. */
+	private ThreadLocal<Boolean> dispatching = new ThreadLocal<Boolean>();
+
+	/** The number of open connections. */
+	private AtomicInteger openConnections = new AtomicInteger();
+
+	/** The number of delivered events. */
+	private long dispatchedCount;
+
+	/** The total dispatch lag of the delivered events, in milliseconds. */
+	private long totalDispatchLag;
+
+	/** The dispatch lag of the last delivered event, in milliseconds. */
+	private long lastDispatchLag;
+
+	/** The largest dispatch lag, in milliseconds. */
+	private long maxDispatchLag;
+
+	/**
+	 * Initializes a new instance of the StreamingConnectionEngine class with
+	 * the default number of threads and dispatch capacity.
+	 */
+	public StreamingConnectionEngine() {
+		this(DefaultMaxReaderThreads, DefaultDispatchThreads,
+				DefaultDispatchCapacity);
+	}
+
+	/**
+	 * Initializes a new instance of the StreamingConnectionEngine class.
+	 *
+	 * @param maxReaderThreads
+	 *            the maximum number of reader threads, which is the maximum
+	 *            number of open connections
+	 * @param dispatchThreads
+	 *            the number of threads delivering events
+	 * @param dispatchCapacity
+	 *            the maximum number of events read but not yet delivered
+	 */
+	public StreamingConnectionEngine(int maxReaderThreads,
+			int dispatchThreads, int dispatchCapacity) {
+		if (maxReaderThreads < 1) {
+			throw new IllegalArgumentException(
+					"maxReaderThreads must be at least 1.");
+		}
+		if (dispatchThreads < 1) {
+			throw new IllegalArgumentException(
+					"dispatchThreads must be at least 1.");
+		}
+		if (dispatchCapacity < 1) {
+			throw new IllegalArgumentException(
+					"dispatchCapacity must be at least 1.");
+		}
+		this.readers = new ThreadPoolExecutor(0, maxReaderThreads, 60,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS streaming reader"));
+		this.dispatchers = new ThreadPoolExecutor(dispatchThreads,
+				dispatchThreads, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS streaming dispatcher"));
+		this.dispatchPermits = new Semaphore(dispatchCapacity);
+	}
+
+	/**
+	 * Gets the engine shared by the connections that do not set one.
+	 *
+	 * @return the default engine
+	 */
+	public static synchronized StreamingConnectionEngine getDefault() {
+		if (defaultEngine == null) {
+			defaultEngine = new StreamingConnectionEngine();
+		}
+		return defaultEngine;
+	}
+
+	/**
+	 * Gets the number of open connections.
+	 *
+	 * @return the number of open connections
+	 */
+	public int getOpenConnectionCount() {
+		return this.openConnections.get();
+	}
+
+	/**
+	 * Gets the maximum number of reader threads, which is the maximum number
+	 * of open connections.
+	 *
+	 * @return the maximum number of reader threads
+	 */
+	public int getMaxReaderThreads() {
+		return this.readers.getMaximumPoolSize();
+	}
+
+	/**
+	 * Gets the number of reader threads, busy or idle.
+	 *
+	 * @return the number of reader threads
+	 */
+	public int getReaderThreadCount() {
+		return this.readers.getPoolSize();
+	}
+
+	/**
+	 * Gets the number of events read but not yet delivered.
+	 *
+	 * @return the number of pending events
+	 */
+	public int getPendingDispatchCount() {
+		return this.pendingDispatches.get();
+	}
+
+	/**
+	 * Gets the number of delivered events.
+	 *
+	 * @return the number of delivered events
+	 */
+	public synchronized long getDispatchedCount() {
+		return this.dispatchedCount;
+	}
+
+	/**
+	 * Gets the time between the reading and the delivery of the last
+	 * delivered event.
+	 *
+	 * @return the dispatch lag in milliseconds
+	 */
+	public synchronized long getLastDispatchLag() {
+		return this.lastDispatchLag;
+	}
+
+	/**
+	 * Gets the largest time between the reading and the delivery of an
+	 * event.
+	 *
+	 * @return the dispatch lag in milliseconds
+	 */
+	public synchronized long getMaxDispatchLag() {
+		return this.maxDispatchLag;
+	}
+
+	/**
+	 * Gets the average time between the reading and the delivery of the
+	 * events.
+	 *
+	 * @return the dispatch lag in milliseconds
+	 */
+	public synchronized long getAverageDispatchLag() {
+		return this.dispatchedCount == 0 ? 0 :
+			this.totalDispatchLag / this.dispatchedCount;
+	}
+
+	/**
+	 * Stops the reader and dispatch threads. Open connections stop being
+	 * read.
+	 */
+	public void shutdown() {
+		this.readers.shutdownNow();
+		this.dispatchers.shutdown();
+	}
+
+	/**
+	 * Reads a connection on a reader thread.
+	 *
+	 * @param reader
+	 *            the task reading the connection until it is closed
+	 * @throws RejectedExecutionException
+	 *             if every reader thread is busy, or the engine is shut down
+	 */
+	void read(final Runnable reader) {
+		this.openConnections.incrementAndGet();
+		try {
+			this.readers.execute(new Runnable() {
+				public void run() {
+					try {
+						reader.run();
+					} finally {
+						openConnections.decrementAndGet();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			this.openConnections.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the queue delivering the events of one connection in order.
+	 *
+	 * @return the dispatch queue
+	 */
+	DispatchQueue createDispatchQueue() {
+		return new DispatchQueue();
+	}
+
+	/**
+	 * Records the delivery of an event.
+	 *
+	 * @param lag
+	 *            the dispatch lag in milliseconds
+	 */
+	private synchronized void recordDispatch(long lag) {
+		this.dispatchedCount++;
+		this.totalDispatchLag += lag;
+		this.lastDispatchLag = lag;
+		if (lag > this.maxDispatchLag) {
+			this.maxDispatchLag = lag;
+		}
+	}
+
+	/**
+	 * Delivers the events of one connection, in order and one at a time, on
+	 * the dispatch threads of the engine.
+	 */
+	final class DispatchQueue implements Executor {
+
+		/** The events not delivered yet. */
+		private LinkedList<QueuedEvent> events = new LinkedList<QueuedEvent>();
+
+		/** Whether a dispatch thread is delivering the events. */
+		private boolean draining;
+
+		/** Delivers the queued events on a dispatch thread. */
+		private Runnable drainTask = new Runnable() {
+			public void run() {
+				drain();
+			}
+		};
+
+		/**
+		 * Queues an event, waiting if the dispatch capacity of the engine is
+		 * reached. An event handler queuing an event does not wait, since
+		 * the capacity may only be freed by its own dispatch thread; its
+		 * event is queued beyond the capacity if needed. Events queued after
+		 * the engine is shut down are dropped.
+		 *
+		 * @param event
+		 *            the event
+		 */
+		public void execute(Runnable event) {
+			boolean permit;
+			if (dispatching.get() != null) {
+				permit = dispatchPermits.tryAcquire();
+			} else {
+				try {
+					dispatchPermits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				permit = true;
+			}
+			pendingDispatches.incrementAndGet();
+			boolean schedule;
+			synchronized (this) {
+				this.events.add(new QueuedEvent(event, permit));
+				schedule = !this.draining;
+				this.draining = true;
+			}
+			if (schedule) {
+				this.schedule();
+			}
+		}
+
+		/**
+		 * Hands the queued events to a dispatch thread, or drops them if the
+		 * engine is shut down.
+		 */
+		private void schedule() {
+			try {
+				dispatchers.execute(this.drainTask);
+			} catch (RejectedExecutionException e) {
+				List<QueuedEvent> dropped;
+				synchronized (this) {
+					dropped = new ArrayList<QueuedEvent>(this.events);
+					this.events.clear();
+					this.draining = false;
+				}
+				for (QueuedEvent entry : dropped) {
+					this.release(entry);
+				}
+			}
+		}
+
+		/**
+		 * Releases the dispatch capacity held by an event.
+		 *
+		 * @param entry
+		 *            the event
+		 */
+		private void release(QueuedEvent entry) {
+			pendingDispatches.decrementAndGet();
+			if (entry.permit) {
+				dispatchPermits.release();
+			}
+		}
+
+		/**
+		 * Delivers the queued events. If an event throws, the delivery of the
+		 * remaining events is handed to another dispatch thread.
+		 */
+		private void drain() {
+			boolean drained = false;
+			dispatching.set(Boolean.TRUE);
+			try {
+				while (true) {
+					QueuedEvent entry;
+					synchronized (this) {
+						entry = this.events.poll();
+						if (entry == null) {
+							this.draining = false;
+							drained = true;
+							return;
+						}
+					}
+					recordDispatch(System.currentTimeMillis() - entry.readTime);
+					try {
+						entry.event.run();
+					} finally {
+						this.release(entry);
+					}
+				}
+			} finally {
+				dispatching.remove();
+				if (!drained) {
+					this.schedule();
+				}
+			}
+		}
+	}
+
+	/**
+	 * An event waiting for delivery.
+	 */
+	private static final class QueuedEvent {
+
+		/** The event. */
+		private Runnable event;
+
+		/** The time the event was read, in milliseconds. */
+		private long readTime;
+
+		/** Whether the event holds a dispatch permit. */
+		private boolean permit;
+
+		/**
+		 * Initializes a new instance of the QueuedEvent class.
+		 *
+		 * @param event
+		 *            the event
+		 * @param permit
+		 *            whether the event holds a dispatch permit
+		 */
+		QueuedEvent(Runnable event, boolean permit) {
+			this.event = event;
+			this.readTime = System.currentTimeMillis();
+			this.permit = permit;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/**************************************************************************
+ * copyright file="StreamingRequestEntity.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the StreamingRequestEntity class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A request entity writing an IRequestBody onto the connection as the
+ * request is sent. A body of unknown length is sent with chunked transfer
+ * encoding.
+ */
+class StreamingRequestEntity implements RequestEntity {
+
+	/** The body. */
+	private IRequestBody body;
+
+	/** The content type. */
+	private String contentType;
+
+	/**
+	 * Initializes a new instance of the StreamingRequestEntity class.
+	 *
+	 * @param body
+	 *            the body
+	 * @param contentType
+	 *            the content type
+	 */
+	StreamingRequestEntity(IRequestBody body, String contentType) {
+		this.body = body;
+		this.contentType = contentType;
+	}
+
+	@Override
+	public long getContentLength() {
+		return this.body.getContentLength();
+	}
+
+	@Override
+	public String getContentType() {
+		return this.contentType;
+	}
+
+	/**
+	 * The body is written again each time the request is sent, unless it
+	 * contains content that cannot be read again, such as the content stream
+	 * of a file attachment. Sending such a request again fails instead of
+	 * sending a truncated body.
+	 *
+	 * @return whether the body can be written again
+	 */
+	@Override
+	public boolean isRepeatable() {
+		return this.body.isRepeatable();
+	}
+
+	@Override
+	public void writeRequest(OutputStream out) throws IOException {
+		this.body.writeTo(out);
+		out.flush();
+	}
+}
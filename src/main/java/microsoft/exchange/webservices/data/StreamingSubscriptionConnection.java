@@ -44,6 +44,17 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 	 */
 	private GetStreamingEventsRequest currentHangingRequest;
 
+	/**
+	 * Engine reading the connection and dispatching its events.
+	 */
+	private StreamingConnectionEngine engine = 
+		StreamingConnectionEngine.getDefault();
+
+	/**
+	 * Queue delivering the events of the current request in order.
+	 */
+	private StreamingConnectionEngine.DispatchQueue dispatchQueue;
+
 	public interface INotificationEventDelegate {
 		/**
 		 * Represents a delegate that is invoked when 
@@ -272,6 +283,33 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 	}
 
 
+	/**
+	 * Gets the engine reading the connection and dispatching its events.
+	 * @return the engine
+	 */
+	public StreamingConnectionEngine getEngine() {
+		return this.engine;
+	}
+
+	/**
+	 * Sets the engine reading the connection and dispatching its events.
+	 * Defaults to the engine shared by all connections.
+	 * @param engine The engine.
+	 * @throws Exception 
+	 * @exception Thrown when SetEngine is called while connected.
+	 */
+	public void setEngine(StreamingConnectionEngine engine) throws Exception {
+		EwsUtilities.validateParam(engine, "engine");
+
+		synchronized (this)
+		{
+			this.validateConnectionState(false, Strings.
+					CannotCallConnectDuringLiveConnection);
+			this.engine = engine;
+		}
+	}
+
+
 	/**
 	 * Opens this connection so it starts receiving events
 	 *  from the server.This results in a long-standing call to EWS.
@@ -300,6 +338,9 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 					this.subscriptions.keySet(),
 					this.connectionTimeout);
 
+			this.currentHangingRequest.setEngine(this.engine);
+			this.dispatchQueue = this.engine.createDispatchQueue();
+
 			this.currentHangingRequest.addOnDisconnectEvent(this);
 
 			this.currentHangingRequest.internalExecute();
@@ -317,6 +358,16 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 			HangingRequestDisconnectEventArgs args)
 	{
 		this.internalOnDisconnect(args.getException());
+
+		synchronized (this)
+		{
+			// The connection may have been reopened before the event was
+			// delivered.
+			if (this.currentHangingRequest == sender)
+			{
+				this.currentHangingRequest = null;
+			}
+		}
 	}
 
 
@@ -359,7 +410,6 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 						new SubscriptionErrorEventArgs(null, ex));
 			}
 		}
-		this.currentHangingRequest = null;
 	}
 
 	/**
@@ -605,14 +655,93 @@ HangingServiceRequestBase.IHangingRequestDisconnectHandler{
 	}
 
 	@Override
-	public void handleResponseObject(Object response) throws ArgumentException {
-		this.handleServiceResponseObject(response);		
+	public void handleResponseObject(final Object response)
+	throws ArgumentException {
+		if (response == null)
+		{
+			throw new ArgumentException();
+		}
+
+		// Events are delivered by the engine so that the reader thread can
+		// go back to reading the connection.
+		final ExchangeService service = this.session;
+		this.getDispatchQueue().execute(new Runnable() {
+			public void run() {
+				try {
+					handleServiceResponseObject(response);
+				} catch (Exception e) {
+					reportHandlerFailure(service, e);
+				}
+			}
+		});
 	}
 
 	@Override
-	public void hangingRequestDisconnectHandler(Object sender,
-			HangingRequestDisconnectEventArgs args) {
-		this.onRequestDisconnect(sender, args);
+	public void hangingRequestDisconnectHandler(final Object sender,
+			final HangingRequestDisconnectEventArgs args) {
+		// Delivered after the events already read from the connection.
+		final ExchangeService service = this.session;
+		this.getDispatchQueue().execute(new Runnable() {
+			public void run() {
+				try {
+					onRequestDisconnect(sender, args);
+				} catch (RuntimeException e) {
+					reportHandlerFailure(service, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reports the failure of an event handler to the subscription error
+	 * handlers, with no subscription, and traces it. A failure of the
+	 * subscription error handlers themselves is only traced.
+	 * @param service The service tracing the failure.
+	 * @param exception The failure.
+	 */
+	private void reportHandlerFailure(ExchangeService service,
+			Exception exception)
+	{
+		traceHandlerFailure(service, exception);
+		SubscriptionErrorEventArgs eventArgs = new SubscriptionErrorEventArgs(
+				null, exception);
+		try {
+			for (ISubscriptionErrorDelegate subError : onSubscriptionError) {
+				subError.subscriptionErrorDelegate(this, eventArgs);
+			}
+		} catch (RuntimeException e) {
+			traceHandlerFailure(service, e);
+		}
+	}
+
+	/**
+	 * Traces the failure of an event handler.
+	 * @param service The service tracing the failure.
+	 * @param exception The failure.
+	 */
+	private static void traceHandlerFailure(ExchangeService service,
+			Exception exception)
+	{
+		try {
+			service.traceMessage(TraceFlags.DebugMessage, String.format(
+					"A streaming subscription event handler failed: %s",
+					exception));
+		} catch (Exception e) {
+			// Tracing is best effort.
+		}
+	}
+
+	/**
+	 * Gets the queue delivering the events of the current request.
+	 * @return the dispatch queue
+	 */
+	private synchronized StreamingConnectionEngine.DispatchQueue 
+	getDispatchQueue() {
+		if (this.dispatchQueue == null)
+		{
+			this.dispatchQueue = this.engine.createDispatchQueue();
+		}
+		return this.dispatchQueue;
 	}
 
 
@@ -0,0 +1,767 @@
+/**************************************************************************
+ * copyright file="StreamingSubscriptionManager.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the StreamingSubscriptionManager class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps streaming subscriptions live across connection lifetimes, network
+ * failures and subscription expiry.
+ *
+ * Subscriptions are spread over StreamingSubscriptionConnections, at most
+ * MaxSubscriptionsPerConnection per connection and one set of connections
+ * per ExchangeService and impersonated user; subscriptions made inside
+ * ExchangeService.executeAs are subscribed again, and their connections
+ * opened, as the user they were made for. A connection that disconnects is opened again, after
+ * a random delay below the minimum reconnect delay when its lifetime ended;
+ * after a failure, the delay before the next attempt grows exponentially and
+ * is picked at random below that bound, so that many connections expiring or
+ * failing together do not reconnect together. A subscription the server reports as
+ * no longer valid is created again for the same folders and event types and
+ * put back on its connection.
+ *
+ * Streaming subscriptions do not accept a watermark, so events that occur
+ * while a subscription is being replaced are not delivered;
+ * ManagedStreamingSubscription.getLastEventTime() tells from when to
+ * synchronize the folders again.
+ */
+public final class StreamingSubscriptionManager implements Closeable {
+
+	/** The default maximum number of subscriptions per connection. */
+	public static final int DefaultMaxSubscriptionsPerConnection = 200;
+
+	/** The default connection lifetime, in minutes. */
+	public static final int DefaultConnectionLifetime = 30;
+
+	/** The default minimum reconnect delay, in milliseconds. */
+	public static final long DefaultMinReconnectDelay = 1000;
+
+	/** The default maximum reconnect delay, in milliseconds. */
+	public static final long DefaultMaxReconnectDelay = 5 * 60 * 1000;
+
+	/**
+	 * The time, in milliseconds, after which an open connection is
+	 * considered healthy and its failure count is reset.
+	 */
+	static final long StableConnectionTime = 60 * 1000;
+
+	/** The number of threads opening connections and subscribing. */
+	static final int WorkerThreads = 4;
+
+	/** The maximum number of subscriptions per connection. */
+	private int maxSubscriptionsPerConnection =
+		DefaultMaxSubscriptionsPerConnection;
+
+	/** The connection lifetime, in minutes. */
+	private int connectionLifetime = DefaultConnectionLifetime;
+
+	/** The minimum reconnect delay, in milliseconds. */
+	private long minReconnectDelay = DefaultMinReconnectDelay;
+
+	/** The maximum reconnect delay, in milliseconds. */
+	private long maxReconnectDelay = DefaultMaxReconnectDelay;
+
+	/** The engine reading the connections. */
+	private StreamingConnectionEngine engine =
+		StreamingConnectionEngine.getDefault();
+
+	/** The connection shards. */
+	private List<Shard> shards = new ArrayList<Shard>();
+
+	/** The managed subscriptions, by current subscription id. */
+	private Map<String, ManagedStreamingSubscription> subscriptions =
+		new HashMap<String, ManagedStreamingSubscription>();
+
+	/** The threads opening connections and subscribing. */
+	private ScheduledThreadPoolExecutor scheduler;
+
+	/** The source of the reconnect jitter. */
+	private Random random = new Random();
+
+	/** Whether the manager is closed. */
+	private boolean closed;
+
+	/** The notification event listeners. */
+	private List<StreamingSubscriptionConnection.INotificationEventDelegate>
+	onNotificationEvent = new ArrayList<StreamingSubscriptionConnection.
+			INotificationEventDelegate>();
+
+	/** The subscription error listeners. */
+	private List<StreamingSubscriptionConnection.ISubscriptionErrorDelegate>
+	onSubscriptionError = new ArrayList<StreamingSubscriptionConnection.
+			ISubscriptionErrorDelegate>();
+
+	/** The disconnect listeners. */
+	private List<StreamingSubscriptionConnection.ISubscriptionErrorDelegate>
+	onDisconnect = new ArrayList<StreamingSubscriptionConnection.
+			ISubscriptionErrorDelegate>();
+
+	/**
+	 * Initializes a new instance of the StreamingSubscriptionManager class.
+	 */
+	public StreamingSubscriptionManager() {
+		this.scheduler = new ScheduledThreadPoolExecutor(WorkerThreads,
+				new AsyncExchangeService.DaemonThreadFactory(
+						"EWS streaming subscription manager"));
+	}
+
+	/**
+	 * Adds a notification event listener. Listeners receive the events of
+	 * all the managed subscriptions, with the connection as sender.
+	 * @param notificationEvent The listener.
+	 */
+	public synchronized void addOnNotificationEvent(
+			StreamingSubscriptionConnection.INotificationEventDelegate
+			notificationEvent) {
+		this.onNotificationEvent.add(notificationEvent);
+	}
+
+	/**
+	 * Removes a notification event listener.
+	 * @param notificationEvent The listener.
+	 */
+	public synchronized void removeNotificationEvent(
+			StreamingSubscriptionConnection.INotificationEventDelegate
+			notificationEvent) {
+		this.onNotificationEvent.remove(notificationEvent);
+	}
+
+	/**
+	 * Adds a subscription error listener. Errors are reported before the
+	 * manager reacts to them.
+	 * @param subscriptionError The listener.
+	 */
+	public synchronized void addOnSubscriptionError(
+			StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+			subscriptionError) {
+		this.onSubscriptionError.add(subscriptionError);
+	}
+
+	/**
+	 * Removes a subscription error listener.
+	 * @param subscriptionError The listener.
+	 */
+	public synchronized void removeSubscriptionError(
+			StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+			subscriptionError) {
+		this.onSubscriptionError.remove(subscriptionError);
+	}
+
+	/**
+	 * Adds a disconnect listener. Disconnects are reported before the
+	 * connection is opened again.
+	 * @param disconnect The listener.
+	 */
+	public synchronized void addOnDisconnect(
+			StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+			disconnect) {
+		this.onDisconnect.add(disconnect);
+	}
+
+	/**
+	 * Removes a disconnect listener.
+	 * @param disconnect The listener.
+	 */
+	public synchronized void removeDisconnect(
+			StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+			disconnect) {
+		this.onDisconnect.remove(disconnect);
+	}
+
+	/**
+	 * Gets the maximum number of subscriptions per connection.
+	 * @return the maximum number of subscriptions
+	 */
+	public synchronized int getMaxSubscriptionsPerConnection() {
+		return this.maxSubscriptionsPerConnection;
+	}
+
+	/**
+	 * Sets the maximum number of subscriptions per connection. Applies to
+	 * subscriptions added afterwards.
+	 * @param value The maximum number of subscriptions.
+	 */
+	public synchronized void setMaxSubscriptionsPerConnection(int value) {
+		if (value < 1) {
+			throw new IllegalArgumentException(
+					"The maximum number of subscriptions must be at least 1.");
+		}
+		this.maxSubscriptionsPerConnection = value;
+	}
+
+	/**
+	 * Gets the connection lifetime, in minutes.
+	 * @return the lifetime
+	 */
+	public synchronized int getConnectionLifetime() {
+		return this.connectionLifetime;
+	}
+
+	/**
+	 * Sets the connection lifetime, in minutes. Applies to connections opened
+	 * afterwards.
+	 * @param value The lifetime, between 1 and 30.
+	 */
+	public synchronized void setConnectionLifetime(int value) {
+		if (value < 1 || value > 30) {
+			throw new IllegalArgumentException(
+					"The lifetime must be between 1 and 30.");
+		}
+		this.connectionLifetime = value;
+	}
+
+	/**
+	 * Sets the bounds of the reconnect delay. After n consecutive failures,
+	 * the delay is picked at random below the smaller of minimum * 2^n and
+	 * the maximum.
+	 * @param minimum The minimum delay, in milliseconds.
+	 * @param maximum The maximum delay, in milliseconds.
+	 */
+	public synchronized void setReconnectDelay(long minimum, long maximum) {
+		if (minimum < 1 || maximum < minimum) {
+			throw new IllegalArgumentException(
+					"The reconnect delays must be positive and ordered.");
+		}
+		this.minReconnectDelay = minimum;
+		this.maxReconnectDelay = maximum;
+	}
+
+	/**
+	 * Sets the engine reading the connections. Applies to connections opened
+	 * afterwards.
+	 * @param engine The engine.
+	 */
+	public synchronized void setEngine(StreamingConnectionEngine engine) {
+		if (engine == null) {
+			throw new IllegalArgumentException("engine");
+		}
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the number of connections.
+	 * @return the number of connections
+	 */
+	public synchronized int getConnectionCount() {
+		return this.shards.size();
+	}
+
+	/**
+	 * Gets the number of managed subscriptions.
+	 * @return the number of subscriptions
+	 */
+	public synchronized int getSubscriptionCount() {
+		int count = 0;
+		for (Shard shard : this.shards) {
+			count += shard.members.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the managed subscription with the specified current subscription
+	 * id, such as the subscription of a NotificationEventArgs.
+	 * @param subscriptionId The subscription id.
+	 * @return the managed subscription, or null
+	 */
+	public synchronized ManagedStreamingSubscription getSubscription(
+			String subscriptionId) {
+		return this.subscriptions.get(subscriptionId);
+	}
+
+	/**
+	 * Subscribes to streaming notifications on all folders of the mailbox
+	 * of the service and keeps the subscription live. Calling this method
+	 * results in a call to EWS.
+	 * @param service The service.
+	 * @param eventTypes The event types to subscribe to.
+	 * @return the managed subscription
+	 * @throws Exception
+	 */
+	public ManagedStreamingSubscription subscribeOnAllFolders(
+			ExchangeService service, EventType... eventTypes)
+	throws Exception {
+		return this.subscribe(service, null, eventTypes);
+	}
+
+	/**
+	 * Subscribes to streaming notifications and keeps the subscription live.
+	 * Calling this method results in a call to EWS.
+	 * @param service The service.
+	 * @param folderIds The Ids of the folders to subscribe to, or null for
+	 *  all folders.
+	 * @param eventTypes The event types to subscribe to.
+	 * @return the managed subscription
+	 * @throws Exception
+	 */
+	public ManagedStreamingSubscription subscribe(ExchangeService service,
+			Iterable<FolderId> folderIds, EventType... eventTypes)
+	throws Exception {
+		EwsUtilities.validateParam(service, "service");
+		this.throwIfClosed();
+		ManagedStreamingSubscription managed =
+			new ManagedStreamingSubscription(this, service, folderIds,
+					eventTypes);
+		managed.setSubscription(managed.subscribe());
+
+		synchronized (this) {
+			if (this.closed) {
+				// Closed while subscribing.
+				try {
+					managed.getSubscription().unsubscribe();
+				} catch (Exception e) {
+					// The subscription expires on the server.
+				}
+				this.throwIfClosed();
+			}
+			Shard target = null;
+			for (Shard shard : this.shards) {
+				if (shard.service == service && sameUser(
+						shard.impersonatedUserId,
+						managed.getImpersonatedUserId()) &&
+						shard.members.size() < this.maxSubscriptionsPerConnection) {
+					target = shard;
+					break;
+				}
+			}
+			if (target == null) {
+				target = new Shard(service, managed.getImpersonatedUserId());
+				this.shards.add(target);
+			}
+			target.members.add(managed);
+			target.changed = true;
+			managed.setShard(target);
+			this.subscriptions.put(managed.getSubscription().getId(), managed);
+			this.refresh(target, 0);
+		}
+		return managed;
+	}
+
+	/**
+	 * Stops keeping a subscription live and unsubscribes from the server.
+	 * Calling this method results in a call to EWS.
+	 * @param managed The managed subscription.
+	 * @throws Exception
+	 */
+	void unsubscribe(ManagedStreamingSubscription managed) throws Exception {
+		StreamingSubscription subscription;
+		synchronized (this) {
+			Shard shard = managed.getShard();
+			if (shard == null) {
+				return;
+			}
+			managed.setShard(null);
+			shard.changed = true;
+			subscription = managed.getSubscription();
+			if (subscription != null) {
+				this.subscriptions.remove(subscription.getId());
+			}
+			shard.members.remove(managed);
+			if (shard.members.isEmpty()) {
+				this.shards.remove(shard);
+			}
+			this.refresh(shard, 0);
+		}
+		if (subscription != null) {
+			subscription.unsubscribe();
+		}
+	}
+
+	/**
+	 * Closes all the connections. The subscriptions are left to expire on
+	 * the server.
+	 */
+	public void close() {
+		List<StreamingSubscriptionConnection> open =
+			new ArrayList<StreamingSubscriptionConnection>();
+		synchronized (this) {
+			this.closed = true;
+			for (Shard shard : this.shards) {
+				if (shard.connection != null) {
+					open.add(shard.connection);
+					shard.connection = null;
+				}
+			}
+			this.shards.clear();
+			this.subscriptions.clear();
+		}
+		this.scheduler.shutdownNow();
+		for (StreamingSubscriptionConnection connection : open) {
+			try {
+				if (connection.getIsOpen()) {
+					connection.close();
+				}
+			} catch (Exception e) {
+				this.forward(this.onSubscriptionError, connection,
+						new SubscriptionErrorEventArgs(null, e));
+			}
+		}
+	}
+
+	/**
+	 * Throws if the manager is closed.
+	 * @throws ServiceLocalException
+	 */
+	private synchronized void throwIfClosed() throws ServiceLocalException {
+		if (this.closed) {
+			throw new ServiceLocalException(
+					"The subscription manager is closed.");
+		}
+	}
+
+	/**
+	 * Checks whether two subscriptions impersonate the same user, so that
+	 * they can share a connection.
+	 * @param first The first impersonated user id, or null.
+	 * @param second The second impersonated user id, or null.
+	 * @return true if the users are the same
+	 */
+	private static boolean sameUser(ImpersonatedUserId first,
+			ImpersonatedUserId second) {
+		if (first == null || second == null) {
+			return first == second;
+		}
+		return first.getIdType() == second.getIdType() &&
+				first.getId() != null && first.getId().equalsIgnoreCase(
+						second.getId());
+	}
+
+	/**
+	 * Computes the delay before the next attempt.
+	 * @param failures The number of consecutive failures.
+	 * @return the delay, in milliseconds
+	 */
+	private synchronized long backoff(int failures) {
+		long bound = this.minReconnectDelay;
+		for (int i = 0; i < failures && bound < this.maxReconnectDelay; i++) {
+			bound *= 2;
+		}
+		bound = Math.min(bound, this.maxReconnectDelay);
+		return (long)(this.random.nextDouble() * bound);
+	}
+
+	/**
+	 * Schedules the connection of a shard to be brought in line with its
+	 * subscriptions. Must be called with the lock held.
+	 * @param shard The shard.
+	 * @param delay The delay, in milliseconds.
+	 */
+	private void refresh(final Shard shard, long delay) {
+		if (this.closed || shard.scheduled) {
+			return;
+		}
+		shard.scheduled = true;
+		this.scheduler.schedule(new Runnable() {
+			public void run() {
+				StreamingSubscriptionManager.this.reconcile(shard);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Brings the connection of a shard in line with its subscriptions:
+	 * closes it if its subscriptions changed, and opens a connection with
+	 * the current subscriptions if none is open.
+	 * @param shard The shard.
+	 */
+	private void reconcile(Shard shard) {
+		StreamingSubscriptionConnection connection;
+		List<StreamingSubscription> members =
+			new ArrayList<StreamingSubscription>();
+		int lifetime;
+		StreamingConnectionEngine connectionEngine;
+		synchronized (this) {
+			shard.scheduled = false;
+			if (this.closed) {
+				return;
+			}
+			connection = shard.connection;
+			if (connection != null) {
+				if (!shard.changed) {
+					return;
+				}
+				// The disconnect handler refreshes the shard again.
+				shard.changed = false;
+				shard.closing = true;
+			} else {
+				shard.changed = false;
+				if (!this.shards.contains(shard)) {
+					return;
+				}
+				for (ManagedStreamingSubscription managed : shard.members) {
+					if (managed.getSubscription() != null) {
+						members.add(managed.getSubscription());
+					}
+				}
+				if (members.isEmpty()) {
+					return;
+				}
+			}
+			lifetime = this.connectionLifetime;
+			connectionEngine = this.engine;
+		}
+
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (RuntimeException e) {
+				this.forward(this.onSubscriptionError, connection,
+						new SubscriptionErrorEventArgs(null, e));
+			}
+			return;
+		}
+
+		try {
+			connection = new StreamingSubscriptionConnection(shard.service,
+					members, lifetime);
+			connection.setEngine(connectionEngine);
+			connection.addOnNotificationEvent(shard);
+			connection.addOnSubscriptionError(shard);
+			connection.addOnDisconnect(shard.disconnectHandler);
+			synchronized (this) {
+				shard.connection = connection;
+				shard.openedAt = System.currentTimeMillis();
+			}
+			final StreamingSubscriptionConnection opened = connection;
+			shard.service.executeInScope(shard.impersonatedUserId,
+					new Callable<Void>() {
+				public Void call() throws Exception {
+					opened.open();
+					return null;
+				}
+			});
+		} catch (Exception e) {
+			synchronized (this) {
+				if (shard.connection == connection) {
+					shard.connection = null;
+				}
+				this.refresh(shard, this.backoff(shard.failures++));
+			}
+		}
+	}
+
+	/**
+	 * Creates a new subscription in place of one the server no longer
+	 * services, and puts it on the connection of its shard.
+	 * @param managed The managed subscription.
+	 */
+	private void resubscribe(final ManagedStreamingSubscription managed) {
+		synchronized (this) {
+			if (this.closed || managed.getShard() == null) {
+				return;
+			}
+		}
+		StreamingSubscription subscription;
+		try {
+			subscription = managed.subscribe();
+		} catch (Exception e) {
+			synchronized (this) {
+				if (!this.closed) {
+					this.scheduler.schedule(new Runnable() {
+						public void run() {
+							StreamingSubscriptionManager.this
+							.resubscribe(managed);
+						}
+					}, this.backoff(managed.getFailures()),
+					TimeUnit.MILLISECONDS);
+					managed.setFailures(managed.getFailures() + 1);
+				}
+			}
+			return;
+		}
+
+		synchronized (this) {
+			Shard shard = managed.getShard();
+			if (shard == null) {
+				return;
+			}
+			managed.setFailures(0);
+			managed.setSubscription(subscription);
+			this.subscriptions.put(subscription.getId(), managed);
+			shard.changed = true;
+			this.refresh(shard, 0);
+		}
+	}
+
+	/**
+	 * A connection and the subscriptions on it.
+	 */
+	final class Shard implements
+	StreamingSubscriptionConnection.INotificationEventDelegate,
+	StreamingSubscriptionConnection.ISubscriptionErrorDelegate {
+
+		/** The service of the connection. */
+		private ExchangeService service;
+
+		/** The user impersonated by the connection, or null. */
+		private ImpersonatedUserId impersonatedUserId;
+
+		/** The subscriptions. */
+		private List<ManagedStreamingSubscription> members =
+			new ArrayList<ManagedStreamingSubscription>();
+
+		/** The open connection, or null. */
+		private StreamingSubscriptionConnection connection;
+
+		/** The time the connection was opened, in milliseconds. */
+		private long openedAt;
+
+		/** The number of consecutive connection failures. */
+		private int failures;
+
+		/** Whether a refresh is scheduled. */
+		private boolean scheduled;
+
+		/** Whether the subscriptions changed since the connection opened. */
+		private boolean changed;
+
+		/** Whether the connection is being closed to change subscriptions. */
+		private boolean closing;
+
+		/** Handles the disconnects of the connection. */
+		private StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+		disconnectHandler =
+			new StreamingSubscriptionConnection.ISubscriptionErrorDelegate() {
+			public void subscriptionErrorDelegate(Object sender,
+					SubscriptionErrorEventArgs args) {
+				Shard.this.onDisconnect(sender, args);
+			}
+		};
+
+		/**
+		 * Initializes a new instance of the Shard class.
+		 * @param service The service of the connection.
+		 * @param impersonatedUserId The user impersonated by the connection,
+		 *  or null.
+		 */
+		Shard(ExchangeService service, ImpersonatedUserId impersonatedUserId) {
+			this.service = service;
+			this.impersonatedUserId = impersonatedUserId;
+		}
+
+		/**
+		 * Records and forwards the events of the connection.
+		 * @param sender The connection.
+		 * @param args The events.
+		 */
+		public void notificationEventDelegate(Object sender,
+				NotificationEventArgs args) {
+			List<StreamingSubscriptionConnection.INotificationEventDelegate>
+			listeners;
+			synchronized (StreamingSubscriptionManager.this) {
+				this.failures = 0;
+				ManagedStreamingSubscription managed =
+					args.getSubscription() == null ? null :
+						subscriptions.get(args.getSubscription().getId());
+				if (managed != null) {
+					managed.onEvents(args.getEvents());
+				}
+				listeners = new ArrayList<StreamingSubscriptionConnection.
+						INotificationEventDelegate>(onNotificationEvent);
+			}
+			for (StreamingSubscriptionConnection.INotificationEventDelegate
+					listener : listeners) {
+				listener.notificationEventDelegate(sender, args);
+			}
+		}
+
+		/**
+		 * Forwards a subscription error and replaces the subscription if the
+		 * connection no longer services it.
+		 * @param sender The connection.
+		 * @param args The error.
+		 */
+		public void subscriptionErrorDelegate(Object sender,
+				SubscriptionErrorEventArgs args) {
+			forward(onSubscriptionError, sender, args);
+			if (args.getSubscription() == null ||
+					(args.getException() instanceof ServiceResponseException &&
+							((ServiceResponseException)args.getException())
+							.getErrorCode() ==
+								ServiceError.ErrorMissedNotificationEvents)) {
+				return;
+			}
+			synchronized (StreamingSubscriptionManager.this) {
+				final ManagedStreamingSubscription managed =
+					subscriptions.remove(args.getSubscription().getId());
+				if (managed == null || closed) {
+					return;
+				}
+				managed.setSubscription(null);
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						resubscribe(managed);
+					}
+				}, backoff(0), TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Forwards a disconnect and schedules the connection to be opened
+		 * again.
+		 * @param sender The connection.
+		 * @param args The cause of the disconnect.
+		 */
+		private void onDisconnect(Object sender,
+				SubscriptionErrorEventArgs args) {
+			forward(StreamingSubscriptionManager.this.onDisconnect, sender,
+					args);
+			synchronized (StreamingSubscriptionManager.this) {
+				if (this.connection != sender) {
+					return;
+				}
+				this.connection = null;
+				if (System.currentTimeMillis() - this.openedAt >=
+					StableConnectionTime) {
+					this.failures = 0;
+				}
+				// Connections closed to change their subscriptions reopen at
+				// once. Connections whose lifetime ended reopen after a random
+				// delay, as connections opened together expire together;
+				// failed ones back off, as many may be failing together.
+				long delay;
+				if (this.closing) {
+					this.closing = false;
+					delay = 0;
+				} else if (args.getException() == null) {
+					delay = backoff(0);
+				} else {
+					delay = backoff(this.failures++);
+				}
+				refresh(this, delay);
+			}
+		}
+	}
+
+	/**
+	 * Forwards an error to listeners.
+	 * @param listeners The listeners.
+	 * @param sender The connection.
+	 * @param args The error.
+	 */
+	private void forward(
+			List<StreamingSubscriptionConnection.ISubscriptionErrorDelegate>
+			listeners, Object sender, SubscriptionErrorEventArgs args) {
+		List<StreamingSubscriptionConnection.ISubscriptionErrorDelegate> copy;
+		synchronized (this) {
+			copy = new ArrayList<StreamingSubscriptionConnection.
+					ISubscriptionErrorDelegate>(listeners);
+		}
+		for (StreamingSubscriptionConnection.ISubscriptionErrorDelegate
+				listener : copy) {
+			listener.subscriptionErrorDelegate(sender, args);
+		}
+	}
+}
@@ -6,7 +6,6 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -54,9 +53,8 @@ public final class Suggestion extends ComplexProperty {
 			throws XMLStreamException, ServiceXmlDeserializationException,
 			Exception {
 		if (reader.getLocalName().equals(XmlElementNames.Date)) {
-			SimpleDateFormat sdfin = new SimpleDateFormat(
-					"yyyy-MM-dd'T'HH:mm:ss");
-			Date tempDate = sdfin.parse(reader.readElementValue());
+			Date tempDate = EwsDateTimeFormat.parseLocalDateTime(reader
+					.readElementValue());
 			this.date = tempDate;
 			return true;
 		} else if (reader.getLocalName().equals(XmlElementNames.DayQuality)) {
@@ -0,0 +1,378 @@
+/**************************************************************************
+ * copyright file="SyncFolderItemsPipeline.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the SyncFolderItemsPipeline class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Synchronizes the items of a folder page by page, requesting the next
+ * page while the current one is still being read and processed.
+ *
+ * The synchronization state of a SyncFolderItems response precedes its
+ * changes, so the request for page n+1 is sent as soon as the state of
+ * page n has been read, and page n+1 travels over the network while page
+ * n is parsed and handed to the caller. At most maxPagesAhead pages are
+ * requested or buffered beyond the pages returned by next. A page that
+ * has not been requested ahead is requested by next on the calling
+ * thread.
+ *
+ * <pre>
+ * SyncFolderItemsPipeline pipeline = new SyncFolderItemsPipeline(service,
+ *         folderId, PropertySet.IdOnly, 512, SyncFolderItemsScope.NormalItems,
+ *         syncState);
+ * try {
+ *     while (pipeline.hasNext()) {
+ *         process(pipeline.next());
+ *         save(pipeline.getSyncState());
+ *     }
+ * } finally {
+ *     pipeline.close();
+ * }
+ * </pre>
+ *
+ * If a page fails, the pages requested after it are discarded and next
+ * throws; synchronization resumes from getSyncState, the state of the
+ * last page returned.
+ *
+ * The pages are requested as the user impersonated by the thread that
+ * created the pipeline.
+ */
+public final class SyncFolderItemsPipeline implements Closeable {
+
+	/** The default number of pages requested ahead. */
+	public static final int DefaultMaxPagesAhead = 2;
+
+	/** The threads requesting pages, created on first use. */
+	private static ExecutorService defaultExecutor;
+
+	/** The service. */
+	private ExchangeService service;
+
+	/** The folder. */
+	private FolderId syncFolderId;
+
+	/** The properties of the changed items. */
+	private PropertySet propertySet;
+
+	/** The maximum number of changes per page. */
+	private int maxChangesReturned;
+
+	/** The items to synchronize. */
+	private SyncFolderItemsScope syncScope;
+
+	/** The user impersonated by the requests, or null. */
+	private ImpersonatedUserId impersonatedUserId;
+
+	/** The threads requesting pages ahead. */
+	private Executor executor;
+
+	/** The number of pages requested or buffered ahead. */
+	private int maxPagesAhead = DefaultMaxPagesAhead;
+
+	/** The pages requested and not yet returned, in order. */
+	private LinkedList<Future<ChangeCollection<ItemChange>>> pages =
+		new LinkedList<Future<ChangeCollection<ItemChange>>>();
+
+	/** The number of pages requested. */
+	private int started;
+
+	/** The number of pages returned. */
+	private int returned;
+
+	/** The state to request the next page with, or null. */
+	private String nextSyncState;
+
+	/** The state of the last page returned. */
+	private String syncState;
+
+	/** Whether a page without more changes was read. */
+	private boolean lastPageRead;
+
+	/** Whether the last page returned had more changes available. */
+	private boolean moreChangesAvailable = true;
+
+	/** Whether a page failed or the pipeline was closed. */
+	private boolean stopped;
+
+	/**
+	 * Initializes a new instance of the SyncFolderItemsPipeline class.
+	 *
+	 * @param service
+	 *            the service
+	 * @param syncFolderId
+	 *            the folder
+	 * @param propertySet
+	 *            the properties of the changed items
+	 * @param maxChangesReturned
+	 *            the maximum number of changes per page
+	 * @param syncScope
+	 *            the items to synchronize
+	 * @param syncState
+	 *            the state to start from, or null to start from the
+	 *            beginning
+	 * @throws Exception
+	 *             if a parameter is not valid
+	 */
+	public SyncFolderItemsPipeline(ExchangeService service,
+			FolderId syncFolderId, PropertySet propertySet,
+			int maxChangesReturned, SyncFolderItemsScope syncScope,
+			String syncState) throws Exception {
+		EwsUtilities.validateParam(service, "service");
+		EwsUtilities.validateParam(syncFolderId, "syncFolderId");
+		EwsUtilities.validateParam(propertySet, "propertySet");
+		this.service = service;
+		this.syncFolderId = syncFolderId;
+		this.propertySet = propertySet;
+		this.maxChangesReturned = maxChangesReturned;
+		this.syncScope = syncScope;
+		this.impersonatedUserId = service.getEffectiveImpersonatedUserId();
+		this.syncState = syncState;
+		this.nextSyncState = syncState;
+		this.executor = getDefaultExecutor();
+	}
+
+	/**
+	 * Gets the threads requesting pages ahead, shared by the pipelines.
+	 *
+	 * @return the executor
+	 */
+	static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = Executors.newCachedThreadPool(
+					new AsyncExchangeService.DaemonThreadFactory(
+							"EWS sync pipeline"));
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * Sets the threads requesting pages ahead. The executor may reject a
+	 * page, which is then requested by next when it is needed.
+	 *
+	 * @param executor
+	 *            the executor
+	 */
+	synchronized void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the number of pages requested or buffered ahead.
+	 *
+	 * @return the number of pages
+	 */
+	public synchronized int getMaxPagesAhead() {
+		return this.maxPagesAhead;
+	}
+
+	/**
+	 * Sets the number of pages requested or buffered beyond the pages
+	 * returned; 1 overlaps one request with the processing of a page.
+	 *
+	 * @param maxPagesAhead
+	 *            the number of pages
+	 */
+	public synchronized void setMaxPagesAhead(int maxPagesAhead) {
+		if (maxPagesAhead < 1) {
+			throw new IllegalArgumentException(
+					"At least one page must be requested ahead.");
+		}
+		this.maxPagesAhead = maxPagesAhead;
+	}
+
+	/**
+	 * Gets the synchronization state of the last page returned, from which
+	 * synchronization resumes.
+	 *
+	 * @return the state
+	 */
+	public synchronized String getSyncState() {
+		return this.syncState;
+	}
+
+	/**
+	 * Checks whether more pages are available.
+	 *
+	 * @return false once a page without more changes was returned
+	 */
+	public synchronized boolean hasNext() {
+		return this.moreChangesAvailable && !this.stopped;
+	}
+
+	/**
+	 * Gets the next page of changes, waiting for it if it has not been
+	 * read yet.
+	 *
+	 * @return the changes
+	 * @throws Exception
+	 *             if the page cannot be synchronized
+	 */
+	public ChangeCollection<ItemChange> next() throws Exception {
+		Future<ChangeCollection<ItemChange>> page;
+		FutureTask<ChangeCollection<ItemChange>> inline = null;
+		synchronized (this) {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (this.pages.isEmpty()) {
+				inline = this.newPage(this.nextSyncState);
+				this.nextSyncState = null;
+				page = inline;
+			} else {
+				page = this.pages.removeFirst();
+			}
+		}
+
+		ChangeCollection<ItemChange> changes;
+		try {
+			if (inline != null) {
+				inline.run();
+			}
+			changes = page.get();
+		} catch (ExecutionException e) {
+			this.close();
+			if (e.getCause() instanceof Exception) {
+				throw (Exception)e.getCause();
+			}
+			throw (Error)e.getCause();
+		} catch (InterruptedException e) {
+			this.close();
+			throw e;
+		}
+
+		synchronized (this) {
+			this.returned++;
+			this.syncState = changes.getSyncState();
+			this.moreChangesAvailable = changes.getMoreChangesAvailable();
+			if (this.moreChangesAvailable && this.pages.isEmpty() &&
+					this.nextSyncState == null) {
+				// The state was not passed on while reading the page.
+				this.nextSyncState = this.syncState;
+			}
+			this.startIfAllowed();
+		}
+		return changes;
+	}
+
+	/**
+	 * Stops the pipeline. Pages being requested are discarded.
+	 */
+	public synchronized void close() {
+		this.stopped = true;
+		for (Future<ChangeCollection<ItemChange>> page : this.pages) {
+			page.cancel(false);
+		}
+		this.pages.clear();
+	}
+
+	/**
+	 * Requests the next page if the pipeline is not too far ahead.
+	 */
+	private void startIfAllowed() {
+		if (this.nextSyncState != null && !this.lastPageRead &&
+				!this.stopped &&
+				this.started - this.returned < this.maxPagesAhead) {
+			this.start();
+		}
+	}
+
+	/**
+	 * Requests the next page ahead, unless the executor rejects it.
+	 */
+	private void start() {
+		String syncState = this.nextSyncState;
+		FutureTask<ChangeCollection<ItemChange>> page = this.newPage(
+				syncState);
+		try {
+			this.executor.execute(page);
+		} catch (RejectedExecutionException e) {
+			// Requested by next when it is needed.
+			this.started--;
+			return;
+		}
+		this.nextSyncState = null;
+		this.pages.add(page);
+	}
+
+	/**
+	 * Creates the request of the next page.
+	 *
+	 * @param syncState
+	 *            the state to request the page with
+	 * @return the page, to be run
+	 */
+	private FutureTask<ChangeCollection<ItemChange>> newPage(
+			final String syncState) {
+		this.started++;
+		return new FutureTask<ChangeCollection<ItemChange>>(
+				new Callable<ChangeCollection<ItemChange>>() {
+			public ChangeCollection<ItemChange> call() throws Exception {
+				return service.executeInScope(impersonatedUserId,
+						new Callable<ChangeCollection<ItemChange>>() {
+					public ChangeCollection<ItemChange> call()
+							throws Exception {
+						return SyncFolderItemsPipeline.this.request(syncState);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Requests a page, requesting the page after it as soon as its
+	 * synchronization state is read. If the request is sent again after a
+	 * failure, the state is passed on only the first time it is read, so
+	 * that the page after it is requested once.
+	 *
+	 * @param syncState
+	 *            the state to request the page with
+	 * @return the changes
+	 * @throws Exception
+	 *             if the page cannot be synchronized
+	 */
+	private ChangeCollection<ItemChange> request(String syncState)
+			throws Exception {
+		SyncFolderItemsRequest request = new SyncFolderItemsRequest(
+				this.service);
+		request.setSyncFolderId(this.syncFolderId);
+		request.setPropertySet(this.propertySet);
+		request.setMaxChangesReturned(this.maxChangesReturned);
+		request.setSyncScope(this.syncScope);
+		request.setSyncState(syncState);
+		request.setSyncStateDelegate(new SyncResponse.ISyncStateDelegate() {
+			/** Whether the state of the page was read. */
+			private boolean read;
+
+			public void syncStateRead(String syncState,
+					boolean moreChangesAvailable) {
+				synchronized (SyncFolderItemsPipeline.this) {
+					if (this.read) {
+						return;
+					}
+					this.read = true;
+					if (moreChangesAvailable) {
+						SyncFolderItemsPipeline.this.nextSyncState = syncState;
+						SyncFolderItemsPipeline.this.startIfAllowed();
+					} else {
+						SyncFolderItemsPipeline.this.lastPageRead = true;
+					}
+				}
+			}
+		});
+		return request.execute().getResponseAtIndex(0).getChanges();
+	}
+}
@@ -30,6 +30,9 @@ class SyncFolderItemsRequest extends
 	/** The max changes returned. */
 	private int maxChangesReturned = 100;
 
+	/** Told the synchronization state before the changes are read. */
+	private SyncResponse.ISyncStateDelegate syncStateDelegate;
+
 	/**
 	 * * Initializes a new instance of the class.
 	 * 
@@ -54,7 +57,22 @@ class SyncFolderItemsRequest extends
 	@Override
 	protected SyncFolderItemsResponse createServiceResponse(
 			ExchangeService service, int responseIndex) {
-		return new SyncFolderItemsResponse(this.getPropertySet());
+		SyncFolderItemsResponse response = new SyncFolderItemsResponse(this
+				.getPropertySet());
+		response.setSyncStateDelegate(this.syncStateDelegate);
+		return response;
+	}
+
+	/**
+	 * Sets the delegate told the synchronization state of the response
+	 * before its changes are read.
+	 * 
+	 * @param syncStateDelegate
+	 *            the delegate, or null
+	 */
+	void setSyncStateDelegate(
+			SyncResponse.ISyncStateDelegate syncStateDelegate) {
+		this.syncStateDelegate = syncStateDelegate;
 	}
 
 	/***
@@ -27,6 +27,26 @@ public abstract class SyncResponse<TServiceObject extends ServiceObject,
 	/** The property set. */
 	private PropertySet propertySet;
 
+	/** Told the synchronization state before the changes are read. */
+	private ISyncStateDelegate syncStateDelegate;
+
+	/**
+	 * Receives the synchronization state of a response as soon as it is
+	 * read, before the changes that follow it in the response.
+	 */
+	interface ISyncStateDelegate {
+
+		/**
+		 * Called when the synchronization state was read.
+		 * 
+		 * @param syncState
+		 *            the synchronization state
+		 * @param moreChangesAvailable
+		 *            whether more changes are available
+		 */
+		void syncStateRead(String syncState, boolean moreChangesAvailable);
+	}
+
 	/**
 	 * * Initializes a new instance of the class.
 	 * 
@@ -40,6 +60,17 @@ public abstract class SyncResponse<TServiceObject extends ServiceObject,
 				"PropertySet should not be null");
 	}
 
+	/***
+	 * Sets the delegate told the synchronization state before the changes
+	 * are read.
+	 * 
+	 * @param syncStateDelegate
+	 *            the delegate, or null
+	 */
+	void setSyncStateDelegate(ISyncStateDelegate syncStateDelegate) {
+		this.syncStateDelegate = syncStateDelegate;
+	}
+
 	/***
 	 * Gets the name of the includes last in range XML element.
 	 * 
@@ -72,6 +103,10 @@ public abstract class SyncResponse<TServiceObject extends ServiceObject,
 		this.changes.setMoreChangesAvailable(!reader.readElementValue(
 				Boolean.class, XmlNamespace.Messages, this
 						.getIncludesLastInRangeXmlElementName()));
+		if (this.syncStateDelegate != null) {
+			this.syncStateDelegate.syncStateRead(this.changes.getSyncState(),
+					this.changes.getMoreChangesAvailable());
+		}
 
 		reader.readStartElement(XmlNamespace.Messages, XmlElementNames.Changes);
 		if (!reader.isEmptyElement()) {
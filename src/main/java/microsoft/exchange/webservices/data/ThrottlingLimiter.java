@@ -0,0 +1,438 @@
+/**************************************************************************
+ * copyright file="ThrottlingLimiter.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the ThrottlingLimiter class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent requests sent to an Exchange server,
+ * adapting the limit to the throttling of the server.
+ *
+ * The limit grows by one for every limit requests that complete in time
+ * (additive increase) and is halved when the server throttles a request
+ * with ErrorServerBusy, HTTP 503 or HTTP 429 (multiplicative decrease). It
+ * is also reduced slightly when the smoothed latency exceeds the latency
+ * tolerance times the baseline latency, so that the limit stops short of
+ * the point where the server starts queueing. A throttled request pauses
+ * all requests for the back-off time given by the server, in the
+ * BackOffMilliseconds detail of the fault or the Retry-After header.
+ *
+ * Requests over the limit are queued, in order of arrival, until a request
+ * completes. A limiter is usually shared by the services that run under
+ * the same account against the same server, since Exchange budgets the
+ * requests of an account.
+ *
+ * <pre>
+ * ThrottlingLimiter limiter = new ThrottlingLimiter(2, 10);
+ * service.setThrottlingLimiter(limiter);
+ * </pre>
+ */
+public final class ThrottlingLimiter {
+
+	/** The name of the fault detail holding the server back-off. */
+	static final String BackOffMillisecondsKey = "BackOffMilliseconds";
+
+	/** The factor the limit is multiplied by when a request is throttled. */
+	private static final double ThrottledDecrease = 0.5;
+
+	/** The factor the limit is multiplied by when the latency is high. */
+	private static final double LatencyDecrease = 0.9;
+
+	/** The weight of a sample in the smoothed latency. */
+	private static final double LatencySmoothing = 0.1;
+
+	/** The rate the baseline latency follows the smoothed latency at. */
+	private static final double BaselineDrift = 0.01;
+
+	/** The longest back-off honoured, in milliseconds. */
+	private static final long MaxBackOffMillis = 5 * 60 * 1000;
+
+	/** The lock guarding the state of the limiter. */
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	/** Signalled when a request completes or the back-off ends. */
+	private final Condition available = this.lock.newCondition();
+
+	/** The lowest limit. */
+	private int minLimit;
+
+	/** The highest limit. */
+	private int maxLimit;
+
+	/** The current limit. */
+	private double limit;
+
+	/** The number of requests executing. */
+	private int inFlight;
+
+	/** The number of requests waiting. */
+	private int queued;
+
+	/** Whether requests are paused for a server back-off. */
+	private boolean backingOff;
+
+	/** The time the back-off ends, in System.nanoTime. */
+	private long backOffEnd;
+
+	/** The time the limit was last decreased, in System.nanoTime. */
+	private long lastDecrease = System.nanoTime();
+
+	/** The smoothed latency, in nanoseconds, or -1 before the first sample. */
+	private double latency = -1;
+
+	/** The baseline latency, in nanoseconds, or -1 before the first sample. */
+	private double baselineLatency = -1;
+
+	/** The latency tolerance. */
+	private double latencyTolerance = 3;
+
+	/** The back-off used when the server gives none, in milliseconds. */
+	private long defaultBackOffMillis = 1000;
+
+	/** The number of requests throttled. */
+	private long throttledCount;
+
+	/**
+	 * Initializes a new instance of the ThrottlingLimiter class, starting at
+	 * 2 concurrent requests and growing up to 10, the default EWS
+	 * concurrency budget of an account.
+	 */
+	public ThrottlingLimiter() {
+		this(2, 10);
+	}
+
+	/**
+	 * Initializes a new instance of the ThrottlingLimiter class.
+	 *
+	 * @param initialLimit
+	 *            the initial number of concurrent requests
+	 * @param maxLimit
+	 *            the highest number of concurrent requests
+	 */
+	public ThrottlingLimiter(int initialLimit, int maxLimit) {
+		if (initialLimit < 1 || maxLimit < initialLimit) {
+			throw new IllegalArgumentException(
+					"The limits must satisfy 1 <= initialLimit <= maxLimit.");
+		}
+		this.minLimit = 1;
+		this.maxLimit = maxLimit;
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * Waits until a request may be sent.
+	 *
+	 * @return the time the request was admitted, in System.nanoTime
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	long acquire() throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			this.queued++;
+			try {
+				while (true) {
+					if (this.backingOff) {
+						long wait = this.backOffEnd - System.nanoTime();
+						if (wait > 0) {
+							this.available.awaitNanos(wait);
+							continue;
+						}
+						this.backingOff = false;
+					}
+					if (this.inFlight < (int)this.limit) {
+						break;
+					}
+					this.available.await();
+				}
+			} finally {
+				this.queued--;
+			}
+			this.inFlight++;
+			return System.nanoTime();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Records the outcome of a request admitted by acquire.
+	 *
+	 * @param startTime
+	 *            the time returned by acquire
+	 * @param completed
+	 *            whether the request completed, throttled or not
+	 * @param backOffMillis
+	 *            the back-off asked for by the server, 0 if the request was
+	 *            throttled without one, or -1 if it was not throttled
+	 */
+	void release(long startTime, boolean completed, long backOffMillis) {
+		this.lock.lock();
+		try {
+			this.inFlight--;
+			long now = System.nanoTime();
+			if (backOffMillis >= 0) {
+				this.throttledCount++;
+				this.decrease(startTime, now, ThrottledDecrease);
+				long millis = backOffMillis > 0 ? Math.min(backOffMillis,
+						MaxBackOffMillis) : this.defaultBackOffMillis;
+				long end = now + TimeUnit.MILLISECONDS.toNanos(millis);
+				if (!this.backingOff || end - this.backOffEnd > 0) {
+					this.backingOff = true;
+					this.backOffEnd = end;
+				}
+			} else if (completed) {
+				this.recordLatency(now - startTime);
+				if (this.latency > this.baselineLatency *
+						this.latencyTolerance) {
+					this.decrease(startTime, now, LatencyDecrease);
+				} else if (this.inFlight + 1 >= (int)this.limit) {
+					// Only grow a limit that is in use.
+					this.limit = Math.min(this.maxLimit, this.limit + 1 /
+							this.limit);
+				}
+			}
+			this.available.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Decreases the limit, once for the requests that were in flight when
+	 * it was last decreased.
+	 *
+	 * @param startTime
+	 *            the time the request was admitted
+	 * @param now
+	 *            the current time
+	 * @param factor
+	 *            the factor to multiply the limit by
+	 */
+	private void decrease(long startTime, long now, double factor) {
+		if (startTime - this.lastDecrease > 0) {
+			this.limit = Math.max(this.minLimit, this.limit * factor);
+			this.lastDecrease = now;
+		}
+	}
+
+	/**
+	 * Updates the smoothed and baseline latencies.
+	 *
+	 * @param nanos
+	 *            the latency of a request
+	 */
+	private void recordLatency(long nanos) {
+		if (this.latency < 0) {
+			this.latency = nanos;
+			this.baselineLatency = nanos;
+			return;
+		}
+		this.latency += (nanos - this.latency) * LatencySmoothing;
+		if (this.latency < this.baselineLatency) {
+			this.baselineLatency = this.latency;
+		} else {
+			this.baselineLatency += (this.latency - this.baselineLatency) *
+					BaselineDrift;
+		}
+	}
+
+	/**
+	 * Gets the back-off asked for by the server in a response or in the
+	 * responses of a batch.
+	 *
+	 * @param result
+	 *            the response, a ServiceResponse or a
+	 *            ServiceResponseCollection
+	 * @return the back-off in milliseconds, 0 if the response is
+	 *         ErrorServerBusy without a back-off, or -1 if it is not
+	 */
+	static long getServerBackOff(Object result) {
+		long backOff = -1;
+		if (result instanceof ServiceResponseCollection<?>) {
+			for (ServiceResponse response :
+				(ServiceResponseCollection<?>)result) {
+				backOff = Math.max(backOff, getServerBackOff(response));
+			}
+		} else if (result instanceof ServiceResponse) {
+			ServiceResponse response = (ServiceResponse)result;
+			if (response.getErrorCode() == ServiceError.ErrorServerBusy) {
+				backOff = 0;
+				String value = response.getErrorDetails().get(
+						BackOffMillisecondsKey);
+				if (value != null) {
+					try {
+						backOff = Math.max(0, Long.parseLong(value.trim()));
+					} catch (NumberFormatException e) {
+						// Use the default back-off.
+					}
+				}
+			}
+		}
+		return backOff;
+	}
+
+	/**
+	 * Parses the value of a Retry-After header given in seconds.
+	 *
+	 * @param value
+	 *            the header value, or null
+	 * @return the back-off in milliseconds, or 0 if there is none
+	 */
+	static long parseRetryAfter(String value) {
+		if (value != null) {
+			try {
+				return Math.max(0, Long.parseLong(value.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// An HTTP date; use the default back-off.
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets the current limit of concurrent requests.
+	 *
+	 * @return the limit
+	 */
+	public int getLimit() {
+		this.lock.lock();
+		try {
+			return (int)this.limit;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of requests executing.
+	 *
+	 * @return the number of requests
+	 */
+	public int getInFlightCount() {
+		this.lock.lock();
+		try {
+			return this.inFlight;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of requests waiting to be sent.
+	 *
+	 * @return the number of requests
+	 */
+	public int getQueuedCount() {
+		this.lock.lock();
+		try {
+			return this.queued;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of requests the server throttled.
+	 *
+	 * @return the number of requests
+	 */
+	public long getThrottledCount() {
+		this.lock.lock();
+		try {
+			return this.throttledCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the time left before requests are sent again.
+	 *
+	 * @return the time, in milliseconds, or 0 if requests are not paused
+	 */
+	public long getBackOffRemainingMillis() {
+		this.lock.lock();
+		try {
+			return this.backingOff ? Math.max(0, TimeUnit.NANOSECONDS
+					.toMillis(this.backOffEnd - System.nanoTime())) : 0;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the latency tolerance.
+	 *
+	 * @return the tolerance
+	 */
+	public double getLatencyTolerance() {
+		this.lock.lock();
+		try {
+			return this.latencyTolerance;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the latency tolerance: the limit is reduced when the smoothed
+	 * latency exceeds the baseline latency times the tolerance. The default
+	 * is 3.
+	 *
+	 * @param latencyTolerance
+	 *            the tolerance, greater than 1
+	 */
+	public void setLatencyTolerance(double latencyTolerance) {
+		if (!(latencyTolerance > 1)) {
+			throw new IllegalArgumentException(
+					"The latency tolerance must be greater than 1.");
+		}
+		this.lock.lock();
+		try {
+			this.latencyTolerance = latencyTolerance;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the back-off used when the server gives none.
+	 *
+	 * @return the back-off, in milliseconds
+	 */
+	public long getDefaultBackOffMillis() {
+		this.lock.lock();
+		try {
+			return this.defaultBackOffMillis;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the back-off used when the server throttles a request without
+	 * giving one. The default is 1000 milliseconds.
+	 *
+	 * @param defaultBackOffMillis
+	 *            the back-off, in milliseconds
+	 */
+	public void setDefaultBackOffMillis(long defaultBackOffMillis) {
+		if (defaultBackOffMillis < 0) {
+			throw new IllegalArgumentException(
+					"The back-off must not be negative.");
+		}
+		this.lock.lock();
+		try {
+			this.defaultBackOffMillis = defaultBackOffMillis;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+}
@@ -6,7 +6,6 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
@@ -187,15 +186,13 @@ final class TimeChange extends ComplexProperty {
 			return true;
 		} else if (reader.getLocalName().equalsIgnoreCase(
 				XmlElementNames.AbsoluteDate)) {
-			SimpleDateFormat sdfin = new SimpleDateFormat(
-					"yyyy-MM-dd'T'HH:mm:ss");
-			Date tempDate = sdfin.parse(reader.readElementValue());
+			Date tempDate = EwsDateTimeFormat.parseLocalDateTime(reader
+					.readElementValue());
 			this.absoluteDate = tempDate;
 			return true;
 		} else if (reader.getLocalName().equalsIgnoreCase(XmlElementNames.Time)) {
-			SimpleDateFormat sdfin = new SimpleDateFormat(
-					"yyyy-MM-dd'T'HH:mm:ss");
-			Date tempDate = sdfin.parse(reader.readElementValue());
+			Date tempDate = EwsDateTimeFormat.parseLocalDateTime(reader
+					.readElementValue());
 			this.time = new Time(tempDate);
 			return true;
 		} else {
@@ -6,8 +6,6 @@
  **************************************************************************/
 package microsoft.exchange.webservices.data;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import javax.xml.stream.XMLStreamException;
@@ -147,12 +145,10 @@ public class TimeWindow implements ISelfValidate {
 	protected void writeToXmlUnscopedDatesOnly(EwsServiceXmlWriter writer,
 			String xmlElementName) throws XMLStreamException,
 			ServiceXmlSerializationException {
-		final String DateOnlyFormat = "yyyy-MM-dd'T'00:00:00";
-
-		DateFormat formatter = new SimpleDateFormat(DateOnlyFormat);
-
-		String start = formatter.format(this.startTime);
-		String end = formatter.format(this.endTime);
+		String start = EwsDateTimeFormat.formatLocalDate(this.startTime) +
+			"T00:00:00";
+		String end = EwsDateTimeFormat.formatLocalDate(this.endTime) +
+			"T00:00:00";
 		TimeWindow.writeToXml(writer, xmlElementName, start, end);
 	}
 
@@ -0,0 +1,157 @@
+/**************************************************************************
+ * copyright file="TraceInputStream.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the TraceInputStream class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream that passes reads through to the underlying stream and keeps a
+ * copy of the bytes returned, up to a limit, so that a response can be
+ * parsed while it is read and traced afterwards.
+ */
+class TraceInputStream extends FilterInputStream {
+
+	/** The copy of the bytes read. */
+	private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+	/** The maximum number of bytes copied, 0 for no limit. */
+	private int limit;
+
+	/** The number of bytes read but not copied. */
+	private long truncatedCount;
+
+	/**
+	 * Initializes a new instance of the TraceInputStream class.
+	 *
+	 * @param stream
+	 *            the underlying stream
+	 * @param limit
+	 *            the maximum number of bytes copied, 0 for no limit
+	 */
+	TraceInputStream(InputStream stream, int limit) {
+		super(stream);
+		this.limit = limit;
+	}
+
+	/**
+	 * Reads a byte.
+	 *
+	 * @return the byte, or -1 at the end of the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public int read() throws IOException {
+		int data = this.in.read();
+		if (data != -1) {
+			if (this.limit == 0 || this.copy.size() < this.limit) {
+				this.copy.write(data);
+			} else {
+				this.truncatedCount++;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Reads bytes into a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            the offset in the buffer
+	 * @param count
+	 *            the maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of the stream
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int read = this.in.read(buffer, offset, count);
+		if (read > 0) {
+			this.record(buffer, offset, read);
+		}
+		return read;
+	}
+
+	/**
+	 * Skips bytes. Skipped bytes are read, so that they are traced.
+	 *
+	 * @param count
+	 *            the number of bytes to skip
+	 * @return the number of bytes skipped
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public long skip(long count) throws IOException {
+		byte[] buffer = new byte[(int)Math.min(count, 4096)];
+		long skipped = 0;
+		while (skipped < count) {
+			int read = this.read(buffer, 0, (int)Math.min(buffer.length,
+					count - skipped));
+			if (read <= 0) {
+				break;
+			}
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Mark and reset are not supported.
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Copies bytes read, up to the limit.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            the offset of the bytes
+	 * @param count
+	 *            the number of bytes
+	 */
+	protected void record(byte[] buffer, int offset, int count) {
+		int copied = count;
+		if (this.limit != 0) {
+			copied = Math.max(0, Math.min(count, this.limit -
+					this.copy.size()));
+		}
+		this.copy.write(buffer, offset, copied);
+		this.truncatedCount += count - copied;
+	}
+
+	/**
+	 * Gets the copy of the bytes read.
+	 *
+	 * @return the copy
+	 */
+	ByteArrayOutputStream getCopy() {
+		return this.copy;
+	}
+
+	/**
+	 * Gets the number of bytes read past the limit, which are not in the
+	 * copy.
+	 *
+	 * @return the number of bytes not copied
+	 */
+	long getTruncatedCount() {
+		return this.truncatedCount;
+	}
+}
@@ -0,0 +1,484 @@
+/**************************************************************************
+ * copyright file="TracePipeline.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the TracePipeline class.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes trace messages to a trace listener on a background thread.
+ *
+ * A service whose trace listener is a pipeline hands its trace entries to
+ * the pipeline unformatted; the thread and time of an entry are recorded
+ * when it is traced, and the Trace element is built by the writer thread.
+ * Entries are kept in a bounded ring buffer that the tracing threads add
+ * to without locking. When the buffer is full, entries are dropped and
+ * counted instead of blocking the request that traces them.
+ *
+ * Each kind of entry can be sampled: with a rate of 0.1 for
+ * TraceFlags.EwsResponse, one response in ten is traced. The rate for
+ * TraceFlags.EwsResponse replaces the trace sampling rate of the services
+ * tracing to the pipeline, and is applied once per response, before the
+ * response is read.
+ *
+ * The target listener is called from the writer thread only. When it is
+ * Flushable, it is flushed each time the buffer is drained and when the
+ * pipeline is flushed; when it is Closeable, it is closed with the pipeline.
+ */
+public final class TracePipeline implements ITraceListener, Closeable {
+
+	/** The default number of entries the buffer holds. */
+	public static final int DefaultCapacity = 8192;
+
+	/** The time the writer thread waits for entries when idle. */
+	private static final long IdleWaitNanos = TimeUnit.MILLISECONDS
+	.toNanos(100);
+
+	/** The listener the entries are written to. */
+	private ITraceListener target;
+
+	/** The buffer slots. */
+	private AtomicReferenceArray<Entry> slots;
+
+	/** The mask of a position into the slots. */
+	private int mask;
+
+	/** The position of the next entry added. */
+	private AtomicLong tail = new AtomicLong();
+
+	/** The position of the next entry written. */
+	private AtomicLong head = new AtomicLong();
+
+	/** The position up to which the target listener was flushed. */
+	private volatile long flushedPosition;
+
+	/** The position up to which a flush was asked for. */
+	private AtomicLong flushRequest = new AtomicLong();
+
+	/** The sampling rates, by TraceFlags ordinal. */
+	private volatile double[] samplingRates;
+
+	/** The number of entries traced, by TraceFlags ordinal. */
+	private AtomicLongArray sampleCounts;
+
+	/** The number of entries dropped because the buffer was full. */
+	private AtomicLong droppedCount = new AtomicLong();
+
+	/** The number of entries written. */
+	private AtomicLong writtenCount = new AtomicLong();
+
+	/** The number of entries the target listener failed to write. */
+	private AtomicLong failedCount = new AtomicLong();
+
+	/** The writer thread. */
+	private Thread writer;
+
+	/** Whether the writer thread is waiting for entries. */
+	private volatile boolean writerWaiting;
+
+	/** Whether the pipeline is closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Initializes a new instance of the TracePipeline class with the default
+	 * capacity.
+	 *
+	 * @param target
+	 *            the listener the entries are written to
+	 */
+	public TracePipeline(ITraceListener target) {
+		this(target, DefaultCapacity);
+	}
+
+	/**
+	 * Initializes a new instance of the TracePipeline class.
+	 *
+	 * @param target
+	 *            the listener the entries are written to
+	 * @param capacity
+	 *            the number of entries the buffer holds, rounded up to a
+	 *            power of two
+	 */
+	public TracePipeline(ITraceListener target, int capacity) {
+		if (target == null) {
+			throw new IllegalArgumentException("target");
+		}
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException(
+					"capacity must be between 1 and 2^30.");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.target = target;
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		double[] rates = new double[TraceFlags.values().length];
+		for (int i = 0; i < rates.length; i++) {
+			rates[i] = 1.0;
+		}
+		this.samplingRates = rates;
+		this.sampleCounts = new AtomicLongArray(rates.length);
+
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				writeEntries();
+			}
+		}, "EWS trace writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Adds a formatted trace message. Messages added this way are not
+	 * sampled.
+	 *
+	 * @param traceType
+	 *            the trace type
+	 * @param traceMessage
+	 *            the trace message
+	 */
+	public void trace(String traceType, String traceMessage) {
+		this.offer(new Entry(null, traceType, traceMessage, 0, 0, true));
+	}
+
+	/**
+	 * Adds a trace entry to be formatted by the writer thread. Callers check
+	 * that the entry is sampled first.
+	 *
+	 * @param traceType
+	 *            the kind of entry
+	 * @param logEntry
+	 *            the entry
+	 * @return true if the entry was added, false if it was dropped
+	 */
+	boolean offer(TraceFlags traceType, String logEntry) {
+		return this.offer(new Entry(traceType, traceType.toString(), logEntry,
+				Thread.currentThread().getId(), System.currentTimeMillis(),
+				false));
+	}
+
+	/**
+	 * Adds an XML trace entry to be decoded and formatted by the writer
+	 * thread. Callers check that the entry is sampled first.
+	 *
+	 * @param traceType
+	 *            the kind of entry
+	 * @param xml
+	 *            the XML, which is not modified afterwards
+	 * @return true if the entry was added, false if it was dropped
+	 */
+	boolean offer(TraceFlags traceType, byte[] xml) {
+		return this.offer(new Entry(traceType, traceType.toString(), xml,
+				Thread.currentThread().getId(), System.currentTimeMillis(),
+				false));
+	}
+
+	/**
+	 * Adds an entry to the buffer.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @return true if the entry was added, false if it was dropped
+	 */
+	private boolean offer(Entry entry) {
+		if (this.closed) {
+			this.droppedCount.incrementAndGet();
+			return false;
+		}
+		long position;
+		do {
+			position = this.tail.get();
+			if (position - this.head.get() > this.mask) {
+				this.droppedCount.incrementAndGet();
+				return false;
+			}
+		} while (!this.tail.compareAndSet(position, position + 1));
+		this.slots.set((int)position & this.mask, entry);
+		if (this.writerWaiting) {
+			LockSupport.unpark(this.writer);
+		}
+		return true;
+	}
+
+	/**
+	 * Decides whether an entry of a kind is traced. The count of entries of
+	 * the kind is spread evenly over the sampling rate, so that a rate of
+	 * 0.25 traces every fourth entry.
+	 *
+	 * @param traceType
+	 *            the kind of entry
+	 * @return true if the entry is traced
+	 */
+	boolean isSampled(TraceFlags traceType) {
+		double rate = this.samplingRates[traceType.ordinal()];
+		if (rate >= 1) {
+			return true;
+		} else if (rate <= 0) {
+			return false;
+		}
+		long count = this.sampleCounts.getAndIncrement(traceType.ordinal());
+		return (long)((count + 1) * rate) != (long)(count * rate);
+	}
+
+	/**
+	 * Gets the fraction of the entries of a kind that are traced.
+	 *
+	 * @param traceType
+	 *            the kind of entry
+	 * @return the sampling rate, between 0 and 1
+	 */
+	public double getSamplingRate(TraceFlags traceType) {
+		return this.samplingRates[traceType.ordinal()];
+	}
+
+	/**
+	 * Sets the fraction of the entries of a kind that are traced. Defaults
+	 * to 1, every entry.
+	 *
+	 * @param traceType
+	 *            the kind of entry
+	 * @param samplingRate
+	 *            the sampling rate, between 0 and 1
+	 */
+	public synchronized void setSamplingRate(TraceFlags traceType,
+			double samplingRate) {
+		if (!(samplingRate >= 0 && samplingRate <= 1)) {
+			throw new IllegalArgumentException(
+					"samplingRate must be between 0 and 1.");
+		}
+		double[] rates = this.samplingRates.clone();
+		rates[traceType.ordinal()] = samplingRate;
+		this.samplingRates = rates;
+	}
+
+	/**
+	 * Writes the entries of the buffer until the pipeline is closed and the
+	 * buffer is drained.
+	 */
+	private void writeEntries() {
+		while (true) {
+			long position = this.head.get();
+			Entry entry = this.slots.get((int)position & this.mask);
+			if (entry != null) {
+				this.write(entry);
+				this.slots.set((int)position & this.mask, null);
+				this.head.set(position + 1);
+				long requested = this.flushRequest.get();
+				if (requested > this.flushedPosition &&
+						requested <= position + 1) {
+					this.flushTarget(position + 1);
+				}
+			} else if (position != this.tail.get()) {
+				// An entry was claimed but is not stored yet.
+				Thread.yield();
+			} else {
+				this.flushTarget(position);
+				if (this.closed) {
+					return;
+				}
+				this.writerWaiting = true;
+				if (this.head.get() == this.tail.get() && !this.closed) {
+					LockSupport.parkNanos(this, IdleWaitNanos);
+				}
+				this.writerWaiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Formats an entry and writes it to the target listener.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	private void write(Entry entry) {
+		try {
+			this.target.trace(entry.traceType, entry.format());
+			this.writtenCount.incrementAndGet();
+		} catch (RuntimeException e) {
+			this.failedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Flushes the target listener, if it is Flushable.
+	 *
+	 * @param position
+	 *            the position of the next entry to write
+	 */
+	private void flushTarget(long position) {
+		if (this.target instanceof Flushable) {
+			try {
+				((Flushable)this.target).flush();
+			} catch (IOException e) {
+				this.failedCount.incrementAndGet();
+			}
+		}
+		this.flushedPosition = position;
+	}
+
+	/**
+	 * Waits until the entries added so far are written and the target
+	 * listener is flushed.
+	 *
+	 * @param timeout
+	 *            the maximum time to wait, in milliseconds
+	 * @return true if the entries were written, false if the time elapsed
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	public boolean flush(long timeout) throws InterruptedException {
+		long position = this.tail.get();
+		long deadline = System.currentTimeMillis() + timeout;
+		long requested;
+		do {
+			requested = this.flushRequest.get();
+		} while (requested < position &&
+				!this.flushRequest.compareAndSet(requested, position));
+		while (this.flushedPosition < position) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			} else if (!this.writer.isAlive()) {
+				return false;
+			}
+			LockSupport.unpark(this.writer);
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting entries, writes the entries in the buffer and closes
+	 * the target listener, if it is Closeable.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.target instanceof Closeable) {
+			((Closeable)this.target).close();
+		}
+	}
+
+	/**
+	 * Gets the number of entries dropped because the buffer was full or the
+	 * pipeline closed.
+	 *
+	 * @return the number of entries dropped
+	 */
+	public long getDroppedCount() {
+		return this.droppedCount.get();
+	}
+
+	/**
+	 * Gets the number of entries written to the target listener.
+	 *
+	 * @return the number of entries written
+	 */
+	public long getWrittenCount() {
+		return this.writtenCount.get();
+	}
+
+	/**
+	 * Gets the number of entries the target listener failed to write or
+	 * flush.
+	 *
+	 * @return the number of failures
+	 */
+	public long getFailedCount() {
+		return this.failedCount.get();
+	}
+
+	/**
+	 * Gets the number of entries waiting to be written.
+	 *
+	 * @return the number of entries
+	 */
+	public int getPendingCount() {
+		return (int)Math.max(0, this.tail.get() - this.head.get());
+	}
+
+	/**
+	 * A trace entry, formatted when it is written.
+	 */
+	private static final class Entry {
+
+		/** The kind of entry, null for a formatted message. */
+		private TraceFlags kind;
+
+		/** The trace type. */
+		private String traceType;
+
+		/** The entry, a String or the bytes of an XML document. */
+		private Object content;
+
+		/** The id of the thread that traced the entry. */
+		private long threadId;
+
+		/** The time the entry was traced. */
+		private long time;
+
+		/** Whether the entry is already formatted. */
+		private boolean formatted;
+
+		/**
+		 * Initializes a new instance of the Entry class.
+		 *
+		 * @param kind
+		 *            the kind of entry
+		 * @param traceType
+		 *            the trace type
+		 * @param content
+		 *            the entry
+		 * @param threadId
+		 *            the id of the thread that traced the entry
+		 * @param time
+		 *            the time the entry was traced
+		 * @param formatted
+		 *            whether the entry is already formatted
+		 */
+		Entry(TraceFlags kind, String traceType, Object content,
+				long threadId, long time, boolean formatted) {
+			this.kind = kind;
+			this.traceType = traceType;
+			this.content = content;
+			this.threadId = threadId;
+			this.time = time;
+			this.formatted = formatted;
+		}
+
+		/**
+		 * Formats the entry.
+		 *
+		 * @return the trace message
+		 */
+		String format() {
+			if (this.formatted) {
+				return (String)this.content;
+			}
+			String logEntry = this.content instanceof byte[] ?
+					new String((byte[])this.content) : (String)this.content;
+			return EwsUtilities.formatLogMessage(this.kind.toString(),
+					logEntry, this.threadId, this.time);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+/**************************************************************************
+ * copyright file="UrlConnectionWebRequest.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the UrlConnectionWebRequest.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.TrustManager;
+
+/**
+ * UrlConnectionWebRequest is used for making requests to the server through
+ * the HttpURLConnection stack of the JDK.
+ */
+class UrlConnectionWebRequest extends HttpWebRequest {
+
+	/** The size of the chunks the request body is streamed in. */
+	private static final int ChunkSize = 8192;
+
+	/** The factory that created the request. */
+	private UrlConnectionWebRequestFactory factory;
+
+	/** The connection. */
+	private HttpURLConnection connection;
+
+	/** The request headers. */
+	private Map<String, String> requestHeaders =
+		new HashMap<String, String>();
+
+	/** The response stream, once opened. */
+	private InputStream responseStream;
+
+	/** The TrustManager. */
+	private TrustManager trustManager;
+
+	/**
+	 * Instantiates a new url connection web request.
+	 *
+	 * @param factory
+	 *            the factory that created the request
+	 */
+	UrlConnectionWebRequest(UrlConnectionWebRequestFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Releases the connection. A response read to the end leaves the
+	 * connection in the JDK cache for reuse.
+	 */
+	@Override
+	public void close() {
+		if (this.responseStream != null) {
+			try {
+				this.responseStream.close();
+			} catch (IOException e) {
+				this.connection.disconnect();
+			}
+			this.responseStream = null;
+		}
+		this.connection = null;
+	}
+
+	/**
+	 * Prepares the connection for a POST request.
+	 *
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public void prepareConnection() throws EWSHttpException {
+		this.openConnection("POST");
+		this.connection.setDoOutput(true);
+		this.connection.setChunkedStreamingMode(ChunkSize);
+		this.setRequestHeader("Content-type", getContentType());
+		this.setRequestHeader("User-Agent", getUserAgent());
+		this.setRequestHeader("Accept", getAccept());
+		this.setRequestHeader("Keep-Alive", "300");
+		this.setRequestHeader("Connection", "Keep-Alive");
+		if (isAcceptGzipEncoding()) {
+			this.setRequestHeader("Accept-Encoding", "gzip,deflate");
+		}
+		if (getHeaders() != null) {
+			for (Map.Entry<String, String> httpHeader : getHeaders()
+					.entrySet()) {
+				this.setRequestHeader(httpHeader.getKey(), httpHeader
+						.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Prepares the connection for a GET request and sends it.
+	 *
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public void prepareAsyncConnection() throws EWSHttpException {
+		this.openConnection("GET");
+		try {
+			this.connection.getResponseCode();
+		} catch (IOException e) {
+			this.connection = null;
+			throw new EWSHttpException("Unable to open connection to "
+					+ this.getUrl());
+		}
+	}
+
+	/**
+	 * Opens the connection and applies the settings of the request.
+	 *
+	 * @param method
+	 *            the request method
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	private void openConnection(String method) throws EWSHttpException {
+		try {
+			WebProxy webProxy = getProxy();
+			if (webProxy != null) {
+				this.connection = (HttpURLConnection)getUrl().openConnection(
+						new Proxy(Proxy.Type.HTTP, new InetSocketAddress(
+								webProxy.getHost(), webProxy.getPort())));
+			} else {
+				this.connection = (HttpURLConnection)getUrl().openConnection();
+			}
+			this.connection.setRequestMethod(method);
+		} catch (IOException e) {
+			throw new EWSHttpException("Unable to open connection to "
+					+ this.getUrl(), e);
+		}
+		if (this.connection instanceof HttpsURLConnection &&
+				this.trustManager != null) {
+			((HttpsURLConnection)this.connection).setSSLSocketFactory(
+					this.factory.getSocketFactory(this.trustManager));
+		}
+		this.connection.setConnectTimeout(getTimeout());
+		this.connection.setReadTimeout(getTimeout());
+		this.connection.setInstanceFollowRedirects(isAllowAutoRedirect());
+		this.connection.setUseCaches(false);
+		this.requestHeaders.clear();
+
+		if (!isUseDefaultCredentials() && getUserName() != null) {
+			String user = isNullOrEmpty(getDomain()) ? getUserName() :
+				getDomain() + "\\" + getUserName();
+			this.setRequestHeader("Authorization", "Basic " +
+					basicCredentials(user, getPassword()));
+		}
+		if (getProxy() != null && HttpProxyCredentials.isProxySet()) {
+			String user = isNullOrEmpty(HttpProxyCredentials.getDomain()) ?
+					HttpProxyCredentials.getUserName() :
+						HttpProxyCredentials.getDomain() + "\\" +
+						HttpProxyCredentials.getUserName();
+			this.setRequestHeader("Proxy-Authorization", "Basic " +
+					basicCredentials(user, HttpProxyCredentials.getPassword()));
+		}
+	}
+
+	/**
+	 * Sets a request header.
+	 *
+	 * @param name
+	 *            the name
+	 * @param value
+	 *            the value
+	 */
+	private void setRequestHeader(String name, String value) {
+		this.connection.setRequestProperty(name, value);
+		this.requestHeaders.put(name, value);
+	}
+
+	/**
+	 * Encodes Basic credentials.
+	 *
+	 * @param user
+	 *            the user name
+	 * @param password
+	 *            the password
+	 * @return the encoded credentials
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	private static String basicCredentials(String user, String password)
+			throws EWSHttpException {
+		byte[] bytes;
+		try {
+			bytes = (user + ":" + (password == null ? "" : password))
+			.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new EWSHttpException(e);
+		}
+		char[] chars = new char[(bytes.length + 2) / 3 * 4];
+		return new String(chars, 0, Base64EncoderStream.encode(bytes, 0,
+				bytes.length, chars));
+	}
+
+	/**
+	 * Checks whether a string is null or empty.
+	 *
+	 * @param value
+	 *            the value
+	 * @return true if null or empty
+	 */
+	private static boolean isNullOrEmpty(String value) {
+		return value == null || value.length() == 0;
+	}
+
+	/**
+	 * Gets the input stream.
+	 *
+	 * @return the input stream
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public InputStream getInputStream() throws EWSHttpException, IOException {
+		throwIfConnIsNull();
+		if (this.connection.getResponseCode() >= 400) {
+			return this.getErrorStream();
+		}
+		this.responseStream = new BufferedInputStream(this.connection
+				.getInputStream());
+		return this.responseStream;
+	}
+
+	/**
+	 * Gets the error stream.
+	 *
+	 * @return the error stream
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public InputStream getErrorStream() throws EWSHttpException {
+		throwIfConnIsNull();
+		InputStream stream = this.connection.getErrorStream();
+		if (stream == null) {
+			try {
+				stream = this.connection.getInputStream();
+			} catch (IOException e) {
+				throw new EWSHttpException("Connection Error " + e);
+			}
+		}
+		this.responseStream = new BufferedInputStream(stream);
+		return this.responseStream;
+	}
+
+	/**
+	 * Gets the output stream. The body is sent as it is written.
+	 *
+	 * @return the output stream
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public OutputStream getOutputStream() throws EWSHttpException {
+		throwIfConnIsNull();
+		try {
+			return this.connection.getOutputStream();
+		} catch (IOException e) {
+			throw new EWSHttpException("Connection Error " + e);
+		}
+	}
+
+	/**
+	 * Gets the response headers.
+	 *
+	 * @return the response headers
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public Map<String, String> getResponseHeaders() throws EWSHttpException {
+		throwIfConnIsNull();
+		Map<String, String> map = new HashMap<String, String>();
+		for (Map.Entry<String, List<String>> header : this.connection
+				.getHeaderFields().entrySet()) {
+			// The status line has no name.
+			if (header.getKey() != null && !header.getValue().isEmpty()) {
+				map.put(header.getKey(), header.getValue().get(
+						header.getValue().size() - 1));
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Gets the value of a response header.
+	 *
+	 * @param headerName
+	 *            the header name
+	 * @return the value, or null
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public String getResponseHeaderField(String headerName)
+			throws EWSHttpException {
+		throwIfConnIsNull();
+		return this.connection.getHeaderField(headerName);
+	}
+
+	/**
+	 * Gets the content encoding.
+	 *
+	 * @return the content encoding
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public String getContentEncoding() throws EWSHttpException {
+		throwIfConnIsNull();
+		return this.connection.getContentEncoding();
+	}
+
+	/**
+	 * Gets the response content type.
+	 *
+	 * @return the response content type
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public String getResponseContentType() throws EWSHttpException {
+		throwIfConnIsNull();
+		return this.connection.getContentType();
+	}
+
+	/**
+	 * Completes the request and reads the response status.
+	 *
+	 * @return the response code
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 * @throws IOException
+	 *             the IO Exception
+	 */
+	@Override
+	public int executeRequest() throws EWSHttpException, IOException {
+		throwIfConnIsNull();
+		return this.connection.getResponseCode();
+	}
+
+	/**
+	 * Gets the response code.
+	 *
+	 * @return the response code
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public int getResponseCode() throws EWSHttpException {
+		throwIfConnIsNull();
+		try {
+			return this.connection.getResponseCode();
+		} catch (IOException e) {
+			throw new EWSHttpException("Connection Error " + e);
+		}
+	}
+
+	/**
+	 * Gets the response message.
+	 *
+	 * @return the response message
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public String getResponseText() throws EWSHttpException {
+		throwIfConnIsNull();
+		try {
+			return this.connection.getResponseMessage();
+		} catch (IOException e) {
+			throw new EWSHttpException("Connection Error " + e);
+		}
+	}
+
+	/**
+	 * Throw if conn is null.
+	 *
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	private void throwIfConnIsNull() throws EWSHttpException {
+		if (null == this.connection) {
+			throw new EWSHttpException("Connection not established");
+		}
+	}
+
+	/**
+	 * Gets the request properties.
+	 *
+	 * @return the request properties
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public Map<String, String> getRequestProperty() throws EWSHttpException {
+		throwIfConnIsNull();
+		return new HashMap<String, String>(this.requestHeaders);
+	}
+
+	/**
+	 * Sets the Client Certificates.
+	 *
+	 * @param certs
+	 *            the Trust Manager
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	@Override
+	public void setClientCertificates(TrustManager certs)
+			throws EWSHttpException {
+		this.trustManager = certs;
+	}
+}
@@ -0,0 +1,70 @@
+/**************************************************************************
+ * copyright file="UrlConnectionWebRequestFactory.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ *
+ * Defines the UrlConnectionWebRequestFactory.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Creates requests carried by the HttpURLConnection stack of the JDK.
+ *
+ * Connections are kept alive and reused through the JDK connection cache,
+ * whose size per host is set by the http.maxConnections system property.
+ * Request bodies are streamed to the connection in chunks as they are
+ * serialized instead of being buffered first. Only Basic authentication is
+ * sent by the requests themselves; NTLM requires the HttpClient factory or
+ * a java.net.Authenticator installed by the application.
+ */
+public final class UrlConnectionWebRequestFactory implements
+		IHttpWebRequestFactory {
+
+	/** The trust manager of the cached socket factory. */
+	private TrustManager trustManager;
+
+	/** The socket factory for the trust manager. */
+	private SSLSocketFactory socketFactory;
+
+	/**
+	 * Creates a new request.
+	 *
+	 * @param service
+	 *            the service issuing the request
+	 * @return the request
+	 */
+	public HttpWebRequest createHttpWebRequest(ExchangeServiceBase service) {
+		return new UrlConnectionWebRequest(this);
+	}
+
+	/**
+	 * Gets the SSL socket factory trusting the certificates accepted by a
+	 * trust manager. The factory is kept while the trust manager doesn't
+	 * change, so that connections made with it can be reused.
+	 *
+	 * @param trustManager
+	 *            the trust manager
+	 * @return the socket factory
+	 * @throws EWSHttpException
+	 *             the eWS http exception
+	 */
+	synchronized SSLSocketFactory getSocketFactory(TrustManager trustManager)
+			throws EWSHttpException {
+		if (this.socketFactory == null || trustManager != this.trustManager) {
+			try {
+				SSLContext context = SSLContext.getInstance("TLS");
+				context.init(null, new TrustManager[] {
+						new EwsX509TrustManager(null, trustManager) }, null);
+				this.socketFactory = context.getSocketFactory();
+				this.trustManager = trustManager;
+			} catch (Exception e) {
+				throw new EWSHttpException("Unable to create the SSL context.",
+						e);
+			}
+		}
+		return this.socketFactory;
+	}
+}
@@ -904,6 +904,19 @@ class XmlElementNames {
 	/** The Constant Notifications. */
 	public static final String Notifications = "Notifications";
 
+	/** The Constant SendNotification. */
+	public static final String SendNotification = "SendNotification";
+
+	/** The Constant SendNotificationResponseMessage. */
+	public static final String SendNotificationResponseMessage = 
+		"SendNotificationResponseMessage";
+
+	/** The Constant SendNotificationResult. */
+	public static final String SendNotificationResult = "SendNotificationResult";
+
+	/** The Constant SubscriptionStatus. */
+	public static final String SubscriptionStatus = "SubscriptionStatus";
+
 	/** The Constant PreviousWatermark. */
 	public static final String PreviousWatermark = "PreviousWatermark";
 
@@ -0,0 +1,25 @@
+/**************************************************************************
+ * copyright file="XmlReaderType.java" company="Microsoft"
+ *     Copyright (c) Microsoft Corporation.  All rights reserved.
+ * 
+ * Defines the XmlReaderType.java.
+ **************************************************************************/
+package microsoft.exchange.webservices.data;
+
+/***
+ * Defines the StAX API used to parse responses.
+ * 
+ */
+public enum XmlReaderType {
+	/*
+	 * Parse with an XMLEventReader, allocating an event object per node.
+	 */
+	/** The Event reader. */
+	EventReader,
+	/*
+	 * Parse with an XMLStreamReader cursor, without per node allocations.
+	 */
+	/** The Stream reader. */
+	StreamReader
+
+}